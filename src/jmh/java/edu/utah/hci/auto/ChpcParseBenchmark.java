@@ -0,0 +1,77 @@
+package edu.utah.hci.auto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Parsing the squeue and HCI find listings ChpcAutoAnalysis fetches each cycle, on generated output.
+ * The squeue has numberLines jobs over several partitions and users, the listing numberLines / 10 job dirs.*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChpcParseBenchmark {
+
+	public static final String LINK_DIR = "/home/tomatosrvs/AutoAnalysis/Jobs4CHPC/";
+
+	@Param({"100", "5000"})
+	public int numberLines;
+
+	String[] squeue;
+	ArrayList<String> listing;
+
+	@Setup(Level.Trial)
+	public void make() {
+		String[] partitions = {"hci-rw", "notchpeak", "kingspeak", "redwood"};
+		String[] users = {"hcipepip", "u0028003", "u1234567"};
+		String[] states = {"R", "PD", "CG"};
+		squeue = new String[numberLines + 1];
+		squeue[0] = "             JOBID PARTITION     NAME     USER ST       TIME  NODES NODELIST(REASON)";
+		for (int i=0; i< numberLines; i++) {
+			String time = i % 50 == 0 ? "1-02:03:04" : (i % 60)+":"+(i % 60 < 10 ? "0" : "")+(i % 60);
+			squeue[i+1] = String.format("%18d %9s %8s %8s %2s %10s %6d %s", 6485242 + i, partitions[i % partitions.length], "testjob.", users[i % users.length], states[i % states.length], time, 1, "rw"+(i % 200));
+		}
+
+		listing = new ArrayList<String>();
+		for (int j=0; j< numberLines / 10; j++) {
+			String job = LINK_DIR+"22597X"+j;
+			listing.add(job+"\t4096");
+			listing.add(job+"/RUNME\t180");
+			if (j % 3 == 0) listing.add(job+"/COMPLETE\t0");
+			listing.add(job+"/22597X"+j+"_R1.fastq.gz\t"+(2000000000L + j));
+			listing.add(job+"/22597X"+j+"_R2.fastq.gz\t"+(2000000000L + j));
+		}
+	}
+
+	@Benchmark
+	public int parseSqueue() {
+		HashMap<String, String> jobIdTime = new HashMap<String, String>();
+		HashMap<String, Integer> stateCounts = new HashMap<String, Integer>();
+		return ChpcAutoAnalysis.parseSqueue(squeue, "hci-rw", "hcipepip", jobIdTime, stateCounts) + jobIdTime.size();
+	}
+
+	@Benchmark
+	public int parseHciListing() {
+		HashSet<String> complete = new HashSet<String>();
+		ArrayList<String> runme = new ArrayList<String>();
+		HashMap<String, Long> sizes = new HashMap<String, Long>();
+		ChpcAutoAnalysis.parseHciListing(listing, LINK_DIR, complete, runme, sizes);
+		return complete.size() + runme.size() + sizes.size();
+	}
+}
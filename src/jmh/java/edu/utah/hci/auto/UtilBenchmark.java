@@ -0,0 +1,153 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**The Util file primitives the daemons call each cycle, on a synthetic job staging dir shaped like a CHPC job directory.
+ * Each job dir has a RUNME, paired fastqs, and Logs and RunScripts dirs of small files. Run via the pom's jmh profile.*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Tree {
+		@Param({"24", "200"})
+		public int numberJobs;
+
+		File root;
+		File jobs;
+		File oneJob;
+		File runme;
+		File config;
+		File source;
+		File copy;
+
+		@Setup(Level.Trial)
+		public void make() throws Exception {
+			root = Files.createTempDirectory("utilBenchmark").toFile();
+			jobs = new File(root, "Jobs");
+			makeJobs(jobs, numberJobs);
+			oneJob = new File(jobs, "22597X0");
+			runme = new File(oneJob, "RUNME");
+
+			//a config sized like autoAnalysis.config.txt, comments and key values
+			StringBuilder sb = new StringBuilder();
+			for (int i=0; i< 100; i++) sb.append("# comment line "+i+" describing the next key\nkey"+i+"\t/some/path/to/value/"+i+"\n");
+			config = new File(root, "autoAnalysis.config.txt");
+			Util.writeString(sb.toString(), config);
+
+			//copies are 1MB, e.g. a workflow doc or a small bam index
+			byte[] bytes = new byte[1024 * 1024];
+			for (int i=0; i< bytes.length; i++) bytes[i] = (byte)i;
+			source = new File(root, "source.bin");
+			Files.write(source.toPath(), bytes);
+			copy = new File(root, "copy.bin");
+		}
+
+		@TearDown(Level.Trial)
+		public void delete() {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	/**A fresh small job tree for each delete.*/
+	@State(Scope.Thread)
+	public static class Doomed {
+		File root;
+
+		@Setup(Level.Invocation)
+		public void make() throws Exception {
+			root = Files.createTempDirectory("utilBenchmarkDelete").toFile();
+			makeJobs(root, 4);
+		}
+
+		@TearDown(Level.Invocation)
+		public void delete() {
+			if (root.exists()) Util.deleteDirectory(root);
+		}
+	}
+
+	static void makeJobs(File dir, int numberJobs) throws Exception {
+		StringBuilder log = new StringBuilder();
+		for (int i=0; i< 50; i++) log.append("rule align: sample completed step "+i+"\n");
+		String logTxt = log.toString();
+		for (int j=0; j< numberJobs; j++) {
+			File job = new File(dir, "22597X"+j);
+			File logs = new File(job, "Logs");
+			File scripts = new File(job, "RunScripts");
+			logs.mkdirs();
+			scripts.mkdirs();
+			Util.writeString("requestId\t22597R\nworkflowPaths\t/uufs/chpc.utah.edu/common/HIPAA/hci-bioinformatics1/Workflows/RNASeq/\n", new File(job, "RUNME"));
+			Util.writeString("", new File(job, "22597X"+j+"_R1.fastq.gz"));
+			Util.writeString("", new File(job, "22597X"+j+"_R2.fastq.gz"));
+			Util.writeString("", new File(job, "slurm-64853"+j+".out"));
+			for (int i=0; i< 20; i++) Util.writeString(logTxt, new File(logs, "rule"+i+".log"));
+			for (int i=0; i< 5; i++) Util.writeString("#!/bin/bash\n", new File(scripts, "script"+i+".sh"));
+		}
+	}
+
+	@Benchmark
+	public File[] extractFilesByExtension(Tree t) {
+		return Util.extractFiles(t.oneJob, ".gz");
+	}
+
+	@Benchmark
+	public File[] extractFiles(Tree t) {
+		return Util.extractFiles(t.jobs);
+	}
+
+	@Benchmark
+	public File[] fetchFilesRecursively(Tree t) {
+		return Util.fetchFilesRecursively(t.jobs, ".log");
+	}
+
+	@Benchmark
+	public File[] extractOnlyDirectories(Tree t) {
+		return Util.extractOnlyDirectories(t.jobs);
+	}
+
+	@Benchmark
+	public HashMap<String, File> fetchNamesAndFiles(Tree t) {
+		return Util.fetchNamesAndFiles(t.oneJob);
+	}
+
+	@Benchmark
+	public HashMap<String, String> loadRunmeIntoHash(Tree t) {
+		return Util.loadFileIntoHash(t.runme, 0, 1);
+	}
+
+	@Benchmark
+	public HashMap<String, String> loadConfigIntoHash(Tree t) {
+		return Util.loadFileIntoHash(t.config, 0, 1);
+	}
+
+	@Benchmark
+	public boolean copyViaFileChannel(Tree t) {
+		return Util.copyViaFileChannel(t.source, t.copy);
+	}
+
+	@Benchmark
+	public ArrayList<String> deleteDirectory(Doomed d) {
+		return Util.deleteDirectory(d.root);
+	}
+}
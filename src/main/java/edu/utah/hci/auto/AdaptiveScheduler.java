@@ -0,0 +1,89 @@
+package edu.utah.hci.auto;
+
+import java.util.ArrayList;
+
+/**Runs a daemon's tasks on their own adaptive intervals instead of one fixed sleep between cycles.
+ * A task that reports something moved is run again after the minimum interval, an idle task backs off, doubling its interval up to the maximum.
+ * Tasks run one at a time on the calling thread, in order of when they are next due, so they can share the daemon's state.
+ * Any exception thrown by a task stops the scheduler and is passed to the caller.*/
+public class AdaptiveScheduler {
+
+	public static final double BACKOFF = 2.0;
+
+	/**One unit of daemon work.*/
+	public interface Task {
+		/**Returns true if something moved, e.g. a job changed state, was returned, or was launched, so it should run again soon.
+		 * Work that is merely pending, jobs sitting in the queue, should return false and let the task back off.*/
+		public boolean run() throws Exception;
+	}
+
+	//fields
+	private long minInterval;
+	private long maxInterval;
+	private String printPrepend;
+	private ArrayList<ScheduledTask> tasks = new ArrayList<ScheduledTask>();
+	private volatile boolean stopped = false;
+
+	/**@param minInterval milliseconds to wait when work is pending
+	 * @param maxInterval milliseconds to wait at most when idle*/
+	public AdaptiveScheduler (long minInterval, long maxInterval, String printPrepend) {
+		this.minInterval = minInterval;
+		this.maxInterval = Math.max(minInterval, maxInterval);
+		this.printPrepend = printPrepend == null ? "" : printPrepend;
+	}
+
+	/**Adds a task, it is first run as soon as the scheduler starts.*/
+	public void add(String name, Task task) {
+		tasks.add(new ScheduledTask(name, task));
+	}
+
+	/**Runs the tasks until stop() is called or one throws. afterEach, if not null, is run after every task, e.g. to email errors.*/
+	public void run(Task afterEach) throws Exception {
+		while (stopped == false && tasks.size() != 0) {
+			//next due, ties go to the first added
+			ScheduledTask next = tasks.get(0);
+			for (ScheduledTask st: tasks) if (st.nextRunTime < next.nextRunTime) next = st;
+			long wait = next.nextRunTime - System.currentTimeMillis();
+			if (wait > 0) {
+				Log.info(printPrepend+ "Sleeping "+formatMinutes(wait)+" min until "+next.name+"...");
+				Thread.sleep(wait);
+			}
+			if (stopped) return;
+
+			long start = System.nanoTime();
+			boolean busy = next.task.run();
+			Metrics.observeSince(Metrics.CYCLE_DURATION, start, "task", next.name);
+			next.interval = nextInterval(busy, next.interval);
+			next.nextRunTime = System.currentTimeMillis() + next.interval;
+			Log.info(printPrepend+ next.name+ (busy ? " made progress": " is idle")+ ", next in "+formatMinutes(next.interval)+" min");
+			if (afterEach != null) afterEach.run();
+		}
+	}
+
+	/**Minimum when busy, otherwise the current interval times the BACKOFF, capped at the maximum.*/
+	long nextInterval(boolean busy, long currentInterval) {
+		if (busy) return minInterval;
+		long backedOff = (long)Math.round(Math.max(minInterval, currentInterval) * BACKOFF);
+		return Math.min(maxInterval, backedOff);
+	}
+
+	public void stop() {
+		stopped = true;
+	}
+
+	private static String formatMinutes(long millis) {
+		return String.format("%.1f", millis / 60000.0);
+	}
+
+	private static class ScheduledTask {
+		private String name;
+		private Task task;
+		private long interval = 0;
+		private long nextRunTime = 0;
+
+		private ScheduledTask(String name, Task task) {
+			this.name = name;
+			this.task = task;
+		}
+	}
+}
@@ -3,11 +3,16 @@ package edu.utah.hci.auto;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,6 +40,11 @@ public class ChpcAutoAnalysis {
 	private String hciUserNameIp = null;
 	private boolean dryRun = false;
 	private File chpcTempDirectory = null;
+	private int deletionThreads = DirectoryDeleter.DEFAULT_THREADS;
+	private boolean verifyReturnedJobs = false;
+	private int md5Threads = Md5Verifier.DEFAULT_THREADS;
+	private boolean adaptiveScheduling = false;
+	private double minMinutesToWait = 5;
 	
 	//internal fields
 	private String slurmUserTruncated = null;
@@ -42,56 +52,79 @@ public class ChpcAutoAnalysis {
 	private int numberAvailableNodes = 30;
 	private File[] currentChpcJobDirs = null;
 	private HashMap<String, String> currentSlurmJobIdTime = new HashMap<String, String>();
+	private HashMap<String, String> priorJobDirStates = new HashMap<String, String>();
+	private boolean jobDirStatesChanged = false;
 	private int currentRunningHciSlurmJobs = 0;
 	private ArrayList<String> errorMessages = new ArrayList<String>();
 	private ArrayList<File> chpcJobDirsToReturn = new ArrayList<File>();
 	private ArrayList<String> hciJobDirsToCpToChpc = new ArrayList<String>();
-	private ArrayList<String[]> commandsToExecute = new ArrayList<String[]>();
+	private CommandLanes commandLanes = null;
+	private int controlThreads = 2;
+	private int submitThreads = 2;
+	private double stealTransferMB = 100;
+	private boolean virtualThreads = false;
+	private int metricsPort = 0;
+	private String lifecycleLogFile = null;
+	private double lifecycleLogMB = LifecycleLog.DEFAULT_MAX_BYTES / (1024.0 * 1024.0);
+	private String logFile = "none";
+	private Notifier notifier = null;
+	private String smtpHost = "localhost";
+	private int smtpPort = SmtpClient.DEFAULT_PORT;
+	private String emailFrom = "noreply_auto_analysis@hci.utah.edu";
+	private double alertRepeatHours = Notifier.DEFAULT_REPEAT_WINDOW / (60.0 * 60.0 * 1000.0);
+	private double alertDigestMinutes = Notifier.DEFAULT_DIGEST_INTERVAL / (60.0 * 1000.0);
+	private double logMB = Log.DEFAULT_MAX_BYTES / (1024.0 * 1024.0);
 	private int numberRetries = 2;
-	private CommandRunner[] commandRunners = null;
+	private double commandRetryMinutes = 5;
+	private int maxJobAttempts = JobFailures.DEFAULT_MAX_ATTEMPTS;
+	private JobFailures jobFailures = null;
+	private ExecutorService returnExecutor = Executors.newSingleThreadExecutor();
+	private HashSet<String> returningJobNames = new HashSet<String>();
+	private HashMap<String, Long> hciJobDirSizes = new HashMap<String, Long>();
 	private String printPrepend = null;
 	private Random random = new Random();
-	private double hoursPassed = 0;
-	private int jobsProcessed = 0;
+	private long lastAliveEmailTime = System.currentTimeMillis();
+	private AtomicInteger jobsProcessed = new AtomicInteger(0);
+	private DirectoryDeleter directoryDeleter = null;
+	private ReturnedJobVerifier returnedJobVerifier = null;
+	private static final String DELETING_PREFIX = ".deleting_";
 	
 	public ChpcAutoAnalysis (String[] args) {
 		try {
 
 			processArgs(args);
 
+			// Each task on its own interval?
+			if (adaptiveScheduling && waitTime != 0) {
+				runScheduler();
+				return;
+			}
+
 			while (true) {
-				Util.pl("\n########### "+ Util.getDateTime()+ " ###########");
-				errorMessages.clear();
+				Log.info("\n########### "+ Util.getDateTime()+ " ###########");
+				long cycleStart = System.nanoTime();
+				clearErrorMessages();
 				
-				// Check the running slurm jobs
-				checkSlurmQueue();
+				// Any problems with the prior cycle's background deletions?
+				addErrors(directoryDeleter.collectBackgroundErrors(false));
 				
-				// Check the status of job directories on CHPC
-				checkJobDirsOnChpc();
+				// Check the running slurm jobs and the status of job directories on CHPC
+				checkSlurmJobs();
 				
-				// Any completed jobs?
-				if (chpcJobDirsToReturn.size()!=0) {
-					// Delete the contents of the linked job dirs on HCI
-					deleteHCICompletedJobs();
-					// Copy back completed jobs from CHPC to HCI
-					copyBackCompletedJobs();
-				}
-				
-				// Check for new jobs at HCI
-				checkJobDirsOnHci();
-
-				// Copy over new jobs and submit them to the slurm cluster
-				if (hciJobDirsToCpToChpc.size() !=0) {
-					copyJobDirsOnHci2Chpc();
-					launchNewJobs();
-				}
+				// Copy any completed jobs back to HCI while checking for new jobs at HCI, copying them over and submitting them to the slurm cluster
+				returnAndLaunchConcurrently();
+				Metrics.observeSince(Metrics.CYCLE_DURATION, cycleStart, "task", "cycle");
 
 				// Email error messages? 
 				emailErrorMessages();
 
 				// Loop or exit?
-				if (waitTime == 0) return;
-				Util.pl(printPrepend+ "Sleeping "+hoursToWait+" hrs...");
+				if (waitTime == 0) {
+					waitForBackgroundDeletions();
+					fetchNotifier().shutdown(Notifier.SHUTDOWN_WAIT);
+					return;
+				}
+				Log.info(printPrepend+ "Sleeping "+hoursToWait+" hrs...");
 				Thread.sleep(waitTime);
 				
 				emailAlive();
@@ -99,69 +132,205 @@ public class ChpcAutoAnalysis {
 			}
 
 		} catch (Exception e) {
-			errorMessages.add("FATAL: ChpcAutoAnalysis terminated, daemon offline! Check CHPC log.");
+			addError("FATAL: ChpcAutoAnalysis terminated, daemon offline! Check CHPC log.");
 			emailErrorMessages();
-			e.printStackTrace();
+			Log.error("FATAL: ChpcAutoAnalysis terminated", e);
+			fetchNotifier().shutdown(Notifier.SHUTDOWN_WAIT);
 			System.exit(1);
 		}
 
 	}
 	
-	/*Sends an email that service is alive every 24hrs*/
+	/*Runs the slurm checks, returns, and HCI discovery each on their own adaptive interval, never returns unless an exception is thrown.*/
+	private void runScheduler() throws Exception {
+		long minInterval = (long)Math.round(minMinutesToWait * 60.0 * 1000.0);
+		final AdaptiveScheduler scheduler = new AdaptiveScheduler(minInterval, waitTime, printPrepend);
+		scheduler.add("Slurm checks", new AdaptiveScheduler.Task() {
+			public boolean run() throws Exception {
+				Log.info("\n########### "+ Util.getDateTime()+ " ###########");
+				return checkSlurmJobs();
+			}
+		});
+		scheduler.add("Returns", new AdaptiveScheduler.Task() {
+			public boolean run() throws Exception {
+				findCompletedChpcJobs();
+				return returnCompletedJobs();
+			}
+		});
+		scheduler.add("HCI discovery", new AdaptiveScheduler.Task() {
+			public boolean run() throws Exception {
+				return launchHciJobs();
+			}
+		});
+		scheduler.run(new AdaptiveScheduler.Task() {
+			public boolean run() throws Exception {
+				addErrors(directoryDeleter.collectBackgroundErrors(false));
+				emailErrorMessages();
+				clearErrorMessages();
+				emailAlive();
+				return false;
+			}
+		});
+	}
+	
+	/*Runs the return path on its own thread and the discovery and launch path on this one, then waits for both.
+	 * They share no lists, each builds its own CommandBatch, and the HCI listing skips the jobs being returned.*/
+	private void returnAndLaunchConcurrently() throws Exception {
+		returningJobNames = new HashSet<String>();
+		for (File job: chpcJobDirsToReturn) returningJobNames.add(job.getName());
+		Future<Boolean> returns = returnExecutor.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return returnCompletedJobs();
+			}
+		});
+		Exception launchException = null;
+		try {
+			launchHciJobs();
+		} catch (Exception e) {
+			launchException = e;
+		}
+		//always wait on the returns so nothing is left running
+		try {
+			returns.get();
+		} catch (ExecutionException e) {
+			if (launchException == null) {
+				if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+				throw e;
+			}
+			addError("ERROR: returning completed jobs "+e.getCause());
+		}
+		if (launchException != null) throw launchException;
+	}
+	
+	/*Checks the slurm queue and the status of each CHPC job dir. Returns true if a job dir appeared, went, or changed state since the last check,
+	 * jobs sitting in the queue for hours shouldn't keep this at the min interval.*/
+	private boolean checkSlurmJobs() throws Exception {
+		JfrEvents.CyclePhase phase = JfrEvents.beginPhase("chpc", "Slurm checks");
+		checkSlurmQueue();
+		checkJobDirsOnChpc();
+		return JfrEvents.commitPhase(phase, jobDirStatesChanged);
+	}
+	
+	/*Deletes the HCI contents of the completed jobs and copies back the CHPC versions. Returns true if any were returned.*/
+	private boolean returnCompletedJobs() throws Exception {
+		if (chpcJobDirsToReturn.size() == 0) return false;
+		JfrEvents.CyclePhase phase = JfrEvents.beginPhase("chpc", "Returns");
+		// Delete the contents of the linked job dirs on HCI
+		deleteHCICompletedJobs();
+		// Copy back completed jobs from CHPC to HCI
+		int returned = copyBackCompletedJobs();
+		return JfrEvents.commitPhase(phase, returned != 0);
+	}
+	
+	/*Looks for new jobs on HCI, copies them to CHPC and submits them. Returns true if any were launched.*/
+	private boolean launchHciJobs() throws Exception {
+		JfrEvents.CyclePhase phase = JfrEvents.beginPhase("chpc", "HCI discovery");
+		checkJobDirsOnHci();
+		if (hciJobDirsToCpToChpc.size() == 0) return JfrEvents.commitPhase(phase, false);
+		copyJobDirsOnHci2Chpc();
+		int launched = 0;
+		if (hciJobDirsToCpToChpc.size() != 0) launched = launchNewJobs();
+		return JfrEvents.commitPhase(phase, launched != 0);
+	}
+	
+	/*Just finds the CHPC job dirs with a COMPLETE, the full status checks are left to checkJobDirsOnChpc().*/
+	private void findCompletedChpcJobs() {
+		currentChpcJobDirs = Util.extractOnlyDirectories(chpcJobDirectory);
+		chpcJobDirsToReturn.clear();
+		if (currentChpcJobDirs == null) {
+			currentChpcJobDirs = new File[0];
+			return;
+		}
+		for (File jobDir: currentChpcJobDirs) {
+			if (new File(jobDir, "COMPLETE").exists() && JobFailures.isQuarantined(jobDir) == false) {
+				chpcJobDirsToReturn.add(jobDir);
+				Log.info("\tCOMPLETE ->\t"+jobDir);
+			}
+		}
+	}
+	
+	/*Blocks until the returned job dirs are deleted, emails any errors.*/
+	private void waitForBackgroundDeletions() {
+		if (directoryDeleter.getNumberBackgroundDeletions() != 0) Log.info(printPrepend+ "Waiting on background deletions...");
+		clearErrorMessages();
+		addErrors(directoryDeleter.collectBackgroundErrors(true));
+		directoryDeleter.shutdown();
+		returnExecutor.shutdown();
+		commandLanes.shutdown();
+		emailErrorMessages();
+	}
+	
+	/*Starts deleting any job dirs left over from a prior run that was stopped mid deletion.*/
+	private void deleteStaleJobDirs() {
+		File[] stale = Util.extractFilesPrefix(chpcJobDirectory, DELETING_PREFIX);
+		for (File f: stale) {
+			Log.info("Deleting stale job dir "+f);
+			directoryDeleter.deleteInBackground(f);
+		}
+	}
+	
+	/*Sends an email that service is alive every 24hrs of wall clock time*/
 	private void emailAlive() {
-		hoursPassed += hoursToWait;
-		if (hoursPassed >= 24) {
-			hoursPassed = 0;
-			Util.pl("Emailing admin that daemon is running...");
+		long now = System.currentTimeMillis();
+		if (now - lastAliveEmailTime >= 24L * 60 * 60 * 1000) {
+			lastAliveEmailTime = now;
+			Log.info("Emailing admin that daemon is running...");
 			String subject = "CHPC AutoAnalysis is alive "+Util.getDateTime();
-			String body = "\n"+jobsProcessed+" jobs processed in the last 24hrs\n";
-			Util.sendEmail(subject, adminEmail, body);
-			jobsProcessed = 0;
+			String body = "\n"+jobsProcessed.getAndSet(0)+" jobs processed in the last 24hrs\n";
+			fetchNotifier().send(adminEmail, subject, body);
+		}
+	}
+
+	/*Started on first use, so a fatal error before the config is loaded is still sent with the default mail settings.*/
+	private synchronized Notifier fetchNotifier() {
+		if (notifier == null) {
+			long repeat = (long)Math.round(alertRepeatHours * 60.0 * 60.0 * 1000.0);
+			long digest = (long)Math.round(alertDigestMinutes * 60.0 * 1000.0);
+			notifier = new Notifier(new SmtpClient(smtpHost, smtpPort), emailFrom, repeat, digest);
 		}
+		return notifier;
 	}
 
 	
 	
-	private void emailErrorMessages() {
+	private synchronized void addError(String error) {
+		errorMessages.add(error);
+	}
+	
+	private synchronized void addErrors(ArrayList<String> errors) {
+		errorMessages.addAll(errors);
+	}
+	
+	private synchronized void clearErrorMessages() {
+		errorMessages.clear();
+	}
+	
+	/*Queues each as an alert, repeats are dropped and the rest sent together in the next digest.*/
+	private synchronized void emailErrorMessages() {
 		if (errorMessages.size()==0) return;
-		Util.pl(printPrepend+ "Emailing error messages...");
-		String subject = "ChpcAutoAnalysis ERROR";
-		String body = Util.arrayListToString(errorMessages, "\n");
-		Util.sendEmail(subject, adminEmail, body);
+		Metrics.add(Metrics.ERRORS, errorMessages.size());
+		Log.info(printPrepend+ "Emailing error messages...");
+		for (String error: errorMessages) fetchNotifier().alert(adminEmail, "ChpcAutoAnalysis ERROR", error);
 	}
 
-	private void launchNewJobs() throws Exception {
-		Util.pl(printPrepend+ "Launching new jobs...");
+	/*Returns the number submitted to slurm.*/
+	private int launchNewJobs() throws Exception {
+		Log.info(printPrepend+ "Launching new jobs...");
 		
 		ArrayList<File> shToExecute = new ArrayList<File>();
 		
-		//copy in workflow docs using the path in the RUNME file
+		//copy in workflow docs using the path in the RUNME file, a job missing them is retried next cycle
 		for (String jobDirName: hciJobDirsToCpToChpc) {
 			File newJobDir = new File (chpcJobDirectory, jobDirName);
-			File runme = new File (newJobDir, "RUNME");
-			if (runme.exists() == false) throw new Exception("ERROR: failed to find "+runme);
-			HashMap<String, String> keyValues = Util.loadFileIntoHash(runme, 0, 1);
-			if (keyValues.containsKey("workflowPaths") == false) throw new Exception("ERROR: failed to find the 'workflowPaths' key in "+runme);
-			String[] paths = Util.COMMA_SPACE.split(keyValues.get("workflowPaths").trim());
-			ArrayList<File> toCopyIn = new ArrayList<File>();
-			for (String p: paths) {
-				File f = new File(p);
-				if (f.exists() == false) throw new Exception("ERROR: failed to find "+f+ " as specified in "+runme);
-				if (f.isFile()) toCopyIn.add(f);
-				else {
-					File[] toAdd = Util.extractFiles(f);
-					for (File ta: toAdd) toCopyIn.add(ta);
-				}
+			try {
+				shToExecute.add(copyInWorkflowDocs(newJobDir));
+			} catch (Exception e) {
+				failJob(newJobDir, "submit", e.getMessage(), true);
 			}
-			File[] toCopy = new File[toCopyIn.size()];
-			toCopyIn.toArray(toCopy);
-			if (toCopy.length == 0) throw new Exception("ERROR: failed to find any workflow doc files in "+runme);
-			File shellScript = Util.copyInWorkflowDocs(toCopy, newJobDir);
-			shToExecute.add(shellScript);
 		}
 		
 		//create the cmds to execute in a shell script
-		commandsToExecute.clear();
+		CommandBatch batch = new CommandBatch(commandLanes);
 		for (File shellScript: shToExecute) {
 			File newJobDir = shellScript.getParentFile();
 			StringBuilder sb = new StringBuilder();
@@ -174,101 +343,269 @@ public class ChpcAutoAnalysis {
 			// touch QUEUED, needed if there are too many jobs and this goes into the slurm queue
 			sb.append("touch QUEUED\n");
 			
-			commandsToExecute.add(new String[] {sb.toString()});
+			batch.add(CommandLanes.Lane.SUBMIT, new String[] {sb.toString()}, CommandLanes.UNKNOWN_SIZE, chpcTempDirectory);
 		}	
 		
 		//execute the cmds.
-		if (dryRun) for (String[] c: commandsToExecute) Util.pl("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
-		else if (executeCommands(chpcTempDirectory) == false) throw new Exception("ERROR: copying new jobs from HCI to CHPC, aborting.");
+		int submitted = 0;
+		if (dryRun) for (String[] c: batch.getCommands()) Log.info("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
+		else {
+			batch.execute();
+			CommandRunner[] runners = batch.getRunners();
+			if (JobFailures.allFailed(runners)) probeInfrastructure(new String[] {"sbatch", "--version"}, "submission of new jobs to slurm");
+			for (int i=0; i< runners.length; i++) {
+				File jobDir = shToExecute.get(i).getParentFile();
+				if (JobFailures.completed(runners[i]) == false) {
+					failJob(jobDir, "submit", "submitting to slurm", true);
+					continue;
+				}
+				jobFailures.succeeded(jobDir.getName());
+				LifecycleLog.event(LifecycleLog.SUBMITTED, fetchRequestId(jobDir), jobDir.getName());
+				submitted++;
+			}
+		}
+		return submitted;
+	}
+	
+	/*Copies the workflow docs named in the job's RUNME into it, returns the shell script to sbatch.*/
+	private File copyInWorkflowDocs(File newJobDir) throws Exception {
+		File runme = new File (newJobDir, "RUNME");
+		if (runme.exists() == false) throw new Exception("failed to find "+runme);
+		HashMap<String, String> keyValues = Util.loadFileIntoHash(runme, 0, 1);
+		if (keyValues.containsKey("workflowPaths") == false) throw new Exception("failed to find the 'workflowPaths' key in "+runme);
+		String[] paths = Util.COMMA_SPACE.split(keyValues.get("workflowPaths").trim());
+		ArrayList<File> toCopyIn = new ArrayList<File>();
+		for (String p: paths) {
+			File f = new File(p);
+			if (f.exists() == false) throw new Exception("failed to find "+f+ " as specified in "+runme);
+			if (f.isFile()) toCopyIn.add(f);
+			else {
+				File[] toAdd = Util.extractFiles(f);
+				for (File ta: toAdd) toCopyIn.add(ta);
+			}
+		}
+		File[] toCopy = new File[toCopyIn.size()];
+		toCopyIn.toArray(toCopy);
+		if (toCopy.length == 0) throw new Exception("failed to find any workflow doc files in "+runme);
+		return Util.copyInWorkflowDocs(toCopy, newJobDir);
+	}
+	
+	/*Records a job's failed transfer or submission. With removePartial the CHPC job dir is deleted so the job is copied over again next cycle,
+	 * otherwise, e.g. a failed return, it is left to be tried again. At the max attempts the job is quarantined.*/
+	private void failJob(File chpcJobDir, String step, String reason, boolean removePartial) {
+		int attempts = jobFailures.fail(chpcJobDir.getName());
+		Metrics.add(Metrics.JOB_FAILURES, 1, "step", step);
+		if (removePartial) addErrors(directoryDeleter.delete(chpcJobDir));
+		String error = null;
+		if (attempts >= jobFailures.getMaxAttempts()) {
+			error = "QUARANTINED ->\t"+chpcJobDir+" after "+attempts+" failed attempts, "+reason+", delete the "+(removePartial ? "dir" : JobFailures.QUARANTINED+" file")+" to retry";
+			try {
+				JobFailures.quarantine(chpcJobDir, reason);
+			} catch (IOException e) {
+				error = error+", "+e.getMessage();
+			}
+		}
+		else error = "ERROR: "+reason+" for "+chpcJobDir.getName()+", attempt "+attempts+" of "+jobFailures.getMaxAttempts()+", retrying next cycle";
+		addError(error);
+		Log.error("\t"+error);
 	}
 
 	private void copyJobDirsOnHci2Chpc() throws Exception {
-		Util.pl(printPrepend+ "Copying new jobs from HCI to CHPC...");
+		Log.info(printPrepend+ "Copying new jobs from HCI to CHPC...");
 		
 		//create the cmds
-		commandsToExecute.clear();
+		CommandBatch batch = new CommandBatch(commandLanes);
 		for (String jobDirName: hciJobDirsToCpToChpc) {
 			String[] cmd = {"rsync", "-rLt", "--size-only", hciUserNameIp+":"+hciLinkDirectory+jobDirName+"/",
 					chpcJobDirectory.getCanonicalPath()+ "/"+ jobDirName+"/"};
-			commandsToExecute.add(cmd);
+			Long size = hciJobDirSizes.get(jobDirName);
+			batch.add(CommandLanes.Lane.TRANSFER, cmd, size == null ? CommandLanes.UNKNOWN_SIZE : size, null);
 		}
 		//execute the cmds.
-		if (dryRun) for (String[] c: commandsToExecute) Util.pl("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
-		else if (executeCommands(null) == false) throw new Exception("ERROR: copying new jobs from HCI to CHPC, aborting.");
+		if (dryRun) for (String[] c: batch.getCommands()) Log.info("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
+		else {
+			long start = System.nanoTime();
+			batch.execute();
+			CommandRunner[] runners = batch.getRunners();
+			if (JobFailures.allFailed(runners)) probeInfrastructure(new String[] {"ssh", hciUserNameIp, "true"}, "copy of new jobs from HCI to CHPC");
+			recordTransfers("to_chpc", batch, start);
+			//a failed copy is removed and tried again next cycle, the rest go on to be submitted
+			ArrayList<String> copied = new ArrayList<String>();
+			for (int i=0; i< runners.length; i++) {
+				String jobDirName = hciJobDirsToCpToChpc.get(i);
+				File jobDir = new File(chpcJobDirectory, jobDirName);
+				if (JobFailures.completed(runners[i]) == false) {
+					failJob(jobDir, "to_chpc", "copying from HCI to CHPC", true);
+					continue;
+				}
+				copied.add(jobDirName);
+				LifecycleLog.event(LifecycleLog.TRANSFERRED, fetchRequestId(jobDir), jobDirName);
+			}
+			hciJobDirsToCpToChpc.clear();
+			hciJobDirsToCpToChpc.addAll(copied);
+		}
 	}
 
 	private void checkJobDirsOnHci() throws Exception {
-		Util.pl(printPrepend+ "Checking for new jobs on HCI...");
+		Log.info(printPrepend+ "Checking for new jobs on HCI...");
 		hciJobDirsToCpToChpc.clear();
-		commandsToExecute.clear();
-		String[] cmd = {"ssh", hciUserNameIp, "find", "-L", hciLinkDirectory+"*","-maxdepth","1", "||", "true"};
-		commandsToExecute.add(cmd);
+		hciJobDirSizes.clear();
+		//print each path with its size, links followed, the sizes are the transfer hints
+		String[] cmd = {"ssh", hciUserNameIp, "find", "-L", hciLinkDirectory+"*","-maxdepth","1", "-printf", "'%p\\t%s\\n'", "||", "true"};
+		CommandBatch batch = new CommandBatch(commandLanes);
+		batch.add(CommandLanes.Lane.CONTROL, cmd, CommandLanes.UNKNOWN_SIZE, null);
 
 		//execute the cmds.
-		if (dryRun) for (String[] c: commandsToExecute) {
-			Util.pl("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
+		if (dryRun) for (String[] c: batch.getCommands()) {
+			Log.info("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
 			return;
 		}
-		else if (executeCommands(null) == false) throw new Exception("ERROR: listing contents of the HCI job dir, aborting.");
+		else if (batch.execute() == false) throw new Exception("ERROR: listing contents of the HCI job dir, aborting.");
 
 		//parse the results
 		HashSet<String> complete = new HashSet<String>();
 		ArrayList<String> runme = new ArrayList<String>();
-
-		for (String l: commandRunners[0].getProcessOutput()) {
-			l=l.trim();
-			if (l.endsWith("COMPLETE")) complete.add(l);
-			else if (l.endsWith("RUNME")) runme.add(l);
-		}
+		parseHciListing(batch.getRunners()[0].getProcessOutput(), hciLinkDirectory, complete, runme, hciJobDirSizes);
 
 		//for each RUNME, see if there is a complete, if not then this is a new job ready to rsync to chpc
 		for (String path: runme) {
 			String comp = path.substring(0, path.length()-5)+"COMPLETE";
 			if (complete.contains(comp) == false) {
 				// at HCI : /home/tomatosrvs/NixAutoAlign/Test/AutoAlignJobs4CHPC/22597X4/RUNME
-				if (verbose) Util.pl("\tHCIJob\t"+path);
+				Log.debug("\tHCIJob\t", path);
 
 				// already present at CHPC?
 				String[] splitPath = Util.FORWARD_SLASH.split(path);
 				String jobDirName = splitPath[splitPath.length-2];
 
 				File chpcJobDir = new File(chpcJobDirectory, jobDirName);
-				if (chpcJobDir.exists()) {
-					if (verbose) Util.pl("\t\tAlready exists skipping "+jobDirName);
+				if (returningJobNames.contains(jobDirName) || chpcJobDir.exists()) {
+					Log.debug("\t\tAlready exists skipping ", jobDirName);
 				}
 				else {
-					if (verbose) Util.pl("\t\tNew Job for transfer to CHPC "+jobDirName);
+					Log.debug("\t\tNew Job for transfer to CHPC ", jobDirName);
 					hciJobDirsToCpToChpc.add(jobDirName);
+					LifecycleLog.event(LifecycleLog.DISCOVERED, null, jobDirName);
 				}
 			}
 		}
 	}
 
-	private void copyBackCompletedJobs() throws Exception {
-		Util.pl(printPrepend+ "Copying back completed jobs from CHPC to HCI...");
+	/*Returns the number returned and verified.*/
+	private int copyBackCompletedJobs() throws Exception {
+		Log.info(printPrepend+ "Copying back completed jobs from CHPC to HCI...");
+		
+		//checksum the jobs, this writes a manifest into each job dir that is copied back too, those that can't be hashed are left on CHPC
+		ArrayList<File> toReturn = new ArrayList<File>(chpcJobDirsToReturn);
+		if (returnedJobVerifier != null && dryRun == false) {
+			Log.info(printPrepend+ "Writing md5 manifests...");
+			ArrayList<String> hashErrors = new ArrayList<String>();
+			ArrayList<File> unhashed = returnedJobVerifier.writeManifests(toReturn, hashErrors);
+			addErrors(hashErrors);
+			//like a failed batch, every job failing is only fatal if the CHPC disk is the problem
+			if (unhashed.size() != 0 && unhashed.size() == toReturn.size()) {
+				File probe = new File(chpcTempDirectory, "tempFile_"+ random.nextInt(1000000) +".txt");
+				if (Util.writeString("probe\n", probe) == false || probe.delete() == false) throw new Exception("ERROR: failed to hash every completed job and to write to "+chpcTempDirectory+", aborting.");
+				Log.info("\tWriting to "+chpcTempDirectory+" works, failing the jobs one by one");
+			}
+			for (File job: unhashed) {
+				toReturn.remove(job);
+				failJob(job, "to_hci", "hashing on CHPC", false);
+			}
+		}
+		
+		//the slurm job's start and end from its status files, they are gone once the job dir is deleted
+		HashMap<String, String> requestIds = new HashMap<String, String>();
+		for (File job: toReturn) {
+			String requestId = fetchRequestId(job);
+			requestIds.put(job.getName(), requestId);
+			File started = new File(job, "STARTED");
+			if (started.exists()) LifecycleLog.event(LifecycleLog.STARTED, requestId, job.getName(), started.lastModified());
+			LifecycleLog.event(LifecycleLog.COMPLETED, requestId, job.getName(), new File(job, "COMPLETE").lastModified());
+		}
+		
 		//create the cmds
-		commandsToExecute.clear();
-		for (File job: chpcJobDirsToReturn) {
+		CommandBatch batch = new CommandBatch(commandLanes);
+		for (File job: toReturn) {
 			String[] cmd = {"rsync", "-rt", "--size-only", job.getCanonicalPath()+"/", hciUserNameIp+":"+hciLinkDirectory+job.getName()+"/"};
-			commandsToExecute.add(cmd);
+			batch.add(CommandLanes.Lane.TRANSFER, cmd, CommandLanes.directorySize(job), null);
 		}
 		//execute the cmds.
-		if (dryRun) for (String[] c: commandsToExecute) Util.pl("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
-		else if (executeCommands(null) == false) throw new Exception("ERROR: copying completed jobs from CHPC to HCI, aborting.");
+		long start = System.nanoTime();
+		if (dryRun) {
+			for (String[] c: batch.getCommands()) Log.info("\tDryRunExec\t"+Util.stringArrayToString(c, " "));
+			return 0;
+		}
 		else {
+			batch.execute();
+			CommandRunner[] runners = batch.getRunners();
+			if (JobFailures.allFailed(runners)) probeInfrastructure(new String[] {"ssh", hciUserNameIp, "true"}, "copy of completed jobs from CHPC to HCI");
+			recordTransfers("to_hci", batch, start);
+			//a failed copy is left on CHPC and returned again next cycle
+			ArrayList<File> returned = new ArrayList<File>();
+			ArrayList<File> failed = new ArrayList<File>();
+			for (int i=0; i< runners.length; i++) {
+				if (JobFailures.completed(runners[i])) returned.add(toReturn.get(i));
+				else failed.add(toReturn.get(i));
+			}
+			
+			//check the HCI copies against the manifests, those that fail are left on CHPC and returned again next cycle
+			ArrayList<File> toDelete = returned;
+			ArrayList<File> unverified = new ArrayList<File>();
+			if (returnedJobVerifier != null && returned.size() != 0) {
+				Log.info(printPrepend+ "Verifying md5s of the returned jobs on HCI...");
+				ArrayList<String> verifyErrors = new ArrayList<String>();
+				toDelete = returnedJobVerifier.verify(returned, verifyErrors);
+				addErrors(verifyErrors);
+				for (File job: returned) if (toDelete.contains(job) == false) unverified.add(job);
+			}
+			
+			//the HCI copies of both still have the COMPLETE they were rsynced with
+			ArrayList<File> partial = new ArrayList<File>(failed);
+			partial.addAll(unverified);
+			if (partial.size() != 0) removeHciCompleteFiles(partial);
+			for (File job: failed) failJob(job, "to_hci", "copying from CHPC to HCI", false);
+			for (File job: unverified) failJob(job, "to_hci", "verifying the copy on HCI", false);
+			
 			//delete jobs from CHPC so these aren't copied back again
-			Util.pl(printPrepend+ "Deleting completed jobs at CHPC...");
-			for (File job: chpcJobDirsToReturn) {
-				if (verbose) Util.pl("\t"+job);
-				Util.deleteDirectory(job);
+			Log.info(printPrepend+ "Deleting completed jobs at CHPC...");
+			for (File job: toDelete) {
+				Log.debug("\t", job);
+				jobFailures.succeeded(job.getName());
+				LifecycleLog.event(LifecycleLog.RETURNED, requestIds.get(job.getName()), job.getName());
+				//hide it from the job dir scans by renaming it, then delete in the background
+				File hidden = new File (chpcJobDirectory, DELETING_PREFIX+ job.getName()+ "_"+ random.nextInt(1000000));
+				if (job.renameTo(hidden)) directoryDeleter.deleteInBackground(hidden);
+				else addErrors(directoryDeleter.delete(job));
 			}
+			//record number of jobs completed
+			jobsProcessed.addAndGet(toDelete.size());
+			Metrics.add(Metrics.JOBS_PROCESSED, toDelete.size());
+			return toDelete.size();
 		}
-		//record number of jobs completed
-		jobsProcessed+= chpcJobDirsToReturn.size();
+	}
+	
+	/*Called when every job in a batch failed. If the probe, a quick CONTROL lane call to the same host or slurm, fails too the infrastructure is down
+	 * and this throws, stopping the daemon. Otherwise the jobs are failed one by one.*/
+	private void probeInfrastructure(String[] probe, String what) throws Exception {
+		CommandBatch batch = new CommandBatch(commandLanes);
+		batch.add(CommandLanes.Lane.CONTROL, probe, CommandLanes.UNKNOWN_SIZE, null);
+		if (batch.execute() == false) throw new Exception("ERROR: every "+what+" failed and so did '"+Util.stringArrayToString(probe, " ")+"', aborting.");
+		Log.info("\t'"+Util.stringArrayToString(probe, " ")+"' works, failing the jobs one by one");
+	}
+	
+	/*A failed rsync may have already copied the COMPLETE, remove it from the HCI copies so the GNomEx daemon doesn't take them as returned.*/
+	private void removeHciCompleteFiles(ArrayList<File> jobs) throws Exception {
+		ArrayList<String> cmd = new ArrayList<String>();
+		Collections.addAll(cmd, "ssh", hciUserNameIp, "rm", "-f");
+		for (File job: jobs) cmd.add(hciLinkDirectory+job.getName()+"/COMPLETE");
+		CommandBatch batch = new CommandBatch(commandLanes);
+		batch.add(CommandLanes.Lane.CONTROL, cmd.toArray(new String[cmd.size()]), CommandLanes.UNKNOWN_SIZE, null);
+		if (batch.execute() == false) addError("ERROR: failed to remove the COMPLETE file from the partial HCI copies of "+Log.join(jobs, ", "));
 	}
 	
 	private void deleteHCICompletedJobs() throws Exception {
-		Util.pl(printPrepend+ "Deleting the contents of the completed jobs on HCI...");
+		Log.info(printPrepend+ "Deleting the contents of the completed jobs on HCI...");
 		
 		// Must group these, the server can only take a dozen or so ssh calls in a minute before it starts to reject the calls and locks up for minutes.
 		// Use something like ->  cat delme.sh | ssh tomatosrvs@hci-bio4.hci.utah.edu /bin/bash
@@ -286,47 +623,41 @@ public class ChpcAutoAnalysis {
 		String[] cmd = {"cat", toDelete.getCanonicalPath(), "|", "ssh", hciUserNameIp, "/bin/bash"};
 
 		//Execute in a shell script, java process builder doesn't handles pipes! This is a bash cmd line thing!
-		CommandRunner runme = new CommandRunner(2, verbose, chpcTempDirectory, cmd);
-		if (runme.isFailed()) throw new Exception("ERROR: deleting contents of HCI jobs, aborting.");
+		CommandBatch batch = new CommandBatch(commandLanes);
+		batch.add(CommandLanes.Lane.CONTROL, cmd, CommandLanes.UNKNOWN_SIZE, chpcTempDirectory);
+		if (batch.execute() == false) throw new Exception("ERROR: deleting contents of HCI jobs, aborting.");
 		toDelete.delete();
 	}
 	
-	private boolean executeCommands(File tempShellScriptDir) {
-		int numThreads = maxProcessingThreads;
-		if (commandsToExecute.size() < numThreads) numThreads = commandsToExecute.size();
-		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-		commandRunners = new CommandRunner[numThreads];
-		for (int i=0; i< numThreads; i++) {
-			commandRunners[i] = new CommandRunner(i,numberRetries, this, verbose, tempShellScriptDir);
-			executor.execute(commandRunners[i]);
-		}
-		executor.shutdown();
-		while (!executor.isTerminated()) {}
-		
-		//check the runners for errors
-		boolean completedOK = true;
-		for (CommandRunner cr: commandRunners) {
-			if (cr.isFailed()) {
-				completedOK = false;
-				Util.pl(cr.getErrorMessage());
-			}
-		}
-		return completedOK;
-		
+	/*The requestId in the job's RUNME, null if it is missing, e.g. jobs built before it was added.*/
+	private static String fetchRequestId(File jobDir) {
+		File runme = new File(jobDir, "RUNME");
+		if (runme.exists() == false) return null;
+		return Util.loadFileIntoHash(runme, 0, 1).get("requestId");
 	}
-
-	public synchronized String[] getNextCommandToRun() {
-		if (commandsToExecute.size() == 0) return null;
-		String[] next = commandsToExecute.remove(0);
-		return next;
+	
+	/*Bytes, from the size hints, duration and throughput of a batch of rsyncs.*/
+	private static void recordTransfers(String direction, CommandBatch batch, long startNanos) {
+		double sec = (System.nanoTime() - startNanos) / 1000000000.0;
+		long bytes = batch.getTotalSizeHint();
+		Metrics.add(Metrics.TRANSFER_BYTES, bytes, "direction", direction);
+		Metrics.observe(Metrics.TRANSFER_DURATION, sec, "direction", direction);
+		if (sec > 0) Metrics.set(Metrics.TRANSFER_THROUGHPUT, bytes / sec, "direction", direction);
 	}
-
+	
 	private void checkJobDirsOnChpc() throws Exception {
-		Util.pl(printPrepend+ "Checking CHPC job directories for status messages...");
+		Log.info(printPrepend+ "Checking CHPC job directories for status messages...");
 		currentChpcJobDirs = Util.extractOnlyDirectories(chpcJobDirectory);
 		chpcJobDirsToReturn.clear();
+		Metrics.clear(Metrics.CHPC_JOBS);
+		HashMap<String, String> jobDirStates = new HashMap<String, String>();
 		//check if no job dirs
-		if (currentChpcJobDirs == null) return;
+		if (currentChpcJobDirs == null) {
+			jobDirStatesChanged = priorJobDirStates.size() != 0;
+			priorJobDirStates = jobDirStates;
+			return;
+		}
+		HashMap<String, Integer> stateCounts = new HashMap<String, Integer>();
 		
 		// for each dir pull the files and check the status, 
 		// upon sbatching a QUEUED file is added to the job dir
@@ -335,18 +666,30 @@ public class ChpcAutoAnalysis {
 		HashMap<String, File> fileNames = null;
 		for (File jobDir: currentChpcJobDirs) {
 			fileNames = Util.fetchNamesAndFiles(jobDir);
+			String state = "none";
+			if (fileNames.containsKey(JobFailures.QUARANTINED)) state = "quarantined";
+			else if (fileNames.containsKey("COMPLETE")) state = "complete";
+			else if (fileNames.containsKey("FAILED")) state = "failed";
+			else if (fileNames.containsKey("STARTED")) state = "started";
+			else if (fileNames.containsKey("QUEUED")) state = "queued";
+			Integer count = stateCounts.get(state);
+			stateCounts.put(state, count == null ? 1 : count + 1);
+			jobDirStates.put(jobDir.getName(), state);
+			
+			//failed too many times, the admin was emailed, left alone until the QUARANTINED file or the dir is deleted
+			if (fileNames.containsKey(JobFailures.QUARANTINED)) Log.info("\tQUARANTINED ->\t"+jobDir);
 			
 			//ready for transfer back?
-			if (fileNames.containsKey("COMPLETE")) {
+			else if (fileNames.containsKey("COMPLETE")) {
 				chpcJobDirsToReturn.add(jobDir);
-				Util.pl("\tCOMPLETE ->\t"+jobDir);
+				Log.info("\tCOMPLETE ->\t"+jobDir);
 			}
 			
 			//failed job add to error messages and leave in place
 			else if (fileNames.containsKey("FAILED")) {
 				String error = "FAILED ->\t"+jobDir;
-				errorMessages.add(error);
-				Util.pl("\t"+error);
+				addError(error);
+				Log.error("\t"+error);
 			}
 			
 			//job started, check in slurm list of jobs
@@ -365,13 +708,13 @@ public class ChpcAutoAnalysis {
 							error = "ERROR: job STARTED, found "+slurms[0].getName()+" file but JOBID is not in slurm queue , see -> "+jobDir;
 						}
 						//OK its still running
-						else Util.pl("\tRUNNING ->\t"+ currentSlurmJobIdTime.get(id)+"\t"+jobDir);
+						else Log.info("\tRUNNING ->\t"+ currentSlurmJobIdTime.get(id)+"\t"+jobDir);
 					}
-					else throw new Exception("ERROR pulling the slurm job ID from "+slurms[0].getName());
+					else error = "ERROR: failed to parse the slurm job ID from "+slurms[0].getName()+", see -> "+jobDir;
 				}
 				if (error != null) {
-					errorMessages.add(error);
-					Util.pl("\t"+error);
+					addError(error);
+					Log.error("\t"+error);
 				}
 			}
 			
@@ -379,24 +722,27 @@ public class ChpcAutoAnalysis {
 			else if (fileNames.containsKey("QUEUED")) {
 				if (currentRunningHciSlurmJobs < numberAvailableNodes) {
 					String error = "WARNING: job is QUEUED but failed to start yet nodes are available, see -> "+jobDir;
-					errorMessages.add(error);
-					Util.pl("\t"+error);
+					addError(error);
+					Log.error("\t"+error);
 				}
-				else if (verbose) Util.pl("\tQUEUED ->\t"+jobDir);
+				else Log.debug("\tQUEUED ->\t", jobDir);
 			}
 			
 			//something is wrong, no status message
 			else {
 				String error = "ERROR: no job status message, see -> "+jobDir;
-				errorMessages.add(error);
-				Util.pl("\t"+error);
+				addError(error);
+				Log.error("\t"+error);
 			}
 		}
+		for (String state: stateCounts.keySet()) Metrics.set(Metrics.CHPC_JOBS, stateCounts.get(state), "state", state);
+		jobDirStatesChanged = jobDirStates.equals(priorJobDirStates) == false;
+		priorJobDirStates = jobDirStates;
 		
 	}
 
 	private void checkSlurmQueue() throws IOException {
-		Util.pl(printPrepend+ "Checking slurm jobs...");
+		Log.info(printPrepend+ "Checking slurm jobs...");
 		//pull all of the jobs in the queue
 		String[] cmd = {"squeue"};
 		String[] results = Util.executeCommandLine(cmd);
@@ -404,30 +750,63 @@ public class ChpcAutoAnalysis {
 		//Does it show the expected?
 		if (results[0].trim().startsWith("JOBID") == false) throw new IOException("\nERROR: failed to fetch slurm jobs:\n "+Util.stringArrayToString(results, "\n"));
 		currentSlurmJobIdTime.clear();
+		HashMap<String, Integer> stateCounts = new HashMap<String, Integer>();
+		currentRunningHciSlurmJobs = parseSqueue(results, slurmPartiton, slurmUserTruncated, currentSlurmJobIdTime, stateCounts);
+		for (String jobId: currentSlurmJobIdTime.keySet()) {
+			String time = currentSlurmJobIdTime.get(jobId);
+			//too long? In days-hours:minutes:seconds.  The days and hours are printed only as needed. If - present then more than a 24hrs have passed, flag it.
+			if (time.contains("-")) {
+				String error = "WARNING: the following job has run for more than a day ->\t"+jobId+"\t"+time;
+				Log.error("\t"+error);
+				addError(error);
+			}
+		}
 		
-		for (int i=1; i< results.length; i++) {
-			results[i] = results[i].trim();
-			String[] fields = Util.WHITE_SPACE.split(results[i]);
+		Metrics.set(Metrics.SLURM_PARTITION_JOBS, currentRunningHciSlurmJobs);
+		Metrics.clear(Metrics.SLURM_JOBS);
+		for (String state: stateCounts.keySet()) Metrics.set(Metrics.SLURM_JOBS, stateCounts.get(state), "state", state);
+		Log.debug("\tParsed Slurm Jobs (ID=RunTime): ", currentSlurmJobIdTime);
+	}
+
+	/**Parses the output of 'find -L linkDir* -maxdepth 1 -printf "%p\t%s\n"', collecting the RUNME and COMPLETE paths and summing the sizes of the files in each job dir by its name.*/
+	static void parseHciListing(ArrayList<String> lines, String linkDir, HashSet<String> complete, ArrayList<String> runme, HashMap<String, Long> jobDirSizes) {
+		for (String l: lines) {
+			String[] pathSize = Util.TAB.split(l.trim());
+			l = pathSize[0];
+			if (l.endsWith("COMPLETE")) complete.add(l);
+			else if (l.endsWith("RUNME")) runme.add(l);
+			else if (pathSize.length == 2 && l.startsWith(linkDir)) {
+				// sum the files in each job dir, e.g. the linked fastqs
+				String[] splitPath = Util.FORWARD_SLASH.split(l.substring(linkDir.length()));
+				if (splitPath.length != 2) continue;
+				try {
+					long size = Long.parseLong(pathSize[1]);
+					Long total = jobDirSizes.get(splitPath[0]);
+					jobDirSizes.put(splitPath[0], total == null ? size : total + size);
+				} catch (NumberFormatException e) {}
+			}
+		}
+	}
+
+	/**Parses squeue output, the first line is the header. Loads the user's jobs in the partition into jobIdTime, ID and run time, and counts their states.
+	 * Returns the number of jobs in the partition from all users.*/
+	static int parseSqueue(String[] lines, String partition, String user, HashMap<String, String> jobIdTime, HashMap<String, Integer> stateCounts) {
+		int inPartition = 0;
+		for (int i=1; i< lines.length; i++) {
+			String[] fields = Util.WHITE_SPACE.split(lines[i].trim());
 			//JOBID	   PARTITION	NAME	  USER	   ST	TIME	NODES	NODELIST(REASON)
 			//6485242	hci-rw	  testjob.	hcipepip	R	0:10	1	    rw166
 			//                                          PD for in queue
 			//   0         1          2         3       4     5     6         7
-			
-			if (fields[1].equals(slurmPartiton)) {
-				currentRunningHciSlurmJobs++;
-				if (fields[3].equals(slurmUserTruncated)) {
-					currentSlurmJobIdTime.put(fields[0], fields[5]);
-					//too long? In days-hours:minutes:seconds.  The days and hours are printed only as needed. If - present then more than a 24hrs have passed, flag it.
-					if (fields[5].contains("-")) {
-						String error = "WARNING: the following job has run for more than a day ->\t"+fields[0]+"\t"+fields[5];
-						Util.pl("\t"+error);
-						errorMessages.add(error);
-					}
-				}
+			if (fields.length < 6 || fields[1].equals(partition) == false) continue;
+			inPartition++;
+			if (fields[3].equals(user)) {
+				jobIdTime.put(fields[0], fields[5]);
+				Integer count = stateCounts.get(fields[4]);
+				stateCounts.put(fields[4], count == null ? 1 : count + 1);
 			}
 		}
-		
-		if (verbose) Util.pl("\tParsed Slurm Jobs (ID=RunTime): "+currentSlurmJobIdTime);
+		return inPartition;
 	}
 
 	public static void main(String[] args) {
@@ -441,7 +820,7 @@ public class ChpcAutoAnalysis {
 
 	/**This method will process each argument and assign new variables*/
 	public void processArgs(String[] args){
-		Util.pl("Arguments: "+ Util.stringArrayToString(args, " ") +"\n");
+		Log.info("Arguments: "+ Util.stringArrayToString(args, " ") +"\n");
 		Pattern pat = Pattern.compile("-[a-z]");
 		for (int i = 0; i<args.length; i++){
 			String lcArg = args[i].toLowerCase();
@@ -452,7 +831,7 @@ public class ChpcAutoAnalysis {
 					switch (test){
 					case 'c': configFile = new File(args[++i]); break;
 					case 'd': dryRun = true; break;
-					case 'v': verbose = true; break;
+					case 'v': verbose = true; Log.setLevel(Log.Level.DEBUG); break;
 					case 'l': ; break;
 					default: Util.printErrAndExit("\nProblem, unknown option! " + mat.group());
 					}
@@ -469,6 +848,27 @@ public class ChpcAutoAnalysis {
 		//load and check the configSettings
 		loadConfiguration();
 		
+		directoryDeleter = new DirectoryDeleter(deletionThreads);
+		jobFailures = new JobFailures(maxJobAttempts);
+		commandLanes = new CommandLanes(controlThreads, maxProcessingThreads, submitThreads, (long)(stealTransferMB * 1024 * 1024), numberRetries, verbose, virtualThreads);
+		deleteStaleJobDirs();
+		Metrics.set(Metrics.START_TIME, System.currentTimeMillis() / 1000);
+		if (metricsPort != 0) {
+			try {
+				Metrics.start(metricsPort);
+			} catch (IOException e) {
+				Util.printErrAndExit("\nError: failed to serve metrics on port "+metricsPort+" "+e.getMessage());
+			}
+		}
+		if (lifecycleLogFile.toLowerCase().equals("none") == false && dryRun == false) {
+			try {
+				LifecycleLog.open(new File(lifecycleLogFile), "chpc", (long)(lifecycleLogMB * 1024 * 1024), LifecycleLog.DEFAULT_NUMBER_TO_KEEP);
+			} catch (IOException e) {
+				Util.printErrAndExit("\nError: failed to open the lifecycle log "+lifecycleLogFile+" "+e.getMessage());
+			}
+		}
+		if (verifyReturnedJobs) returnedJobVerifier = new ReturnedJobVerifier(commandLanes, hciUserNameIp, hciLinkDirectory, chpcTempDirectory, md5Threads);
+		
 		if (verbose) printPrepend = "\n";
 		else printPrepend = "";
 	}	
@@ -479,6 +879,12 @@ public class ChpcAutoAnalysis {
 		//adminEmail
 		adminEmail = configSettings.get("adminEmail");
 		if (adminEmail == null) Util.printErrAndExit("\nError: failed to find the 'adminEmail' key in "+ configFile);
+		//mail goes to the local MTA, identical alerts are only sent once per alertRepeatHours, the rest batched every alertDigestMinutes, optional
+		if (configSettings.containsKey("smtpHost")) smtpHost = configSettings.get("smtpHost");
+		if (configSettings.containsKey("smtpPort")) smtpPort = Integer.parseInt(configSettings.get("smtpPort"));
+		if (configSettings.containsKey("emailFrom")) emailFrom = configSettings.get("emailFrom");
+		if (configSettings.containsKey("alertRepeatHours")) alertRepeatHours = Double.parseDouble(configSettings.get("alertRepeatHours"));
+		if (configSettings.containsKey("alertDigestMinutes")) alertDigestMinutes = Double.parseDouble(configSettings.get("alertDigestMinutes"));
 		
 		//HCI link directory, check it ends with /
 		if (configSettings.containsKey("hciLinkDirectory") == false) Util.printErrAndExit("\nError: failed to find the 'hciLinkDirectory' key in "+ configFile);
@@ -504,7 +910,7 @@ public class ChpcAutoAnalysis {
 		if (configSettings.containsKey("slurmPartiton") == false) Util.printErrAndExit("\nError: failed to find the 'slurmPartiton' key in "+ configFile);
 		slurmPartiton = configSettings.get("slurmPartiton");
 		
-		//Rsync threads
+		//Rsync threads, the TRANSFER lane
 		if (configSettings.containsKey("maxProcessingThreads") == false) Util.printErrAndExit("\nError: failed to find the 'maxProcessingThreads' key in "+ configFile);
 		maxProcessingThreads = Integer.parseInt(configSettings.get("maxProcessingThreads"));
 
@@ -517,11 +923,64 @@ public class ChpcAutoAnalysis {
 		if (configSettings.containsKey("hciUserNameIp") == false) Util.printErrAndExit("\nError: failed to find the 'hciUserNameIp' key in "+ configFile);
 		hciUserNameIp = configSettings.get("hciUserNameIp");
 		
+		//Threads for the CONTROL lane, ssh listings and deletes, and for the SUBMIT lane, sbatch, optional
+		if (configSettings.containsKey("controlThreads")) controlThreads = Integer.parseInt(configSettings.get("controlThreads"));
+		if (configSettings.containsKey("submitThreads")) submitThreads = Integer.parseInt(configSettings.get("submitThreads"));
+		//Idle CONTROL threads run queued transfers up to this size, 0 to disable, optional
+		if (configSettings.containsKey("stealTransferMB")) stealTransferMB = Double.parseDouble(configSettings.get("stealTransferMB"));
+		//Serve Prometheus metrics on this port, 0 to disable, optional
+		if (configSettings.containsKey("metricsPort")) metricsPort = Integer.parseInt(configSettings.get("metricsPort"));
+		//Job lifecycle event log, defaults to beside the config file, none to disable, optional
+		lifecycleLogFile = new File(configFile.getAbsoluteFile().getParentFile(), "autoAnalysisLifecycle_chpc.jsonl").getPath();
+		if (configSettings.containsKey("chpcLifecycleLogFile")) lifecycleLogFile = configSettings.get("chpcLifecycleLogFile");
+		if (configSettings.containsKey("lifecycleLogMB")) lifecycleLogMB = Double.parseDouble(configSettings.get("lifecycleLogMB"));
+		//Daemon log file, none to keep writing to stdout and stderr, optional
+		if (configSettings.containsKey("chpcLogFile")) logFile = configSettings.get("chpcLogFile");
+		if (configSettings.containsKey("logMB")) logMB = Double.parseDouble(configSettings.get("logMB"));
+		//Wait between attempts of a failed ssh, rsync, or sbatch, optional
+		if (configSettings.containsKey("commandRetryMinutes")) commandRetryMinutes = Double.parseDouble(configSettings.get("commandRetryMinutes"));
+		CommandRunner.setRetryWait((long)Math.round(commandRetryMinutes * 60.0 * 1000.0));
+		//Cycles a job's transfers or submission can fail before it is quarantined, optional
+		if (configSettings.containsKey("maxJobAttempts")) maxJobAttempts = Integer.parseInt(configSettings.get("maxJobAttempts"));
+		//Run the lane workers on virtual threads, JDK 21+, optional
+		if (configSettings.containsKey("virtualThreads")) virtualThreads = Boolean.parseBoolean(configSettings.get("virtualThreads"));
+		
+		//Threads for deleting returned job dirs, optional
+		if (configSettings.containsKey("deletionThreads")) deletionThreads = Integer.parseInt(configSettings.get("deletionThreads"));
+		
+		//md5 check returned jobs before deleting them on CHPC, optional
+		if (configSettings.containsKey("verifyReturnedJobs")) verifyReturnedJobs = Boolean.parseBoolean(configSettings.get("verifyReturnedJobs"));
+		if (configSettings.containsKey("md5Threads")) md5Threads = Integer.parseInt(configSettings.get("md5Threads"));
+		
+		//run each task on its own adaptive interval, hoursToWait is then the longest wait, optional
+		if (configSettings.containsKey("adaptiveScheduling")) adaptiveScheduling = Boolean.parseBoolean(configSettings.get("adaptiveScheduling"));
+		if (configSettings.containsKey("minMinutesToWait")) minMinutesToWait = Double.parseDouble(configSettings.get("minMinutesToWait"));
+		
+		
+		if (logFile.toLowerCase().equals("none") == false) {
+			try {
+				Log.toFile(new File(logFile), (long)(logMB * 1024 * 1024), Log.DEFAULT_NUMBER_TO_KEEP);
+			} catch (IOException e) {
+				Util.printErrAndExit("\nError: failed to open the log file "+logFile+" "+e.getMessage());
+			}
+		}
 		
 		//print out settings
-		Util.pl("Config Settings..."+
+		Log.info("Config Settings..."+
 				"\n  adminEmail\t"+ adminEmail+
+				"\n  smtpHost\t"+ smtpHost+
+				"\n  smtpPort\t"+ smtpPort+
+				"\n  emailFrom\t"+ emailFrom+
+				"\n  alertRepeatHours\t"+ alertRepeatHours+
+				"\n  alertDigestMinutes\t"+ alertDigestMinutes+
 				"\n  hoursToWait\t"+ hoursToWait+
+				"\n  adaptiveScheduling\t"+ adaptiveScheduling+
+				"\n  minMinutesToWait\t"+ minMinutesToWait+
+				"\n  metricsPort\t"+ metricsPort+
+				"\n  chpcLifecycleLogFile\t"+ lifecycleLogFile+
+				"\n  lifecycleLogMB\t"+ lifecycleLogMB+
+				"\n  chpcLogFile\t"+ logFile+
+				"\n  logMB\t"+ logMB+
 				"\n  verbose\t"+verbose+
 				"\n  dryRun\t"+dryRun+
 				
@@ -530,6 +989,16 @@ public class ChpcAutoAnalysis {
 				"\n  chpcTempDirectory\t"+ chpcTempDirectory+
 				"\n  slurmUserTruncated\t"+ slurmUserTruncated+
 				"\n  slurmPartiton\t"+ slurmPartiton+
+				"\n  maxProcessingThreads\t"+ maxProcessingThreads+
+				"\n  controlThreads\t"+ controlThreads+
+				"\n  submitThreads\t"+ submitThreads+
+				"\n  stealTransferMB\t"+ stealTransferMB+
+				"\n  commandRetryMinutes\t"+ commandRetryMinutes+
+				"\n  maxJobAttempts\t"+ maxJobAttempts+
+				"\n  virtualThreads\t"+ virtualThreads+
+				"\n  deletionThreads\t"+ deletionThreads+
+				"\n  verifyReturnedJobs\t"+ verifyReturnedJobs+
+				"\n  md5Threads\t"+ md5Threads+
 
 				"\n\nHCI:"+
 				"\n  hciUserNameIp\t"+ hciUserNameIp+
@@ -540,7 +1009,7 @@ public class ChpcAutoAnalysis {
 
 
 	public static void printDocs(){
-		Util.pl("\n" +
+		Log.info("\n" +
 				"**************************************************************************************\n" +
 				"**                            CHPC Auto Analysis: Jan 2024                          **\n" +
 				"**************************************************************************************\n" +
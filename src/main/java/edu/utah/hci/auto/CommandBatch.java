@@ -0,0 +1,61 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**A group of commands queued on the CommandLanes together, execute() blocks until all are done.
+ * Independent batches, e.g. returning jobs and launching new ones, share the lanes at the same time.*/
+public class CommandBatch {
+
+	//fields
+	private CommandLanes lanes;
+	private ArrayList<CommandLanes.Job> jobs = new ArrayList<CommandLanes.Job>();
+	private CommandRunner[] runners = new CommandRunner[0];
+
+	public CommandBatch (CommandLanes lanes) {
+		this.lanes = lanes;
+	}
+
+	/**@param sizeHint bytes to transfer or CommandLanes.UNKNOWN_SIZE
+	 * @param tempShellScriptDir if not null the command is run as a bash script written to this dir*/
+	public void add(CommandLanes.Lane lane, String[] command, long sizeHint, File tempShellScriptDir) {
+		jobs.add(new CommandLanes.Job(lane, command, sizeHint, tempShellScriptDir));
+	}
+
+	public ArrayList<String[]> getCommands() {
+		ArrayList<String[]> c = new ArrayList<String[]>();
+		for (CommandLanes.Job j: jobs) c.add(j.getCommand());
+		return c;
+	}
+
+	/**Sum of the known size hints, bytes.*/
+	public long getTotalSizeHint() {
+		long total = 0;
+		for (CommandLanes.Job j: jobs) if (j.getSizeHint() > 0) total += j.getSizeHint();
+		return total;
+	}
+
+	/**Queues the commands and blocks until all have run. Returns false if any failed, their errors are printed.*/
+	public boolean execute() throws InterruptedException {
+		for (CommandLanes.Job j: jobs) lanes.submit(j);
+		runners = new CommandRunner[jobs.size()];
+		boolean completedOK = true;
+		for (int i=0; i< runners.length; i++) {
+			runners[i] = jobs.get(i).await();
+			if (runners[i] == null) {
+				completedOK = false;
+				Log.error("Error: not run, command lanes shut down -> "+Util.stringArrayToString(jobs.get(i).getCommand(), " "));
+			}
+			else if (runners[i].isFailed()) {
+				completedOK = false;
+				Log.error(runners[i].getErrorMessage());
+			}
+		}
+		return completedOK;
+	}
+
+	/**The runners in the order the commands were added, available after execute().*/
+	public CommandRunner[] getRunners() {
+		return runners;
+	}
+}
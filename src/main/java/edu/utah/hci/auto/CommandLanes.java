@@ -0,0 +1,294 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**Runs commands on separate lanes, each with its own queue and fixed number of worker threads, so a quick ssh listing
+ * or an sbatch submission never waits behind a multi hour rsync.
+ * CONTROL is for short remote calls, e.g. ssh listings and deletes, TRANSFER for rsyncs, SUBMIT for local sbatch scripts.
+ * Transfers are queued largest size hint first, those of unknown size ahead of all. Idle CONTROL workers steal the smallest
+ * queued transfer if its size hint is known and no more than maxStealBytes, so small jobs don't sit behind the big ones.
+ * Worker threads are daemons, call shutdown() when done.
+ * With virtualThreads each worker is a virtual thread, JDK 21+, so a lane can have thousands of workers, e.g. for per job remote probes,
+ * each costing a few KB of heap instead of a platform thread stack. The lanes use a ReentrantLock rather than synchronized so idle
+ * virtual workers unmount instead of pinning their carrier thread.*/
+public class CommandLanes {
+
+	public enum Lane {CONTROL, TRANSFER, SUBMIT}
+	public static final long UNKNOWN_SIZE = -1;
+
+	//fields
+	private int numberRetries;
+	private boolean verbose;
+	private long maxStealBytes;
+	private EnumMap<Lane, LinkedList<Job>> queues = new EnumMap<Lane, LinkedList<Job>>(Lane.class);
+	private EnumMap<Lane, Integer> numberThreads = new EnumMap<Lane, Integer>(Lane.class);
+	private EnumMap<Lane, Condition> available = new EnumMap<Lane, Condition>(Lane.class);
+	private ReentrantLock lock = new ReentrantLock();
+	private boolean shutdown = false;
+	private boolean virtualThreads;
+	private long numberStolen = 0;
+
+	/**@param maxStealBytes 0 to never steal transfers*/
+	public CommandLanes (int controlThreads, int transferThreads, int submitThreads, long maxStealBytes, int numberRetries, boolean verbose) {
+		this(controlThreads, transferThreads, submitThreads, maxStealBytes, numberRetries, verbose, false);
+	}
+
+	/**@param virtualThreads run the workers on virtual threads, falls back to platform threads with a warning if the JVM doesn't have them*/
+	public CommandLanes (int controlThreads, int transferThreads, int submitThreads, long maxStealBytes, int numberRetries, boolean verbose, boolean virtualThreads) {
+		if (virtualThreads && virtualThreadsAvailable() == false) {
+			Log.warn("WARNING: virtual threads need JDK 21+, running "+System.getProperty("java.version")+", using platform threads.");
+			virtualThreads = false;
+		}
+		this.virtualThreads = virtualThreads;
+		this.maxStealBytes = maxStealBytes;
+		this.numberRetries = numberRetries;
+		this.verbose = verbose;
+		numberThreads.put(Lane.CONTROL, Math.max(1, controlThreads));
+		numberThreads.put(Lane.TRANSFER, Math.max(1, transferThreads));
+		numberThreads.put(Lane.SUBMIT, Math.max(1, submitThreads));
+		for (Lane lane: Lane.values()) {
+			queues.put(lane, new LinkedList<Job>());
+			available.put(lane, lock.newCondition());
+		}
+		for (Lane lane: Lane.values()) {
+			for (int i=0; i< numberThreads.get(lane); i++) startWorker(new Worker(lane), "lane-"+lane.name().toLowerCase()+"-"+i);
+		}
+	}
+
+	private void startWorker(Runnable worker, String name) {
+		if (virtualThreads) {
+			startVirtualThread(worker).setName(name);
+			return;
+		}
+		Thread t = new Thread(worker, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**Queues the job on its lane and returns, use Job.await() for the result.*/
+	public void submit(Job job) {
+		lock.lock();
+		try {
+			if (shutdown) {
+				job.done.countDown();
+				return;
+			}
+			LinkedList<Job> q = queues.get(job.lane);
+			if (job.lane == Lane.TRANSFER) {
+				//keep sorted, largest first, unknown sizes at the head
+				ListIterator<Job> it = q.listIterator();
+				while (it.hasNext()) {
+					if (sortKey(it.next()) < sortKey(job)) {
+						it.previous();
+						break;
+					}
+				}
+				it.add(job);
+				//wake an idle control worker too in case it can be stolen
+				if (job.sizeHint >= 0 && job.sizeHint <= maxStealBytes) available.get(Lane.CONTROL).signal();
+			}
+			else q.add(job);
+			Metrics.set(Metrics.LANE_QUEUE_DEPTH, q.size(), "lane", job.lane.name());
+			available.get(job.lane).signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static long sortKey(Job job) {
+		return job.sizeHint < 0 ? Long.MAX_VALUE : job.sizeHint;
+	}
+
+	/**Blocks until a job is available for the lane, returns null once shut down.*/
+	private Job take(Lane lane) throws InterruptedException {
+		lock.lock();
+		try {
+			while (shutdown == false) {
+				LinkedList<Job> q = queues.get(lane);
+				if (q.size() != 0) {
+					Job job = q.removeFirst();
+					Metrics.set(Metrics.LANE_QUEUE_DEPTH, q.size(), "lane", lane.name());
+					return job;
+				}
+				if (lane == Lane.CONTROL) {
+					Job stolen = stealSmallTransfer();
+					if (stolen != null) {
+						Metrics.set(Metrics.LANE_QUEUE_DEPTH, queues.get(Lane.TRANSFER).size(), "lane", Lane.TRANSFER.name());
+						return stolen;
+					}
+				}
+				available.get(lane).await();
+			}
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Job stealSmallTransfer() {
+		LinkedList<Job> transfers = queues.get(Lane.TRANSFER);
+		if (transfers.size() == 0) return null;
+		Job smallest = transfers.getLast();
+		if (smallest.sizeHint < 0 || smallest.sizeHint > maxStealBytes) return null;
+		transfers.removeLast();
+		smallest.stolen = true;
+		numberStolen++;
+		return smallest;
+	}
+
+	/**Stops the workers once their current commands finish, queued jobs are released without running.*/
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			for (Lane lane: Lane.values()) {
+				LinkedList<Job> q = queues.get(lane);
+				for (Job j: q) j.done.countDown();
+				q.clear();
+				Metrics.set(Metrics.LANE_QUEUE_DEPTH, 0, "lane", lane.name());
+			}
+			for (Condition c: available.values()) c.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**Number of transfers run by CONTROL workers.*/
+	public long getNumberStolen() {
+		lock.lock();
+		try {
+			return numberStolen;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public int getNumberThreads(Lane lane) {
+		return numberThreads.get(lane);
+	}
+
+	private class Worker implements Runnable {
+		private Lane lane;
+
+		private Worker (Lane lane) {
+			this.lane = lane;
+		}
+
+		public void run() {
+			try {
+				Job job;
+				while ((job = take(lane)) != null) {
+					long start = System.nanoTime();
+					try {
+						job.runner = new CommandRunner(numberRetries, verbose, job.tempShellScriptDir, job.command);
+					} finally {
+						recordMetrics(job, start);
+						job.done.countDown();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**Command duration, retries and failures by the job's lane, not the lane of the worker that ran it.*/
+	private static void recordMetrics(Job job, long startNanos) {
+		String lane = job.lane.name();
+		Metrics.observeSince(Metrics.COMMAND_DURATION, startNanos, "lane", lane);
+		if (job.runner == null) return;
+		if (job.runner.getNumberAttempts() > 1) Metrics.add(Metrics.COMMAND_RETRIES, job.runner.getNumberAttempts() - 1, "lane", lane);
+		if (job.runner.isFailed()) Metrics.add(Metrics.COMMAND_FAILURES, 1, "lane", lane);
+	}
+
+	/**One command for a lane.*/
+	public static class Job {
+		private Lane lane;
+		private String[] command;
+		private long sizeHint;
+		private File tempShellScriptDir;
+		private volatile CommandRunner runner = null;
+		private volatile boolean stolen = false;
+		private CountDownLatch done = new CountDownLatch(1);
+
+		/**@param sizeHint bytes to transfer or UNKNOWN_SIZE
+		 * @param tempShellScriptDir if not null the command is written to a bash script in it and that is run, needed for pipes*/
+		public Job (Lane lane, String[] command, long sizeHint, File tempShellScriptDir) {
+			this.lane = lane;
+			this.command = command;
+			this.sizeHint = sizeHint;
+			this.tempShellScriptDir = tempShellScriptDir;
+		}
+
+		/**Blocks until the command has run, returns its runner or null if the lanes were shut down first.*/
+		public CommandRunner await() throws InterruptedException {
+			done.await();
+			return runner;
+		}
+
+		public Lane getLane() {
+			return lane;
+		}
+		public String[] getCommand() {
+			return command;
+		}
+		public long getSizeHint() {
+			return sizeHint;
+		}
+		/**True if a CONTROL worker ran this transfer.*/
+		public boolean isStolen() {
+			return stolen;
+		}
+	}
+
+	/**True if this JVM has virtual threads, JDK 21+. Looked up reflectively so the code still builds and runs on JDK 17.*/
+	public static boolean virtualThreadsAvailable() {
+		try {
+			Thread.class.getMethod("startVirtualThread", Runnable.class);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**Starts the runnable on a new virtual thread, see virtualThreadsAvailable().*/
+	public static Thread startVirtualThread(Runnable r) {
+		try {
+			return (Thread) Thread.class.getMethod("startVirtualThread", Runnable.class).invoke(null, r);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads need JDK 21+", e);
+		}
+	}
+
+	/**Sums the sizes of the regular files under the directory, links are not followed. For TRANSFER size hints.*/
+	public static long directorySize(File dir) {
+		long size = 0;
+		ArrayList<File> toScan = new ArrayList<File>();
+		toScan.add(dir);
+		while (toScan.size() != 0) {
+			File[] files = toScan.remove(toScan.size()-1).listFiles();
+			if (files == null) continue;
+			for (File f: files) {
+				if (Files.isSymbolicLink(f.toPath())) continue;
+				if (f.isDirectory()) toScan.add(f);
+				else size += f.length();
+			}
+		}
+		return size;
+	}
+}
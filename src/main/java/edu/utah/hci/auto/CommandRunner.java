@@ -2,21 +2,24 @@ package edu.utah.hci.auto;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Random;
 
 
-public class CommandRunner implements Runnable {
+/**Runs one command, retrying on a non zero exit code. Run concurrently by the CommandLanes workers.*/
+public class CommandRunner {
 	
 	//fields
 	private int id = 0;
-	private ChpcAutoAnalysis caa = null;
 	private String[] command = null;
 	private String commandString = null;
 	private int numberRetries;
 	private int exitCode = -1;
+	private int numberAttempts = 0;
 	private boolean failed = false;
 	private boolean verbose = false;
 	private File tempDirForShellScripts = null;
@@ -25,18 +28,10 @@ public class CommandRunner implements Runnable {
 	private ArrayList<String[]> completedCommands = new ArrayList<String[]>();
 	private File tempShellFile = null;
 	private Random random = new Random();
-	private static final long timeToWait = 1000*60*5;
+	private static volatile long timeToWait = 1000*60*5;
+	private static final Method IS_VIRTUAL = fetchIsVirtual();
 	
-	// for multiple threaded runners
-	public CommandRunner (int id, int numberRetries, ChpcAutoAnalysis caa, boolean verbose, File tempDirForShellScripts) {
-		this.id = id;
-		this.caa = caa;
-		this.numberRetries = numberRetries;
-		this.verbose = verbose;
-		this.tempDirForShellScripts = tempDirForShellScripts;
-	}
-	
-	// for just one execution in the main thread
+	// for just one execution in the calling thread
 	public CommandRunner (int numberRetries, boolean verbose, File tempDirForShellScripts, String[] command) {
 		try {
 			this.numberRetries = numberRetries;
@@ -46,7 +41,7 @@ public class CommandRunner implements Runnable {
 			
 			//set the commandString
 			commandString = Util.stringArrayToString(command, " ");
-			if (verbose) Util.pl(id+" Executing:\n"+commandString);
+			Log.debug(id, " Executing:\n", commandString);
 			
 			// use shell script? this will change the command to point to a temp file to run as a bash script
 			if (tempDirForShellScripts !=null) setShellScriptCommand();
@@ -57,34 +52,8 @@ public class CommandRunner implements Runnable {
 		} catch (Exception e) {
 			failed = true;
 			errorMessage = id+" Error: problem running -> "+commandString+"\n"+processOutput+"\n"+e.getMessage();
-			Util.pl("\n"+errorMessage );
-			if (verbose) e.printStackTrace();
-		} 
-	}
-	
-	public void run() {	
-		try {
-			//get next command, once null no more to run
-			while ((command = caa.getNextCommandToRun()) != null) {
-				//set the commandString
-				commandString = Util.stringArrayToString(command, " ");
-				if (verbose) Util.pl(id+" Executing:\n"+commandString);
-				processOutput.clear();
-				exitCode = -1;
-				failed = false;
-				
-				// use shell script?
-				if (tempDirForShellScripts !=null) setShellScriptCommand();
-				
-				//try multiple times until exit code is 0
-				executeWithRetries();
-			}
-			
-		} catch (Exception e) {
-			failed = true;
-			errorMessage = id+" Error: problem running -> "+commandString+"\n"+processOutput+"\n"+e.getMessage()+"\nShutting down CommandRunner.";
-			Util.pl(errorMessage);
-			if (verbose) e.printStackTrace();
+			if (verbose) Log.error("\n"+errorMessage, e);
+			else Log.error("\n"+errorMessage);
 		} 
 	}
 	
@@ -101,13 +70,15 @@ public class CommandRunner implements Runnable {
 		//try multiple times until exit code is 0
 		int tries = numberRetries;
 		while (tries-- >= 0) {
-			execute();
+			numberAttempts++;
+			executeAndRecord();
 			if (exitCode == 0) {
 				completedCommands.add(command);
-				if (verbose) Util.pl(id+" Complete:\n"+Util.arrayListToString(processOutput, ","));
+				Log.debug(id, " Complete:\n", Log.join(processOutput, ","));
 				break;
 			}
-			if (verbose) Util.pl(id+" Waiting 5 min and retrying:");
+			if (tries < 0) break;
+			Log.debug(id, " Waiting ", timeToWait / 1000, " sec and retrying:");
 			Thread.sleep(timeToWait);
 		}
 		
@@ -116,9 +87,33 @@ public class CommandRunner implements Runnable {
 		else if (tempShellFile != null) tempShellFile.delete();
 	}
 	
+	/*Runs execute() within a JfrEvents.Command, committed only when a recording has it enabled.*/
+	private void executeAndRecord() throws Exception {
+		JfrEvents.Command event = new JfrEvents.Command();
+		int priorLines = processOutput.size();
+		exitCode = -1;
+		event.begin();
+		try {
+			execute();
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				JfrEvents.describe(event, commandString);
+				event.exitCode = exitCode;
+				event.attempt = numberAttempts;
+				for (int i= priorLines; i< processOutput.size(); i++) event.outputBytes += processOutput.get(i).length() + 1;
+				event.commit();
+			}
+		}
+	}
+	
 	/**Uses ProcessBuilder to execute a cmd line, combines standard error and standard out sets the exit code.
 	 * @throws Exception */
 	public void execute() throws Exception {
+		if (isVirtualThread()) {
+			executeUnpinned();
+			return;
+		}
 		ProcessBuilder pb = new ProcessBuilder(command);
 		pb.redirectErrorStream(true);
 		Process proc = pb.start();
@@ -128,6 +123,49 @@ public class CommandRunner implements Runnable {
 		data.close(); 
 		exitCode = proc.waitFor();
 	}
+	
+	/**For virtual threads. A blocking pipe read or waitFor holds the carrier thread, capping the number in flight at the carrier pool size.
+	 * Instead the output goes to a temp file and the thread parks on onExit() until the process is done.*/
+	private void executeUnpinned() throws Exception {
+		File out = File.createTempFile("commandRunner_", ".txt");
+		try {
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(out);
+			Process proc = pb.start();
+			exitCode = proc.onExit().get().exitValue();
+			BufferedReader data = new BufferedReader(new InputStreamReader(new FileInputStream(out)));
+			String line;
+			while ((line = data.readLine()) != null) processOutput.add(line);
+			data.close();
+		} finally {
+			out.delete();
+		}
+	}
+	
+	private static Method fetchIsVirtual() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+	/**Thread.isVirtual() on JDK 21+, looked up reflectively so this still runs on JDK 17.*/
+	private static boolean isVirtualThread() throws Exception {
+		if (IS_VIRTUAL == null) return false;
+		return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+	}
+
+	/**Milliseconds to wait before retrying a failed command, for all runners, defaults to 5 min.*/
+	public static void setRetryWait(long millis) {
+		timeToWait = millis;
+	}
+
+	/**Number of times the command was run, more than one if retried.*/
+	public int getNumberAttempts() {
+		return numberAttempts;
+	}
 
 	public boolean isFailed() {
 		return failed;
@@ -0,0 +1,171 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**Deletes directory trees in parallel using a bounded fork join pool.
+ * Each directory is listed once, its files are unlinked by the task that listed them, and its sub directories are forked as new tasks.
+ * Symbolic links are deleted, never followed.
+ * Problems are collected and returned to the caller, there is no silent 'rm -rf' fall back.
+ * Deletions can also be started in the background and their errors collected later, e.g. on the next daemon cycle.*/
+public class DirectoryDeleter {
+
+	public static final int DEFAULT_THREADS = 8;
+
+	private static DirectoryDeleter shared = null;
+
+	//fields
+	private ForkJoinPool pool = null;
+	private ArrayList<BackgroundDeletion> backgroundDeletions = new ArrayList<BackgroundDeletion>();
+
+	public DirectoryDeleter (int maxThreads) {
+		if (maxThreads < 1) maxThreads = 1;
+		pool = new ForkJoinPool(maxThreads);
+	}
+
+	/**One DEFAULT_THREADS deleter for callers without their own, e.g. Util.deleteDirectory(), made on first use.
+	 * Its pool threads are daemons so it is never shut down.*/
+	public static synchronized DirectoryDeleter fetchShared() {
+		if (shared == null) shared = new DirectoryDeleter(DEFAULT_THREADS);
+		return shared;
+	}
+
+	/**Deletes the directory and all of its contents, blocks until complete.
+	 * Returns a list of error messages, empty if everything was deleted.*/
+	public ArrayList<String> delete(File dir) {
+		ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+		if (dir != null) {
+			try {
+				pool.invoke(new DeleteTask(dir.toPath(), errors));
+			} catch (Exception e) {
+				errors.add("ERROR: deleting "+dir+" "+e.getMessage());
+			}
+		}
+		return new ArrayList<String>(errors);
+	}
+
+	/**Starts deleting the directory in the background and returns immediately.
+	 * Call collectBackgroundErrors() to check on it.*/
+	public synchronized void deleteInBackground(File dir) {
+		if (dir == null) return;
+		ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+		ForkJoinTask<Void> task = pool.submit(new DeleteTask(dir.toPath(), errors));
+		backgroundDeletions.add(new BackgroundDeletion(dir, task, errors));
+	}
+
+	/**Returns the error messages from any finished background deletions and stops tracking them.
+	 * If waitForAll is true, blocks until every background deletion is finished.*/
+	public synchronized ArrayList<String> collectBackgroundErrors(boolean waitForAll) {
+		ArrayList<String> errors = new ArrayList<String>();
+		Iterator<BackgroundDeletion> it = backgroundDeletions.iterator();
+		while (it.hasNext()) {
+			BackgroundDeletion bd = it.next();
+			if (waitForAll) {
+				try {
+					bd.task.get();
+				} catch (Exception e) {
+					bd.errors.add("ERROR: deleting "+bd.dir+" "+e.getMessage());
+				}
+			}
+			else if (bd.task.isDone() == false) continue;
+			errors.addAll(bd.errors);
+			it.remove();
+		}
+		return errors;
+	}
+
+	/**Returns the number of background deletions that have yet to be collected.*/
+	public synchronized int getNumberBackgroundDeletions() {
+		return backgroundDeletions.size();
+	}
+
+	/**Lets running deletions finish but accepts no new ones.*/
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private class BackgroundDeletion {
+		private File dir;
+		private ForkJoinTask<Void> task;
+		private ConcurrentLinkedQueue<String> errors;
+
+		private BackgroundDeletion(File dir, ForkJoinTask<Void> task, ConcurrentLinkedQueue<String> errors) {
+			this.dir = dir;
+			this.task = task;
+			this.errors = errors;
+		}
+	}
+
+	/**Lists one directory, unlinks its files, forks a task for each sub directory, then removes the directory once they finish.*/
+	private static class DeleteTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private Path dir;
+		private ConcurrentLinkedQueue<String> errors;
+
+		private DeleteTask(Path dir, ConcurrentLinkedQueue<String> errors) {
+			this.dir = dir;
+			this.errors = errors;
+		}
+
+		protected void compute() {
+			BasicFileAttributes attributes = null;
+			try {
+				attributes = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (NoSuchFileException e) {
+				return;
+			} catch (IOException e) {
+				errors.add("ERROR: reading "+dir+" "+e.getMessage());
+				return;
+			}
+
+			//file or link? just delete it
+			if (attributes.isDirectory() == false) {
+				unlink(dir);
+				return;
+			}
+
+			ArrayList<DeleteTask> subDirectories = new ArrayList<DeleteTask>();
+			DirectoryStream<Path> stream = null;
+			try {
+				stream = Files.newDirectoryStream(dir);
+				for (Path p: stream) {
+					BasicFileAttributes a = null;
+					try {
+						a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (NoSuchFileException e) {
+						continue;
+					}
+					if (a.isDirectory()) subDirectories.add(new DeleteTask(p, errors));
+					else unlink(p);
+				}
+			} catch (IOException e) {
+				errors.add("ERROR: listing "+dir+" "+e.getMessage());
+			} finally {
+				if (stream != null) try { stream.close(); } catch (IOException e) {}
+			}
+
+			if (subDirectories.size() != 0) invokeAll(subDirectories);
+			unlink(dir);
+		}
+
+		private void unlink(Path p) {
+			try {
+				Files.deleteIfExists(p);
+			} catch (IOException e) {
+				errors.add("ERROR: failed to delete "+p+" "+e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**Pre-flight read and base counts for gzipped fastq, used to size AutoAnalysis jobs.
+ * Each file is streamed on its own thread so several are decompressed at once.
+ * To keep it cheap enough for the daemon loop, reading can stop after maxReadsPerFile reads. The totals are then
+ * estimated from the fraction of the compressed file that was consumed.*/
+public class FastqStats {
+
+	public static final int DEFAULT_THREADS = 4;
+	public static final long DEFAULT_MAX_READS = 1000000;
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	//fields
+	private int numberThreads;
+	private long maxReadsPerFile;
+
+	/**@param maxReadsPerFile stop and extrapolate after this many reads, 0 to read every file to the end*/
+	public FastqStats (int numberThreads, long maxReadsPerFile) {
+		this.numberThreads = numberThreads;
+		this.maxReadsPerFile = maxReadsPerFile;
+	}
+
+	/**Returns the counts for each fastq. Files that fail to parse, unreadable, corrupt gzip, or not fastq, are left out
+	 * and an error message added for each.*/
+	public HashMap<File, Counts> calculate(File[] fastqFiles, ArrayList<String> errorMessages) {
+		HashMap<File, Counts> fileCounts = new HashMap<File, Counts>();
+		if (fastqFiles == null || fastqFiles.length == 0) return fileCounts;
+		int numThreads = numberThreads;
+		if (fastqFiles.length < numThreads) numThreads = fastqFiles.length;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			LinkedHashMap<File, Future<Counts>> futures = new LinkedHashMap<File, Future<Counts>>();
+			for (final File f: fastqFiles) {
+				futures.put(f, executor.submit(new Callable<Counts>() {
+					public Counts call() throws Exception {
+						return count(f, maxReadsPerFile);
+					}
+				}));
+			}
+			for (File f: futures.keySet()) {
+				try {
+					fileCounts.put(f, futures.get(f).get());
+				} catch (ExecutionException e) {
+					String error = "ERROR: counting reads in "+f+" "+e.getCause().getMessage();
+					errorMessages.add(error);
+					Log.error("\t"+error);
+				} catch (InterruptedException e) {
+					errorMessages.add("ERROR: interrupted counting reads in "+f);
+					Thread.currentThread().interrupt();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return fileCounts;
+	}
+
+	/**Counts the reads and bases in one fastq, gz or plain text. Stops after maxReads and extrapolates if maxReads > 0.
+	 * Throws an IOException if a record doesn't start with @ and +, or the file ends part way through one.*/
+	public static Counts count(File fastq, long maxReads) throws IOException {
+		CountingInputStream fileIn = new CountingInputStream(new FileInputStream(fastq));
+		InputStream in = fileIn;
+		GzipStream gz = null;
+		if (fastq.getName().endsWith(".gz")) {
+			gz = new GzipStream(fileIn, BUFFER_SIZE);
+			in = gz;
+		}
+		Counts c = new Counts();
+		long produced = 0;
+		long parsed = 0;
+		try {
+			//parse the bytes directly, a reader's read ahead would throw off the estimate
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long lineNumber = 0;
+			long lineLength = 0;
+			long trailingEmptyLines = 0;
+			byte previous = 0;
+			int n;
+			reading:
+			while ((n = in.read(buffer)) != -1) {
+				produced += n;
+				for (int i=0; i< n; i++) {
+					if (buffer[i] != '\n') {
+						//header and separator lines
+						if (lineLength++ == 0) {
+							long type = lineNumber % 4;
+							if ((type == 0 && buffer[i] != '@') || (type == 2 && buffer[i] != '+')) {
+								throw new IOException("not a fastq, line "+(lineNumber+1)+" doesn't start with "+(type == 0 ? "@": "+"));
+							}
+						}
+						previous = buffer[i];
+						continue;
+					}
+					if (lineLength == 0) trailingEmptyLines++;
+					else trailingEmptyLines = 0;
+					//sequence is the 2nd line of each 4 line record
+					if (lineNumber++ % 4 == 1) {
+						c.reads++;
+						if (previous == '\r') lineLength--;
+						c.bases += lineLength;
+						if (maxReads > 0 && c.reads >= maxReads) {
+							parsed += i+1;
+							c.estimated = true;
+							break reading;
+						}
+					}
+					lineLength = 0;
+					previous = 0;
+				}
+				parsed += n;
+			}
+			//read it all? then it must end on a whole record, blank lines after it are OK
+			if (c.estimated == false) {
+				if (lineLength != 0) {
+					lineNumber++;
+					trailingEmptyLines = 0;
+				}
+				long partial = lineNumber % 4;
+				if (partial != 0 && trailingEmptyLines < partial) throw new IOException("truncated fastq, "+lineNumber+" lines isn't a whole number of 4 line records");
+			}
+		} finally {
+			in.close();
+		}
+		//extrapolate from the fraction of the file consumed
+		if (c.estimated) {
+			double consumed = fileIn.getBytesRead();
+			if (gz != null) consumed -= gz.getUnusedInput();
+			consumed = consumed * (double)parsed / (double)produced;
+			long size = fastq.length();
+			if (consumed > 0 && consumed < size) {
+				double scalar = (double)size / consumed;
+				c.reads = Math.round(c.reads * scalar);
+				c.bases = Math.round(c.bases * scalar);
+			}
+			else c.estimated = false;
+		}
+		return c;
+	}
+
+	/**Sums the counts of the files.*/
+	public static Counts sum(Iterable<File> files, HashMap<File, Counts> fileCounts) {
+		Counts total = new Counts();
+		for (File f: files) {
+			Counts c = fileCounts.get(f);
+			if (c == null) continue;
+			total.reads += c.reads;
+			total.bases += c.bases;
+			if (c.estimated) total.estimated = true;
+		}
+		return total;
+	}
+
+	public static class Counts {
+		private long reads = 0;
+		private long bases = 0;
+		private boolean estimated = false;
+
+		public long getReads() {
+			return reads;
+		}
+		public long getBases() {
+			return bases;
+		}
+		public boolean isEstimated() {
+			return estimated;
+		}
+	}
+
+	/**Exposes the compressed bytes read from the file but not yet inflated.*/
+	private static class GzipStream extends GZIPInputStream {
+		private GzipStream(InputStream in, int size) throws IOException {
+			super(in, size);
+		}
+		private int getUnusedInput() {
+			return inf.getRemaining();
+		}
+	}
+
+	/**Tracks how many bytes have been pulled from the underlying file.*/
+	private static class CountingInputStream extends FilterInputStream {
+		private long bytesRead = 0;
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) bytesRead++;
+			return b;
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) bytesRead += n;
+			return n;
+		}
+		public long skip(long n) throws IOException {
+			long s = super.skip(n);
+			bytesRead += s;
+			return s;
+		}
+		private long getBytesRead() {
+			return bytesRead;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**Recursive file discovery using NIO directory streams.
+ * Each entry is stat'ed once, the resulting attributes (type, size, modification time) are handed to the caller with the match
+ * so no follow up isDirectory() or lastModified() calls are needed.
+ * File names are tested against a pre compiled PathMatcher, see suffixMatcher() and globMatcher().
+ * Sub directories are walked in parallel on a fork join pool.
+ * Results can be returned as a sorted File[] or streamed to a FileVisitor as they are found.*/
+public class FileFinder {
+
+	public static final int DEFAULT_THREADS = 8;
+	private static ForkJoinPool sharedPool = null;
+
+	//fields
+	private PathMatcher matcher = null;
+	private boolean followLinks = true;
+	private ForkJoinPool pool = null;
+
+	/**Receives each matching file as it is found. Must be thread safe, calls come from the walker threads.*/
+	public interface FileVisitor {
+		public void found(Path file, BasicFileAttributes attributes);
+	}
+
+	/**Walks on a shared pool of DEFAULT_THREADS.
+	 * @param matcher tested against each file's name, null to match everything
+	 * @param followLinks whether to follow symbolic links to files and directories*/
+	public FileFinder (PathMatcher matcher, boolean followLinks) {
+		this(matcher, followLinks, fetchSharedPool());
+	}
+
+	public FileFinder (PathMatcher matcher, boolean followLinks, ForkJoinPool pool) {
+		this.matcher = matcher;
+		this.followLinks = followLinks;
+		this.pool = pool;
+	}
+
+	private static synchronized ForkJoinPool fetchSharedPool() {
+		if (sharedPool == null) sharedPool = new ForkJoinPool(DEFAULT_THREADS);
+		return sharedPool;
+	}
+
+	/**Returns a matcher for file names ending with the suffix, e.g. 'q.gz'.*/
+	public static PathMatcher suffixMatcher(final String suffix) {
+		return new PathMatcher() {
+			public boolean matches(Path path) {
+				return path.toString().endsWith(suffix);
+			}
+		};
+	}
+
+	/**Returns a case insensitive matcher for file names ending with the suffix.*/
+	public static PathMatcher suffixMatcherIgnoreCase(String suffix) {
+		final String lcSuffix = suffix.toLowerCase();
+		return new PathMatcher() {
+			public boolean matches(Path path) {
+				return path.toString().toLowerCase().endsWith(lcSuffix);
+			}
+		};
+	}
+
+	/**Returns a matcher for file names using glob syntax, e.g. '*_R{1,2}_*.fastq.gz'.*/
+	public static PathMatcher globMatcher(String glob) {
+		return FileSystems.getDefault().getPathMatcher("glob:"+glob);
+	}
+
+	/**Returns the matching files in and below the directory, sorted. Returns an empty array if none are found.*/
+	public File[] find(File directory) {
+		final ConcurrentLinkedQueue<File> found = new ConcurrentLinkedQueue<File>();
+		stream(directory, new FileVisitor() {
+			public void found(Path file, BasicFileAttributes attributes) {
+				found.add(file.toFile());
+			}
+		});
+		File[] files = new File[found.size()];
+		found.toArray(files);
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**Walks the directory passing each matching file and its attributes to the visitor. Blocks until the walk is complete.
+	 * Unreadable directories are skipped.*/
+	public void stream(File directory, FileVisitor visitor) {
+		pool.invoke(new WalkTask(directory.toPath(), visitor, null));
+	}
+
+	private BasicFileAttributes readAttributes(Path p) throws IOException {
+		if (followLinks) {
+			try {
+				return Files.readAttributes(p, BasicFileAttributes.class);
+			} catch (IOException e) {
+				//broken link, fall back to the link itself
+			}
+		}
+		return Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	}
+
+	/**The file keys of the directories above a walk task, a link back to one of them is a cycle.
+	 * A directory reached by two paths that aren't nested is walked under both, as listFiles() recursion did.*/
+	private static class Ancestor {
+		private Object key;
+		private Ancestor parent;
+
+		private Ancestor (Object key, Ancestor parent) {
+			this.key = key;
+			this.parent = parent;
+		}
+
+		private boolean contains(Object k) {
+			for (Ancestor a = this; a != null; a = a.parent) if (a.key.equals(k)) return true;
+			return false;
+		}
+	}
+
+	/**Lists one directory, reports its matching files, and forks a task for each sub directory.*/
+	private class WalkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private Path dir;
+		private FileVisitor visitor;
+		private Ancestor ancestors;
+
+		private WalkTask (Path dir, FileVisitor visitor, Ancestor ancestors) {
+			this.dir = dir;
+			this.visitor = visitor;
+			this.ancestors = ancestors;
+		}
+
+		protected void compute() {
+			ArrayList<WalkTask> subDirectories = new ArrayList<WalkTask>();
+			DirectoryStream<Path> stream = null;
+			Ancestor self = null;
+			try {
+				//avoid cycles when following links
+				if (followLinks) {
+					Object key = Files.readAttributes(dir, BasicFileAttributes.class).fileKey();
+					if (key != null) {
+						if (ancestors != null && ancestors.contains(key)) return;
+						self = new Ancestor(key, ancestors);
+					}
+				}
+				stream = Files.newDirectoryStream(dir);
+				for (Path p: stream) {
+					BasicFileAttributes a = null;
+					try {
+						a = readAttributes(p);
+					} catch (IOException e) {
+						continue;
+					}
+					if (a.isDirectory()) subDirectories.add(new WalkTask(p, visitor, self));
+					else if (matcher == null || matcher.matches(p.getFileName())) visitor.found(p, a);
+				}
+			} catch (IOException e) {
+				return;
+			} finally {
+				if (stream != null) try { stream.close(); } catch (IOException e) {}
+			}
+			if (subDirectories.size() != 0) invokeAll(subDirectories);
+		}
+	}
+}
@@ -3,13 +3,19 @@ package edu.utah.hci.auto;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,20 +40,56 @@ public class GNomExAutoAnalysis {
 	private boolean verbose = false;
 	private double hoursToWait = 0;
 	private long waitTime = 0;
-	private File useqJobCleaner = null;
+	private JobCleaner jobCleaner = null;
+	private int jobCleanerThreads = JobCleaner.DEFAULT_THREADS;
 	private String experimentLinkUrl = null;
 	private String jiraUrl = null;
 	private String dataPolicyUrl = null;
 	private String experimentRequestsToProc = null;
+	private boolean verifyFastqMd5 = true;
+	private int md5Threads = Md5Verifier.DEFAULT_THREADS;
+	private int maxFinishingThreads = 4;
+	private int multiQCWorkers = 2;
+	private int multiQCRunsPerWorker = MultiQCWorkerPool.DEFAULT_RUNS_PER_WORKER;
+	private String multiQCWorkerCommand = null;
+	private File experimentDirectory = null;
+	private boolean fastqStats = true;
+	private long fastqStatsMaxReads = FastqStats.DEFAULT_MAX_READS;
+	private int fastqStatsThreads = FastqStats.DEFAULT_THREADS;
+	private int jobBuilderThreads = GNomExRequest.DEFAULT_JOB_BUILDER_THREADS;
+	private boolean perSampleRelease = false;
+	private String requestIndexFile = null;
+	private RequestIndex requestIndex = null;
 	
 	//internal fields
 	//Date formatting, 2023-11-14 07:43:13.38
 	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 	private Calendar calendar = Calendar.getInstance();
 	private int numberRetriesForMultiQC = 2;
+	private int coresPerFinishingRequest = 2;
+	private int gbPerFinishingRequest = 2;
 	private HashMap<String, String[]> orgLibWorkflowDocs = null;
-	private double hoursPassed = 0;
+	private long lastAliveEmailTime = System.currentTimeMillis();
+	private boolean adaptiveScheduling = false;
+	private double minMinutesToWait = 5;
+	private int metricsPort = 0;
+	private String lifecycleLogFile = null;
+	private double lifecycleLogMB = LifecycleLog.DEFAULT_MAX_BYTES / (1024.0 * 1024.0);
+	private String logFile = "none";
+	private Notifier notifier = null;
+	private String smtpHost = "localhost";
+	private int smtpPort = SmtpClient.DEFAULT_PORT;
+	private String emailFrom = "noreply_auto_analysis@hci.utah.edu";
+	private double alertRepeatHours = Notifier.DEFAULT_REPEAT_WINDOW / (60.0 * 60.0 * 1000.0);
+	private double alertDigestMinutes = Notifier.DEFAULT_DIGEST_INTERVAL / (60.0 * 1000.0);
+	private double logMB = Log.DEFAULT_MAX_BYTES / (1024.0 * 1024.0);
+	private int numberActiveRequests = 0;
+	private int numberCompletedJobs = 0;
+	private int[] priorProgress = {0, 0};
 	private int jobsProcessed = 0;
+	private Md5Verifier md5Verifier = null;
+	private FastqStats fastqStatsCounter = null;
+	private MultiQCWorkerPool multiQCWorkerPool = null;
 	
 	//Requests split by status
 	private ArrayList<GNomExRequest> grsToBuildAutoAnalysis = new ArrayList<GNomExRequest>();
@@ -57,34 +99,38 @@ public class GNomExAutoAnalysis {
 	private ArrayList<GNomExRequest> grsToMultiQC = new ArrayList<GNomExRequest>();
 	private ArrayList<String> errorMessages = new ArrayList<String>();
 
+	/**For the GNomExBenchmark, call processArgs() then each step of the cycle.*/
+	GNomExAutoAnalysis () {}
+
 	public GNomExAutoAnalysis (String[] args) {
 		try {
 
 			processArgs(args);
+			
+			// Each task on its own interval?
+			if (adaptiveScheduling && hoursToWait != 0) runScheduler();
 
 			while (true) {
-				Util.pl("\n########### "+ Util.getDateTime()+ " ###########");
+				Log.info("\n########### "+ Util.getDateTime()+ " ###########");
+				long cycleStart = System.nanoTime();
 				
-				// Query the GNomEx DB for experiment requests
-				Util.pl("\nChecking the GNomEx db...");
-				GNomExDbQuery dbQuery = new GNomExDbQuery(connectionUrl, verbose);
-				if (dbQuery.isFailed()) throw new Exception("ERROR with querying the GNomEx DB");
-
-				// Find new requests ready for analysis, find existing analysis jobs and check their status
-				parseRequests(dbQuery.getRequests());
-
-				// Build new AutoAnalysis Jobs
-				buildAutoAnalysisJobs();
-
-				// Check the existing AutoAnalysis (AutoAnalysis/22597R_27Dec2023) and it's sub job directories (AutoAnalysis/22597R_27Dec2023/22597X4)
-				checkExistingAutoAnalysis();
+				// Query the GNomEx DB, find new requests ready for analysis and build their AutoAnalysis Jobs
+				pollRequests();
 
-				// Run MultiQC and delete the symlinked AutoAnalysis jobs
-				runMultiQCEmailClients();
+				// Check the existing AutoAnalysis, run MultiQC and delete the symlinked AutoAnalysis jobs
+				finishRequests();
+				Metrics.observeSince(Metrics.CYCLE_DURATION, cycleStart, "task", "cycle");
+				
+				// Email error messages?
+				emailErrorMessages();
 
 				// Loop or exit?
-				if (hoursToWait == 0) return;
-				Util.pl("Sleeping "+hoursToWait+" hrs ...");
+				if (hoursToWait == 0) {
+					if (multiQCWorkerPool != null) multiQCWorkerPool.shutdown();
+					fetchNotifier().shutdown(Notifier.SHUTDOWN_WAIT);
+					return;
+				}
+				Log.info("Sleeping "+hoursToWait+" hrs ...");
 				Thread.sleep(waitTime);
 				
 				clearPriorArrays();
@@ -95,26 +141,128 @@ public class GNomExAutoAnalysis {
 
 		} catch (Exception e) {
 			emailErrorMessage("FATAL: GNomExAutoAnalysis terminated, daemon offline! Check HCI run log.\n", e);
-			e.printStackTrace();
+			Log.error("FATAL: GNomExAutoAnalysis terminated", e);
+			if (multiQCWorkerPool != null) multiQCWorkerPool.shutdown();
+			fetchNotifier().shutdown(Notifier.SHUTDOWN_WAIT);
 			System.exit(1);
 		}
 	}
 
-	/*Sends an email that service is alive every 24hrs*/
+	/*Runs the db polling and the request finishing each on their own adaptive interval, never returns unless an exception is thrown.*/
+	private void runScheduler() throws Exception {
+		long minInterval = (long)Math.round(minMinutesToWait * 60.0 * 1000.0);
+		final AdaptiveScheduler scheduler = new AdaptiveScheduler(minInterval, waitTime, "");
+		scheduler.add("GNomEx db polling", new AdaptiveScheduler.Task() {
+			public boolean run() throws Exception {
+				Log.info("\n########### "+ Util.getDateTime()+ " ###########");
+				grsToBuildAutoAnalysis.clear();
+				grsWithAutoAnalysis.clear();
+				grsSkipped.clear();
+				grsOtherHelpRequests.clear();
+				return pollRequests();
+			}
+		});
+		scheduler.add("Finishing", new AdaptiveScheduler.Task() {
+			public boolean run() throws Exception {
+				grsToMultiQC.clear();
+				return finishRequests();
+			}
+		});
+		scheduler.run(new AdaptiveScheduler.Task() {
+			public boolean run() throws Exception {
+				emailErrorMessages();
+				errorMessages.clear();
+				emailAlive();
+				return false;
+			}
+		});
+	}
+	
+	/*Queries the GNomEx db, parses the requests, and builds any new AutoAnalysis jobs. Returns true if any were built.*/
+	private boolean pollRequests() throws Exception {
+		// Query the GNomEx DB for experiment requests
+		Log.info("\nChecking the GNomEx db...");
+		JfrEvents.CyclePhase phase = JfrEvents.beginPhase("gnomex", "GNomEx db polling");
+		long start = System.nanoTime();
+		GNomExDbQuery dbQuery = new GNomExDbQuery(connectionUrl);
+		Metrics.observeSince(Metrics.DB_QUERY_DURATION, start);
+		if (dbQuery.isFailed()) {
+			Metrics.add(Metrics.DB_QUERY_FAILURES, 1);
+			throw new Exception("ERROR with querying the GNomEx DB");
+		}
+
+		// Find new requests ready for analysis, find existing analysis jobs and check their status
+		parseRequests(dbQuery.getRequests());
+
+		// Build new AutoAnalysis Jobs
+		buildAutoAnalysisJobs();
+		Metrics.set(Metrics.REQUESTS, grsToBuildAutoAnalysis.size(), "state", "to_build");
+		Metrics.set(Metrics.REQUESTS, grsWithAutoAnalysis.size(), "state", "with_autoanalysis");
+		Metrics.set(Metrics.REQUESTS, grsSkipped.size(), "state", "skipped");
+		Metrics.set(Metrics.REQUESTS, grsOtherHelpRequests.size(), "state", "other_help");
+		return JfrEvents.commitPhase(phase, grsToBuildAutoAnalysis.size() != 0);
+	}
+	
+	/*Checks the requests with an AutoAnalysis, runs MultiQC and emails the clients of those that are complete.
+	 * Returns true if any were finished or the number of active requests or of their jobs back from CHPC changed, not just because some are waiting.*/
+	private boolean finishRequests() throws Exception {
+		JfrEvents.CyclePhase phase = JfrEvents.beginPhase("gnomex", "Finishing");
+		// Check the existing AutoAnalysis (AutoAnalysis/22597R_27Dec2023) and it's sub job directories (AutoAnalysis/22597R_27Dec2023/22597X4)
+		checkExistingAutoAnalysis();
+		
+		// Save the completed request index
+		saveRequestIndex();
+
+		Metrics.set(Metrics.REQUESTS, numberActiveRequests, "state", "active");
+		Metrics.set(Metrics.REQUESTS, grsToMultiQC.size(), "state", "to_multiqc");
+
+		// Run MultiQC and delete the symlinked AutoAnalysis jobs
+		runMultiQCEmailClients();
+		int[] progress = {numberActiveRequests, numberCompletedJobs};
+		boolean moved = grsToMultiQC.size() != 0 || Arrays.equals(progress, priorProgress) == false;
+		priorProgress = progress;
+		return JfrEvents.commitPhase(phase, moved);
+	}
+
+	/*Sends an email that service is alive every 24hrs of wall clock time*/
 	private void emailAlive() {
-		hoursPassed += hoursToWait;
-		if (hoursPassed >= 24) {
-			hoursPassed = 0;
-			Util.pl("Emailing admin that daemon is running...");
+		long now = System.currentTimeMillis();
+		if (now - lastAliveEmailTime >= 24L * 60 * 60 * 1000) {
+			lastAliveEmailTime = now;
+			Log.info("Emailing admin that daemon is running...");
 			String subject = "GNomEx AutoAnalysis is alive "+Util.getDateTime();
 			String body = "\n"+jobsProcessed+" jobs processed in the last 24hrs\n";
-			Util.sendEmail(subject, adminEmail, body);
+			fetchNotifier().send(adminEmail, subject, body);
 			jobsProcessed = 0;
 		}
 		
 	}
 
-	private void clearPriorArrays() {
+	/*Started on first use, so a fatal error before the config is loaded is still sent with the default mail settings.*/
+	private synchronized Notifier fetchNotifier() {
+		if (notifier == null) {
+			long repeat = (long)Math.round(alertRepeatHours * 60.0 * 60.0 * 1000.0);
+			long digest = (long)Math.round(alertDigestMinutes * 60.0 * 1000.0);
+			notifier = new Notifier(new SmtpClient(smtpHost, smtpPort), emailFrom, repeat, digest);
+		}
+		return notifier;
+	}
+
+	/*Only drops old requests when all are being processed.*/
+	void saveRequestIndex() throws IOException {
+		if (requestIndex != null) requestIndex.save(experimentRequestsToProc.toLowerCase().equals("all"));
+	}
+
+	/*Requests to build, with an AutoAnalysis, skipped, with other help requests, to MultiQC, and active.*/
+	int[] getRequestCounts() {
+		return new int[] {grsToBuildAutoAnalysis.size(), grsWithAutoAnalysis.size(), grsSkipped.size(), grsOtherHelpRequests.size(), grsToMultiQC.size(), numberActiveRequests};
+	}
+
+	ArrayList<GNomExRequest> getRequestsToMultiQC() {
+		return grsToMultiQC;
+	}
+
+	void clearPriorArrays() {
 		grsToBuildAutoAnalysis.clear();
 		grsWithAutoAnalysis.clear();
 		grsSkipped.clear();
@@ -123,54 +271,67 @@ public class GNomExAutoAnalysis {
 		errorMessages.clear();
 	}
 
+	/*Queues each as an alert, repeats are dropped and the rest sent together in the next digest.*/
+	private void emailErrorMessages() {
+		if (errorMessages.size()==0) return;
+		Metrics.add(Metrics.ERRORS, errorMessages.size());
+		Log.info("Emailing error messages...");
+		for (String error: errorMessages) fetchNotifier().alert(adminEmail, "GNomExAutoAnalysis ERROR", error);
+	}
+
 	private void emailErrorMessage(String error, Exception e) {
-		Util.pl("Emailing error messages...");
+		Log.info("Emailing error messages...");
 		String subject = "GNomExAutoAnalysis ERROR";
 		String body = error+"\n"+e.toString();
-		Util.sendEmail(subject, adminEmail, body);
+		fetchNotifier().send(adminEmail, subject, body);
 	}
 
 
-	private void runMultiQCEmailClients() throws IOException {
+	private void runMultiQCEmailClients() throws Exception {
 		// Any jobs?
 		if (grsToMultiQC.size() ==0) return;
 		
+		int numThreads = calculateNumberFinishingThreads();
+		Log.info("\nRunning MultiQC and JobCleaner with "+numThreads+" concurrent requests...");
 		
-		Util.pl("\nRunning MultiQC and JobCleaner...");
+		//each finisher emails its client as soon as its request is done
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		ArrayList<RequestFinisher> finishers = new ArrayList<RequestFinisher>();
 		for (GNomExRequest gr: grsToMultiQC) {
-			
-			// AutoAnalysis_22Dec2023
-			if (verbose) Util.pl("\t"+gr.getAutoAnalysisMainDirectory());
-			String alignDir = gr.getAutoAnalysisMainDirectory().getCanonicalPath();
-			String jobsDir = gr.getAutoAnalysisJobsDirectory().getCanonicalPath();
-			String name = gr.getRequestIdCleaned();
-			
 			// See if there are any additional multiQC options
 			String orgLib = gr.getOrganism()+"_"+gr.getLibraryPreparation();
 			String opts = orgLibWorkflowDocs.get(orgLib)[1].trim();
 			if (opts.toLowerCase().equals("none")) opts = "";
 			
-			StringBuilder sb = new StringBuilder();
-			// set to exit upon fail
-			sb.append("set -e\n");
-			// docker multiqc
-			sb.append("docker run --rm --user $(id -u):$(id -g) -v "+alignDir+":"+alignDir+
-					" ewels/multiqc multiqc "+opts+" --outdir "+alignDir+"/MultiQC --title "+name+
-					" --filename "+name+"_MultiQCReport.html "+jobsDir+"\n");
-			// small file cleanup
-			sb.append("java -jar -Xmx5G "+useqJobCleaner.getCanonicalPath()+" -n 'Logs,RunScripts' -m -r "+
-					jobsDir+" -e 'COMPLETE,.tbi,.crai,.bai'\n");
-			
-			//run it, will retry
-			CommandRunner cr = new CommandRunner (numberRetriesForMultiQC, verbose, gr.getAutoAnalysisMainDirectory(), new String[] {sb.toString()});
-			if (cr.isFailed()) throw new IOException(cr.getErrorMessage());
-			
-			//email client that data is ready
-			emailClient(gr);
+			RequestFinisher rf = new RequestFinisher(gr, opts, jobCleaner, multiQCWorkerPool, numberRetriesForMultiQC, verbose, this);
+			finishers.add(rf);
+			executor.execute(rf);
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		
+		//failures only affect their own request
+		for (RequestFinisher rf: finishers) {
+			if (rf.isFailed()) errorMessages.add(rf.getErrorMessage());
+		}
+	}
+	
+	/*Number of requests to finish at once, limited by cores, free memory, and the maxFinishingThreads.*/
+	private int calculateNumberFinishingThreads() {
+		int numThreads = Math.min(maxFinishingThreads, grsToMultiQC.size());
+		int byCores = Runtime.getRuntime().availableProcessors() / coresPerFinishingRequest;
+		numThreads = Math.min(numThreads, byCores);
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			long freeGb = ((com.sun.management.OperatingSystemMXBean)os).getFreeMemorySize() / 1073741824L;
+			numThreads = Math.min(numThreads, (int)(freeGb / gbPerFinishingRequest));
 		}
+		if (numThreads < 1) numThreads = 1;
+		return numThreads;
 	}
 
-	private void emailClient(GNomExRequest gr) {
+	/**Emails the requestor that their AutoAnalysis is ready, called by the RequestFinishers.*/
+	public void emailClient(GNomExRequest gr) {
 		String subject = "GNomEx AutoAnalysis for "+gr.getRequestIdCleaned()+" is complete";
 		
 		StringBuilder sb = new StringBuilder();
@@ -181,41 +342,85 @@ public class GNomExAutoAnalysis {
 				+ "Browser configured AWS account, the files will be uploaded into it and then deleted. See:\n\t"+ dataPolicyUrl+ "\n\n");
 		sb.append("HCI Cancer Bioinformatics Shared Resource (CBI)\nhttps://huntsmancancer.org/cbi\n\n");
 
-Util.pl("\tEmailing ADMIN! Change back to client!");
-Util.sendEmail(subject, adminEmail, sb.toString());
-//Util.sendEmail(subject, gr.getRequestorEmail(), sb.toString());
+Log.info("\tEmailing ADMIN! Change back to client!");
+fetchNotifier().send(adminEmail, subject, sb.toString());
+//fetchNotifier().send(gr.getRequestorEmail(), subject, sb.toString());
 		
 	}
 
-	private void checkExistingAutoAnalysis() throws Exception{
+	void checkExistingAutoAnalysis() throws Exception{
+		numberActiveRequests = 0;
+		numberCompletedJobs = 0;
 		// Any jobs?
 		if (grsWithAutoAnalysis.size() ==0) return;
 		
-		Util.pl("\nChecking AutoAnalysis jobs...");
+		Log.info("\nChecking AutoAnalysis jobs...");
 		for (GNomExRequest gr: grsWithAutoAnalysis) {
 			
+			//finished in a prior cycle?
+			RequestIndex.Entry entry = requestIndex == null ? null : requestIndex.get(gr.getRequestIdCleaned());
+			if (entry != null && entry.isFinished()) {
+				Log.debug("\tCOMPLETE\t", gr.getAutoAnalysisMainDirectory());
+				continue;
+			}
+			
 			//Is it all complete? e.g. MultiQC has run and the symlinked dirs are removed
 			File complete = new File (gr.getAutoAnalysisMainDirectory(), "COMPLETE");
 			File mqc = new File (gr.getAutoAnalysisMainDirectory(), "MultiQC");
 			if (complete.exists() || mqc.exists()) {
-				if (verbose) Util.pl("\tCOMPLETE\t"+ gr.getAutoAnalysisMainDirectory());
+				Log.debug("\tCOMPLETE\t", gr.getAutoAnalysisMainDirectory());
+				if (requestIndex != null) requestIndex.addFinished(gr.getRequestIdCleaned(), gr.getAutoAnalysisMainDirectory());
 				continue;
 			}
 			
+			//more samples to release? MultiQC waits for all of them
+			numberActiveRequests++;
+			if (gr.isReleasing()) {
+				Log.debug("\tRELEASING\t", gr.getAutoAnalysisMainDirectory());
+				if (requestIndex != null) requestIndex.remove(gr.getRequestIdCleaned());
+				continue;
+			}
 			
-			//OK, check sub directories
-			if (verbose) Util.pl("\t"+ gr.getAutoAnalysisJobsDirectory());
-			File[] jobs = Util.extractOnlyDirectories(gr.getAutoAnalysisJobsDirectory());
-			
+			//OK, check sub directories, just those still outstanding if indexed
+			Log.debug("\t", gr.getAutoAnalysisJobsDirectory());
 			boolean allComplete = true;
-			for (File jobDir: jobs) {
-				File comp = new File(jobDir, "COMPLETE");
-				//the only jobs copied back will have a COMPLETE, otherwise they are waiting on CHPC
-				if (comp.exists() == false) {
-					allComplete = false; 
-					if (verbose) Util.pl("\t\tWAITING ON\t"+jobDir.getName());
+			File[] jobs = null;
+			if (entry != null && entry.getMainDirectory().equals(gr.getAutoAnalysisMainDirectory())) {
+				for (String jobName: entry.getOutstandingJobs()) {
+					//the only jobs copied back will have a COMPLETE, otherwise they are waiting on CHPC
+					if (new File(gr.getAutoAnalysisJobsDirectory(), jobName+"/COMPLETE").exists()) {
+						entry.setJobComplete(jobName);
+						Log.debug("\t\tCOMPLETE\t", jobName);
+					}
+					else {
+						allComplete = false;
+						Log.debug("\t\tWAITING ON\t", jobName);
+					}
+				}
+				ArrayList<String> jobNames = entry.getJobs();
+				numberCompletedJobs += jobNames.size() - entry.getOutstandingJobs().size();
+				jobs = new File[jobNames.size()];
+				for (int i=0; i< jobs.length; i++) jobs[i] = new File(gr.getAutoAnalysisJobsDirectory(), jobNames.get(i));
+			}
+			else {
+				jobs = Util.extractOnlyDirectories(gr.getAutoAnalysisJobsDirectory());
+				ArrayList<String> jobNames = new ArrayList<String>();
+				ArrayList<String> outstanding = new ArrayList<String>();
+				for (File jobDir: jobs) {
+					jobNames.add(jobDir.getName());
+					File comp = new File(jobDir, "COMPLETE");
+					//the only jobs copied back will have a COMPLETE, otherwise they are waiting on CHPC
+					if (comp.exists() == false) {
+						allComplete = false; 
+						outstanding.add(jobDir.getName());
+						Log.debug("\t\tWAITING ON\t", jobDir.getName());
+					}
+					else {
+						numberCompletedJobs++;
+						Log.debug("\t\tCOMPLETE\t", jobDir.getName());
+					}
 				}
-				else if (verbose) Util.pl("\t\tCOMPLETE\t"+jobDir.getName());
+				if (requestIndex != null) requestIndex.addActive(gr.getRequestIdCleaned(), gr.getAutoAnalysisMainDirectory(), jobNames, outstanding);
 			}
 			
 			//setup for multi qc?
@@ -226,29 +431,54 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 					Path sl = Paths.get(symLinkName);
 					if(Files.exists(sl)) {
 						//Delete symlinked job dirs
-						if (verbose) Util.pl("\t\tDeleting symlinked job dir\t"+symLinkName);
+						Log.debug("\t\tDeleting symlinked job dir\t", symLinkName);
 						Files.delete(sl);
 					}
 				}
+				LifecycleLog.event(LifecycleLog.ALL_RETURNED, gr.getRequestIdCleaned(), null);
 				//record how many jobs processed
 				jobsProcessed+= jobs.length;
+				Metrics.add(Metrics.JOBS_PROCESSED, jobs.length);
 			}
 		}
 	}
 
-	private void buildAutoAnalysisJobs() throws IOException {
+	void buildAutoAnalysisJobs() throws IOException {
 		// Any jobs?
 		if (grsToBuildAutoAnalysis.size() ==0) return;
-		Util.pl("\nBuilding new AutoAnalysis jobs...");
+		Log.info("\nBuilding new AutoAnalysis jobs...");
+		if (md5Verifier != null) md5Verifier.pruneCache();
 		
 		for (GNomExRequest r: grsToBuildAutoAnalysis) {
-			boolean created = r.createAutoAnalysisJobs(hciLinkDirectory);
+			//verify the fastq md5s before shipping them off to CHPC
+			if (verifyFastqMd5 && verifyMd5s(r) == false) continue;
+			//count reads and bases for the RUNME
+			if (fastqStatsCounter != null) {
+				Log.debug("\tCounting fastq reads for ", r.getRequestIdCleaned());
+				ArrayList<String> countErrors = new ArrayList<String>();
+				r.setFastqCounts(fastqStatsCounter.calculate(r.getFastqFiles(), countErrors));
+				errorMessages.addAll(countErrors);
+			}
+			boolean created = r.createAutoAnalysisJobs(hciLinkDirectory, jobBuilderThreads);
 			if (created == false) throw new IOException("Failed to create a AutoAnalysis job for "+r.getRequestIdCleaned());
 		}
 	}
 
-	private void parseRequests(GNomExRequest[] requests) throws Exception {
-		Util.pl("\nParsing GNomExRequests...");
+	/**Checks the fastq against the md5 manifests, if any fail the request is skipped and the admin emailed.*/
+	private boolean verifyMd5s(GNomExRequest r) throws IOException {
+		Log.debug("\tVerifying fastq md5s for ", r.getRequestIdCleaned());
+		ArrayList<String> md5Errors = md5Verifier.verify(r.getFastqFiles(), r.getMd5Files());
+		if (md5Errors.size() == 0) return true;
+		String error = "ERROR: fastq md5 verification failed for "+r.getRequestIdCleaned()+", skipping AutoAnalysis\n\t"+Util.arrayListToString(md5Errors, "\n\t");
+		Log.error("\t"+error);
+		r.setErrorMessages(error);
+		errorMessages.add(error);
+		grsSkipped.add(r);
+		return false;
+	}
+
+	void parseRequests(GNomExRequest[] requests) throws Exception {
+		Log.info("\nParsing GNomExRequests...");
 
 		boolean test = experimentRequestsToProc.toLowerCase().equals("all") == false;
 			
@@ -256,15 +486,15 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 
 			if (test) {
 				if (r.getRequestIdCleaned().equals(experimentRequestsToProc) == false) continue;
-				else Util.pl("\nTest ExperimentRequest:\n"+r+"\n");
+				else Log.info("\nTest ExperimentRequest:\n"+r+"\n");
 			}
-			else if (verbose) Util.pl("\tSummary:\t"+r.simpleToString());
+			else if (Log.isDebug()) Log.debug("\tSummary:\t", r.simpleToString());
 			
 			//do they want alignment and qc?
 			if (r.getGenomeBuild().equals("NA")) {
 				grsOtherHelpRequests.add(r);
 				r.setErrorMessages("No genome build selected, skipping AutoAnalysis");
-				if (verbose) Util.pl("\t"+ r.getErrorMessages());
+				Log.debug("\t", r.getErrorMessages());
 				continue;
 			}
 
@@ -276,21 +506,37 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 			if (repoYearSubDir == null) throw new IOException ("Failed to find the year "+year+" sub directory in "+experimentalSubDirs +" for "+r.getRequestIdCleaned());
 			File requestDirOnRepo = new File (repoYearSubDir, r.getRequestIdCleaned());
 			if (requestDirOnRepo.exists() == false) {
-				Util.pl("\tERROR: failed to find the Request directory "+requestDirOnRepo+" skipping!");
+				Log.error("\tERROR: failed to find the Request directory "+requestDirOnRepo+" skipping!");
 				r.setErrorMessages("Failed to find the request directory in the repo : "+ requestDirOnRepo);
 				grsSkipped.add(r);
 			}
 			else {
 				r.setRequestDirectory(requestDirOnRepo);
+				//finished in a prior cycle? skip scanning the request dir
+				File finished = requestIndex == null ? null : requestIndex.fetchFinishedDirectory(r.getRequestIdCleaned());
+				if (finished != null) {
+					r.setAutoAnalysisMainDirectory(finished);
+					grsWithAutoAnalysis.add(r);
+					continue;
+				}
 				//check for AutoAnalysis
 				if (r.checkForAutoAnalysis()) {
-					if (verbose) Util.pl("\tFound exiting AutoAnalysis dir");
+					Log.debug("\tFound exiting AutoAnalysis dir");
 					grsWithAutoAnalysis.add(r);
+					//still releasing samples? build any that are now ready
+					if (r.isReleasing() && r.checkFastq(true)) {
+						String[] pathsMultiQCOptions = orgLibWorkflowDocs.get(r.getOrganism()+"_"+r.getLibraryPreparation());
+						if (pathsMultiQCOptions != null) {
+							Log.debug("\tReleasing ", r.getFastqFiles().length, " more fastq, ", r.getNumberSamplesWaiting(), " samples still waiting");
+							r.setWorkflowPaths(pathsMultiQCOptions[0]);
+							grsToBuildAutoAnalysis.add(r);
+						}
+					}
 					continue;
 				}
 				//check fastq if AutoAnalysis not found
-				if (r.checkFastq() == false) {
-					if (verbose) Util.pl("\tFailed to find Fastq ready for AutoAnalysis in the Request directory "+requestDirOnRepo+" skipping! No md5? Too new?");
+				if (r.checkFastq(perSampleRelease) == false) {
+					Log.debug("\tFailed to find Fastq ready for AutoAnalysis in the Request directory ", requestDirOnRepo, " skipping! No md5? Too new?");
 					r.setErrorMessages("Failed to find Fastq ready for AutoAnalysis in the repo : "+ requestDirOnRepo);
 					grsSkipped.add(r);
 					continue;
@@ -302,7 +548,7 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 					//is this a supported organism_libraryPrep?
 					String orgLib = r.getOrganism()+"_"+r.getLibraryPreparation();
 					if (orgLibWorkflowDocs.containsKey(orgLib)) {
-						if (verbose) Util.pl("\tReady for Bulk RNASeq AutoAnalysis");
+						Log.debug("\tReady for Bulk RNASeq AutoAnalysis");
 						String[] pathsMultiQCOptions = orgLibWorkflowDocs.get(orgLib);
 						r.setWorkflowPaths(pathsMultiQCOptions[0]);
 						grsToBuildAutoAnalysis.add(r);
@@ -310,16 +556,16 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 					else {
 						grsSkipped.add(r);
 						r.setErrorMessages("Library Protocol not supported at this time, skipping AutoAnalysis ");
-						if (verbose) Util.pl("\t"+ r.getErrorMessages());
+						Log.debug("\t", r.getErrorMessages());
 					}
 				}
 			}
 		}
 		//stats
-		Util.pl("\t"+grsToBuildAutoAnalysis.size()+ "\tAutoAnalysis to run");
-		Util.pl("\t"+grsWithAutoAnalysis.size()+ "\tWith an existing AutoAnalysis");
-		Util.pl("\t"+grsSkipped.size()+ "\tSkipped");
-		Util.pl("\t"+grsOtherHelpRequests.size()+ "\tOthers with non AutoAnalysis help requests");
+		Log.info("\t"+grsToBuildAutoAnalysis.size()+ "\tAutoAnalysis to run");
+		Log.info("\t"+grsWithAutoAnalysis.size()+ "\tWith an existing AutoAnalysis");
+		Log.info("\t"+grsSkipped.size()+ "\tSkipped");
+		Log.info("\t"+grsOtherHelpRequests.size()+ "\tOthers with non AutoAnalysis help requests");
 	}
 
 
@@ -335,7 +581,7 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 	/**This method will process each argument and assign new variables
 	 * @throws Exception */
 	public void processArgs(String[] args) throws Exception{
-		Util.pl("Arguments: "+ Util.stringArrayToString(args, " ") +"\n");
+		Log.info("Arguments: "+ Util.stringArrayToString(args, " ") +"\n");
 		Pattern pat = Pattern.compile("-[a-z]");
 		for (int i = 0; i<args.length; i++){
 			String lcArg = args[i].toLowerCase();
@@ -346,7 +592,7 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 					switch (test){
 					case 'c': configFile = new File(args[++i]); break;
 					case 'p': credentialFile = new File(args[++i]); break;
-					case 'v': verbose = true; break;
+					case 'v': verbose = true; Log.setLevel(Log.Level.DEBUG); break;
 					case 'd': ; break;
 					case 'l': ; break;
 					default: Util.printErrAndExit("\nProblem, unknown option! " + mat.group());
@@ -370,6 +616,27 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 		loadSupportedWorkflows();
 		
 		addRealPwToConnectionUrl();
+		
+		if (verifyFastqMd5) md5Verifier = new Md5Verifier(md5Threads);
+		if (fastqStats) fastqStatsCounter = new FastqStats(fastqStatsThreads, fastqStatsMaxReads);
+		if (requestIndexFile.toLowerCase().equals("none") == false) requestIndex = new RequestIndex(new File(requestIndexFile));
+		jobCleaner = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, jobCleanerThreads);
+		//the -m the USeq JobCleaner was run with
+		jobCleaner.setDeleteMacOSXFiles(true);
+		
+		//warm MultiQC workers, the default mounts the whole experiment dir into a long lived container
+		if (multiQCWorkers > 0) {
+			String[] workerCommand = null;
+			if (multiQCWorkerCommand != null) workerCommand = new String[] {"bash", "-c", multiQCWorkerCommand};
+			else workerCommand = MultiQCWorkerPool.dockerWorkerCommand(experimentDirectory);
+			multiQCWorkerPool = new MultiQCWorkerPool(workerCommand, multiQCWorkers, multiQCRunsPerWorker);
+		}
+		
+		Metrics.set(Metrics.START_TIME, System.currentTimeMillis() / 1000);
+		if (lifecycleLogFile.toLowerCase().equals("none") == false) {
+			LifecycleLog.open(new File(lifecycleLogFile), "gnomex", (long)(lifecycleLogMB * 1024 * 1024), LifecycleLog.DEFAULT_NUMBER_TO_KEEP);
+		}
+		if (metricsPort != 0) Metrics.start(metricsPort);
 
 
 	}	
@@ -382,7 +649,7 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 	}
 
 	private void loadSupportedWorkflows() throws Exception {
-		Util.pl("\nParsing Supported Organisms and Library Preps...");
+		Log.info("\nParsing Supported Organisms and Library Preps...");
 		
 		BufferedReader in = Util.fetchBufferedReader(supportedOrgLibWfConfigFile);
 		String[] fields;
@@ -395,11 +662,11 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 			if (line.startsWith("#") || line.length()==0) continue;
 			//Organism LibraryKit WFDirFiles MultiQCOptions
 			fields = Util.TAB.split(line);
-			if (fields.length != 4) Util.pl("\tWARNING: missing fields, skipping -> "+line);
+			if (fields.length != 4) Log.warn("\tWARNING: missing fields, skipping -> "+line);
 			else {
 				String key = fields[0].trim()+"_"+fields[1].trim();
 				orgLibWorkflowDocs.put(key, new String[] {fields[2], fields[3]});
-				if (verbose) Util.pl("\t"+line);
+				Log.debug("\t", line);
 			}
 		}
 		in.close();
@@ -407,7 +674,7 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 	}
 
 	private void loadConfiguration() {
-		Util.pl("\nParsing Configuration File...");
+		Log.info("\nParsing Configuration File...");
 		HashMap<String,String> configSettings = Util.loadFileIntoHash(configFile, 0, 1);
 
 		//connectionUrl
@@ -429,6 +696,12 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 		//adminEmail
 		adminEmail = configSettings.get("adminEmail");
 		if (adminEmail == null) Util.printErrAndExit("\nError: failed to find the 'adminEmail' key in "+ configFile);
+		//mail goes to the local MTA, identical alerts are only sent once per alertRepeatHours, the rest batched every alertDigestMinutes, optional
+		if (configSettings.containsKey("smtpHost")) smtpHost = configSettings.get("smtpHost");
+		if (configSettings.containsKey("smtpPort")) smtpPort = Integer.parseInt(configSettings.get("smtpPort"));
+		if (configSettings.containsKey("emailFrom")) emailFrom = configSettings.get("emailFrom");
+		if (configSettings.containsKey("alertRepeatHours")) alertRepeatHours = Double.parseDouble(configSettings.get("alertRepeatHours"));
+		if (configSettings.containsKey("alertDigestMinutes")) alertDigestMinutes = Double.parseDouble(configSettings.get("alertDigestMinutes"));
 		
 		//testRequest
 		experimentRequestsToProc = configSettings.get("testRequest");
@@ -438,6 +711,46 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 		if (configSettings.containsKey("hoursToWait") == false) Util.printErrAndExit("\nError: failed to find the 'hoursToWait' key in "+ configFile);
 		hoursToWait = Double.parseDouble(configSettings.get("hoursToWait"));
 		waitTime = (long)Math.round(hoursToWait * 60.0 * 60.0 * 1000.0);
+		
+		//run each task on its own adaptive interval, hoursToWait is then the longest wait, optional
+		if (configSettings.containsKey("adaptiveScheduling")) adaptiveScheduling = Boolean.parseBoolean(configSettings.get("adaptiveScheduling"));
+		if (configSettings.containsKey("minMinutesToWait")) minMinutesToWait = Double.parseDouble(configSettings.get("minMinutesToWait"));
+		
+		//Serve Prometheus metrics on this port, 0 to disable, optional
+		if (configSettings.containsKey("metricsPort")) metricsPort = Integer.parseInt(configSettings.get("metricsPort"));
+		
+		//Job lifecycle event log, defaults to beside the config file, none to disable, optional
+		lifecycleLogFile = new File(configFile.getAbsoluteFile().getParentFile(), "autoAnalysisLifecycle_gnomex.jsonl").getPath();
+		if (configSettings.containsKey("gnomexLifecycleLogFile")) lifecycleLogFile = configSettings.get("gnomexLifecycleLogFile");
+		if (configSettings.containsKey("lifecycleLogMB")) lifecycleLogMB = Double.parseDouble(configSettings.get("lifecycleLogMB"));
+		//Daemon log file, none to keep writing to stdout and stderr, optional
+		if (configSettings.containsKey("gnomexLogFile")) logFile = configSettings.get("gnomexLogFile");
+		if (configSettings.containsKey("logMB")) logMB = Double.parseDouble(configSettings.get("logMB"));
+
+		//fastq md5 verification, optional
+		if (configSettings.containsKey("verifyFastqMd5")) verifyFastqMd5 = Boolean.parseBoolean(configSettings.get("verifyFastqMd5"));
+		if (configSettings.containsKey("md5Threads")) md5Threads = Integer.parseInt(configSettings.get("md5Threads"));
+
+		//max number of requests to run MultiQC and the JobCleaner on at once, optional
+		if (configSettings.containsKey("maxFinishingThreads")) maxFinishingThreads = Integer.parseInt(configSettings.get("maxFinishingThreads"));
+		
+		//warm MultiQC workers, optional
+		if (configSettings.containsKey("multiQCWorkers")) multiQCWorkers = Integer.parseInt(configSettings.get("multiQCWorkers"));
+		if (configSettings.containsKey("multiQCRunsPerWorker")) multiQCRunsPerWorker = Integer.parseInt(configSettings.get("multiQCRunsPerWorker"));
+		if (configSettings.containsKey("multiQCWorkerCommand")) multiQCWorkerCommand = configSettings.get("multiQCWorkerCommand");
+
+		//fastq pre-flight read counts, optional
+		if (configSettings.containsKey("fastqStats")) fastqStats = Boolean.parseBoolean(configSettings.get("fastqStats"));
+		if (configSettings.containsKey("fastqStatsMaxReads")) fastqStatsMaxReads = Long.parseLong(configSettings.get("fastqStatsMaxReads"));
+		if (configSettings.containsKey("fastqStatsThreads")) fastqStatsThreads = Integer.parseInt(configSettings.get("fastqStatsThreads"));
+		
+		//job building, optional
+		if (configSettings.containsKey("jobBuilderThreads")) jobBuilderThreads = Integer.parseInt(configSettings.get("jobBuilderThreads"));
+		if (configSettings.containsKey("perSampleRelease")) perSampleRelease = Boolean.parseBoolean(configSettings.get("perSampleRelease"));
+		
+		//completed request index, optional, defaults to a file beside the config
+		requestIndexFile = new File(configFile.getAbsoluteFile().getParentFile(), "autoAnalysisRequestIndex.txt").getPath();
+		if (configSettings.containsKey("requestIndexFile")) requestIndexFile = configSettings.get("requestIndexFile");
 
 		//experimental directories
 		String experimentDirString = configSettings.get("experimentDir");
@@ -445,6 +758,7 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 		File ed = new File(experimentDirString);
 		if (ed.exists() == false) Util.printErrAndExit("\nError: failed to find the 'experimentDir' directory in "+ configFile);
 		experimentalSubDirs = Util.extractDirectories(ed);
+		experimentDirectory = ed;
 		if (experimentalSubDirs.containsKey("2023") == false) Util.printErrAndExit("\nError: failed to find the '2023' directory in "+ ed);
 
 			
@@ -455,10 +769,9 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 		hciLinkDirectory = new File (hciLinkDirectoryString);	
 		if (hciLinkDirectory.canWrite() == false) Util.printErrAndExit("\nError: cannot write to the 'hciLinkDirectory'"+ hciLinkDirectory);
 		
-		//JobCleaner path command
-		if (configSettings.containsKey("useqJobCleaner") == false) Util.printErrAndExit("\nError: failed to find the 'useqJobCleaner' key in "+ configFile);
-		useqJobCleaner = new File (configSettings.get("useqJobCleaner"));
-		if (useqJobCleaner.exists() == false) Util.printErrAndExit("\nError: failed to find the 'useqJobCleaner' app in "+ configFile);
+		//JobCleaner, now in process, optional
+		if (configSettings.containsKey("jobCleanerThreads")) jobCleanerThreads = Integer.parseInt(configSettings.get("jobCleanerThreads"));
+		if (configSettings.containsKey("useqJobCleaner")) Log.warn("\tWARNING: the 'useqJobCleaner' key is no longer used, the JobCleaner runs in process");
 		
 		// supportedOrgLibWfConfigFile
 		if (configSettings.containsKey("supportedOrgLibWfConfigFile") == false) Util.printErrAndExit("\nError: failed to find the 'supportedOrgLibWfConfigFile' key in "+ configFile);
@@ -466,10 +779,30 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 		if (supportedOrgLibWfConfigFile.exists() == false) Util.printErrAndExit("\nError: failed to find the 'supportedOrgLibWfConfigFile' app in "+ configFile);
 		
 		
+		if (logFile.toLowerCase().equals("none") == false) {
+			try {
+				Log.toFile(new File(logFile), (long)(logMB * 1024 * 1024), Log.DEFAULT_NUMBER_TO_KEEP);
+			} catch (IOException e) {
+				Util.printErrAndExit("\nError: failed to open the log file "+logFile+" "+e.getMessage());
+			}
+		}
+		
 		//print out settings
-		Util.pl("Config Settings..."+
+		Log.info("Config Settings..."+
 				"\n  adminEmail\t"+ adminEmail+
+				"\n  smtpHost\t"+ smtpHost+
+				"\n  smtpPort\t"+ smtpPort+
+				"\n  emailFrom\t"+ emailFrom+
+				"\n  alertRepeatHours\t"+ alertRepeatHours+
+				"\n  alertDigestMinutes\t"+ alertDigestMinutes+
 				"\n  hoursToWait\t"+ hoursToWait+
+				"\n  adaptiveScheduling\t"+ adaptiveScheduling+
+				"\n  minMinutesToWait\t"+ minMinutesToWait+
+				"\n  metricsPort\t"+ metricsPort+
+				"\n  gnomexLifecycleLogFile\t"+ lifecycleLogFile+
+				"\n  lifecycleLogMB\t"+ lifecycleLogMB+
+				"\n  gnomexLogFile\t"+ logFile+
+				"\n  logMB\t"+ logMB+
 				"\n  verbose\t"+verbose+
 				"\n  connectionUrl\t"+ connectionUrl+
 				"\n  experimentDirString\t"+ experimentDirString+
@@ -479,14 +812,26 @@ Util.sendEmail(subject, adminEmail, sb.toString());
 				"\n  jiraUrl\t"+ jiraUrl+
 				"\n  dataPolicyUrl\t"+ dataPolicyUrl+
 				"\n  supportedOrgLibWfConfigFile\t"+ supportedOrgLibWfConfigFile+
-				"\n  useqJobCleaner\t"+ useqJobCleaner
+				"\n  jobCleanerThreads\t"+ jobCleanerThreads+
+				"\n  verifyFastqMd5\t"+ verifyFastqMd5+
+				"\n  md5Threads\t"+ md5Threads+
+				"\n  maxFinishingThreads\t"+ maxFinishingThreads+
+				"\n  multiQCWorkers\t"+ multiQCWorkers+
+				"\n  multiQCRunsPerWorker\t"+ multiQCRunsPerWorker+
+				"\n  multiQCWorkerCommand\t"+ multiQCWorkerCommand+
+				"\n  fastqStats\t"+ fastqStats+
+				"\n  fastqStatsMaxReads\t"+ fastqStatsMaxReads+
+				"\n  fastqStatsThreads\t"+ fastqStatsThreads+
+				"\n  jobBuilderThreads\t"+ jobBuilderThreads+
+				"\n  perSampleRelease\t"+ perSampleRelease+
+				"\n  requestIndexFile\t"+ requestIndexFile
 				);
 		
 	}
 
 
 	public static void printDocs(){
-		Util.pl("\n" +
+		Log.info("\n" +
 				"**************************************************************************************\n" +
 				"**                            GNomEx Auto Analysis: Jan 2024                        **\n" +
 				"**************************************************************************************\n" +
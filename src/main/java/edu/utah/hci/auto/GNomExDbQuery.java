@@ -2,7 +2,6 @@ package edu.utah.hci.auto;
 
 import java.sql.*;
 import java.util.ArrayList;
-import javax.xml.bind.*;
 
 /**Runs primary analysis as requested in GNomEx, fires every 6hrs
  * 1) Interrogates the standard GNomEx sql server for analysis requests submitted with the Experiment Request
@@ -19,23 +18,29 @@ public class GNomExDbQuery {
 	private ResultSet rs = null;
 	private GNomExRequest[] requests = null;
 	private boolean failed = false;
-	private boolean verbose = true;
 
-	public GNomExDbQuery (String connectionUrl, boolean verbose) {
+	public GNomExDbQuery (String connectionUrl) {
 		this.connectionUrl = connectionUrl;
-		this.verbose = verbose;
+		JfrEvents.DbQuery event = new JfrEvents.DbQuery();
+		event.begin();
 		
 		try {
 			runQuery();
 			
 		} catch (Exception e) {
 			failed = true;
-			e.printStackTrace();
+			Log.error("ERROR: querying the GNomEx db", e);
 			
 		} finally {
 			if(rs != null) try { rs.close(); } catch(Exception e) {}
 			if(stmt != null) try { stmt.close(); } catch(Exception e) {}
 			if(con != null) try { con.close(); } catch(Exception e) {}
+			event.end();
+			if (event.shouldCommit()) {
+				event.rows = requests == null ? 0 : requests.length;
+				event.succeeded = failed == false;
+				event.commit();
+			}
 		}
 	}
 	
@@ -46,17 +51,17 @@ public class GNomExDbQuery {
 	}
 
 	public void runQuery() throws Exception {
-			if (verbose) Util.pl("Instantiating a driver...");
+			Log.debug("Instantiating a driver...");
 			Driver d = (Driver) Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver").newInstance();
-			if (verbose) Util.pl("\tDriver "+d);
+			Log.debug("\tDriver ", d);
 
 			//establish connection
-			if (verbose) Util.pl("Attempting to make a connection...");
+			Log.debug("Attempting to make a connection...");
 			Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
 			con = DriverManager.getConnection(connectionUrl);
 			
 			//query last 12 months, fastq is only guaranteed to be around for 6 months
-			if (verbose) Util.pl("Attempting query....");
+			Log.debug("Attempting query....");
 			String SQL = "SELECT DISTINCT "+
 					"request.number,  "+				//0
 					"request.createDate,  "+			//1
@@ -83,7 +88,7 @@ public class GNomExDbQuery {
 			
 			stmt = con.createStatement();
 			rs = stmt.executeQuery(SQL);
-			if (verbose) Util.pl("Loading results...");
+			Log.debug("Loading results...");
 			ArrayList<String[]> requestsAl = new ArrayList<String[]>();
 			while (rs.next()) {
 				String[] results = new String[numReturnValues];
@@ -94,7 +99,7 @@ public class GNomExDbQuery {
 					else results[resultsIndex++] = "NA";
 				}
 				requestsAl.add(results);
-				//Util.pl(Misc.stringArrayToString(results, "\n")+"\n");
+				//Log.info(Misc.stringArrayToString(results, "\n")+"\n");
 			}
 			
 			parseRequests(requestsAl);
@@ -2,11 +2,28 @@ package edu.utah.hci.auto;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GNomExRequest {
 	
+	public static final int DEFAULT_JOB_BUILDER_THREADS = 8;
+	/*Written to the AutoAnalysis dir while samples are still being released, holds back MultiQC.*/
+	public static final String RELEASING = "RELEASING";
+	
 	private String[] dbResults;
 	private String originalRequestId;
 	private String requestIdCleaned;
@@ -21,8 +38,12 @@ public class GNomExRequest {
 	
 	private File requestDirectory = null;
 	private File[] fastqFiles = null;
+	private File[] md5Files = null;
+	private HashMap<File, FastqStats.Counts> fastqCounts = null;
 	private File autoAnalysisMainDirectory = null;
 	private File autoAnalysisJobsDirectory = null;
+	private boolean allSamplesReleased = true;
+	private int numberSamplesWaiting = 0;
 	
 	/*Comma delimited, no spaces, full path, on Redwood, if a dir the contents will be copied into each job.*/
 	private String workflowPaths = null;
@@ -66,56 +87,130 @@ public class GNomExRequest {
 	}
 	
 	public boolean createAutoAnalysisJobs(File chpcLinkDirectory) {
+		return createAutoAnalysisJobs(chpcLinkDirectory, DEFAULT_JOB_BUILDER_THREADS);
+	}
+	
+	/**Builds a job directory for each sample in parallel then links them into the chpcLinkDirectory.
+	 * Each job is built under a hidden temp name and renamed into place, and only linked once every job is complete,
+	 * so the CHPC side never sees a half built job. On failure the AutoAnalysis directory and any links are removed.
+	 * With per sample release, see checkFastq(true), a RELEASING file is kept in the AutoAnalysis dir until the last sample's
+	 * job is linked, and later calls add to the existing AutoAnalysis dir, only removing their own jobs on failure.*/
+	public boolean createAutoAnalysisJobs(File chpcLinkDirectory, int numberThreads) {
+		ArrayList<Path> chpcLinks = new ArrayList<Path>();
+		ArrayList<File> jobDirs = new ArrayList<File>();
+		boolean continuing = isReleasing();
+		ExecutorService executor = null;
 		try {
 			//create the dir AutoAnalysis_22Dec2023
-			autoAnalysisMainDirectory = new File (requestDirectory, "AutoAnalysis_"+Util.getDateNoSpaces());
-			autoAnalysisMainDirectory.mkdirs();
-			autoAnalysisJobsDirectory = new File(autoAnalysisMainDirectory, "Jobs");
-			autoAnalysisJobsDirectory.mkdir();
-			if (autoAnalysisJobsDirectory.exists()==false) throw new IOException("ERROR: failed to create a job directory -> "+autoAnalysisJobsDirectory);
-
-			//pull sample names
-			HashSet<String> sampleIds = new HashSet<String>();
+			if (continuing == false) {
+				autoAnalysisMainDirectory = new File (requestDirectory, "AutoAnalysis_"+Util.getDateNoSpaces());
+				autoAnalysisMainDirectory.mkdirs();
+				autoAnalysisJobsDirectory = new File(autoAnalysisMainDirectory, "Jobs");
+				autoAnalysisJobsDirectory.mkdir();
+			}
+			if (autoAnalysisJobsDirectory == null || autoAnalysisJobsDirectory.exists()==false) throw new IOException("ERROR: failed to create a job directory -> "+autoAnalysisJobsDirectory);
+			
+			//more samples to come? hold back MultiQC before any job is linked
+			File releasing = new File(autoAnalysisMainDirectory, RELEASING);
+			if (allSamplesReleased == false && releasing.exists() == false) {
+				if (Util.writeString(numberSamplesWaiting+" samples waiting on fastq\n", releasing) == false) throw new IOException("ERROR: failed to write "+releasing);
+			}
+
+			//group the fastq by sample name in one pass, e.g. 22680X1_xxx_R1_001.fastq.gz
+			final LinkedHashMap<String, ArrayList<File>> sampleFastqs = new LinkedHashMap<String, ArrayList<File>>();
 			for (File f: fastqFiles) {
-				String[] split = Util.UNDERSCORE.split(f.getName());
-				sampleIds.add(split[0]);
+				String name = f.getName();
+				String sampleId = Util.UNDERSCORE.split(name)[0];
+				ArrayList<File> al = sampleFastqs.get(sampleId);
+				if (al == null) {
+					al = new ArrayList<File>();
+					sampleFastqs.put(sampleId, al);
+				}
+				if (name.startsWith(sampleId+ "_")) al.add(f);
 			}
 
-			//create sub directories, copy in the workflow docs, link in the fastq lines
-			ArrayList<File> toLink = new ArrayList<File>();
-			for (String sampleId: sampleIds) {
-
-				// make the sub dir
-				File subDir = new File (autoAnalysisJobsDirectory, sampleId);
-				subDir.mkdir();
-
-				//link in the fastqs
-				toLink.clear();
-				for (File f: fastqFiles) if (f.getName().startsWith(sampleId+ "_")) toLink.add(f);
-				Util.createSymbolicLinks(toLink, subDir);
-				
-				//link the sub dir to the chpcLinkDirectory
-				toLink.clear();
-				toLink.add(subDir);
-				Util.createSymbolicLinks(toLink, chpcLinkDirectory);
-
-				//add a RUNME.txt file
-				String runMe = 
-						"workflowPaths\t"+workflowPaths+
-						"\norganism\t"+ organism+
-						"\ngenomeBuild\t"+genomeBuild+
-						"\nlibraryPrep\t"+libraryPreparation;
-				Util.writeString(runMe, new File(subDir, "RUNME"));
-			} 
+			//build each job dir in parallel
+			if (numberThreads < 1) numberThreads = 1;
+			executor = Executors.newFixedThreadPool(Math.min(numberThreads, Math.max(1, sampleFastqs.size())));
+			ArrayList<Future<File>> futures = new ArrayList<Future<File>>();
+			for (final String sampleId: sampleFastqs.keySet()) {
+				futures.add(executor.submit(new Callable<File>() {
+					public File call() throws Exception {
+						return createJob(sampleId, sampleFastqs.get(sampleId));
+					}
+				}));
+			}
+			//wait for all so a failure can remove those that were built
+			Throwable failure = null;
+			for (Future<File> f: futures) {
+				try {
+					jobDirs.add(f.get());
+				} catch (ExecutionException e) {
+					failure = e.getCause();
+				}
+			}
+			if (failure != null) throw new IOException("ERROR: failed to build a job for "+requestIdCleaned, failure);
+
+			//all built, now link the job dirs to the chpcLinkDirectory, each link appears atomically
+			Path linkDir = chpcLinkDirectory.getCanonicalFile().toPath();
+			for (File jobDir: jobDirs) {
+				Path link = linkDir.resolve(jobDir.getName());
+				Path tmpLink = linkDir.resolve(".linking_"+jobDir.getName());
+				Files.deleteIfExists(tmpLink);
+				Files.createSymbolicLink(tmpLink, jobDir.getCanonicalFile().toPath());
+				Files.move(tmpLink, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				chpcLinks.add(link);
+			}
+			for (File jobDir: jobDirs) LifecycleLog.event(LifecycleLog.CREATED, requestIdCleaned, jobDir.getName());
+			
+			//last of the samples? let MultiQC run once they complete
+			if (allSamplesReleased) Files.deleteIfExists(releasing.toPath());
 			return true;
 		} catch (Exception e) {
-			Util.el("ERROR: making AutoAnalysis job for "+requestIdCleaned);
-			e.printStackTrace();
-			Util.deleteDirectory(autoAnalysisMainDirectory);
+			Log.error("ERROR: making AutoAnalysis job for "+requestIdCleaned, e);
+			for (Path link: chpcLinks) {
+				try { Files.deleteIfExists(link); } catch (IOException x) {}
+			}
+			if (continuing) for (File jobDir: jobDirs) Util.deleteDirectory(jobDir);
+			else Util.deleteDirectory(autoAnalysisMainDirectory);
+		} finally {
+			if (executor != null) executor.shutdownNow();
 		}
 		return false;
 	}
 	
+	/*Builds one job under a hidden temp name, fastq links and the RUNME, then renames it to the sampleId.*/
+	private File createJob(String sampleId, ArrayList<File> sampleFastq) throws IOException {
+		File jobDir = new File (autoAnalysisJobsDirectory, sampleId);
+		File tmpDir = new File (autoAnalysisJobsDirectory, ".building_"+sampleId);
+		if (tmpDir.exists()) Util.deleteDirectory(tmpDir);
+		if (tmpDir.mkdir() == false) throw new IOException("ERROR: failed to create "+tmpDir);
+
+		//link in the fastqs
+		Util.createSymbolicLinks(sampleFastq, tmpDir);
+
+		//add a RUNME.txt file
+		String runMe = 
+				"requestId\t"+requestIdCleaned+
+				"\nworkflowPaths\t"+workflowPaths+
+				"\norganism\t"+ organism+
+				"\ngenomeBuild\t"+genomeBuild+
+				"\nlibraryPrep\t"+libraryPreparation;
+		//add the pre-flight fastq stats for job sizing
+		if (fastqCounts != null) {
+			FastqStats.Counts c = FastqStats.sum(sampleFastq, fastqCounts);
+			runMe = runMe+
+				"\nfastqReads\t"+c.getReads()+
+				"\nfastqBases\t"+c.getBases()+
+				"\nfastqStatsEstimated\t"+c.isEstimated();
+		}
+		if (Util.writeString(runMe, new File(tmpDir, "RUNME")) == false) throw new IOException("ERROR: failed to write the RUNME in "+tmpDir);
+
+		//publish
+		Files.move(tmpDir.toPath(), jobDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		return jobDir;
+	}
+	
 	public boolean checkForAutoAnalysis() {
 		File[] dirs = Util.extractFilesPrefix(requestDirectory, "AutoAnalysis_");
 		if (dirs.length == 0) return false;
@@ -138,26 +233,106 @@ public class GNomExRequest {
 		return true;
 	}
 	
+	/**Checks if the request's fastq are ready, all must be at least an hour old.*/
 	public boolean checkFastq() {
+		return checkFastq(false);
+	}
+	
+	/**Checks the request's fastq. If perSample is false, all must be at least an hour old.
+	 * If perSample is true, the fastq of each sample that is ready and not yet released are kept, the rest wait for a later call.
+	 * A sample is ready when all of its files are an hour old and every fastq the md5 manifests list for it is present.
+	 * Returns false if there is nothing to build.*/
+	public boolean checkFastq(boolean perSample) {
 		File fastqDirectory = new File(requestDirectory, "Fastq");
 		if (fastqDirectory.exists() == false) return false;
 		//contains a file with md5 in the name
 		File[] allFiles = Util.extractFiles(fastqDirectory);
-		boolean foundMd5 = false;
+		ArrayList<File> md5s = new ArrayList<File>();
 		for (File f: allFiles) {		
-			if (f.getName().contains("md5")) {
-				foundMd5 = true;
-				break;
-			}
+			if (f.getName().contains("md5") && f.isFile()) md5s.add(f);
 		}
-		if (foundMd5 == false) return false;
+		if (md5s.size() == 0) return false;
+		md5Files = new File[md5s.size()];
+		md5s.toArray(md5Files);
 		//find the fastq files and check they are all at least 1 hour old, want to avoid jobs in transfer from demuxing
-		fastqFiles = Util.fetchFilesRecursively(fastqDirectory, "q.gz");
-		long currentTime = System.currentTimeMillis() - 3600000;
-		for (File f: fastqFiles) if ((currentTime - f.lastModified())<0) return false;
+		//the modification times come back with the walk so no extra stat per file
+		final long cutoffTime = System.currentTimeMillis() - 3600000;
+		final ArrayList<File> found = new ArrayList<File>();
+		final HashSet<File> tooNew = new HashSet<File>();
+		new FileFinder(FileFinder.suffixMatcher("q.gz"), true).stream(fastqDirectory, new FileFinder.FileVisitor() {
+			public void found(Path file, BasicFileAttributes attributes) {
+				synchronized (found) {
+					found.add(file.toFile());
+					if (attributes.lastModifiedTime().toMillis() > cutoffTime) tooNew.add(file.toFile());
+				}
+			}
+		});
+		if (perSample) return selectReadySamples(found, tooNew);
+		if (tooNew.size() != 0) return false;
+		fastqFiles = new File[found.size()];
+		found.toArray(fastqFiles);
+		Arrays.sort(fastqFiles);
 		return true;
 	}
 
+	/*Keeps the fastq of samples that are ready and don't already have a job.*/
+	private boolean selectReadySamples(ArrayList<File> found, HashSet<File> tooNew) {
+		HashMap<String, String> manifest = null;
+		try {
+			manifest = Md5Verifier.parseManifests(md5Files);
+		} catch (IOException e) {
+			Log.error("ERROR: parsing the md5 manifests for "+requestIdCleaned+" "+e.getMessage());
+			return false;
+		}
+		TreeMap<String, ArrayList<File>> sampleFastqs = new TreeMap<String, ArrayList<File>>();
+		HashSet<String> notReady = new HashSet<String>();
+		HashSet<String> foundNames = new HashSet<String>();
+		for (File f: found) {
+			String sampleId = Util.UNDERSCORE.split(f.getName())[0];
+			ArrayList<File> al = sampleFastqs.get(sampleId);
+			if (al == null) {
+				al = new ArrayList<File>();
+				sampleFastqs.put(sampleId, al);
+			}
+			al.add(f);
+			foundNames.add(f.getName());
+			if (tooNew.contains(f)) notReady.add(sampleId);
+		}
+		//missing any the manifests expect?
+		for (String name: manifest.keySet()) {
+			if (name.endsWith("q.gz") == false || foundNames.contains(name)) continue;
+			String sampleId = Util.UNDERSCORE.split(name)[0];
+			if (sampleFastqs.containsKey(sampleId) == false) sampleFastqs.put(sampleId, new ArrayList<File>());
+			notReady.add(sampleId);
+		}
+		
+		ArrayList<File> ready = new ArrayList<File>();
+		allSamplesReleased = true;
+		numberSamplesWaiting = 0;
+		for (String sampleId: sampleFastqs.keySet()) {
+			if (autoAnalysisJobsDirectory != null && new File(autoAnalysisJobsDirectory, sampleId).exists()) continue;
+			if (notReady.contains(sampleId)) {
+				allSamplesReleased = false;
+				numberSamplesWaiting++;
+			}
+			else ready.addAll(sampleFastqs.get(sampleId));
+		}
+		fastqFiles = new File[ready.size()];
+		ready.toArray(fastqFiles);
+		Arrays.sort(fastqFiles);
+		//an existing release with nothing left to build still needs its RELEASING file removed
+		return fastqFiles.length != 0 || (isReleasing() && allSamplesReleased);
+	}
+	
+	/**True if this request's AutoAnalysis is still waiting on samples, see checkFastq(true).*/
+	public boolean isReleasing() {
+		return autoAnalysisMainDirectory != null && new File(autoAnalysisMainDirectory, RELEASING).exists();
+	}
+	
+	public int getNumberSamplesWaiting() {
+		return numberSamplesWaiting;
+	}
+	
 	public String getRequestIdCleaned() {
 		return requestIdCleaned;
 	}
@@ -230,6 +405,18 @@ public class GNomExRequest {
 		this.autoAnalysisJobsDirectory = autoAnalysisJobsDirectory;
 	}
 
+	public File[] getFastqFiles() {
+		return fastqFiles;
+	}
+
+	public File[] getMd5Files() {
+		return md5Files;
+	}
+
+	public void setFastqCounts(HashMap<File, FastqStats.Counts> fastqCounts) {
+		this.fastqCounts = fastqCounts;
+	}
+
 	public String getWorkflowPaths() {
 		return workflowPaths;
 	}
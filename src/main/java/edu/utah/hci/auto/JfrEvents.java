@@ -0,0 +1,144 @@
+package edu.utah.hci.auto;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**Custom Java Flight Recorder events for the work the daemons spend their time on, subprocesses, db queries, file copies and cycle phases.
+ * Off unless a recording enables them, see ConfigNotes/autoAnalysis.jfc, e.g.
+ * java -XX:StartFlightRecording:settings=default,settings=ConfigNotes/autoAnalysis.jfc,filename=chpc.jfr,maxage=2d -jar AutoAnalysis.jar ...
+ * jfr print --events edu.utah.hci.auto.Command,edu.utah.hci.auto.CyclePhase chpc.jfr
+ * Each is begun and committed around the work, when not enabled commit() is a no-op.*/
+public class JfrEvents {
+
+	/**One attempt at running a command, retries are separate events.*/
+	@Name("edu.utah.hci.auto.Command")
+	@Label("Command")
+	@Category({"AutoAnalysis", "Subprocess"})
+	@Description("A subprocess run by CommandRunner or Util.executeCommandLine")
+	@StackTrace(false)
+	public static class Command extends Event {
+		@Label("Kind")
+		@Description("The program, e.g. rsync, ssh, sbatch, squeue")
+		public String kind;
+
+		@Label("Host")
+		@Description("The remote host of an ssh or rsync, otherwise local")
+		public String host;
+
+		@Label("Exit Code")
+		@Description("-1 if it couldn't be started or wasn't waited on")
+		public int exitCode = -1;
+
+		@Label("Attempt")
+		public int attempt;
+
+		@Label("Output")
+		@DataAmount
+		public long outputBytes;
+	}
+
+	@Name("edu.utah.hci.auto.DbQuery")
+	@Label("GNomEx DB Query")
+	@Category({"AutoAnalysis", "Database"})
+	@StackTrace(false)
+	public static class DbQuery extends Event {
+		@Label("Rows")
+		public int rows;
+
+		@Label("Succeeded")
+		public boolean succeeded;
+	}
+
+	@Name("edu.utah.hci.auto.FileCopy")
+	@Label("File Copy")
+	@Category({"AutoAnalysis", "File"})
+	@StackTrace(false)
+	public static class FileCopy extends Event {
+		@Label("Source")
+		public String source;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+
+		@Label("Succeeded")
+		public boolean succeeded;
+	}
+
+	/**A task of a daemon cycle, e.g. Slurm checks or GNomEx db polling, named as in the AdaptiveScheduler.*/
+	@Name("edu.utah.hci.auto.CyclePhase")
+	@Label("Cycle Phase")
+	@Category({"AutoAnalysis", "Cycle"})
+	@StackTrace(false)
+	public static class CyclePhase extends Event {
+		@Label("Daemon")
+		public String daemon;
+
+		@Label("Phase")
+		public String phase;
+
+		@Label("Busy")
+		@Description("The phase found work to do")
+		public boolean busy;
+	}
+
+	/**Begins a phase, pair with commitPhase(). Phases that throw aren't committed, the error is emailed instead.*/
+	public static CyclePhase beginPhase(String daemon, String name) {
+		CyclePhase phase = new CyclePhase();
+		phase.daemon = daemon;
+		phase.phase = name;
+		phase.begin();
+		return phase;
+	}
+
+	/**Commits the phase if it's being recorded, returns busy.*/
+	public static boolean commitPhase(CyclePhase phase, boolean busy) {
+		phase.busy = busy;
+		phase.commit();
+		return busy;
+	}
+
+	/**Sets the kind and host of a Command event from a command line, e.g. 'rsync -rt /a/ u@hci-ip:/b/' or 'cat x | ssh u@hci-ip /bin/bash'.
+	 * The kind is the program of the last piped or scripted command, set, cd and touch lines are skipped.*/
+	public static void describe(Command event, String commandString) {
+		String kind = null;
+		String host = "local";
+		boolean nextIsHost = false;
+		boolean newCommand = true;
+		for (String token: commandString.replace("\n", " ; ").split("\\s+")) {
+			if (token.length() == 0) continue;
+			if (token.equals("|") || token.equals("&&") || token.equals(";")) {
+				newCommand = true;
+				continue;
+			}
+			if (newCommand) {
+				newCommand = false;
+				String program = token.substring(token.lastIndexOf('/') + 1);
+				if (kind == null || (program.equals("set") || program.equals("cd") || program.equals("touch")) == false) kind = program;
+				nextIsHost = program.equals("ssh");
+				continue;
+			}
+			if (host.equals("local") == false) continue;
+			if (nextIsHost && token.startsWith("-") == false) {
+				host = stripUser(token);
+				nextIsHost = false;
+			}
+			else if (kind.equals("rsync") && token.startsWith("-") == false) {
+				int colon = token.indexOf(':');
+				int slash = token.indexOf('/');
+				if (colon > 0 && (slash == -1 || colon < slash)) host = stripUser(token.substring(0, colon));
+			}
+		}
+		event.kind = kind == null ? "" : kind;
+		event.host = host;
+	}
+
+	private static String stripUser(String userAtHost) {
+		return userAtHost.substring(userAtHost.indexOf('@') + 1);
+	}
+}
@@ -0,0 +1,250 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**In process replacement for the USeq JobCleaner that was forked after each MultiQC run.
+ * Walks a job tree in parallel, deletes files whose names end with one of the fileEndings, e.g. COMPLETE, .tbi, .crai, .bai,
+ * and zips each directory with one of the dirNamesToZip, e.g. Logs, RunScripts, into a 'name.zip' beside it before deleting the directory.
+ * Matched files are deleted in a batch once each directory is listed. Zip archives are streamed with a fixed buffer so memory use
+ * doesn't depend on the size of the logs, written to a hidden temp file, then renamed into place.
+ * Symbolic links are never followed. Problems are collected and returned to the caller.
+ * The daemon ran the USeq tool with -n 'Logs,RunScripts' -m -r jobsDir -e 'COMPLETE,.tbi,.crai,.bai', its options map to:
+ *   -r the root dir to clean, same here
+ *   -e file names or endings to delete, same here
+ *   -n dir names to zip and delete, same here
+ *   -m also delete the Mac OS X .DS_Store and ._ AppleDouble files, same here, setDeleteMacOSXFiles(true) in the daemon
+ *   -t threads, new here
+ * JobCleanerTest.matchesUseqJobCleaner compares the trees left by both when run with -DuseqJobCleaner=/path/to/USeq/Apps/JobCleaner
+ *
+ * java -cp AutoAnalysis.jar edu.utah.hci.auto.JobCleaner -r /jobs/dir -e 'COMPLETE,.tbi,.crai,.bai' -n 'Logs,RunScripts' -m*/
+public class JobCleaner {
+
+	public static final int DEFAULT_THREADS = 4;
+	public static final String[] DEFAULT_FILE_ENDINGS = {"COMPLETE", ".tbi", ".crai", ".bai"};
+	public static final String[] DEFAULT_DIRS_TO_ZIP = {"Logs", "RunScripts"};
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	//fields
+	private String[] fileEndings;
+	private String[] dirNamesToZip;
+	private boolean deleteMacOSXFiles = false;
+	private ForkJoinPool pool;
+	private DirectoryDeleter directoryDeleter;
+	private AtomicLong numberFilesDeleted = new AtomicLong(0);
+	private AtomicLong numberDirectoriesZipped = new AtomicLong(0);
+
+	public JobCleaner (String[] fileEndings, String[] dirNamesToZip, int numberThreads) {
+		if (numberThreads < 1) numberThreads = 1;
+		this.fileEndings = fileEndings;
+		this.dirNamesToZip = dirNamesToZip;
+		pool = new ForkJoinPool(numberThreads);
+		directoryDeleter = new DirectoryDeleter(numberThreads);
+	}
+
+	/**Cleans the directory tree, blocks until complete. Returns a list of error messages, empty if all went well.
+	 * Safe to call from several threads at once.*/
+	public ArrayList<String> clean(File rootDirectory) {
+		ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+		if (rootDirectory == null || rootDirectory.isDirectory() == false) {
+			errors.add("ERROR: not a directory to clean "+rootDirectory);
+		}
+		else {
+			try {
+				pool.invoke(new CleanTask(rootDirectory.toPath(), errors));
+			} catch (Exception e) {
+				errors.add("ERROR: cleaning "+rootDirectory+" "+e.getMessage());
+			}
+		}
+		return new ArrayList<String>(errors);
+	}
+
+	/**Number of files deleted across all clean() calls, not counting the contents of zipped directories.*/
+	public long getNumberFilesDeleted() {
+		return numberFilesDeleted.get();
+	}
+
+	/**Number of directories zipped and deleted across all clean() calls.*/
+	public long getNumberDirectoriesZipped() {
+		return numberDirectoriesZipped.get();
+	}
+
+	/**Also delete the .DS_Store and ._ files left by Mac OS X, the USeq -m option.*/
+	public void setDeleteMacOSXFiles(boolean deleteMacOSXFiles) {
+		this.deleteMacOSXFiles = deleteMacOSXFiles;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+		directoryDeleter.shutdown();
+	}
+
+	private boolean deleteFile(String name) {
+		if (deleteMacOSXFiles && (name.equals(".DS_Store") || name.startsWith("._"))) return true;
+		for (String e: fileEndings) if (name.endsWith(e)) return true;
+		return false;
+	}
+
+	private boolean zipDirectory(String name) {
+		for (String n: dirNamesToZip) if (name.equals(n)) return true;
+		return false;
+	}
+
+	/**Lists one directory, batch deletes its matching files, zips matching sub directories, and forks a task for the rest.*/
+	private class CleanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private Path dir;
+		private ConcurrentLinkedQueue<String> errors;
+
+		private CleanTask (Path dir, ConcurrentLinkedQueue<String> errors) {
+			this.dir = dir;
+			this.errors = errors;
+		}
+
+		protected void compute() {
+			ArrayList<RecursiveAction> subTasks = new ArrayList<RecursiveAction>();
+			ArrayList<Path> toDelete = new ArrayList<Path>();
+			DirectoryStream<Path> stream = null;
+			try {
+				stream = Files.newDirectoryStream(dir);
+				for (Path p: stream) {
+					BasicFileAttributes a = null;
+					try {
+						a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (NoSuchFileException e) {
+						continue;
+					}
+					String name = p.getFileName().toString();
+					if (a.isDirectory()) {
+						if (zipDirectory(name)) subTasks.add(new ZipTask(p, errors));
+						else subTasks.add(new CleanTask(p, errors));
+					}
+					else if (deleteFile(name)) toDelete.add(p);
+				}
+			} catch (IOException e) {
+				errors.add("ERROR: listing "+dir+" "+e.getMessage());
+			} finally {
+				if (stream != null) try { stream.close(); } catch (IOException e) {}
+			}
+
+			//delete the batch
+			for (Path p: toDelete) {
+				try {
+					if (Files.deleteIfExists(p)) numberFilesDeleted.incrementAndGet();
+				} catch (IOException e) {
+					errors.add("ERROR: failed to delete "+p+" "+e.getMessage());
+				}
+			}
+
+			if (subTasks.size() != 0) invokeAll(subTasks);
+		}
+	}
+
+	/**Zips one directory into a sibling 'name.zip', entries are relative to the parent so it unzips back to 'name/'. Then deletes the directory.*/
+	private class ZipTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private Path dir;
+		private ConcurrentLinkedQueue<String> errors;
+
+		private ZipTask (Path dir, ConcurrentLinkedQueue<String> errors) {
+			this.dir = dir;
+			this.errors = errors;
+		}
+
+		protected void compute() {
+			String name = dir.getFileName().toString();
+			final Path parent = dir.getParent();
+			Path zip = parent.resolve(name+".zip");
+			Path tmp = parent.resolve("."+name+".zip.tmp");
+			ZipOutputStream out = null;
+			try {
+				out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile()), COPY_BUFFER_SIZE));
+				final ZipOutputStream zipOut = out;
+				final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+				Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+					public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+						zipOut.putNextEntry(new ZipEntry(entryName(parent, d)+"/"));
+						zipOut.closeEntry();
+						return FileVisitResult.CONTINUE;
+					}
+					public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+						//links are recorded as empty entries, never followed
+						ZipEntry entry = new ZipEntry(entryName(parent, f));
+						entry.setTime(attrs.lastModifiedTime().toMillis());
+						zipOut.putNextEntry(entry);
+						if (attrs.isRegularFile()) {
+							InputStream in = Files.newInputStream(f);
+							try {
+								int n;
+								while ((n = in.read(buffer)) != -1) zipOut.write(buffer, 0, n);
+							} finally {
+								in.close();
+							}
+						}
+						zipOut.closeEntry();
+						return FileVisitResult.CONTINUE;
+					}
+				});
+				out.close();
+				out = null;
+				Files.move(tmp, zip, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				errors.add("ERROR: zipping "+dir+" "+e.getMessage());
+				if (out != null) try { out.close(); } catch (IOException x) {}
+				try { Files.deleteIfExists(tmp); } catch (IOException x) {}
+				return;
+			}
+
+			//only delete once the archive is in place
+			ArrayList<String> deleteErrors = directoryDeleter.delete(dir.toFile());
+			if (deleteErrors.size() == 0) numberDirectoriesZipped.incrementAndGet();
+			else errors.addAll(deleteErrors);
+		}
+	}
+
+	private static String entryName(Path parent, Path p) {
+		return parent.relativize(p).toString().replace(File.separatorChar, '/');
+	}
+
+	public static void main(String[] args) {
+		File root = null;
+		String[] fileEndings = DEFAULT_FILE_ENDINGS;
+		String[] dirNamesToZip = DEFAULT_DIRS_TO_ZIP;
+		int threads = DEFAULT_THREADS;
+		boolean deleteMacOSXFiles = false;
+		for (int i=0; i< args.length; i++) {
+			if (args[i].equals("-r")) root = new File(args[++i]);
+			else if (args[i].equals("-e")) fileEndings = Util.COMMA_SPACE.split(args[++i]);
+			else if (args[i].equals("-n")) dirNamesToZip = Util.COMMA_SPACE.split(args[++i]);
+			else if (args[i].equals("-m")) deleteMacOSXFiles = true;
+			else if (args[i].equals("-t")) threads = Integer.parseInt(args[++i]);
+			else Util.printErrAndExit("\nError: unknown option "+args[i]+"\nUsage: -r rootDir [-e 'COMPLETE,.tbi'] [-n 'Logs,RunScripts'] [-m] [-t threads]\n");
+		}
+		if (root == null) Util.printErrAndExit("\nError: provide a root directory to clean with -r\n");
+		JobCleaner jc = new JobCleaner(fileEndings, dirNamesToZip, threads);
+		jc.setDeleteMacOSXFiles(deleteMacOSXFiles);
+		ArrayList<String> errors = jc.clean(root);
+		jc.shutdown();
+		Log.info("Deleted "+jc.getNumberFilesDeleted()+" files, zipped "+jc.getNumberDirectoriesZipped()+" directories");
+		if (errors.size() != 0) Util.printErrAndExit(Util.arrayListToString(errors, "\n"));
+	}
+}
@@ -0,0 +1,68 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**Counts the failed transfers and submissions of each job across daemon cycles, so one bad job is retried and then quarantined
+ * while the rest keep moving. A quarantined job's CHPC dir holds a QUARANTINED file with the reason, it is skipped until an admin
+ * deletes the file, to retry a return, or the whole dir, to retry the copy from HCI.*/
+public class JobFailures {
+
+	public static final String QUARANTINED = "QUARANTINED";
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	//fields
+	private int maxAttempts;
+	private HashMap<String, Integer> failures = new HashMap<String, Integer>();
+
+	public JobFailures (int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	/**Records a failed attempt, returns the number so far. Once it reaches the max the count is dropped, the job should be quarantined.*/
+	public synchronized int fail(String jobName) {
+		Integer n = failures.get(jobName);
+		int attempts = n == null ? 1 : n + 1;
+		if (attempts >= maxAttempts) failures.remove(jobName);
+		else failures.put(jobName, attempts);
+		return attempts;
+	}
+
+	public synchronized void succeeded(String jobName) {
+		failures.remove(jobName);
+	}
+
+	/**Jobs with a failed attempt that are still being retried.*/
+	public synchronized int size() {
+		return failures.size();
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public static boolean isQuarantined(File jobDir) {
+		return new File(jobDir, QUARANTINED).exists();
+	}
+
+	/**Writes the QUARANTINED file, making the job dir if need be.*/
+	public static void quarantine(File jobDir, String reason) throws IOException {
+		if (jobDir.exists() == false && jobDir.mkdirs() == false) throw new IOException("ERROR: failed to make "+jobDir);
+		if (Util.writeString(Util.getDateTime()+"\t"+reason+"\n", new File(jobDir, QUARANTINED)) == false) throw new IOException("ERROR: failed to write the "+QUARANTINED+" file in "+jobDir);
+	}
+
+	/**True if none of the commands worked. It could be bad jobs or HCI, the network, or slurm being down, probe to tell them apart.*/
+	public static boolean allFailed(CommandRunner[] runners) {
+		if (runners.length == 0) return false;
+		for (CommandRunner r: runners) {
+			if (r != null && r.isFailed() == false) return false;
+		}
+		return true;
+	}
+
+	/**False if the command wasn't run, the lanes were shut down, or it failed after its retries.*/
+	public static boolean completed(CommandRunner runner) {
+		return runner != null && runner.isFailed() == false;
+	}
+}
@@ -48,7 +48,7 @@ public class Launcher {
 
 	
 	public static void printDocs(){
-		Util.pl("\n" +
+		Log.info("\n" +
 				"**************************************************************************************\n" +
 				"**                              Auto Analysis: Jan 2024                             **\n" +
 				"**************************************************************************************\n" +
@@ -0,0 +1,173 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.TimeZone;
+
+/**Timestamped lifecycle events for each AutoAnalysis job, one JSON object per line, so LifecycleReport can show where the time went.
+ * GNomExAutoAnalysis logs created, all_returned and multiqc, ChpcAutoAnalysis logs discovered, transferred, submitted, started, completed and returned.
+ * Events are keyed by the requestId, e.g. 22597R, and the job, the sample job directory name e.g. 22597X4, the two sites are joined on the job.
+ * e.g. {"time":"2024-01-30T17:02:11.394Z","ms":1706634131394,"site":"chpc","event":"submitted","requestId":"22597R","job":"22597X4"}
+ * Once the log passes maxBytes it is renamed to .1, the older ones shifted up to .numberToKeep. Logging is a no-op until open() is called.*/
+public class LifecycleLog {
+
+	public static final String CREATED = "created";
+	public static final String DISCOVERED = "discovered";
+	public static final String TRANSFERRED = "transferred";
+	public static final String SUBMITTED = "submitted";
+	public static final String STARTED = "started";
+	public static final String COMPLETED = "completed";
+	public static final String RETURNED = "returned";
+	public static final String ALL_RETURNED = "all_returned";
+	public static final String MULTIQC = "multiqc";
+	public static final int DEFAULT_NUMBER_TO_KEEP = 5;
+	public static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+
+	private static File logFile = null;
+	private static String site = null;
+	private static long maxBytes = DEFAULT_MAX_BYTES;
+	private static int numberToKeep = DEFAULT_NUMBER_TO_KEEP;
+	private static PrintWriter out = null;
+	private static long bytesWritten = 0;
+	private static SimpleDateFormat iso = null;
+
+	/**Appends to the log, creating it if needed.
+	 * @param site gnomex or chpc*/
+	public static synchronized void open(File file, String siteName, long maxLogBytes, int numberOfLogsToKeep) throws IOException {
+		close();
+		logFile = file;
+		site = siteName;
+		maxBytes = maxLogBytes;
+		numberToKeep = Math.max(1, numberOfLogsToKeep);
+		iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+		openWriter();
+	}
+
+	private static void openWriter() throws IOException {
+		bytesWritten = logFile.exists() ? logFile.length() : 0;
+		out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+	}
+
+	public static synchronized boolean isOpen() {
+		return out != null;
+	}
+
+	/**Logs the event now.*/
+	public static void event(String event, String requestId, String job) {
+		event(event, requestId, job, System.currentTimeMillis());
+	}
+
+	/**Logs the event at the given time, e.g. the modification time of a job's COMPLETE file. requestId or job may be null.*/
+	public static synchronized void event(String event, String requestId, String job, long timeMillis) {
+		if (out == null) return;
+		StringBuilder sb = new StringBuilder("{");
+		sb.append("\"time\":").append(quote(iso.format(new Date(timeMillis))));
+		sb.append(",\"ms\":").append(timeMillis);
+		sb.append(",\"site\":").append(quote(site));
+		sb.append(",\"event\":").append(quote(event));
+		if (requestId != null) sb.append(",\"requestId\":").append(quote(requestId));
+		if (job != null) sb.append(",\"job\":").append(quote(job));
+		sb.append("}");
+		String line = sb.toString();
+		out.println(line);
+		out.flush();
+		if (out.checkError()) {
+			Log.warn("WARNING: failed to write the lifecycle log "+logFile+", no more events will be logged");
+			out.close();
+			out = null;
+			return;
+		}
+		bytesWritten += line.length() + 1;
+		if (bytesWritten >= maxBytes) rotate();
+	}
+
+	private static void rotate() {
+		out.close();
+		out = null;
+		try {
+			Util.rotate(logFile, numberToKeep);
+			openWriter();
+		} catch (IOException e) {
+			Log.warn("WARNING: failed to rotate the lifecycle log "+logFile+", no more events will be logged "+e.getMessage());
+		}
+	}
+
+	public static synchronized void close() {
+		if (out != null) out.close();
+		out = null;
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i=0; i< s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c == '\n') sb.append("\\n");
+			else if (c == '\t') sb.append("\\t");
+			else if (c < 0x20) sb.append(String.format("\\u%04x", (int)c));
+			else sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/**Parses one line written by this class, a flat object of string and number values. Returns null if it doesn't look like one.*/
+	public static LinkedHashMap<String, String> parse(String line) {
+		line = line.trim();
+		if (line.startsWith("{") == false || line.endsWith("}") == false) return null;
+		LinkedHashMap<String, String> kv = new LinkedHashMap<String, String>();
+		int i = 1;
+		int end = line.length() - 1;
+		while (i < end) {
+			if (line.charAt(i) == ',' || line.charAt(i) == ' ') {
+				i++;
+				continue;
+			}
+			if (line.charAt(i) != '"') return null;
+			StringBuilder key = new StringBuilder();
+			i = readString(line, i, key);
+			if (i < 0 || i >= end || line.charAt(i) != ':') return null;
+			i++;
+			StringBuilder value = new StringBuilder();
+			if (line.charAt(i) == '"') {
+				i = readString(line, i, value);
+				if (i < 0) return null;
+				kv.put(key.toString(), value.toString());
+			}
+			else {
+				while (i < end && line.charAt(i) != ',') value.append(line.charAt(i++));
+				kv.put(key.toString(), value.toString().trim());
+			}
+		}
+		return kv;
+	}
+
+	/*Reads a quoted string starting at the opening quote, returns the index after the closing quote or -1.*/
+	private static int readString(String line, int i, StringBuilder sb) {
+		i++;
+		while (i < line.length()) {
+			char c = line.charAt(i);
+			if (c == '"') return i + 1;
+			if (c == '\\' && i + 1 < line.length()) {
+				char n = line.charAt(++i);
+				if (n == 'n') sb.append('\n');
+				else if (n == 't') sb.append('\t');
+				else if (n == 'u' && i + 4 < line.length()) {
+					sb.append((char)Integer.parseInt(line.substring(i+1, i+5), 16));
+					i += 4;
+				}
+				else sb.append(n);
+			}
+			else sb.append(c);
+			i++;
+		}
+		return -1;
+	}
+}
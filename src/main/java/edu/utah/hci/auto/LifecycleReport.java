@@ -0,0 +1,174 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**Joins the GNomEx and CHPC lifecycle logs, see LifecycleLog, into per stage latency percentiles, answers where the hours went.
+ * Jobs are joined on their name, request level events, all_returned and multiqc, are applied to each job of the request.
+ * The earliest time of each event is used so repeats, e.g. a retried transfer, don't count twice.
+ *
+ * java -cp AutoAnalysis.jar edu.utah.hci.auto.LifecycleReport [-r 22597R] autoAnalysisLifecycle_gnomex.jsonl* autoAnalysisLifecycle_chpc.jsonl*
+ *   -r prints each job's stage hours for just this request*/
+public class LifecycleReport {
+
+	/**Name, from event, to event. The last is the total.*/
+	public static final String[][] STAGES = {
+			{"HCI pickup", LifecycleLog.CREATED, LifecycleLog.DISCOVERED},
+			{"Transfer to CHPC", LifecycleLog.DISCOVERED, LifecycleLog.TRANSFERRED},
+			{"Submit", LifecycleLog.TRANSFERRED, LifecycleLog.SUBMITTED},
+			{"Slurm queue", LifecycleLog.SUBMITTED, LifecycleLog.STARTED},
+			{"Run", LifecycleLog.STARTED, LifecycleLog.COMPLETED},
+			{"Return to HCI", LifecycleLog.COMPLETED, LifecycleLog.RETURNED},
+			{"Wait on other jobs", LifecycleLog.RETURNED, LifecycleLog.ALL_RETURNED},
+			{"MultiQC", LifecycleLog.ALL_RETURNED, LifecycleLog.MULTIQC},
+			{"Total", LifecycleLog.CREATED, LifecycleLog.MULTIQC}
+	};
+	private static final double MS_PER_HOUR = 60.0 * 60.0 * 1000.0;
+
+	//fields
+	private TreeMap<String, HashMap<String, Long>> jobEvents = new TreeMap<String, HashMap<String, Long>>();
+	private HashMap<String, HashMap<String, Long>> requestEvents = new HashMap<String, HashMap<String, Long>>();
+	private HashMap<String, String> jobRequest = new HashMap<String, String>();
+	private int numberBadLines = 0;
+
+	public void load(File log) throws IOException {
+		BufferedReader in = Util.fetchBufferedReader(log);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().length() == 0) continue;
+				LinkedHashMap<String, String> kv = LifecycleLog.parse(line);
+				if (kv == null || kv.containsKey("event") == false || kv.containsKey("ms") == false) {
+					numberBadLines++;
+					continue;
+				}
+				long ms;
+				try {
+					ms = Long.parseLong(kv.get("ms"));
+				} catch (NumberFormatException e) {
+					numberBadLines++;
+					continue;
+				}
+				add(kv.get("event"), kv.get("requestId"), kv.get("job"), ms);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public void add(String event, String requestId, String job, long ms) {
+		if (job != null) {
+			earliest(jobEvents, job, event, ms);
+			if (requestId != null) jobRequest.put(job, requestId);
+		}
+		else if (requestId != null) earliest(requestEvents, requestId, event, ms);
+	}
+
+	private static void earliest(Map<String, HashMap<String, Long>> map, String key, String event, long ms) {
+		HashMap<String, Long> events = map.get(key);
+		if (events == null) {
+			events = new HashMap<String, Long>();
+			map.put(key, events);
+		}
+		Long prior = events.get(event);
+		if (prior == null || ms < prior) events.put(event, ms);
+	}
+
+	/*The job's time for the event, falling back to its request's.*/
+	private Long fetchTime(String job, String event) {
+		Long t = jobEvents.get(job).get(event);
+		if (t != null) return t;
+		String requestId = jobRequest.get(job);
+		if (requestId == null || requestEvents.containsKey(requestId) == false) return null;
+		return requestEvents.get(requestId).get(event);
+	}
+
+	/**Hours for each job with both events of the stage, jobs missing either are skipped. Negative spans, e.g. clock skew between the sites, are kept.*/
+	public ArrayList<Double> stageHours(String[] stage, String requestId) {
+		ArrayList<Double> hours = new ArrayList<Double>();
+		for (String job: jobEvents.keySet()) {
+			if (requestId != null && requestId.equals(jobRequest.get(job)) == false) continue;
+			Long from = fetchTime(job, stage[1]);
+			Long to = fetchTime(job, stage[2]);
+			if (from != null && to != null) hours.add((to - from) / MS_PER_HOUR);
+		}
+		return hours;
+	}
+
+	/**Nearest rank percentile of a sorted list, p from 0 to 100.*/
+	public static double percentile(ArrayList<Double> sorted, double p) {
+		int rank = (int)Math.ceil(p / 100.0 * sorted.size());
+		return sorted.get(Math.min(sorted.size(), Math.max(1, rank)) - 1);
+	}
+
+	public String summary() {
+		StringBuilder sb = new StringBuilder("Stage\tJobs\tp50Hrs\tp90Hrs\tp99Hrs\tmaxHrs\n");
+		for (String[] stage: STAGES) {
+			ArrayList<Double> hours = stageHours(stage, null);
+			sb.append(stage[0]).append("\t").append(hours.size());
+			if (hours.size() != 0) {
+				Collections.sort(hours);
+				sb.append("\t").append(format(percentile(hours, 50)));
+				sb.append("\t").append(format(percentile(hours, 90)));
+				sb.append("\t").append(format(percentile(hours, 99)));
+				sb.append("\t").append(format(hours.get(hours.size()-1)));
+			}
+			else sb.append("\tNA\tNA\tNA\tNA");
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**Each job of the request with its hours per stage.*/
+	public String requestDetail(String requestId) {
+		StringBuilder sb = new StringBuilder("Job");
+		for (String[] stage: STAGES) sb.append("\t").append(stage[0]);
+		sb.append("\n");
+		for (String job: jobEvents.keySet()) {
+			if (requestId.equals(jobRequest.get(job)) == false) continue;
+			sb.append(job);
+			for (String[] stage: STAGES) {
+				Long from = fetchTime(job, stage[1]);
+				Long to = fetchTime(job, stage[2]);
+				sb.append("\t").append(from != null && to != null ? format((to - from) / MS_PER_HOUR) : "NA");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	public int getNumberJobs() {
+		return jobEvents.size();
+	}
+
+	private static String format(double hours) {
+		return String.format("%.2f", hours);
+	}
+
+	public static void main(String[] args) {
+		String requestId = null;
+		ArrayList<File> logs = new ArrayList<File>();
+		for (int i=0; i< args.length; i++) {
+			if (args[i].equals("-r")) requestId = args[++i];
+			else logs.add(new File(args[i]));
+		}
+		if (logs.size() == 0) Util.printErrAndExit("\nUsage: [-r requestId] lifecycleLog(s) from both sites, rotated logs too\n");
+		LifecycleReport lr = new LifecycleReport();
+		try {
+			for (File f: logs) lr.load(f);
+		} catch (IOException e) {
+			Util.printErrAndExit("\nError: reading the lifecycle logs "+e.getMessage());
+		}
+		if (lr.numberBadLines != 0) Log.error("Skipped "+lr.numberBadLines+" malformed lines");
+		Log.info(lr.getNumberJobs()+" jobs\n");
+		Log.info(lr.summary());
+		if (requestId != null) Log.info(requestId+"\n"+lr.requestDetail(requestId));
+	}
+}
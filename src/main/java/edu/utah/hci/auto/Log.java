@@ -0,0 +1,270 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Leveled logging with the writes done on a background thread so workers don't block on a slow log, e.g. stdout redirected to NFS.
+ * Messages are built from their parts only if the level is on, e.g. Log.debug("\tParsed Slurm Jobs: ", currentSlurmJobIdTime) never calls toString() unless verbose.
+ * The queue is bounded, when full debug and info messages are dropped, warn and error wait up to a second, the number dropped is logged once there's room.
+ * Writes to stdout, warn and error to stderr, or to a file rotated at maxBytes, .1 to .numberToKeep. Anything queued is written at exit.*/
+public class Log {
+
+	public enum Level {DEBUG, INFO, WARN, ERROR}
+
+	public static final int QUEUE_SIZE = 10000;
+	public static final int DEFAULT_NUMBER_TO_KEEP = 5;
+	public static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024;
+
+	private static volatile Level level = Level.INFO;
+	private static final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+	private static final AtomicLong numberDropped = new AtomicLong();
+	private static long numberDroppedReported = 0;
+
+	//only touched by the writer thread, maxBytes and numberToKeep are set before the switch to a file is queued
+	private static File logFile = null;
+	private static Writer fileOut = null;
+	private static long bytesWritten = 0;
+	private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+	private static volatile int numberToKeep = DEFAULT_NUMBER_TO_KEEP;
+	private static Thread writer = null;
+
+	/*A message, or with a latch, a marker counted down once everything before it is written, optionally switching the output.*/
+	private static class Entry {
+		final Level level;
+		final String message;
+		final CountDownLatch written;
+		final File switchTo;
+		final boolean switchToConsole;
+
+		Entry(Level level, String message) {
+			this(level, message, null, null, false);
+		}
+
+		Entry(Level level, String message, CountDownLatch written, File switchTo, boolean switchToConsole) {
+			this.level = level;
+			this.message = message;
+			this.written = written;
+			this.switchTo = switchTo;
+			this.switchToConsole = switchToConsole;
+		}
+	}
+
+	public static void setLevel(Level l) {
+		level = l;
+	}
+
+	public static Level getLevel() {
+		return level;
+	}
+
+	public static boolean isDebug() {
+		return level == Level.DEBUG;
+	}
+
+	public static void debug(Object... parts) {
+		log(Level.DEBUG, parts);
+	}
+
+	public static void info(Object... parts) {
+		log(Level.INFO, parts);
+	}
+
+	public static void warn(Object... parts) {
+		log(Level.WARN, parts);
+	}
+
+	public static void error(Object... parts) {
+		log(Level.ERROR, parts);
+	}
+
+	/**Logs the message followed by the stack trace, so it lands in the log file too, not just on stderr.*/
+	public static void error(String message, Throwable t) {
+		log(Level.ERROR, new Object[] {message, "\n", stackTrace(t)});
+	}
+
+	private static void log(Level l, Object[] parts) {
+		if (l.compareTo(level) < 0) return;
+		String message;
+		if (parts.length == 1) message = String.valueOf(parts[0]);
+		else {
+			StringBuilder sb = new StringBuilder();
+			for (Object o: parts) sb.append(o);
+			message = sb.toString();
+		}
+		enqueue(new Entry(l, message), l.compareTo(Level.WARN) >= 0);
+	}
+
+	private static void enqueue(Entry e, boolean wait) {
+		startWriter();
+		boolean queued;
+		try {
+			queued = wait ? queue.offer(e, 1, TimeUnit.SECONDS) : queue.offer(e);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			queued = false;
+		}
+		if (queued == false) numberDropped.incrementAndGet();
+	}
+
+	/**Joins the collection with the separator when, and only if, the message is built.*/
+	public static Object join(final Collection<?> c, final String separator) {
+		return new Object() {
+			public String toString() {
+				StringBuilder sb = new StringBuilder();
+				for (Object o: c) {
+					if (sb.length() != 0) sb.append(separator);
+					sb.append(o);
+				}
+				return sb.toString();
+			}
+		};
+	}
+
+	/**Formats the stack trace when, and only if, the message is built.*/
+	public static Object stackTrace(final Throwable t) {
+		return new Object() {
+			public String toString() {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				t.printStackTrace(pw);
+				pw.flush();
+				return sw.toString().trim();
+			}
+		};
+	}
+
+	/**Sends the messages logged after this call to the file instead of stdout and stderr, appending to it.
+	 * @param maxLogBytes rotate to .1 once the file passes this size*/
+	public static void toFile(File file, long maxLogBytes, int numberOfLogsToKeep) throws IOException {
+		//check it's writable now rather than on the writer thread
+		new FileOutputStream(file, true).close();
+		maxBytes = maxLogBytes;
+		numberToKeep = Math.max(1, numberOfLogsToKeep);
+		awaitEntry(new Entry(Level.ERROR, null, new CountDownLatch(1), file, false));
+	}
+
+	/**Back to stdout and stderr, closing any log file.*/
+	static void toConsole() {
+		awaitEntry(new Entry(Level.ERROR, null, new CountDownLatch(1), null, true));
+	}
+
+	/**Blocks until everything logged so far is written, or 10 sec pass.*/
+	public static void flush() {
+		awaitEntry(new Entry(Level.ERROR, null, new CountDownLatch(1), null, false));
+	}
+
+	private static void awaitEntry(Entry e) {
+		startWriter();
+		try {
+			if (queue.offer(e, 10, TimeUnit.SECONDS)) e.written.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**Number of messages dropped since startup because the queue was full.*/
+	public static long getNumberDropped() {
+		return numberDropped.get();
+	}
+
+	private static synchronized void startWriter() {
+		if (writer != null) return;
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "log-writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "log-flush"));
+	}
+
+	private static void writeLoop() {
+		while (true) {
+			try {
+				Entry e = queue.take();
+				while (e != null) {
+					write(e);
+					e = queue.poll();
+				}
+				reportDropped();
+				flushSinks();
+			} catch (InterruptedException ie) {
+				return;
+			} catch (Exception ex) {
+				//never let a bad write stop the logging
+				System.err.println("Log writer problem "+ex);
+			}
+		}
+	}
+
+	private static void write(Entry e) throws IOException {
+		if (e.written != null) {
+			try {
+				reportDropped();
+				if (e.switchTo != null) openFile(e.switchTo);
+				else if (e.switchToConsole && fileOut != null) {
+					fileOut.close();
+					fileOut = null;
+				}
+				flushSinks();
+			} finally {
+				e.written.countDown();
+			}
+			return;
+		}
+		if (fileOut == null) {
+			PrintStream ps = e.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+			ps.println(e.message);
+			return;
+		}
+		fileOut.write(e.message);
+		fileOut.write('\n');
+		bytesWritten += e.message.length() + 1;
+		if (bytesWritten >= maxBytes) rotate();
+	}
+
+	private static void reportDropped() throws IOException {
+		long dropped = numberDropped.get();
+		if (dropped == numberDroppedReported) return;
+		write(new Entry(Level.WARN, "WARNING: dropped "+(dropped - numberDroppedReported)+" log messages, the log queue was full"));
+		numberDroppedReported = dropped;
+	}
+
+	private static void flushSinks() throws IOException {
+		if (fileOut != null) fileOut.flush();
+		System.out.flush();
+		System.err.flush();
+	}
+
+	private static void openFile(File file) throws IOException {
+		if (fileOut != null) fileOut.close();
+		logFile = file;
+		bytesWritten = file.exists() ? file.length() : 0;
+		fileOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+	}
+
+	private static void rotate() throws IOException {
+		fileOut.close();
+		fileOut = null;
+		Util.rotate(logFile, numberToKeep);
+		openFile(logFile);
+	}
+}
@@ -0,0 +1,258 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**Verifies files against md5 checksum manifests, hashing many files at once with large sequential reads.
+ * Digests are cached by path, size, and modification time so a file is only hashed once across daemon cycles.
+ * The cache holds at most maxCachedDigests, dropping the least recently used, and pruneCache() drops those whose files are gone.*/
+public class Md5Verifier {
+
+	public static final int DEFAULT_THREADS = 4;
+	public static final int READ_BUFFER_SIZE = 4 * 1024 * 1024;
+	public static final int DEFAULT_MAX_CACHED_DIGESTS = 100000;
+
+	// 9f3c...  Sample_R1.fastq.gz  or  9f3c... *Sample_R1.fastq.gz
+	private static final Pattern MD5SUM_LINE = Pattern.compile("^([a-fA-F0-9]{32})\\s+\\*?(.+)$");
+	// MD5 (Sample_R1.fastq.gz) = 9f3c...
+	private static final Pattern BSD_LINE = Pattern.compile("^MD5\\s*\\((.+)\\)\\s*=\\s*([a-fA-F0-9]{32})$");
+	// 9f3c... alone, from a Sample_R1.fastq.gz.md5 file
+	private static final Pattern HASH_ONLY = Pattern.compile("^([a-fA-F0-9]{32})$");
+
+	//fields
+	private int numberThreads;
+	private boolean cacheDigests = true;
+	private int maxCachedDigests = DEFAULT_MAX_CACHED_DIGESTS;
+	private LinkedHashMap<String, CachedDigest> digestCache = new LinkedHashMap<String, CachedDigest>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, CachedDigest> eldest) {
+			return size() > maxCachedDigests;
+		}
+	};
+
+	public Md5Verifier (int numberThreads) {
+		this.numberThreads = numberThreads;
+	}
+
+	public Md5Verifier (int numberThreads, int maxCachedDigests) {
+		this(numberThreads);
+		this.maxCachedDigests = Math.max(1, maxCachedDigests);
+	}
+
+	/**Use cacheDigests = false for files that are hashed once and then deleted.*/
+	public Md5Verifier (int numberThreads, boolean cacheDigests) {
+		this(numberThreads);
+		this.cacheDigests = cacheDigests;
+	}
+
+	/**Checks each file against the md5s in the manifests, matching on the path relative to the manifest's directory,
+	 * e.g. 'Lane1/22597X1_R1.fastq.gz'. An entry of just a file name, '22597X1_R1.fastq.gz', also matches a file of that name elsewhere
+	 * if no other entry has the same name. Returns a list of error messages, empty if all verified.*/
+	public ArrayList<String> verify(File[] files, File[] manifests) throws IOException {
+		ArrayList<String> errors = new ArrayList<String>();
+		HashMap<String, String> byPath = new HashMap<String, String>();
+		HashMap<String, String> byName = new HashMap<String, String>();
+		HashSet<String> duplicateNames = new HashSet<String>();
+		for (File manifest: manifests) {
+			Path dir = manifest.getAbsoluteFile().getParentFile().toPath();
+			for (String[] pathMd5: parseManifest(manifest)) {
+				byPath.put(dir.resolve(pathMd5[0]).normalize().toString(), pathMd5[1]);
+				String name = new File(pathMd5[0]).getName();
+				String prior = byName.put(name, pathMd5[1]);
+				if ((prior != null && prior.equals(pathMd5[1]) == false) || pathMd5[0].contains("/")) duplicateNames.add(name);
+			}
+		}
+		for (String name: duplicateNames) byName.remove(name);
+
+		//find those with an expected md5, all need one
+		HashMap<File, String> expected = new HashMap<File, String>();
+		for (File f: files) {
+			String md5 = byPath.get(f.getAbsoluteFile().toPath().normalize().toString());
+			if (md5 == null) md5 = byName.get(f.getName());
+			if (md5 != null) expected.put(f, md5);
+			else errors.add("Missing md5 entry for "+f);
+		}
+
+		//hash them in parallel
+		ArrayList<File> toCheck = new ArrayList<File>(expected.keySet());
+		HashMap<File, String> observed = md5(toCheck);
+		for (File f: files) {
+			if (expected.containsKey(f) == false) continue;
+			String obs = observed.get(f);
+			if (obs == null) errors.add("Failed to calculate the md5 for "+f);
+			else if (obs.equals(expected.get(f)) == false) errors.add("md5 mismatch for "+f+" expected "+expected.get(f)+" found "+obs);
+		}
+		return errors;
+	}
+
+	/**Returns the md5 of each file, hashing those not in the cache in parallel. Files that could not be read are left out.*/
+	public HashMap<File, String> md5(ArrayList<File> files) throws IOException {
+		HashMap<File, String> md5s = new HashMap<File, String>();
+		HashMap<File, Future<String>> toHash = new HashMap<File, Future<String>>();
+		long bytesToHash = 0;
+		long startTime = System.currentTimeMillis();
+
+		int numThreads = numberThreads;
+		if (files.size() < numThreads) numThreads = files.size();
+		ExecutorService executor = null;
+		try {
+			for (final File f: files) {
+				CachedDigest cd = null;
+				synchronized (digestCache) { cd = digestCache.get(f.getCanonicalPath()); }
+				if (cd != null && cd.matches(f)) {
+					md5s.put(f, cd.md5);
+					continue;
+				}
+				if (executor == null) executor = Executors.newFixedThreadPool(numThreads);
+				bytesToHash += f.length();
+				toHash.put(f, executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return calculateMd5(f);
+					}
+				}));
+			}
+			for (File f: toHash.keySet()) {
+				try {
+					String md5 = toHash.get(f).get();
+					md5s.put(f, md5);
+					if (cacheDigests) synchronized (digestCache) { digestCache.put(f.getCanonicalPath(), new CachedDigest(f, md5)); }
+				} catch (Exception e) {
+					Log.error("\tERROR: hashing "+f+" "+e.getMessage());
+				}
+			}
+		} finally {
+			if (executor != null) executor.shutdown();
+		}
+
+		//throughput
+		if (toHash.size() != 0) {
+			double seconds = (double)(System.currentTimeMillis() - startTime) / 1000.0;
+			if (seconds == 0) seconds = 0.001;
+			double mb = (double)bytesToHash / 1024.0 / 1024.0;
+			Log.info("\tHashed "+toHash.size()+" files, "+Math.round(mb)+" MB in "+Math.round(seconds)+" sec, "+Math.round(mb/seconds)+" MB/s");
+		}
+		else if (files.size() != 0) Log.debug("\tAll ", files.size(), " md5s found in cache");
+		return md5s;
+	}
+
+	/**Hashes the file with large sequential reads, returns the lower case hex md5.*/
+	public static String calculateMd5(File file) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				md.update(buffer.array(), 0, buffer.limit());
+				buffer.clear();
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(md.digest());
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b: bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**Parses md5sum, BSD, and single hash per file style manifests into file name : lower case md5.
+	 * For single hash files the name is taken from the manifest file name minus its .md5 extension.*/
+	public static HashMap<String, String> parseManifests(File[] manifests) throws IOException {
+		HashMap<String, String> nameMd5 = new HashMap<String, String>();
+		for (File manifest: manifests) {
+			for (String[] pathMd5: parseManifest(manifest)) nameMd5.put(new File(pathMd5[0]).getName(), pathMd5[1]);
+		}
+		return nameMd5;
+	}
+
+	/*Returns the path as written in the manifest and the lower case md5 of each entry.*/
+	private static ArrayList<String[]> parseManifest(File manifest) throws IOException {
+		ArrayList<String[]> pathMd5s = new ArrayList<String[]>();
+		BufferedReader in = Util.fetchBufferedReader(manifest);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				Matcher mat = MD5SUM_LINE.matcher(line);
+				if (mat.matches()) {
+					pathMd5s.add(new String[] {mat.group(2).trim(), mat.group(1).toLowerCase()});
+					continue;
+				}
+				mat = BSD_LINE.matcher(line);
+				if (mat.matches()) {
+					pathMd5s.add(new String[] {mat.group(1).trim(), mat.group(2).toLowerCase()});
+					continue;
+				}
+				mat = HASH_ONLY.matcher(line);
+				if (mat.matches() && manifest.getName().endsWith(".md5")) {
+					String name = manifest.getName();
+					pathMd5s.add(new String[] {name.substring(0, name.length()-4), mat.group(1).toLowerCase()});
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return pathMd5s;
+	}
+
+	/**Drops the cached digests of files that no longer exist, e.g. fastq deleted after the six month data policy. Returns the number dropped.*/
+	public int pruneCache() {
+		int dropped = 0;
+		synchronized (digestCache) {
+			Iterator<String> it = digestCache.keySet().iterator();
+			while (it.hasNext()) {
+				if (new File(it.next()).exists() == false) {
+					it.remove();
+					dropped++;
+				}
+			}
+		}
+		return dropped;
+	}
+
+	public int getNumberCachedDigests() {
+		synchronized (digestCache) { return digestCache.size(); }
+	}
+
+	private static class CachedDigest {
+		private long size;
+		private long lastModified;
+		private String md5;
+
+		private CachedDigest(File f, String md5) {
+			this.size = f.length();
+			this.lastModified = f.lastModified();
+			this.md5 = md5;
+		}
+
+		private boolean matches(File f) {
+			return f.length() == size && f.lastModified() == lastModified;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package edu.utah.hci.auto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**Process wide registry of counters, gauges and histograms served in the Prometheus text format from an embedded JDK HttpServer.
+ * No dependencies beyond the JDK. Each daemon calls start(metricsPort) then e.g. 'curl http://localhost:port/metrics'.
+ * Series are keyed by name plus label name value pairs, e.g. Metrics.add(Metrics.COMMAND_RETRIES, 1, "lane", "TRANSFER").
+ * All the metric names are defined here with their help text. Recording is cheap, one short lock, so it is always on.*/
+public class Metrics {
+
+	//both daemons
+	public static final String CYCLE_DURATION = "autoanalysis_cycle_duration_seconds";
+	public static final String ERRORS = "autoanalysis_errors_total";
+	public static final String JOBS_PROCESSED = "autoanalysis_jobs_processed_total";
+	public static final String START_TIME = "autoanalysis_start_time_seconds";
+	public static final String NOTIFICATIONS = "autoanalysis_notifications_total";
+
+	//ChpcAutoAnalysis
+	public static final String CHPC_JOBS = "autoanalysis_chpc_jobs";
+	public static final String SLURM_JOBS = "autoanalysis_slurm_jobs";
+	public static final String SLURM_PARTITION_JOBS = "autoanalysis_slurm_partition_jobs";
+	public static final String LANE_QUEUE_DEPTH = "autoanalysis_lane_queue_depth";
+	public static final String COMMAND_DURATION = "autoanalysis_command_duration_seconds";
+	public static final String COMMAND_RETRIES = "autoanalysis_command_retries_total";
+	public static final String COMMAND_FAILURES = "autoanalysis_command_failures_total";
+	public static final String TRANSFER_BYTES = "autoanalysis_transfer_bytes_total";
+	public static final String TRANSFER_DURATION = "autoanalysis_transfer_duration_seconds";
+	public static final String TRANSFER_THROUGHPUT = "autoanalysis_transfer_throughput_bytes_per_second";
+	public static final String JOB_FAILURES = "autoanalysis_job_failures_total";
+
+	//GNomExAutoAnalysis
+	public static final String DB_QUERY_DURATION = "autoanalysis_db_query_duration_seconds";
+	public static final String DB_QUERY_FAILURES = "autoanalysis_db_query_failures_total";
+	public static final String REQUESTS = "autoanalysis_requests";
+
+	/**Upper bounds in seconds, from a quick ssh call to a multi hour rsync.*/
+	public static final double[] DURATION_BUCKETS = {0.1, 0.5, 1, 5, 15, 60, 300, 900, 3600, 14400};
+
+	private static final String COUNTER = "counter";
+	private static final String GAUGE = "gauge";
+	private static final String HISTOGRAM = "histogram";
+	private static final LinkedHashMap<String, Family> families = new LinkedHashMap<String, Family>();
+	private static HttpServer server = null;
+
+	static {
+		describe(CYCLE_DURATION, HISTOGRAM, "Duration of each daemon cycle or scheduled task.");
+		describe(ERRORS, COUNTER, "Error and warning messages emailed to the admin.");
+		describe(JOBS_PROCESSED, COUNTER, "Jobs returned to HCI by the chpc daemon, or finished by the gnomex daemon.");
+		describe(START_TIME, GAUGE, "Unix time the daemon started.");
+		describe(NOTIFICATIONS, COUNTER, "Emails by outcome, sent, failed, or suppressed as a repeated alert.");
+		describe(CHPC_JOBS, GAUGE, "Job directories on CHPC by status file, as of the last check.");
+		describe(SLURM_JOBS, GAUGE, "The daemon's slurm jobs by squeue state, as of the last check.");
+		describe(SLURM_PARTITION_JOBS, GAUGE, "All slurm jobs in the partition, as of the last check.");
+		describe(LANE_QUEUE_DEPTH, GAUGE, "Commands waiting on each command lane.");
+		describe(COMMAND_DURATION, HISTOGRAM, "Run time of each command including retries, by lane.");
+		describe(COMMAND_RETRIES, COUNTER, "Command retries after a non zero exit code, by lane.");
+		describe(COMMAND_FAILURES, COUNTER, "Commands that failed after all retries, by lane.");
+		describe(TRANSFER_BYTES, COUNTER, "Bytes rsynced, from the size hints, by direction.");
+		describe(TRANSFER_DURATION, HISTOGRAM, "Duration of each batch of rsyncs, by direction.");
+		describe(TRANSFER_THROUGHPUT, GAUGE, "Bytes per second of the last batch of rsyncs, by direction.");
+		describe(JOB_FAILURES, COUNTER, "Failed job transfers and submissions, each retried next cycle until quarantined, by step.");
+		describe(DB_QUERY_DURATION, HISTOGRAM, "Duration of the GNomEx db query.");
+		describe(DB_QUERY_FAILURES, COUNTER, "Failed GNomEx db queries.");
+		describe(REQUESTS, GAUGE, "Experiment Requests by AutoAnalysis state, as of the last poll.");
+	}
+
+	private static void describe(String name, String type, String help) {
+		families.put(name, new Family(type, help));
+	}
+
+	/**Adds to a counter.*/
+	public static synchronized void add(String name, double amount, String... labelNameValues) {
+		fetchFamily(name).fetchSeries(labelNameValues).value += amount;
+	}
+
+	/**Sets a gauge.*/
+	public static synchronized void set(String name, double value, String... labelNameValues) {
+		fetchFamily(name).fetchSeries(labelNameValues).value = value;
+	}
+
+	/**Records one observation in a histogram.*/
+	public static synchronized void observe(String name, double value, String... labelNameValues) {
+		Series s = fetchFamily(name).fetchSeries(labelNameValues);
+		for (int i=0; i< DURATION_BUCKETS.length; i++) if (value <= DURATION_BUCKETS[i]) s.buckets[i]++;
+		s.value += value;
+		s.count++;
+	}
+
+	/**Records the seconds since startNanos, from System.nanoTime(), in a histogram.*/
+	public static void observeSince(String name, long startNanos, String... labelNameValues) {
+		observe(name, (System.nanoTime() - startNanos) / 1000000000.0, labelNameValues);
+	}
+
+	/**Drops all the series of a metric, e.g. before setting the gauges for each state so old states don't linger.*/
+	public static synchronized void clear(String name) {
+		fetchFamily(name).series.clear();
+	}
+
+	private static Family fetchFamily(String name) {
+		Family f = families.get(name);
+		if (f == null) throw new IllegalArgumentException("Unknown metric "+name);
+		return f;
+	}
+
+	/**The Prometheus text exposition format, version 0.0.4.*/
+	public static synchronized String render() {
+		StringBuilder sb = new StringBuilder();
+		for (String name: families.keySet()) {
+			Family f = families.get(name);
+			if (f.series.size() == 0) continue;
+			sb.append("# HELP ").append(name).append(" ").append(f.help).append("\n");
+			sb.append("# TYPE ").append(name).append(" ").append(f.type).append("\n");
+			for (String labels: f.series.keySet()) {
+				Series s = f.series.get(labels);
+				if (f.type.equals(HISTOGRAM)) {
+					for (int i=0; i< DURATION_BUCKETS.length; i++) {
+						sb.append(name).append("_bucket").append(withLabel(labels, "le", format(DURATION_BUCKETS[i]))).append(" ").append(s.buckets[i]).append("\n");
+					}
+					sb.append(name).append("_bucket").append(withLabel(labels, "le", "+Inf")).append(" ").append(s.count).append("\n");
+					sb.append(name).append("_sum").append(labels).append(" ").append(format(s.value)).append("\n");
+					sb.append(name).append("_count").append(labels).append(" ").append(s.count).append("\n");
+				}
+				else sb.append(name).append(labels).append(" ").append(format(s.value)).append("\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**Starts serving GET /metrics on the port, 0 for any free port, see getPort(). Threads are daemons.*/
+	public static synchronized void start(int port) throws IOException {
+		if (server != null) return;
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = render().getBytes(StandardCharsets.UTF_8);
+				int status = 200;
+				if (exchange.getRequestMethod().equals("GET") == false) {
+					status = 405;
+					body = new byte[0];
+				}
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		//the dispatcher thread isn't a daemon, so start it from one, the thread it spawns inherits that
+		Thread starter = new Thread(new Runnable() {
+			public void run() {
+				server.start();
+			}
+		});
+		starter.setDaemon(true);
+		starter.start();
+		try {
+			starter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Log.info("Serving metrics on http://localhost:"+getPort()+"/metrics");
+	}
+
+	public static synchronized int getPort() {
+		return server == null ? -1 : server.getAddress().getPort();
+	}
+
+	public static synchronized void stop() {
+		if (server == null) return;
+		server.stop(0);
+		server = null;
+	}
+
+	/**Drops all the recorded series, for tests.*/
+	static synchronized void reset() {
+		for (Family f: families.values()) f.series.clear();
+	}
+
+	private static String withLabel(String labels, String name, String value) {
+		String l = name+"=\""+value+"\"";
+		if (labels.length() == 0) return "{"+l+"}";
+		return labels.substring(0, labels.length()-1)+","+l+"}";
+	}
+
+	private static String format(double d) {
+		if (d == Math.rint(d) && Math.abs(d) < 1e15) return Long.toString((long)d);
+		return Double.toString(d);
+	}
+
+	private static String escape(String v) {
+		return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static class Family {
+		private String type;
+		private String help;
+		private TreeMap<String, Series> series = new TreeMap<String, Series>();
+
+		private Family (String type, String help) {
+			this.type = type;
+			this.help = help;
+		}
+
+		private Series fetchSeries(String[] labelNameValues) {
+			if (labelNameValues.length % 2 != 0) throw new IllegalArgumentException("Labels must be name value pairs "+Arrays.toString(labelNameValues));
+			StringBuilder sb = new StringBuilder();
+			for (int i=0; i< labelNameValues.length; i+=2) {
+				sb.append(i == 0 ? "{" : ",");
+				sb.append(labelNameValues[i]).append("=\"").append(escape(labelNameValues[i+1])).append("\"");
+			}
+			if (sb.length() != 0) sb.append("}");
+			String key = sb.toString();
+			Series s = series.get(key);
+			if (s == null) {
+				s = new Series(type.equals(HISTOGRAM) ? DURATION_BUCKETS.length : 0);
+				series.put(key, s);
+			}
+			return s;
+		}
+	}
+
+	private static class Series {
+		private double value = 0;
+		private long count = 0;
+		private long[] buckets;
+
+		private Series (int numberBuckets) {
+			buckets = new long[numberBuckets];
+		}
+	}
+}
@@ -9,7 +9,7 @@ public class MiscDelme {
 		Matcher mat = Util.SLURM_JOBID.matcher("slurm-6491472.out");
 		if (mat.matches()) {
 			String id = mat.group(1);
-			Util.pl(id);
+			Log.info(id);
 		}
 		
 
@@ -0,0 +1,79 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**One long lived MultiQC process, e.g. a python loop inside a docker container, that runs a MultiQC report for each request sent to it.
+ * Requests are written to its stdin as one line of tab delimited MultiQC arguments.
+ * The worker writes any output and then a 'AA_MULTIQC_DONE\t<exitCode>' line when the report is done.*/
+public class MultiQCWorker {
+
+	public static final String DONE = "AA_MULTIQC_DONE";
+
+	//fields
+	private Process process = null;
+	private Writer toWorker = null;
+	private BufferedReader fromWorker = null;
+	private int numberRuns = 0;
+	private boolean dead = false;
+
+	public MultiQCWorker (String[] command) throws IOException {
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		process = pb.start();
+		toWorker = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+		fromWorker = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+	}
+
+	/**Sends the MultiQC arguments to the worker and blocks until it reports back. Returns the exit code, -1 if the worker died.
+	 * The worker's output is added to the output list.*/
+	public int run(String[] multiQCArgs, ArrayList<String> output) {
+		numberRuns++;
+		try {
+			toWorker.write(Util.stringArrayToString(multiQCArgs, "\t"));
+			toWorker.write("\n");
+			toWorker.flush();
+			String line;
+			while ((line = fromWorker.readLine()) != null) {
+				if (line.startsWith(DONE)) {
+					String[] fields = Util.TAB.split(line);
+					if (fields.length == 2) return Integer.parseInt(fields[1].trim());
+					return -1;
+				}
+				output.add(line);
+			}
+			output.add("MultiQC worker exited");
+		} catch (Exception e) {
+			output.add("MultiQC worker failed: "+e.getMessage());
+		}
+		dead = true;
+		return -1;
+	}
+
+	public boolean isAlive() {
+		if (dead) return false;
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/**Closes the worker's stdin so it can exit on its own, then kills it.*/
+	public void destroy() {
+		dead = true;
+		try {
+			toWorker.close();
+		} catch (IOException e) {}
+		process.destroy();
+	}
+
+	public int getNumberRuns() {
+		return numberRuns;
+	}
+}
@@ -0,0 +1,111 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**Keeps one or more MultiQC workers warm so each finished request doesn't pay for a cold 'docker run', image setup, and python start up.
+ * Workers are replaced after a failed run or after maxRunsPerWorker runs, MultiQC keeps some global state between reports.
+ * The worker command is configurable so a local stand in can be used for testing instead of docker.*/
+public class MultiQCWorkerPool {
+
+	public static final int DEFAULT_RUNS_PER_WORKER = 10;
+
+	/*Python loop run inside the container, reads tab delimited MultiQC args from stdin, one report per line.
+	 * Uses MultiQC's click command in process when it can be found, otherwise calls the multiqc executable. No single quotes allowed.*/
+	private static final String PYTHON_WORKER =
+			"import sys, subprocess\n"+
+			"cli = None\n"+
+			"try:\n"+
+			"    import multiqc\n"+
+			"    cli = getattr(multiqc, \"run_cli\", None)\n"+
+			"    if cli is None:\n"+
+			"        from multiqc import multiqc as mq\n"+
+			"        cli = getattr(mq, \"run_cli\", None)\n"+
+			"except Exception:\n"+
+			"    cli = None\n"+
+			"for line in sys.stdin:\n"+
+			"    args = [a for a in line.rstrip(\"\\n\").split(\"\\t\") if a]\n"+
+			"    code = 1\n"+
+			"    try:\n"+
+			"        if cli is not None:\n"+
+			"            try:\n"+
+			"                cli.main(args=args, prog_name=\"multiqc\", standalone_mode=False)\n"+
+			"                code = 0\n"+
+			"            except SystemExit as e:\n"+
+			"                code = e.code if isinstance(e.code, int) else 1\n"+
+			"        else:\n"+
+			"            code = subprocess.call([\"multiqc\"] + args)\n"+
+			"    except Exception as e:\n"+
+			"        print(\"MultiQC error \" + str(e))\n"+
+			"    sys.stdout.flush()\n"+
+			"    print(\""+MultiQCWorker.DONE+"\\t\" + str(code), flush=True)\n";
+
+	//fields
+	private String[] workerCommand;
+	private int maxRunsPerWorker;
+	private Semaphore permits;
+	private LinkedBlockingQueue<MultiQCWorker> idleWorkers = new LinkedBlockingQueue<MultiQCWorker>();
+	private int numberWorkersStarted = 0;
+
+	/**@param workerCommand the command that starts one worker, see dockerWorkerCommand()
+	 * @param numberWorkers max number of reports to run at once*/
+	public MultiQCWorkerPool (String[] workerCommand, int numberWorkers, int maxRunsPerWorker) {
+		this.workerCommand = workerCommand;
+		this.maxRunsPerWorker = maxRunsPerWorker;
+		permits = new Semaphore(numberWorkers, true);
+	}
+
+	/**The default worker, a python loop in a long lived ewels/multiqc container with the directory mounted.*/
+	public static String[] dockerWorkerCommand(File directoryToMount) throws IOException {
+		String dir = directoryToMount.getCanonicalPath();
+		return new String[] {"bash", "-c", "exec docker run -i --rm --user $(id -u):$(id -g) -v "+dir+":"+dir+
+				" --entrypoint python3 ewels/multiqc -u -c '"+PYTHON_WORKER+"'"};
+	}
+
+	/**Runs one MultiQC report on a warm worker, blocking until a worker is free. Returns the exit code, 0 is OK.*/
+	public int run(String[] multiQCArgs, ArrayList<String> output) throws Exception {
+		permits.acquire();
+		MultiQCWorker worker = null;
+		try {
+			worker = idleWorkers.poll();
+			if (worker != null && worker.isAlive() == false) {
+				worker.destroy();
+				worker = null;
+			}
+			if (worker == null) worker = startWorker();
+			int exitCode = worker.run(multiQCArgs, output);
+
+			//recycle it?
+			if (exitCode != 0 || worker.getNumberRuns() >= maxRunsPerWorker || worker.isAlive() == false) {
+				Log.debug("\tRecycling MultiQC worker after ", worker.getNumberRuns(), " runs, last exit code ", exitCode);
+				worker.destroy();
+			}
+			else idleWorkers.add(worker);
+			worker = null;
+			return exitCode;
+		} finally {
+			if (worker != null) worker.destroy();
+			permits.release();
+		}
+	}
+
+	private synchronized MultiQCWorker startWorker() throws IOException {
+		numberWorkersStarted++;
+		Log.debug("\tStarting MultiQC worker ", numberWorkersStarted);
+		return new MultiQCWorker(workerCommand);
+	}
+
+	/**Number of workers started so far, including replacements.*/
+	public synchronized int getNumberWorkersStarted() {
+		return numberWorkersStarted;
+	}
+
+	/**Stops the idle workers, call when the daemon exits.*/
+	public void shutdown() {
+		MultiQCWorker w;
+		while ((w = idleWorkers.poll()) != null) w.destroy();
+	}
+}
@@ -0,0 +1,214 @@
+package edu.utah.hci.auto;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**Queues email for a background sender thread that hands it to the local MTA through an SmtpClient, so the daemons never block on mail.
+ * alert() is for error and warning lines. An alert identical to one sent within the repeat window is suppressed,
+ * e.g. the same FAILED or QUEUED job each cycle. The rest are held for the digest interval and sent as one email per recipient and subject.
+ * send() is for one off messages, e.g. the alive and client emails, sent as soon as the thread gets to them.
+ * Call shutdown() before exiting to send what's pending.*/
+public class Notifier {
+
+	public static final long DEFAULT_REPEAT_WINDOW = 24L * 60 * 60 * 1000;
+	public static final long DEFAULT_DIGEST_INTERVAL = 10L * 60 * 1000;
+	public static final int ATTEMPTS = 3;
+	public static final long SHUTDOWN_WAIT = 2L * 60 * 1000;
+
+	//fields
+	private SmtpClient smtp;
+	private String from;
+	private long repeatWindow;
+	private long digestInterval;
+	private volatile long retryWait = 30000;
+	private HashMap<String, Long> lastAlerted = new HashMap<String, Long>();
+	private LinkedHashMap<String, Digest> digests = new LinkedHashMap<String, Digest>();
+	private LinkedList<Email> outbox = new LinkedList<Email>();
+	private int numberSent = 0;
+	private int numberSuppressed = 0;
+	private int numberFailed = 0;
+	private boolean running = true;
+	private Thread sender;
+
+	private static class Email {
+		String to;
+		String subject;
+		String body;
+
+		Email(String to, String subject, String body) {
+			this.to = to;
+			this.subject = subject;
+			this.body = body;
+		}
+	}
+
+	private static class Digest {
+		String to;
+		String subject;
+		long due;
+		int suppressed = 0;
+		ArrayList<String> messages = new ArrayList<String>();
+	}
+
+	/**@param repeatWindow milliseconds to suppress an identical alert after it is queued
+	 * @param digestInterval milliseconds to gather alerts before sending them, 0 to send on the next pass*/
+	public Notifier (SmtpClient smtp, String from, long repeatWindow, long digestInterval) {
+		this.smtp = smtp;
+		this.from = from;
+		this.repeatWindow = repeatWindow;
+		this.digestInterval = digestInterval;
+		sender = new Thread(new Runnable() {
+			public void run() {
+				sendLoop();
+			}
+		}, "notifier");
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	/**Queues an error or warning line for the digest to this recipient and subject. Returns false if it was suppressed as a repeat.*/
+	public synchronized boolean alert(String to, String subject, String message) {
+		if (to == null) {
+			Log.error("ERROR: no address to email '"+subject+"'\n"+message);
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		Iterator<Long> times = lastAlerted.values().iterator();
+		while (times.hasNext()) if (now - times.next() >= repeatWindow) times.remove();
+		String key = to+"\t"+subject;
+		Digest d = digests.get(key);
+		if (lastAlerted.containsKey(key+"\t"+message)) {
+			numberSuppressed++;
+			Metrics.add(Metrics.NOTIFICATIONS, 1, "outcome", "suppressed");
+			if (d != null) d.suppressed++;
+			return false;
+		}
+		lastAlerted.put(key+"\t"+message, now);
+		if (d == null) {
+			d = new Digest();
+			d.to = to;
+			d.subject = subject;
+			d.due = now + digestInterval;
+			digests.put(key, d);
+		}
+		d.messages.add(message);
+		notifyAll();
+		return true;
+	}
+
+	/**Queues a message to send now, never suppressed or batched.*/
+	public synchronized void send(String to, String subject, String body) {
+		if (to == null) {
+			Log.error("ERROR: no address to email '"+subject+"'\n"+body);
+			return;
+		}
+		outbox.add(new Email(to, subject, body));
+		notifyAll();
+	}
+
+	/**Sends the pending digests and emails, then stops the sender. Waits at most maxWait milliseconds.*/
+	public void shutdown(long maxWait) {
+		synchronized (this) {
+			running = false;
+			notifyAll();
+		}
+		try {
+			sender.join(maxWait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sendLoop() {
+		while (true) {
+			Email email;
+			synchronized (this) {
+				email = nextEmail();
+				if (email == null) {
+					if (running == false) return;
+					try {
+						wait(fetchWait());
+					} catch (InterruptedException e) {
+						return;
+					}
+					continue;
+				}
+			}
+			deliver(email);
+		}
+	}
+
+	/*Moves any due digests, or all when shutting down, to the outbox and returns the next email, null if none.*/
+	private Email nextEmail() {
+		long now = System.currentTimeMillis();
+		Iterator<Digest> it = digests.values().iterator();
+		while (it.hasNext()) {
+			Digest d = it.next();
+			if (running && d.due > now) continue;
+			StringBuilder body = new StringBuilder(Util.arrayListToString(d.messages, "\n"));
+			if (d.suppressed != 0) body.append("\n\n("+d.suppressed+" repeated alerts suppressed)");
+			outbox.add(new Email(d.to, d.subject, body.toString()));
+			it.remove();
+		}
+		return outbox.poll();
+	}
+
+	/*Milliseconds until the next digest is due, 0 waits for a notify.*/
+	private long fetchWait() {
+		long next = Long.MAX_VALUE;
+		for (Digest d: digests.values()) next = Math.min(next, d.due);
+		if (next == Long.MAX_VALUE) return 0;
+		return Math.max(1, next - System.currentTimeMillis());
+	}
+
+	private void deliver(Email email) {
+		for (int i=1; i<= ATTEMPTS; i++) {
+			try {
+				smtp.send(from, email.to, email.subject, email.body);
+				synchronized (this) {
+					numberSent++;
+				}
+				Metrics.add(Metrics.NOTIFICATIONS, 1, "outcome", "sent");
+				return;
+			} catch (IOException e) {
+				Log.error("ERROR: sending email '"+email.subject+"' to "+email.to+", attempt "+i+" of "+ATTEMPTS+", "+e.getMessage());
+			}
+			if (i == ATTEMPTS || isRunning() == false) break;
+			try {
+				Thread.sleep(retryWait);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		synchronized (this) {
+			numberFailed++;
+		}
+		Metrics.add(Metrics.NOTIFICATIONS, 1, "outcome", "failed");
+		Log.error("Failed to send email '"+email.subject+"' to "+email.to+"\n"+email.body);
+	}
+
+	private synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**Milliseconds between delivery attempts, defaults to 30 sec.*/
+	public void setRetryWait(long retryWait) {
+		this.retryWait = retryWait;
+	}
+
+	public synchronized int getNumberSent() {
+		return numberSent;
+	}
+
+	public synchronized int getNumberSuppressed() {
+		return numberSuppressed;
+	}
+
+	public synchronized int getNumberFailed() {
+		return numberFailed;
+	}
+}
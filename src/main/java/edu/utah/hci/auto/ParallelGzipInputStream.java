@@ -0,0 +1,360 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**High throughput gzip input stream.
+ * Block gzipped (BGZF) files carry each member's compressed size in its header, so the members are read ahead and inflated in
+ * parallel, then handed back in order.
+ * All other gzip files, single or multi member, can't be split without inflating them, so they are inflated on one read ahead
+ * worker with large buffers while the caller parses the previous chunk.
+ * All streams share two daemon pools, one for the BGZF blocks and one for the read ahead workers. close() stops and waits on the
+ * worker, one dropped without a close() is noticed once collected and its worker exits too.
+ * Use isBlockGzipped() to see which path was taken.*/
+public class ParallelGzipInputStream extends InputStream {
+
+	public static final int DEFAULT_THREADS = 4;
+	private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	private static final byte[] END_OF_STREAM = new byte[0];
+	private static final long CLOSE_WAIT = 10000;
+
+	private static ExecutorService blockPool = null;
+	private static ExecutorService readAheadPool = null;
+	private static AtomicInteger activeReadAheads = new AtomicInteger(0);
+
+	//fields
+	private boolean blockGzipped = false;
+	private byte[] current = END_OF_STREAM;
+	private int currentPosition = 0;
+	private boolean finished = false;
+	private volatile boolean closed = false;
+
+	//bgzf path
+	private DataInputStream compressedIn = null;
+	private ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+	private int readAhead;
+	private boolean noMoreBlocks = false;
+
+	//single stream path
+	private ReadAhead worker = null;
+
+	public ParallelGzipInputStream (File gzFile) throws IOException {
+		this(gzFile, DEFAULT_THREADS);
+	}
+
+	/**@param numberThreads sets the read ahead, numberThreads * 4 blocks or chunks, the shared block pool has a thread per core*/
+	public ParallelGzipInputStream (File gzFile, int numberThreads) throws IOException {
+		if (numberThreads < 1) numberThreads = 1;
+		readAhead = numberThreads * 4;
+		blockGzipped = isBlockGzipped(gzFile);
+		if (blockGzipped) compressedIn = new DataInputStream(new BufferedInputStream(new FileInputStream(gzFile), FILE_BUFFER_SIZE));
+		else {
+			InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(gzFile), FILE_BUFFER_SIZE), FILE_BUFFER_SIZE);
+			worker = new ReadAhead(in, readAhead, this);
+			fetchReadAheadPool().execute(worker);
+		}
+	}
+
+	private static synchronized ExecutorService fetchBlockPool() {
+		if (blockPool == null) blockPool = Executors.newFixedThreadPool(Math.max(DEFAULT_THREADS, Runtime.getRuntime().availableProcessors()), new DaemonThreadFactory("ParallelGzipInputStream-block"));
+		return blockPool;
+	}
+
+	private static synchronized ExecutorService fetchReadAheadPool() {
+		if (readAheadPool == null) readAheadPool = Executors.newCachedThreadPool(new DaemonThreadFactory("ParallelGzipInputStream-inflater"));
+		return readAheadPool;
+	}
+
+	/**Number of single stream read ahead workers still running, across all streams.*/
+	static int getNumberActiveReadAheads() {
+		return activeReadAheads.get();
+	}
+
+	/**Checks if the first member of the file has the BGZF 'BC' extra sub field.*/
+	public static boolean isBlockGzipped(File gzFile) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(gzFile));
+		try {
+			byte[] header = new byte[12];
+			in.readFully(header);
+			if ((header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || header[2] != 8 || (header[3] & 4) == 0) return false;
+			int xlen = (header[10] & 0xFF) | ((header[11] & 0xFF) << 8);
+			byte[] extra = new byte[xlen];
+			in.readFully(extra);
+			return findBlockSize(extra) != -1;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/*Returns BSIZE from the BC sub field, or -1 if not found.*/
+	private static int findBlockSize(byte[] extra) {
+		int i = 0;
+		while (i+4 <= extra.length) {
+			int slen = (extra[i+2] & 0xFF) | ((extra[i+3] & 0xFF) << 8);
+			if (extra[i] == 'B' && extra[i+1] == 'C' && slen == 2 && i+6 <= extra.length) {
+				return (extra[i+4] & 0xFF) | ((extra[i+5] & 0xFF) << 8);
+			}
+			i += 4 + slen;
+		}
+		return -1;
+	}
+
+	public int read() throws IOException {
+		if (ensureData() == false) return -1;
+		return current[currentPosition++] & 0xFF;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (ensureData() == false) return -1;
+		int n = Math.min(len, current.length - currentPosition);
+		System.arraycopy(current, currentPosition, b, off, n);
+		currentPosition += n;
+		return n;
+	}
+
+	public int available() {
+		return current.length - currentPosition;
+	}
+
+	/*Loads the next non empty chunk if the current one is used up. Returns false at the end of the stream.*/
+	private boolean ensureData() throws IOException {
+		if (closed) throw new IOException("Stream closed");
+		while (currentPosition >= current.length) {
+			if (finished) return false;
+			byte[] next = blockGzipped ? nextBlock() : nextChunk();
+			if (next == null) {
+				finished = true;
+				return false;
+			}
+			current = next;
+			currentPosition = 0;
+		}
+		return true;
+	}
+
+	/*BGZF, keeps readAhead blocks inflating and returns the oldest.*/
+	private byte[] nextBlock() throws IOException {
+		while (noMoreBlocks == false && pendingBlocks.size() < readAhead) {
+			final byte[] block = readBlock();
+			if (block == null) {
+				noMoreBlocks = true;
+				break;
+			}
+			pendingBlocks.add(fetchBlockPool().submit(new Callable<byte[]>() {
+				public byte[] call() throws Exception {
+					return inflateBlock(block);
+				}
+			}));
+		}
+		Future<byte[]> oldest = pendingBlocks.poll();
+		if (oldest == null) return null;
+		try {
+			return oldest.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while inflating", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to inflate a gzip block", e.getCause());
+		}
+	}
+
+	/*Reads one whole gzip member, returns null at the end of the file.*/
+	private byte[] readBlock() throws IOException {
+		byte[] header = new byte[12];
+		int first = compressedIn.read();
+		if (first == -1) return null;
+		header[0] = (byte)first;
+		compressedIn.readFully(header, 1, 11);
+		if ((header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || (header[3] & 4) == 0) throw new IOException("Not a BGZF block");
+		int xlen = (header[10] & 0xFF) | ((header[11] & 0xFF) << 8);
+		byte[] extra = new byte[xlen];
+		compressedIn.readFully(extra);
+		int bsize = findBlockSize(extra);
+		if (bsize == -1) throw new IOException("BGZF block is missing its BC size field");
+		int blockSize = bsize + 1;
+		byte[] block = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, 12);
+		System.arraycopy(extra, 0, block, 12, xlen);
+		compressedIn.readFully(block, 12 + xlen, blockSize - 12 - xlen);
+		return block;
+	}
+
+	/*Inflates one member and checks its crc and size.*/
+	private static byte[] inflateBlock(byte[] block) throws IOException, DataFormatException {
+		int xlen = (block[10] & 0xFF) | ((block[11] & 0xFF) << 8);
+		int dataStart = 12 + xlen;
+		int dataLength = block.length - dataStart - 8;
+		int trailer = block.length - 8;
+		long expectedCrc = readUInt(block, trailer);
+		int isize = (int)readUInt(block, trailer + 4);
+		byte[] out = new byte[isize];
+		if (isize == 0) return out;
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, dataStart, dataLength);
+			int n = 0;
+			while (n < isize) {
+				int inflated = inflater.inflate(out, n, isize - n);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput())) break;
+				n += inflated;
+			}
+			if (n != isize) throw new IOException("Inflated "+n+" bytes but the block size is "+isize);
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(out, 0, isize);
+		if (crc.getValue() != expectedCrc) throw new IOException("CRC mismatch in gzip block");
+		return out;
+	}
+
+	private static long readUInt(byte[] b, int i) {
+		return ((long)(b[i] & 0xFF)) | ((long)(b[i+1] & 0xFF) << 8) | ((long)(b[i+2] & 0xFF) << 16) | ((long)(b[i+3] & 0xFF) << 24);
+	}
+
+	private byte[] nextChunk() throws IOException {
+		try {
+			byte[] chunk = worker.chunks.take();
+			if (worker.exception != null) throw worker.exception;
+			if (chunk == END_OF_STREAM) return null;
+			return chunk;
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while inflating", e);
+		}
+	}
+
+	public boolean isBlockGzipped() {
+		return blockGzipped;
+	}
+
+	/**Cancels any pending blocks, or stops the read ahead worker and waits for it to exit.*/
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		for (Future<byte[]> f: pendingBlocks) f.cancel(true);
+		pendingBlocks.clear();
+		if (compressedIn != null) compressedIn.close();
+		if (worker != null) worker.stop();
+	}
+
+	/**Inflates a single stream into chunks on a shared pool thread. Holds its stream weakly so a stream that is never closed
+	 * can be collected, the worker then gives up waiting on the full queue and exits.*/
+	private static class ReadAhead implements Runnable {
+		private InputStream in;
+		private ArrayBlockingQueue<byte[]> chunks;
+		private WeakReference<ParallelGzipInputStream> owner;
+		private volatile IOException exception = null;
+		private volatile boolean stopped = false;
+		private boolean started = false;
+		private Thread thread = null;
+		private CountDownLatch exited = new CountDownLatch(1);
+
+		private ReadAhead(InputStream in, int readAhead, ParallelGzipInputStream owner) {
+			this.in = in;
+			this.chunks = new ArrayBlockingQueue<byte[]>(readAhead);
+			this.owner = new WeakReference<ParallelGzipInputStream>(owner);
+		}
+
+		public void run() {
+			synchronized (this) {
+				if (stopped) return;
+				started = true;
+				thread = Thread.currentThread();
+			}
+			activeReadAheads.incrementAndGet();
+			try {
+				boolean more = true;
+				while (more && stopped == false) {
+					byte[] chunk = new byte[CHUNK_SIZE];
+					int n = 0;
+					int r;
+					while (n < CHUNK_SIZE && (r = in.read(chunk, n, CHUNK_SIZE - n)) != -1) n += r;
+					if (n == 0) break;
+					if (n < CHUNK_SIZE) {
+						byte[] trimmed = new byte[n];
+						System.arraycopy(chunk, 0, trimmed, 0, n);
+						chunk = trimmed;
+					}
+					more = offer(chunk);
+				}
+			} catch (IOException e) {
+				exception = e;
+			} catch (InterruptedException e) {
+				//stopped
+			} finally {
+				try { in.close(); } catch (IOException e) {}
+				try { if (stopped == false) offer(END_OF_STREAM); } catch (InterruptedException e) {}
+				//never leave an interrupt on the pool thread
+				synchronized (this) {
+					thread = null;
+					Thread.interrupted();
+				}
+				activeReadAheads.decrementAndGet();
+				exited.countDown();
+			}
+		}
+
+		/*Waits for room in the queue, false if stopped or the stream was dropped.*/
+		private boolean offer(byte[] chunk) throws InterruptedException {
+			while (stopped == false) {
+				if (chunks.offer(chunk, 1, TimeUnit.SECONDS)) return true;
+				if (owner.get() == null) return false;
+			}
+			return false;
+		}
+
+		/*Interrupts the worker and frees the queue so it can't block, then waits for it to exit.*/
+		private void stop() throws IOException {
+			synchronized (this) {
+				stopped = true;
+				if (started == false) {
+					in.close();
+					return;
+				}
+				if (thread != null) thread.interrupt();
+			}
+			chunks.clear();
+			try {
+				if (exited.await(CLOSE_WAIT, TimeUnit.MILLISECONDS) == false) Log.warn("WARNING: a gzip read ahead worker didn't stop within "+CLOSE_WAIT+" ms");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private String name;
+		private DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
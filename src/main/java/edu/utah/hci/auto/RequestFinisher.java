@@ -0,0 +1,108 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**Runs MultiQC on one Experiment Request's completed AutoAnalysis, emails the client, then runs the JobCleaner.
+ * MultiQC runs on a warm MultiQCWorkerPool worker if one is provided, otherwise with a cold 'docker run'.
+ * Several run at once from the GNomExAutoAnalysis daemon, a failure only affects its own request.*/
+public class RequestFinisher implements Runnable {
+
+	//fields
+	private GNomExRequest gr = null;
+	private GNomExAutoAnalysis gaa = null;
+	private String multiQCOptions = null;
+	private JobCleaner jobCleaner = null;
+	private MultiQCWorkerPool multiQCWorkerPool = null;
+	private int numberRetries;
+	private boolean verbose = false;
+	private boolean failed = false;
+	private String errorMessage = null;
+
+	/**@param multiQCWorkerPool null to use a cold docker run*/
+	public RequestFinisher (GNomExRequest gr, String multiQCOptions, JobCleaner jobCleaner, MultiQCWorkerPool multiQCWorkerPool, int numberRetries, boolean verbose, GNomExAutoAnalysis gaa) {
+		this.gr = gr;
+		this.multiQCWorkerPool = multiQCWorkerPool;
+		this.multiQCOptions = multiQCOptions;
+		this.jobCleaner = jobCleaner;
+		this.numberRetries = numberRetries;
+		this.verbose = verbose;
+		this.gaa = gaa;
+	}
+
+	public void run() {
+		try {
+			// AutoAnalysis_22Dec2023
+			Log.debug("\tStarting\t", gr.getAutoAnalysisMainDirectory());
+			String alignDir = gr.getAutoAnalysisMainDirectory().getCanonicalPath();
+			String jobsDir = gr.getAutoAnalysisJobsDirectory().getCanonicalPath();
+			String name = gr.getRequestIdCleaned();
+
+			// multiqc on a warm worker or a cold docker run
+			if (multiQCWorkerPool != null) runWarmMultiQC(alignDir, jobsDir, name);
+			else {
+				String cmd = "set -e\ndocker run --rm --user $(id -u):$(id -g) -v "+alignDir+":"+alignDir+
+						" ewels/multiqc multiqc "+multiQCOptions+" --outdir "+alignDir+"/MultiQC --title "+name+
+						" --filename "+name+"_MultiQCReport.html "+jobsDir+"\n";
+				//run it, will retry
+				CommandRunner cr = new CommandRunner (numberRetries, verbose, gr.getAutoAnalysisMainDirectory(), new String[] {cmd});
+				if (cr.isFailed()) throw new Exception(cr.getErrorMessage());
+			}
+
+			LifecycleLog.event(LifecycleLog.MULTIQC, name, null);
+
+			//email client that data is ready, before the cleaner can fail, once the MultiQC dir exists the request counts as finished
+			gaa.emailClient(gr);
+
+			// small file cleanup, in process, a failure is left for the admin
+			ArrayList<String> cleanErrors = jobCleaner.clean(gr.getAutoAnalysisJobsDirectory());
+			if (cleanErrors.size() != 0) throw new Exception("JobCleaner failed, the client was emailed\n"+Util.arrayListToString(cleanErrors, "\n"));
+			Log.debug("\tFinished\t", gr.getAutoAnalysisMainDirectory());
+
+		} catch (Exception e) {
+			failed = true;
+			errorMessage = "ERROR: running MultiQC and the JobCleaner on "+gr.getRequestIdCleaned()+", see "+gr.getAutoAnalysisMainDirectory()+"\n"+e.getMessage();
+			if (verbose) Log.error("\t"+errorMessage, e);
+			else Log.error("\t"+errorMessage);
+		}
+	}
+
+	/*Runs the report on a pooled worker, retries on a fresh worker if it fails.*/
+	private void runWarmMultiQC(String alignDir, String jobsDir, String name) throws Exception {
+		ArrayList<String> args = new ArrayList<String>();
+		//the same words bash would give the cold docker run, tab delimited to the worker
+		for (String o: Util.splitShellWords(multiQCOptions)) {
+			if (o.indexOf('\t') != -1 || o.indexOf('\n') != -1) throw new Exception("MultiQC options with a tab or newline can't go to a warm worker '"+multiQCOptions+"'");
+			args.add(o);
+		}
+		args.add("--outdir"); args.add(alignDir+"/MultiQC");
+		args.add("--title"); args.add(name);
+		args.add("--filename"); args.add(name+"_MultiQCReport.html");
+		args.add(jobsDir);
+		String[] argsArray = new String[args.size()];
+		args.toArray(argsArray);
+
+		ArrayList<String> output = new ArrayList<String>();
+		int exitCode = -1;
+		for (int i=0; i<= numberRetries; i++) {
+			output.clear();
+			exitCode = multiQCWorkerPool.run(argsArray, output);
+			if (exitCode == 0) break;
+			Log.debug("\tMultiQC failed on a warm worker for ", name, ", exit code ", exitCode, "\n\t", Log.join(output, "\n\t"));
+		}
+		Log.debug("\t", Log.join(output, "\n\t"));
+		if (exitCode != 0) throw new Exception("MultiQC failed after "+(numberRetries+1)+" tries, exit code "+exitCode+"\n"+Util.arrayListToString(output, "\n"));
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public GNomExRequest getRequest() {
+		return gr;
+	}
+}
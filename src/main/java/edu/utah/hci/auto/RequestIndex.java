@@ -0,0 +1,163 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+/**Persistent index of Experiment Requests with an AutoAnalysis, so each daemon cycle only checks the jobs still outstanding.
+ * FINISHED requests, MultiQC has run, are skipped with a single stat of their AutoAnalysis directory.
+ * ACTIVE requests track all of their job names and only those without a COMPLETE are checked.
+ * One tab delimited line per request: requestId state autoAnalysisDir allJobs outstandingJobs, the job lists comma delimited.
+ * The file is rewritten atomically each cycle. If it is missing or can't be parsed it is rebuilt from the repository as requests are seen,
+ * delete it to force a rebuild.*/
+public class RequestIndex {
+
+	public static final String FINISHED = "FINISHED";
+	public static final String ACTIVE = "ACTIVE";
+
+	//fields
+	private File indexFile;
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private HashSet<String> seen = new HashSet<String>();
+
+	public RequestIndex (File indexFile) {
+		this.indexFile = indexFile;
+		load();
+	}
+
+	private void load() {
+		if (indexFile.exists() == false) {
+			Log.info("\tNo request index found, rebuilding from the repository "+indexFile);
+			return;
+		}
+		BufferedReader in = null;
+		try {
+			in = Util.fetchBufferedReader(indexFile);
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				String[] f = Util.TAB.split(line, -1);
+				if (f.length != 5) throw new IOException("Malformed line -> "+line);
+				Entry e = new Entry(f[0], new File(f[2]));
+				e.finished = f[1].equals(FINISHED);
+				e.jobs = split(f[3]);
+				e.outstanding = split(f[4]);
+				entries.put(e.requestId, e);
+			}
+		} catch (IOException e) {
+			Log.warn("\tWARNING: failed to parse the request index, rebuilding from the repository "+indexFile+" "+e.getMessage());
+			entries.clear();
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+		}
+	}
+
+	private static TreeSet<String> split(String commaList) {
+		TreeSet<String> ts = new TreeSet<String>();
+		if (commaList.length() != 0) for (String s: Util.COMMA_SPACE.split(commaList)) ts.add(s);
+		return ts;
+	}
+
+	private static String join(TreeSet<String> names) {
+		StringBuilder sb = new StringBuilder();
+		for (String n: names) {
+			if (sb.length() != 0) sb.append(",");
+			sb.append(n);
+		}
+		return sb.toString();
+	}
+
+	/**Returns the entry for the request or null, and keeps it in the index on the next save.*/
+	public synchronized Entry get(String requestId) {
+		seen.add(requestId);
+		return entries.get(requestId);
+	}
+
+	/**Returns the AutoAnalysis dir of a FINISHED request if it still exists, otherwise null. Entries whose dir is gone are dropped.*/
+	public synchronized File fetchFinishedDirectory(String requestId) {
+		Entry e = get(requestId);
+		if (e == null || e.finished == false) return null;
+		if (e.mainDirectory.exists()) return e.mainDirectory;
+		entries.remove(requestId);
+		return null;
+	}
+
+	/**Adds or replaces the entry for an ACTIVE request.*/
+	public synchronized Entry addActive(String requestId, File mainDirectory, ArrayList<String> jobs, ArrayList<String> outstandingJobs) {
+		seen.add(requestId);
+		Entry e = new Entry(requestId, mainDirectory);
+		e.jobs.addAll(jobs);
+		e.outstanding.addAll(outstandingJobs);
+		entries.put(requestId, e);
+		return e;
+	}
+
+	/**Adds or replaces the entry for a FINISHED request.*/
+	public synchronized void addFinished(String requestId, File mainDirectory) {
+		seen.add(requestId);
+		Entry e = new Entry(requestId, mainDirectory);
+		e.finished = true;
+		entries.put(requestId, e);
+	}
+
+	public synchronized void remove(String requestId) {
+		entries.remove(requestId);
+	}
+
+	/**Atomically writes the index. If prune, requests not seen since the last save, e.g. those now outside the db query window, are dropped.*/
+	public synchronized void save(boolean prune) throws IOException {
+		if (prune) entries.keySet().retainAll(seen);
+		seen.clear();
+		File tmp = new File(indexFile.getParentFile(), "."+indexFile.getName()+".tmp");
+		PrintWriter out = new PrintWriter(tmp, "UTF-8");
+		out.println("#requestId\tstate\tautoAnalysisDir\tallJobs\toutstandingJobs");
+		for (Entry e: entries.values()) {
+			out.println(e.requestId+"\t"+(e.finished ? FINISHED: ACTIVE)+"\t"+e.mainDirectory+"\t"+join(e.jobs)+"\t"+join(e.outstanding));
+		}
+		out.close();
+		if (out.checkError()) throw new IOException("Failed to write "+tmp);
+		Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public static class Entry {
+		private String requestId;
+		private File mainDirectory;
+		private boolean finished = false;
+		private TreeSet<String> jobs = new TreeSet<String>();
+		private TreeSet<String> outstanding = new TreeSet<String>();
+
+		private Entry (String requestId, File mainDirectory) {
+			this.requestId = requestId;
+			this.mainDirectory = mainDirectory;
+		}
+
+		public boolean isFinished() {
+			return finished;
+		}
+		public File getMainDirectory() {
+			return mainDirectory;
+		}
+		/**Names of all the request's job directories.*/
+		public synchronized ArrayList<String> getJobs() {
+			return new ArrayList<String>(jobs);
+		}
+		/**Names of the job directories still without a COMPLETE.*/
+		public synchronized ArrayList<String> getOutstandingJobs() {
+			return new ArrayList<String>(outstanding);
+		}
+		public synchronized void setJobComplete(String jobName) {
+			outstanding.remove(jobName);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**Checks that completed jobs copied back from CHPC to HCI arrived intact before the CHPC copy is deleted.
+ * 1) Hashes every regular file in the CHPC job dir in parallel and writes an md5sum style manifest into the job dir for later audits.
+ * 2) After the rsync, hashes the HCI copies in parallel via one ssh call and xargs -P, queued on the CONTROL lane, and compares them to the manifests.
+ * Run from the ChpcAutoAnalysis daemon.*/
+public class ReturnedJobVerifier {
+
+	public static final String MANIFEST_NAME = "AutoAnalysisMd5Manifest.txt";
+
+	//fields
+	private CommandLanes commandLanes;
+	private String hciUserNameIp;
+	private String hciLinkDirectory;
+	private File tempDirForShellScripts;
+	private int hciHashThreads;
+	private String ssh = "ssh";
+	private Md5Verifier md5Verifier;
+	private HashMap<String, LinkedHashMap<String, String>> jobManifests = new HashMap<String, LinkedHashMap<String, String>>();
+
+	public ReturnedJobVerifier (CommandLanes commandLanes, String hciUserNameIp, String hciLinkDirectory, File tempDirForShellScripts, int md5Threads) {
+		this.commandLanes = commandLanes;
+		this.hciUserNameIp = hciUserNameIp;
+		this.hciLinkDirectory = hciLinkDirectory;
+		this.tempDirForShellScripts = tempDirForShellScripts;
+		this.hciHashThreads = md5Threads;
+		md5Verifier = new Md5Verifier(md5Threads, false);
+	}
+
+	/**Hashes the files in each job dir and writes the manifest into it. Call before the rsync so the manifest is copied back too.
+	 * Returns the jobs that couldn't be hashed or whose manifest couldn't be written, adds an error message for each, these shouldn't be returned.*/
+	public ArrayList<File> writeManifests(ArrayList<File> jobDirs, ArrayList<String> errorMessages) {
+		jobManifests.clear();
+		ArrayList<File> failed = new ArrayList<File>();
+		for (File jobDir: jobDirs) {
+			String error = null;
+			try {
+				error = writeManifest(jobDir);
+			} catch (IOException e) {
+				error = "ERROR: failed to hash the files in "+jobDir+" "+e.getMessage();
+			}
+			if (error != null) {
+				failed.add(jobDir);
+				errorMessages.add(error);
+				Log.error("\t"+error);
+			}
+		}
+		return failed;
+	}
+
+	/*Returns null if the manifest was written, otherwise an error message.*/
+	private String writeManifest(File jobDir) throws IOException {
+		final ArrayList<File> files = new ArrayList<File>();
+		new File(jobDir, MANIFEST_NAME).delete();
+		//rsync -rt skips links so only regular files are hashed
+		new FileFinder(null, false).stream(jobDir, new FileFinder.FileVisitor() {
+			public void found(Path file, BasicFileAttributes attributes) {
+				if (attributes.isRegularFile()) synchronized (files) { files.add(file.toFile()); }
+			}
+		});
+		HashMap<File, String> md5s = md5Verifier.md5(files);
+		if (md5s.size() != files.size()) return "ERROR: failed to hash all of the files in "+jobDir;
+
+		//relative path : md5
+		String root = jobDir.getCanonicalPath()+"/";
+		LinkedHashMap<String, String> manifest = new LinkedHashMap<String, String>();
+		StringBuilder sb = new StringBuilder();
+		for (File f: files) {
+			String relPath = f.getCanonicalPath().substring(root.length());
+			String md5 = md5s.get(f);
+			manifest.put(relPath, md5);
+			sb.append(md5); sb.append("  "); sb.append(relPath); sb.append("\n");
+		}
+		if (Util.writeString(sb.toString(), new File(jobDir, MANIFEST_NAME)) == false) return "ERROR: failed to write the md5 manifest in "+jobDir;
+		jobManifests.put(jobDir.getName(), manifest);
+		return null;
+	}
+
+	/**Hashes the HCI copy of each job and compares it to the CHPC manifest.
+	 * All of the jobs are hashed with one ssh call, the HCI server rejects more than a dozen or so a minute.
+	 * Returns the jobs that match, adds an error message for each that doesn't.*/
+	public ArrayList<File> verify(ArrayList<File> jobDirs, ArrayList<String> errorMessages) throws InterruptedException {
+		ArrayList<File> verified = new ArrayList<File>();
+
+		// ssh user@host "cd /linkDir/ && find 22597X4/ 22597X5/ -type f ! -name AutoAnalysisMd5Manifest.txt -print0 | xargs -0 -r -P 4 -n 16 md5sum"
+		// the trailing / on each job dir follows its symlink
+		StringBuilder sb = new StringBuilder();
+		sb.append(ssh+" "+hciUserNameIp+" \"cd "+hciLinkDirectory+" && find");
+		for (File jobDir: jobDirs) sb.append(" "+jobDir.getName()+"/");
+		sb.append(" -type f ! -name "+MANIFEST_NAME+" -print0 | xargs -0 -r -P "+hciHashThreads+" -n 16 md5sum\"");
+		CommandBatch batch = new CommandBatch(commandLanes);
+		batch.add(CommandLanes.Lane.CONTROL, new String[] {sb.toString()}, CommandLanes.UNKNOWN_SIZE, tempDirForShellScripts);
+		boolean ok = batch.execute();
+		CommandRunner cr = batch.getRunners()[0];
+		if (ok == false) {
+			String error = "ERROR: failed to md5 the returned jobs on HCI, leaving them on CHPC";
+			if (cr != null) error = error+"\n"+cr.getErrorMessage();
+			errorMessages.add(error);
+			Log.error("\t"+error);
+			return verified;
+		}
+
+		//parse 9f3c...  22597X4/Logs/x.log into jobName : relativePath : md5
+		HashMap<String, HashMap<String, String>> hciMd5s = new HashMap<String, HashMap<String, String>>();
+		for (String line: cr.getProcessOutput()) {
+			String[] fields = Util.WHITE_SPACE.split(line.trim(), 2);
+			if (fields.length != 2 || fields[0].length() != 32) continue;
+			int index = fields[1].indexOf('/');
+			if (index == -1) continue;
+			String jobName = fields[1].substring(0, index);
+			HashMap<String, String> jobMd5s = hciMd5s.get(jobName);
+			if (jobMd5s == null) {
+				jobMd5s = new HashMap<String, String>();
+				hciMd5s.put(jobName, jobMd5s);
+			}
+			jobMd5s.put(fields[1].substring(index+1), fields[0]);
+		}
+
+		for (File jobDir: jobDirs) {
+			String error = compare(jobDir, hciMd5s.get(jobDir.getName()));
+			if (error == null) verified.add(jobDir);
+			else {
+				errorMessages.add(error);
+				Log.error("\t"+error);
+			}
+		}
+		return verified;
+	}
+
+	/**Swaps the ssh executable, for testing.*/
+	void setSsh(String ssh) {
+		this.ssh = ssh;
+	}
+
+	/*Returns null if the HCI copy matches the manifest, otherwise an error message.*/
+	private String compare(File jobDir, HashMap<String, String> hciMd5s) {
+		LinkedHashMap<String, String> manifest = jobManifests.get(jobDir.getName());
+		if (manifest == null) return "ERROR: no md5 manifest was made for "+jobDir;
+		if (hciMd5s == null) hciMd5s = new HashMap<String, String>();
+
+		ArrayList<String> problems = new ArrayList<String>();
+		for (String relPath: manifest.keySet()) {
+			String hci = hciMd5s.get(relPath);
+			if (hci == null) problems.add("missing "+relPath);
+			else if (hci.equals(manifest.get(relPath)) == false) problems.add("md5 mismatch "+relPath);
+		}
+		if (problems.size() == 0) {
+			Log.debug("\tVerified ", manifest.size(), " files on HCI for ", jobDir.getName());
+			return null;
+		}
+		return "ERROR: returned job failed md5 verification, leaving it on CHPC "+jobDir+"\n\t"+Util.arrayListToString(problems, "\n\t");
+	}
+}
@@ -0,0 +1,124 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**Minimal plain text SMTP client for handing mail to the local MTA, e.g. the postfix or sendmail daemon on localhost:25.
+ * No auth or TLS, the MTA relays it. One connection per message, EHLO falling back to HELO.*/
+public class SmtpClient {
+
+	public static final int DEFAULT_PORT = 25;
+	private static final int TIMEOUT_MILLIS = 30000;
+
+	//fields
+	private String host;
+	private int port;
+	private String localHostName = null;
+
+	public SmtpClient (String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**Sends one message, throws an IOException with the server's reply if it's refused.
+	 * @param to one or more comma separated addresses*/
+	public void send(String from, String to, String subject, String body) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+			socket.setSoTimeout(TIMEOUT_MILLIS);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+
+			expect(in, 220, "connect");
+			if (localHostName == null) localHostName = fetchLocalHostName();
+			command(out, "EHLO "+localHostName);
+			if (reply(in) != 250) {
+				command(out, "HELO "+localHostName);
+				expect(in, 250, "HELO");
+			}
+			command(out, "MAIL FROM:<"+from+">");
+			expect(in, 250, "MAIL FROM");
+			for (String address: to.split(",")) {
+				address = address.trim();
+				if (address.length() == 0) continue;
+				command(out, "RCPT TO:<"+address+">");
+				int code = reply(in);
+				if (code != 250 && code != 251) throw new IOException("SMTP server refused recipient "+address+", "+code);
+			}
+			command(out, "DATA");
+			expect(in, 354, "DATA");
+			out.write(format(from, to, subject, body));
+			out.write(".\r\n");
+			out.flush();
+			expect(in, 250, "message");
+			command(out, "QUIT");
+			reply(in);
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**Headers and body with CRLF line endings, lines starting with a dot are doubled.*/
+	static String format(String from, String to, String subject, String body) {
+		SimpleDateFormat rfc = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+		StringBuilder sb = new StringBuilder();
+		sb.append("From: ").append(from).append("\r\n");
+		sb.append("To: ").append(to).append("\r\n");
+		sb.append("Subject: ").append(subject.replace('\n', ' ').replace('\r', ' ')).append("\r\n");
+		sb.append("Date: ").append(rfc.format(new Date())).append("\r\n");
+		sb.append("MIME-Version: 1.0\r\n");
+		sb.append("Content-Type: text/plain; charset=UTF-8\r\n");
+		sb.append("Content-Transfer-Encoding: 8bit\r\n\r\n");
+		for (String line: body.split("\r?\n", -1)) {
+			if (line.startsWith(".")) sb.append('.');
+			sb.append(line).append("\r\n");
+		}
+		return sb.toString();
+	}
+
+	private static void command(Writer out, String line) throws IOException {
+		out.write(line);
+		out.write("\r\n");
+		out.flush();
+	}
+
+	private static void expect(BufferedReader in, int code, String step) throws IOException {
+		int c = reply(in);
+		if (c != code) throw new IOException("SMTP server replied "+c+" to "+step+", expected "+code);
+	}
+
+	/*Reads a possibly multi line reply, e.g. 250-PIPELINING ... 250 OK, returns the code.*/
+	private static int reply(BufferedReader in) throws IOException {
+		while (true) {
+			String line = in.readLine();
+			if (line == null) throw new IOException("SMTP server closed the connection");
+			if (line.length() < 3) throw new IOException("Malformed SMTP reply "+line);
+			int code;
+			try {
+				code = Integer.parseInt(line.substring(0, 3));
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed SMTP reply "+line);
+			}
+			if (line.length() == 3 || line.charAt(3) != '-') return code;
+		}
+	}
+
+	private static String fetchLocalHostName() {
+		try {
+			return InetAddress.getLocalHost().getCanonicalHostName();
+		} catch (IOException e) {
+			return "localhost";
+		}
+	}
+}
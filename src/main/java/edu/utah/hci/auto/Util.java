@@ -12,6 +12,7 @@ import java.io.PrintWriter;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,9 +21,9 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -36,6 +37,7 @@ public class Util {
 	public static final Pattern SLURM_JOBID = Pattern.compile("slurm-(\\d+).out");
 	public static final Pattern FORWARD_SLASH = Pattern.compile("/");
 	public static final Random random = new Random();
+	private static final ConcurrentHashMap<String, Pattern> extensionPatterns = new ConcurrentHashMap<String, Pattern>();
 	
 	/**Executes a String of shell script commands via a temp file.  Only good for Unix. Returns the exit code. Prints errors if encountered.
 	 * @throws IOException */
@@ -68,31 +70,10 @@ public class Util {
 			sb.append("\n");
 		}
 		int exitCode = proc.waitFor();
-		if (exitCode !=0) pl("Non zero exit code: "+sb.toString());
+		if (exitCode !=0) Log.warn("Non zero exit code: "+sb.toString());
 		return exitCode;
 	}
 	
-	public static void sendEmail(String subject, String emailAddress, String body) {
-		try {
-			//sendmail 'david.austin.nix@gmail.com,david.nix@hci.utah.edu' < sm.txt
-			String message = "Subject: " +subject+ "\nFrom: noreply_auto_analysis@hci.utah.edu\n\n"+body+"\n";
-			File tmpDir = new File(System.getProperty("java.io.tmpdir"));
-			if (tmpDir.exists()==false) throw new Exception("ERROR: failed to find tmp dir. "+tmpDir);
-			File tmpFile = new File(tmpDir,"autoAnalysis."+ random.nextInt(10000)+ ".tmp.txt");
-			tmpFile.deleteOnExit();
-			Util.writeString(message, tmpFile);
-
-			//execute via a shell script
-			String cmd = "sendmail '"+emailAddress+"' < "+tmpFile.getCanonicalPath();			
-			int exit = Util.executeShellScriptReturnExitCode(cmd, tmpDir);			
-			//this never happens?
-			if (exit != 0) throw new IOException ("Non zero exit code from: "+cmd);
-			//Util.pl("\nEmailing\n"+message+"\n"+cmd);
-		} catch (Exception e) {
-			pl("\nERROR: sending email "+e.getMessage()+"\n"+e.getStackTrace());
-		}
-	}
-	
 	public static final String[] months = {"Jan","Feb","Mar","Apr","May","June","July", "Aug","Sept","Oct","Nov","Dec"};
 	/**Returns a nicely formated time, 15 May 2004 21:53 */
 	public static String getDateTime(){
@@ -124,17 +105,26 @@ public class Util {
 	 * Hit an odd bug with a "Size exceeds Integer.MAX_VALUE" error when copying a vcf file. -Nix.*/
 	public static boolean copyViaFileChannel(File source, File dest){
 		FileChannel in = null, out = null;
+		JfrEvents.FileCopy event = new JfrEvents.FileCopy();
+		event.begin();
 		try {
 			in = new FileInputStream(source).getChannel();
 			out = new FileOutputStream(dest).getChannel();
 			long size = in.size();
 			MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
 			out.write(buf);
+			event.bytes = size;
+			event.succeeded = true;
 			
 		} catch (IOException e) {
-			e.printStackTrace();
+			Log.error("Problem copyViaFileChannel() "+source+" to "+dest, e);
 			return false;
 		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.source = source.getPath();
+				event.commit();
+			}
 			if (in != null)
 				try {
 					in.close();
@@ -160,8 +150,7 @@ public class Util {
 			}
 			in.close();
 		}catch(Exception e){
-			System.out.println("Prob loadFile into String[]");
-			e.printStackTrace();
+			Log.error("Prob loadFile into String[] "+file, e);
 			return null;
 		}
 		String[] strings = new String[a.size()];
@@ -188,6 +177,8 @@ public class Util {
 	 */
 	public static String[] executeCommandLine(String[] command){
 		ArrayList<String> al = new ArrayList<String>();
+		JfrEvents.Command event = new JfrEvents.Command();
+		event.begin();
 		try {
 			Runtime rt = Runtime.getRuntime();
 			//rt.traceInstructions(true); //for debugging
@@ -198,62 +189,52 @@ public class Util {
 			String line;
 			while ((line = data.readLine()) != null){
 				al.add(line);
+				event.outputBytes += line.length() + 1;
 			}
 			data.close();
+			//not waited on, the exit code is only known if it has already finished
+			if (p.isAlive() == false) event.exitCode = p.exitValue();
 
 		} catch (Exception e) {
-			System.out.println("Problem executingCommandLine(), command -> "+stringArrayToString(command," "));
-			e.printStackTrace();
+			Log.error("Problem executingCommandLine(), command -> "+stringArrayToString(command," "), e);
 			return null;
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				JfrEvents.describe(event, stringArrayToString(command, " "));
+				event.attempt = 1;
+				event.commit();
+			}
 		}
 		String[] res = new String[al.size()];
 		al.toArray(res);
 		return res;
 	}
 	
-	/**Attempts to delete a directory and it's contents.
-	 * Returns false if all the file cannot be deleted or the directory is null.
-	 * Files contained within scheduled for deletion upon close will cause the return to be false.*/
-	public static void deleteDirectory(File dir){
-		if (dir == null || dir.exists() == false) return;
-		if (dir.isDirectory()) {
-			File[] children = dir.listFiles();
-			for (int i=0; i<children.length; i++) {
-				deleteDirectory(children[i]);
-			}
-			dir.delete();
-		}
-		dir.delete();
-		
-		if (dir.exists()) deleteDirectoryViaCmdLine(dir);
+	/**Deletes a directory and it's contents in parallel using the shared DirectoryDeleter, symbolic links are removed not followed.
+	 * Returns a list of error messages, empty if everything was deleted or the directory is null or doesn't exist.
+	 * Errors are also printed.*/
+	public static ArrayList<String> deleteDirectory(File dir){
+		if (dir == null || Files.exists(dir.toPath(), LinkOption.NOFOLLOW_LINKS) == false) return new ArrayList<String>();
+		ArrayList<String> errors = DirectoryDeleter.fetchShared().delete(dir);
+		for (String e: errors) Log.error(e);
+		return errors;
 	}
 
-	/**Fetches all files with a given extension in a directory recursing through sub directories.
+	/**Fetches all files with a given extension in a directory recursing through sub directories, sorted.
 	 * Will return a file if a file is given with the appropriate extension, or null.*/
 	public static File[] fetchFilesRecursively (File directory, String extension){
 		if (directory.isDirectory() == false){
 			return extractFiles(directory, extension);
 		}
-		ArrayList<File> al = fetchAllFilesRecursively (directory, extension);
-		File[] files = new File[al.size()];
-		al.toArray(files);
-		return files;
+		return new FileFinder(FileFinder.suffixMatcher(extension), true).find(directory);
 	}
 	
 	/**Fetches all files with a given extension in a directory recursing through sub directories.*/
 	public static ArrayList<File> fetchAllFilesRecursively (File directory, String extension){
-		ArrayList<File> files = new ArrayList<File>(); 
-		File[] list = directory.listFiles();
-		for (int i=0; i< list.length; i++){
-			if (list[i].isDirectory()) {
-				ArrayList<File> al = fetchAllFilesRecursively (list[i], extension);
-				files.addAll(al);
-			}
-			else{
-				if (list[i].getName().endsWith(extension)) files.add(list[i]);
-			}
-		}
-		return files;
+		File[] files = fetchFilesRecursively(directory, extension);
+		if (files == null) return new ArrayList<File>();
+		return new ArrayList<File>(Arrays.asList(files));
 	}
 	
 	/**Extracts the full path file names of all the files in a given directory with a given extension (ie txt or .txt).
@@ -262,7 +243,11 @@ public class Util {
 	public static File[] extractFiles(File dirOrFile, String extension){
 		if (dirOrFile == null || dirOrFile.exists() == false) return null;
 		File[] files = null;
-		Pattern p = Pattern.compile(".*"+extension+"$", Pattern.CASE_INSENSITIVE);
+		Pattern p = extensionPatterns.get(extension);
+		if (p == null) {
+			p = Pattern.compile(".*"+extension+"$", Pattern.CASE_INSENSITIVE);
+			extensionPatterns.put(extension, p);
+		}
 		Matcher m;
 		if (dirOrFile.isDirectory()){
 			files = dirOrFile.listFiles();
@@ -297,12 +282,14 @@ public class Util {
 		return matches;
 	}
 	
-	public static void deleteDirectoryViaCmdLine(File dir){
-		try {
-			executeCommandLine(new String[]{"rm","-rf",dir.getCanonicalPath()});
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**Shifts file.1 to file.2 and so on, dropping file.numberToKeep, then renames the file to file.1. The caller closes it first.*/
+	public static void rotate(File file, int numberToKeep) {
+		new File(file.getPath()+"."+numberToKeep).delete();
+		for (int i= numberToKeep-1; i>= 1; i--) {
+			File older = new File(file.getPath()+"."+i);
+			if (older.exists()) older.renameTo(new File(file.getPath()+"."+(i+1)));
 		}
+		file.renameTo(new File(file.getPath()+".1"));
 	}
 	
 	/**Writes a String to disk. */
@@ -313,8 +300,7 @@ public class Util {
 			out.close();
 			return true;
 		} catch (IOException e) {
-			System.out.println("Problem writing String to disk!");
-			e.printStackTrace();
+			Log.error("Problem writing String to disk! "+file, e);
 			return false;
 		}
 	}
@@ -348,21 +334,15 @@ public class Util {
 		return c.get(Calendar.DAY_OF_MONTH)+months[c.get(Calendar.MONTH)]+ c.get(Calendar.YEAR);
 	}
 	
-	public static void pl(Object o) {
-		System.out.println(o);
-	}
-	
-	public static void el(Object o) {
-		System.err.println(o);
-	}
-	
 	/**Prints message to screen, then exits.*/
 	public static void printErrAndExit (String message){
-		System.err.println (message);
+		Log.error(message);
+		Log.flush();
 		System.exit(1);
 	}
 	
 	/**Returns a gz zip or straight file reader on the file based on it's extension.
+	 * gz files are inflated by a ParallelGzipInputStream.
 	 * @author davidnix*/
 	public static BufferedReader fetchBufferedReader( File txtFile) throws IOException{
 		BufferedReader in;
@@ -373,7 +353,7 @@ public class Util {
 			in = new BufferedReader(new InputStreamReader(zf.getInputStream(ze)));
 		}
 		else if (name.endsWith(".gz")) {
-			in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(txtFile))));
+			in = new BufferedReader(new InputStreamReader(new ParallelGzipInputStream(txtFile)), 64 * 1024);
 		}
 		else in = new BufferedReader (new FileReader (txtFile));
 		return in;
@@ -398,7 +378,7 @@ public class Util {
 			}
 			in.close();
 		}catch(Exception e){
-			e.printStackTrace();
+			Log.error("Problem loadFileIntoHash() "+file, e);
 			names = null;
 		} finally {
 			closeNoException(in);
@@ -413,6 +393,45 @@ public class Util {
 		}
 	}
 
+	/**Splits a command line into words the way bash does for plain quoting, 'single', "double", and backslash escapes.
+	 * Throws an IOException for unbalanced quotes or anything bash would expand or treat as an operator, e.g. $ ` ; | & < > ( ) * ?,
+	 * those can't be passed the same way to a process without a shell.*/
+	public static ArrayList<String> splitShellWords(String line) throws IOException {
+		ArrayList<String> words = new ArrayList<String>();
+		StringBuilder word = null;
+		char quote = 0;
+		for (int i=0; i< line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote == '\'') {
+				if (c == '\'') quote = 0;
+				else word.append(c);
+			}
+			else if (quote == '"') {
+				if (c == '"') quote = 0;
+				else if (c == '$' || c == '`') throw new IOException("ERROR: shell expansion isn't supported in '"+line+"'");
+				else if (c == '\\' && i+1 < line.length() && "\"\\".indexOf(line.charAt(i+1)) != -1) word.append(line.charAt(++i));
+				else word.append(c);
+			}
+			else if (Character.isWhitespace(c)) {
+				if (word != null) words.add(word.toString());
+				word = null;
+			}
+			else {
+				if (word == null) word = new StringBuilder();
+				if (c == '\'' || c == '"') quote = c;
+				else if (c == '\\') {
+					if (++i == line.length()) throw new IOException("ERROR: trailing backslash in '"+line+"'");
+					word.append(line.charAt(i));
+				}
+				else if ("$`;|&<>()*?[]{}~#".indexOf(c) != -1) throw new IOException("ERROR: unquoted '"+c+"' isn't supported in '"+line+"'");
+				else word.append(c);
+			}
+		}
+		if (quote != 0) throw new IOException("ERROR: unbalanced "+quote+" in '"+line+"'");
+		if (word != null) words.add(word.toString());
+		return words;
+	}
+
 	/**Returns a hash of the directory name and its File object.*/
 	public static HashMap<String, File> extractDirectories(File directory){
 		File[] fileNames = directory.listFiles();
@@ -491,8 +510,7 @@ public class Util {
 			return files;
 
 		}catch(IOException e){
-			System.out.println("Problem extractFiles() "+directory);
-			e.printStackTrace();
+			Log.error("Problem extractFiles() "+directory, e);
 			return null;
 		}
 	}
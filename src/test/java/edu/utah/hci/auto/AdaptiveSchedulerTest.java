@@ -0,0 +1,47 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+import org.junit.Test;
+
+/**Checks the backoff, that busy tasks run more often than idle ones, and the repeat message suppression.*/
+public class AdaptiveSchedulerTest {
+
+	@Test
+	public void backsOffWhenIdle() {
+		AdaptiveScheduler as = new AdaptiveScheduler(10, 100, null);
+		assertEquals(20, as.nextInterval(false, 0));
+		assertEquals(40, as.nextInterval(false, 20));
+		assertEquals(100, as.nextInterval(false, 80));
+		assertEquals(10, as.nextInterval(true, 100));
+	}
+
+	@Test
+	public void runsBusyTasksMoreOften() throws Exception {
+		final AdaptiveScheduler as = new AdaptiveScheduler(5, 200, null);
+		final int[] counts = new int[2];
+		as.add("busy", new AdaptiveScheduler.Task() {
+			public boolean run() {
+				counts[0]++;
+				return true;
+			}
+		});
+		as.add("idle", new AdaptiveScheduler.Task() {
+			public boolean run() {
+				counts[1]++;
+				return false;
+			}
+		});
+		final long start = System.currentTimeMillis();
+		as.run(new AdaptiveScheduler.Task() {
+			public boolean run() {
+				if (System.currentTimeMillis() - start > 300) as.stop();
+				return false;
+			}
+		});
+		assertTrue(counts[1] >= 1);
+		assertTrue(counts[0] > counts[1] * 3);
+	}
+}
@@ -0,0 +1,47 @@
+package edu.utah.hci.auto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**Writes BGZF, 64KB gzip members each with a BC extra field holding the member size, for testing and benchmarking.*/
+public class BgzfWriter {
+
+	private static final int MAX_INPUT = 65280;
+
+	public static void write(byte[] data, OutputStream out) throws IOException {
+		for (int off = 0; off < data.length; off += MAX_INPUT) {
+			writeBlock(data, off, Math.min(MAX_INPUT, data.length - off), out);
+		}
+		//empty EOF block
+		writeBlock(data, 0, 0, out);
+	}
+
+	private static void writeBlock(byte[] data, int off, int len, OutputStream out) throws IOException {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data, off, len);
+		deflater.finish();
+		byte[] compressed = new byte[len + 1024];
+		int clen = 0;
+		while (deflater.finished() == false) clen += deflater.deflate(compressed, clen, compressed.length - clen);
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(data, off, len);
+
+		int blockSize = 18 + clen + 8;
+		byte[] header = new byte[] {0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff, 6, 0, 'B', 'C', 2, 0,
+				(byte)((blockSize - 1) & 0xff), (byte)(((blockSize - 1) >> 8) & 0xff)};
+		out.write(header);
+		out.write(compressed, 0, clen);
+		writeInt((int)crc.getValue(), out);
+		writeInt(len, out);
+	}
+
+	private static void writeInt(int v, OutputStream out) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >> 8) & 0xff);
+		out.write((v >> 16) & 0xff);
+		out.write((v >> 24) & 0xff);
+	}
+}
@@ -0,0 +1,176 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**The squeue and HCI listing parsers, and single cycles of the daemon against the ChpcSimulation stand ins for the failed return paths.*/
+public class ChpcAutoAnalysisTest {
+
+	@Test
+	public void parsesSqueue() {
+		String[] squeue = {
+				"             JOBID PARTITION     NAME     USER ST       TIME  NODES NODELIST(REASON)",
+				"           6485242    hci-rw testjob. hcipepip  R       0:10      1 rw166",
+				"           6485243    hci-rw testjob. hcipepip PD       0:00      1 (Priority)",
+				"           6485244    hci-rw testjob. u0028003  R 1-02:03:04      1 rw167",
+				"           6485245 notchpeak testjob. hcipepip  R       5:00      1 np01",
+				""};
+		HashMap<String, String> jobIdTime = new HashMap<String, String>();
+		HashMap<String, Integer> stateCounts = new HashMap<String, Integer>();
+		assertEquals(3, ChpcAutoAnalysis.parseSqueue(squeue, "hci-rw", "hcipepip", jobIdTime, stateCounts));
+		assertEquals(2, jobIdTime.size());
+		assertEquals("0:10", jobIdTime.get("6485242"));
+		assertEquals(1, stateCounts.get("PD").intValue());
+	}
+
+	@Test
+	public void parsesHciListing() {
+		String link = "/home/tomatosrvs/Jobs4CHPC/";
+		ArrayList<String> lines = new ArrayList<String>(Arrays.asList(
+				link+"22597X1\t4096",
+				link+"22597X1/RUNME\t180",
+				link+"22597X1/22597X1_R1.fastq.gz\t1000",
+				link+"22597X1/22597X1_R2.fastq.gz\t1001",
+				link+"22597X2/RUNME\t180",
+				link+"22597X2/COMPLETE\t0"));
+		HashSet<String> complete = new HashSet<String>();
+		ArrayList<String> runme = new ArrayList<String>();
+		HashMap<String, Long> sizes = new HashMap<String, Long>();
+		ChpcAutoAnalysis.parseHciListing(lines, link, complete, runme, sizes);
+		assertEquals(2, runme.size());
+		assertTrue(complete.contains(link+"22597X2/COMPLETE"));
+		assertEquals(2001L, sizes.get("22597X1").longValue());
+	}
+
+	@Test
+	public void unverifiedReturnLosesComplete() throws Exception {
+		File root = Files.createTempDirectory("chpcReturn").toFile();
+		try {
+			File chpcJob = completedChpcJob(root, "22597X1");
+			Map<String, String> env = new HashMap<String, String>();
+			env.put("SIM_RSYNC_CORRUPT", "out.txt");
+			assertEquals(0, runOneCycle(root, env));
+			//left on CHPC to return again, the HCI copy is there but not marked COMPLETE for the GNomEx daemon
+			assertTrue(chpcJob.exists());
+			File hciJob = new File(root, "HCI/Jobs4CHPC/22597X1");
+			assertTrue(new File(hciJob, "out.txt").exists());
+			assertFalse(new File(hciJob, "COMPLETE").exists());
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void failedBatchWithHciUpFailsJobsOneByOne() throws Exception {
+		File root = Files.createTempDirectory("chpcReturn").toFile();
+		try {
+			File one = completedChpcJob(root, "22597X1");
+			File two = completedChpcJob(root, "22597X2");
+			//a new job whose copy to CHPC fails too
+			File hciNew = new File(root, "HCI/Jobs4CHPC/22597X3");
+			hciNew.mkdirs();
+			Util.writeString("requestId\t22597R\n", new File(hciNew, "RUNME"));
+			Map<String, String> env = new HashMap<String, String>();
+			env.put("SIM_RSYNC_FAIL_PCT", "100");
+			assertEquals(0, runOneCycle(root, env));
+			assertTrue(one.exists());
+			assertTrue(two.exists());
+			assertFalse(new File(root, "HCI/Jobs4CHPC/22597X1/COMPLETE").exists());
+			assertFalse(new File(root, "CHPC/Jobs/22597X3").exists());
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void unhashableJobIsLeftOnChpc() throws Exception {
+		File root = Files.createTempDirectory("chpcReturn").toFile();
+		File one = completedChpcJob(root, "22597X1");
+		try {
+			File two = completedChpcJob(root, "22597X2");
+			//the manifest can't be written into X1
+			Assume.assumeTrue(DirectoryDeleterTest.lock(one, true));
+			assertEquals(0, runOneCycle(root, new HashMap<String, String>()));
+			assertTrue(new File(one, "COMPLETE").exists());
+			assertFalse(new File(root, "HCI/Jobs4CHPC/22597X1/COMPLETE").exists());
+			assertFalse(two.exists());
+			assertTrue(new File(root, "HCI/Jobs4CHPC/22597X2/COMPLETE").exists());
+			assertTrue(Util.stringArrayToString(Util.loadFile(new File(root, "chpcAutoAnalysis.log")), "\n").contains("hashing on CHPC"));
+		} finally {
+			DirectoryDeleterTest.lock(one, false);
+			Util.deleteDirectory(root);
+		}
+	}
+
+	/*A finished CHPC job dir and its emptied out HCI link dir.*/
+	private static File completedChpcJob(File root, String name) throws Exception {
+		File job = new File(root, "CHPC/Jobs/"+name);
+		job.mkdirs();
+		new File(root, "HCI/Jobs4CHPC/"+name).mkdirs();
+		Util.writeString("requestId\t22597R\n", new File(job, "RUNME"));
+		Util.writeString("results\n", new File(job, "out.txt"));
+		Util.writeString("", new File(job, "COMPLETE"));
+		return job;
+	}
+
+	/*Runs the daemon in a child jvm for one cycle with the stand ins first on its PATH, returns its exit code.*/
+	private static int runOneCycle(File root, Map<String, String> simEnv) throws Exception {
+		File bin = new File(root, "bin");
+		File[] dirs = {bin, new File(root, "HCI/Jobs4CHPC"), new File(root, "CHPC/Jobs"), new File(root, "CHPC/Temp"), new File(root, "slurm/submitted")};
+		for (File d: dirs) d.mkdirs();
+		ChpcSimulation.installStandIns(bin);
+		FakeSmtpServer smtp = new FakeSmtpServer();
+		try {
+			LinkedHashMap<String, String> c = new LinkedHashMap<String, String>();
+			c.put("adminEmail", "admin@sim.local");
+			c.put("smtpHost", "localhost");
+			c.put("smtpPort", Integer.toString(smtp.getPort()));
+			c.put("hciLinkDirectory", new File(root, "HCI/Jobs4CHPC").getCanonicalPath()+"/");
+			c.put("hciUserNameIp", "hcipepip@hci.sim.local");
+			c.put("chpcJobDirectory", new File(root, "CHPC/Jobs").getCanonicalPath());
+			c.put("chpcTempDirectory", new File(root, "CHPC/Temp").getCanonicalPath());
+			c.put("slurmPartiton", "hci-rw");
+			c.put("slurmUserTruncated", "hcipepip");
+			c.put("maxProcessingThreads", "4");
+			c.put("hoursToWait", "0");
+			c.put("commandRetryMinutes", "0.001");
+			c.put("verifyReturnedJobs", "true");
+			c.put("chpcLogFile", new File(root, "chpcAutoAnalysis.log").getCanonicalPath());
+			StringBuilder sb = new StringBuilder();
+			for (String key: c.keySet()) sb.append(key).append("\t").append(c.get(key)).append("\n");
+			File config = new File(root, "autoAnalysis.config.txt");
+			Util.writeString(sb.toString(), config);
+
+			String java = new File(System.getProperty("java.home"), "bin/java").getCanonicalPath();
+			ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "edu.utah.hci.auto.Launcher", "-l", "chpc", "-c", config.getCanonicalPath());
+			Map<String, String> env = pb.environment();
+			env.put("PATH", bin.getCanonicalPath()+File.pathSeparator+env.get("PATH"));
+			env.put("SIM_DIR", root.getCanonicalPath());
+			env.putAll(simEnv);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(new File(root, "chpcAutoAnalysis.out"));
+			Process daemon = pb.start();
+			if (daemon.waitFor(60, TimeUnit.SECONDS) == false) {
+				daemon.destroyForcibly();
+				throw new Exception("The daemon didn't finish its cycle, see "+root);
+			}
+			return daemon.exitValue();
+		} finally {
+			smtp.close();
+		}
+	}
+}
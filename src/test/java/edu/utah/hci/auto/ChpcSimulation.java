@@ -0,0 +1,500 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**Load tests a ChpcAutoAnalysis daemon without redwood or HCI. Runs it in a child JVM with stand ins for ssh, rsync, squeue, and sbatch first on its PATH,
+ * see the sim dir in the test resources, each with a configurable latency and failure rate. ssh runs the command locally, rsync copies,
+ * sbatch queues the job dir for a fake slurm scheduler in this JVM that starts jobs as nodes free up, writing STARTED and a slurm-ID.out,
+ * then COMPLETE or FAILED after the run time, and the queue squeue prints. Mail goes to a stand in SMTP server.
+ * Synthetic jobs, a RUNME and paired fastqs each, are released into a local HCI link directory and timed until they come back with a COMPLETE.
+ * Reports jobs per hour, turnaround percentiles, the CHPC stages from the daemon's lifecycle log, and the daemon's CPU time.
+ *
+ * java -cp target/classes:target/test-classes edu.utah.hci.auto.ChpcSimulation [options]
+ *   -j number of jobs, defaults to 1000
+ *   -a jobs released per minute, 0 to release them all at the start, defaults to 0
+ *   -n slurm nodes, the number of jobs run at once, defaults to 30
+ *   -r min,max seconds each job runs, defaults to 5,20
+ *   -f percent of jobs that FAIL, defaults to 0
+ *   -l command latencies in ms, e.g. ssh=200,rsync=500,squeue=100,sbatch=300, defaults to none
+ *   -e command failure percents, each failed command is retried by the daemon, e.g. rsync=5,ssh=2, defaults to none
+ *   -b rsync MB per sec, 0 for no limit, defaults to 0
+ *   -s MB of fastq per job, defaults to 0
+ *   -c seconds between daemon cycles, the hoursToWait, defaults to 5
+ *   -m minutes to run before giving up, defaults to 60
+ *   -k extra daemon config key=value, repeat as needed, e.g. -k adaptiveScheduling=true -k controlThreads=8
+ *   -d keep the sim dir*/
+public class ChpcSimulation {
+
+	public static final String[] STAND_INS = {"simlib.sh", "ssh", "rsync", "squeue", "sbatch"};
+	public static final String PARTITION = "sim-rw";
+	public static final String USER = "simuser";
+	public static final int JOBS_PER_REQUEST = 24;
+
+	//options
+	private int numberJobs = 1000;
+	private double releasePerMinute = 0;
+	private int numberNodes = 30;
+	private int minRunSeconds = 5;
+	private int maxRunSeconds = 20;
+	private int failedJobPercent = 0;
+	private HashMap<String, String> latencies = new HashMap<String, String>();
+	private HashMap<String, String> failurePercents = new HashMap<String, String>();
+	private int rsyncMBPerSec = 0;
+	private double fastqMB = 0;
+	private double cycleSeconds = 5;
+	private double maxMinutes = 60;
+	private LinkedHashMap<String, String> extraConfig = new LinkedHashMap<String, String>();
+	private boolean keep = false;
+
+	//sim dirs
+	private File root;
+	private File bin;
+	private File hciLinkDir;
+	private File chpcJobDir;
+	private File slurmDir;
+	private File workflowDir;
+	private File lifecycleLog;
+	private File daemonLog;
+
+	//job tracking, release and return times in ms
+	private int numberReleased = 0;
+	private LinkedHashMap<String, Long> released = new LinkedHashMap<String, Long>();
+	private ArrayList<Double> turnaroundSeconds = new ArrayList<Double>();
+	private ConcurrentLinkedQueue<String> failedJobs = new ConcurrentLinkedQueue<String>();
+	private AtomicInteger numberFailed = new AtomicInteger();
+	private Random random = new Random(1);
+
+	public static void main(String[] args) throws Exception {
+		ChpcSimulation sim = new ChpcSimulation();
+		sim.processArgs(args);
+		sim.run();
+	}
+
+	private void run() throws Exception {
+		root = Files.createTempDirectory("chpcSimulation").toFile();
+		FakeSmtpServer smtp = new FakeSmtpServer();
+		FakeSlurm slurm = null;
+		Process daemon = null;
+		try {
+			makeDirs();
+			File config = writeConfig(smtp.getPort());
+			slurm = new FakeSlurm();
+			Thread slurmThread = new Thread(slurm, "fake-slurm");
+			slurmThread.setDaemon(true);
+			slurmThread.start();
+
+			Log.info("Simulating "+numberJobs+" jobs on "+numberNodes+" nodes in "+root);
+			long start = System.currentTimeMillis();
+			int nextJob = 0;
+			if (releasePerMinute <= 0) while (nextJob < numberJobs) release(nextJob++);
+
+			daemon = launchDaemon(config);
+			long deadline = start + (long)(maxMinutes * 60 * 1000);
+			long lastReport = start;
+			String stopReason = "all jobs returned or failed";
+			while (true) {
+				long now = System.currentTimeMillis();
+				//release on schedule
+				if (releasePerMinute > 0) {
+					int due = Math.min(numberJobs, (int)((now - start) / 60000.0 * releasePerMinute) + 1);
+					while (nextJob < due) release(nextJob++);
+				}
+				checkReturned(now);
+				if (turnaroundSeconds.size() + numberFailed.get() + countQuarantined() >= numberJobs) break;
+				if (daemon.isAlive() == false) {
+					stopReason = "the daemon exited with "+daemon.exitValue()+", see "+daemonLog;
+					break;
+				}
+				if (now > deadline) {
+					stopReason = "ran out of time";
+					break;
+				}
+				if (now - lastReport >= 60000) {
+					lastReport = now;
+					Log.info("\t"+((now - start) / 1000)+" sec\t"+nextJob+" released\t"+turnaroundSeconds.size()+" returned\t"+numberFailed.get()+" failed\t"+slurm.getNumberRunning()+" running");
+				}
+				Thread.sleep(250);
+			}
+			double elapsedSec = (System.currentTimeMillis() - start) / 1000.0;
+			String cpu = fetchCpu(daemon);
+			daemon.destroy();
+			daemon.waitFor();
+			slurm.stop();
+			Thread.sleep(1000);
+			report(stopReason, elapsedSec, cpu, smtp.getMessages().size());
+		} finally {
+			if (daemon != null && daemon.isAlive()) daemon.destroyForcibly();
+			if (slurm != null) slurm.stop();
+			smtp.close();
+			if (keep) Log.info("\nKept "+root);
+			else Util.deleteDirectory(root);
+		}
+	}
+
+	private void makeDirs() throws IOException {
+		bin = new File(root, "bin");
+		hciLinkDir = new File(root, "HCI/Jobs4CHPC");
+		chpcJobDir = new File(root, "CHPC/Jobs");
+		slurmDir = new File(root, "slurm");
+		workflowDir = new File(root, "Workflow");
+		File[] dirs = {bin, hciLinkDir, chpcJobDir, new File(root, "CHPC/Temp"), new File(slurmDir, "submitted"), workflowDir};
+		for (File d: dirs) if (d.mkdirs() == false) throw new IOException("Failed to make "+d);
+		installStandIns(bin);
+		//the workflow docs copied into each job, the scheduler runs nothing
+		Util.writeString("#!/bin/bash\n#SBATCH --partition="+PARTITION+"\necho 'ChpcSimulation stand in workflow'\n", new File(workflowDir, "sim.sh"));
+		Util.writeString("Stand in workflow for the ChpcSimulation\n", new File(workflowDir, "README.txt"));
+		lifecycleLog = new File(root, "autoAnalysisLifecycle_chpc.jsonl");
+		daemonLog = new File(root, "chpcAutoAnalysis.log");
+	}
+
+	/**Copies the stand in ssh, rsync, squeue, and sbatch into bin, put it first on the daemon's PATH.*/
+	static void installStandIns(File bin) throws IOException {
+		for (String name: STAND_INS) {
+			File f = new File(bin, name);
+			InputStream in = ChpcSimulation.class.getResourceAsStream("sim/"+name);
+			if (in == null) throw new IOException("Failed to find the sim/"+name+" resource, are the test classes built?");
+			try {
+				Files.copy(in, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				in.close();
+			}
+			f.setExecutable(true);
+		}
+	}
+
+	private File writeConfig(int smtpPort) throws IOException {
+		LinkedHashMap<String, String> c = new LinkedHashMap<String, String>();
+		c.put("adminEmail", "admin@sim.local");
+		c.put("smtpHost", "localhost");
+		c.put("smtpPort", Integer.toString(smtpPort));
+		c.put("alertDigestMinutes", "0.1");
+		c.put("hciLinkDirectory", hciLinkDir.getCanonicalPath()+"/");
+		c.put("hciUserNameIp", USER+"@hci.sim.local");
+		c.put("chpcJobDirectory", chpcJobDir.getCanonicalPath());
+		c.put("chpcTempDirectory", new File(root, "CHPC/Temp").getCanonicalPath());
+		c.put("slurmPartiton", PARTITION);
+		c.put("slurmUserTruncated", USER);
+		c.put("maxProcessingThreads", "4");
+		c.put("hoursToWait", Double.toString(cycleSeconds / 3600.0));
+		c.put("minMinutesToWait", Double.toString(cycleSeconds / 60.0 / 4));
+		c.put("commandRetryMinutes", "0.05");
+		c.put("chpcLifecycleLogFile", lifecycleLog.getCanonicalPath());
+		c.put("chpcLogFile", daemonLog.getCanonicalPath());
+		c.putAll(extraConfig);
+		StringBuilder sb = new StringBuilder("# ChpcSimulation\n");
+		for (String key: c.keySet()) sb.append(key).append("\t").append(c.get(key)).append("\n");
+		File config = new File(root, "autoAnalysis.config.txt");
+		Util.writeString(sb.toString(), config);
+		return config;
+	}
+
+	private Process launchDaemon(File config) throws IOException {
+		String java = new File(System.getProperty("java.home"), "bin/java").getCanonicalPath();
+		ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "edu.utah.hci.auto.Launcher", "-l", "chpc", "-c", config.getCanonicalPath());
+		Map<String, String> env = pb.environment();
+		env.put("PATH", bin.getCanonicalPath()+File.pathSeparator+env.get("PATH"));
+		env.put("SIM_DIR", root.getCanonicalPath());
+		env.put("SIM_RSYNC_MBPS", Integer.toString(rsyncMBPerSec));
+		for (String name: latencies.keySet()) env.put("SIM_"+name.toUpperCase()+"_MS", latencies.get(name));
+		for (String name: failurePercents.keySet()) env.put("SIM_"+name.toUpperCase()+"_FAIL_PCT", failurePercents.get(name));
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(new File(root, "chpcAutoAnalysis.out"));
+		return pb.start();
+	}
+
+	/*A RUNME and paired fastqs, sparse so big ones are cheap to make.*/
+	private void release(int index) throws IOException {
+		String requestId = (10000 + index / JOBS_PER_REQUEST)+"R";
+		String name = (10000 + index / JOBS_PER_REQUEST)+"X"+(index % JOBS_PER_REQUEST + 1);
+		File job = new File(hciLinkDir, name);
+		job.mkdir();
+		long fastqBytes = (long)(fastqMB * 1024 * 1024 / 2);
+		for (String read: new String[] {"_R1.fastq.gz", "_R2.fastq.gz"}) {
+			RandomAccessFile f = new RandomAccessFile(new File(job, name+read), "rw");
+			f.setLength(fastqBytes);
+			f.close();
+		}
+		//the RUNME last, it's what the daemon looks for
+		File tmp = new File(job, "RUNME.tmp");
+		Util.writeString("requestId\t"+requestId+"\nworkflowPaths\t"+workflowDir.getCanonicalPath()+"\n", tmp);
+		tmp.renameTo(new File(job, "RUNME"));
+		released.put(name, System.currentTimeMillis());
+		numberReleased++;
+	}
+
+	private void checkReturned(long now) {
+		for (String name: failedJobs) released.remove(name);
+		failedJobs.clear();
+		Iterator<Map.Entry<String, Long>> it = released.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			if (new File(hciLinkDir, e.getKey()+"/COMPLETE").exists()) {
+				turnaroundSeconds.add((now - e.getValue()) / 1000.0);
+				it.remove();
+			}
+		}
+	}
+
+	/*User and system seconds of the daemon JVM and of the commands it ran, from /proc, else just the JVM's from the ProcessHandle.*/
+	private static String fetchCpu(Process daemon) {
+		File stat = new File("/proc/"+daemon.pid()+"/stat");
+		try {
+			if (stat.exists() == false) throw new IOException("no "+stat);
+			String s = Util.loadFile(stat)[0];
+			String[] f = Util.WHITE_SPACE.split(s.substring(s.lastIndexOf(')') + 2).trim());
+			//fields after the name, state is field 3, utime 14, stime 15, cutime 16, cstime 17
+			double ticks = fetchClockTicks();
+			double jvm = (Long.parseLong(f[11]) + Long.parseLong(f[12])) / ticks;
+			double children = (Long.parseLong(f[13]) + Long.parseLong(f[14])) / ticks;
+			return String.format("%.1f sec daemon JVM, %.1f sec its commands", jvm, children);
+		} catch (Exception e) {
+			if (daemon.info().totalCpuDuration().isPresent()) return String.format("%.1f sec daemon JVM", daemon.info().totalCpuDuration().get().toMillis() / 1000.0);
+			return "NA";
+		}
+	}
+
+	private static double fetchClockTicks() {
+		String[] out = Util.executeCommandLine(new String[] {"getconf", "CLK_TCK"});
+		try {
+			return Double.parseDouble(out[0].trim());
+		} catch (Exception e) {
+			return 100;
+		}
+	}
+
+	private void report(String stopReason, double elapsedSec, String cpu, int numberEmails) throws IOException {
+		StringBuilder sb = new StringBuilder("\nStopped, "+stopReason+"\n");
+		sb.append("Jobs\t"+numberReleased+" released, returned "+turnaroundSeconds.size()+", failed "+numberFailed.get()+", quarantined "+countQuarantined()+", outstanding "+released.size()+"\n");
+		sb.append("Elapsed\t"+String.format("%.1f", elapsedSec)+" sec\n");
+		sb.append("Throughput\t"+String.format("%.1f", turnaroundSeconds.size() / (elapsedSec / 3600.0))+" jobs/hr\n");
+		if (turnaroundSeconds.size() != 0) {
+			Collections.sort(turnaroundSeconds);
+			sb.append("Turnaround sec\tp50 "+format(LifecycleReport.percentile(turnaroundSeconds, 50)));
+			sb.append("\tp90 "+format(LifecycleReport.percentile(turnaroundSeconds, 90)));
+			sb.append("\tp99 "+format(LifecycleReport.percentile(turnaroundSeconds, 99)));
+			sb.append("\tmax "+format(turnaroundSeconds.get(turnaroundSeconds.size()-1))+"\n");
+		}
+		sb.append("CPU\t"+cpu+"\n");
+		sb.append("Cycles\t"+countCycles()+"\n");
+		sb.append("Emails\t"+numberEmails+"\n");
+		sb.append("Commands\t"+countCalls()+"\n");
+
+		//the CHPC side stages from the daemon's own log
+		if (lifecycleLog.exists()) {
+			LifecycleReport lr = new LifecycleReport();
+			lr.load(lifecycleLog);
+			sb.append("\nStage\tJobs\tp50Sec\tp90Sec\tp99Sec\tmaxSec\n");
+			for (String[] stage: LifecycleReport.STAGES) {
+				ArrayList<Double> hours = lr.stageHours(stage, null);
+				if (hours.size() == 0) continue;
+				Collections.sort(hours);
+				sb.append(stage[0]+"\t"+hours.size());
+				for (double p: new double[] {50, 90, 99}) sb.append("\t"+format(LifecycleReport.percentile(hours, p) * 3600));
+				sb.append("\t"+format(hours.get(hours.size()-1) * 3600)+"\n");
+			}
+		}
+		Log.info(sb.toString());
+	}
+
+	/*Jobs the daemon gave up on after repeated transfer or submission failures.*/
+	private int countQuarantined() {
+		File[] jobs = chpcJobDir.listFiles();
+		if (jobs == null) return 0;
+		int number = 0;
+		for (File job: jobs) if (JobFailures.isQuarantined(job)) number++;
+		return number;
+	}
+
+	private int countCycles() throws IOException {
+		if (daemonLog.exists() == false) return 0;
+		int cycles = 0;
+		for (String line: Files.readAllLines(daemonLog.toPath())) if (line.startsWith("########### ")) cycles++;
+		return cycles;
+	}
+
+	private String countCalls() throws IOException {
+		File calls = new File(root, "calls.txt");
+		if (calls.exists() == false) return "none";
+		LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (String line: Files.readAllLines(calls.toPath())) {
+			Integer c = counts.get(line);
+			counts.put(line, c == null ? 1 : c + 1);
+		}
+		return counts.toString();
+	}
+
+	private static String format(double d) {
+		return String.format("%.1f", d);
+	}
+
+	/**Starts submitted jobs as nodes free up, finishes them after their run time, and writes the queue for the squeue stand in.*/
+	private class FakeSlurm implements Runnable {
+		private LinkedList<SlurmJob> pending = new LinkedList<SlurmJob>();
+		private ArrayList<SlurmJob> running = new ArrayList<SlurmJob>();
+		private String otherJobs;
+		private volatile boolean stopped = false;
+		private volatile int numberRunning = 0;
+
+		private class SlurmJob {
+			String id;
+			String name;
+			File dir;
+			long started;
+			long ends;
+		}
+
+		FakeSlurm() {
+			//other users' jobs, only those in the sim partition count against the nodes the daemon thinks are free
+			StringBuilder sb = new StringBuilder();
+			String[] partitions = {"notchpeak", "kingspeak", "redwood", PARTITION};
+			for (int i=0; i< 200; i++) sb.append(String.format("%18d %9s %8s %8s %2s %10s %6d %s\n", 6000000 + i, partitions[i % partitions.length], "other", "u"+(1000000 + i), "R", "3:21:07", 1, "np"+i));
+			otherJobs = sb.toString();
+		}
+
+		public void run() {
+			while (stopped == false) {
+				try {
+					tick();
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					Log.error("Fake slurm problem "+e);
+				}
+			}
+		}
+
+		private void tick() throws IOException {
+			File[] submitted = new File(slurmDir, "submitted").listFiles();
+			if (submitted != null) for (File f: submitted) {
+				if (f.getName().endsWith(".tmp")) continue;
+				String[] dirName = Util.TAB.split(Util.loadFile(f)[0].trim());
+				SlurmJob j = new SlurmJob();
+				j.id = f.getName();
+				j.dir = new File(dirName[0]);
+				j.name = dirName.length > 1 ? dirName[1] : "sbatch";
+				pending.add(j);
+				f.delete();
+			}
+			long now = System.currentTimeMillis();
+			Iterator<SlurmJob> it = running.iterator();
+			while (it.hasNext()) {
+				SlurmJob j = it.next();
+				if (j.ends > now) continue;
+				//the marker before it leaves the queue so the daemon never sees it STARTED and gone
+				if (random.nextInt(100) < failedJobPercent) {
+					touch(new File(j.dir, "FAILED"));
+					numberFailed.incrementAndGet();
+					failedJobs.add(j.dir.getName());
+				}
+				else {
+					Util.writeString("Simulated results of slurm job "+j.id+"\n", new File(j.dir, "results.txt"));
+					touch(new File(j.dir, "COMPLETE"));
+				}
+				it.remove();
+			}
+			while (running.size() < numberNodes && pending.size() != 0) {
+				SlurmJob j = pending.removeFirst();
+				//what the workflow script does first
+				new File(j.dir, "QUEUED").delete();
+				new File(j.dir, "FAILED").delete();
+				new File(j.dir, "COMPLETE").delete();
+				Util.writeString("Started "+j.name+" on "+PARTITION+"\n", new File(j.dir, "slurm-"+j.id+".out"));
+				touch(new File(j.dir, "STARTED"));
+				j.started = now;
+				j.ends = now + 1000L * (minRunSeconds + random.nextInt(maxRunSeconds - minRunSeconds + 1));
+				running.add(j);
+			}
+			numberRunning = running.size();
+			writeQueue(now);
+		}
+
+		private void writeQueue(long now) throws IOException {
+			StringBuilder sb = new StringBuilder(otherJobs);
+			int node = 0;
+			for (SlurmJob j: running) sb.append(String.format("%18s %9s %8.8s %8s %2s %10s %6d %s\n", j.id, PARTITION, j.name, USER, "R", slurmTime(now - j.started), 1, "sim"+(node++)));
+			for (SlurmJob j: pending) sb.append(String.format("%18s %9s %8.8s %8s %2s %10s %6d %s\n", j.id, PARTITION, j.name, USER, "PD", "0:00", 1, "(Resources)"));
+			File tmp = new File(slurmDir, "queue.txt.tmp");
+			Util.writeString(sb.toString(), tmp);
+			Files.move(tmp.toPath(), new File(slurmDir, "queue.txt").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		int getNumberRunning() {
+			return numberRunning;
+		}
+
+		void stop() {
+			stopped = true;
+		}
+	}
+
+	private static void touch(File f) throws IOException {
+		if (f.createNewFile() == false) f.setLastModified(System.currentTimeMillis());
+	}
+
+	/**Like squeue's TIME, M:SS, H:MM:SS, or D-HH:MM:SS.*/
+	static String slurmTime(long millis) {
+		long s = millis / 1000;
+		long days = s / 86400;
+		long hours = (s % 86400) / 3600;
+		long minutes = (s % 3600) / 60;
+		long seconds = s % 60;
+		if (days != 0) return String.format("%d-%02d:%02d:%02d", days, hours, minutes, seconds);
+		if (hours != 0) return String.format("%d:%02d:%02d", hours, minutes, seconds);
+		return String.format("%d:%02d", minutes, seconds);
+	}
+
+	private void processArgs(String[] args) {
+		for (int i=0; i< args.length; i++) {
+			String a = args[i];
+			try {
+				if (a.equals("-j")) numberJobs = Integer.parseInt(args[++i]);
+				else if (a.equals("-a")) releasePerMinute = Double.parseDouble(args[++i]);
+				else if (a.equals("-n")) numberNodes = Integer.parseInt(args[++i]);
+				else if (a.equals("-r")) {
+					String[] minMax = Util.COMMA_SPACE.split(args[++i]);
+					minRunSeconds = Integer.parseInt(minMax[0]);
+					maxRunSeconds = Integer.parseInt(minMax[1]);
+				}
+				else if (a.equals("-f")) failedJobPercent = Integer.parseInt(args[++i]);
+				else if (a.equals("-l")) parseNameValues(args[++i], latencies);
+				else if (a.equals("-e")) parseNameValues(args[++i], failurePercents);
+				else if (a.equals("-b")) rsyncMBPerSec = Integer.parseInt(args[++i]);
+				else if (a.equals("-s")) fastqMB = Double.parseDouble(args[++i]);
+				else if (a.equals("-c")) cycleSeconds = Double.parseDouble(args[++i]);
+				else if (a.equals("-m")) maxMinutes = Double.parseDouble(args[++i]);
+				else if (a.equals("-k")) {
+					String[] kv = args[++i].split("=", 2);
+					extraConfig.put(kv[0], kv[1]);
+				}
+				else if (a.equals("-d")) keep = true;
+				else Util.printErrAndExit("\nUnknown option "+a+", see the ChpcSimulation javadoc\n");
+			} catch (Exception e) {
+				Util.printErrAndExit("\nSorry, something doesn't look right with "+a+"\n");
+			}
+		}
+		if (minRunSeconds > maxRunSeconds || numberJobs < 1 || numberNodes < 1) Util.printErrAndExit("\nCheck the -j, -n, and -r options\n");
+	}
+
+	private static void parseNameValues(String s, HashMap<String, String> map) {
+		for (String nv: Util.COMMA_SPACE.split(s)) {
+			String[] p = nv.split("=", 2);
+			map.put(p[0].trim(), Integer.toString(Integer.parseInt(p[1].trim())));
+		}
+	}
+}
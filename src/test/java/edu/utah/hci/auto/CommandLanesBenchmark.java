@@ -0,0 +1,98 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+
+import javax.management.ObjectName;
+
+/**Peak thread memory with numberOperations commands in flight at once on the CONTROL lane, platform vs virtual worker threads.
+ * Each mode runs in its own child JVM with native memory tracking. Each command is a 'sleep', a stand in for a remote stat or checksum probe.
+ * The Thread line is the native memory of the platform thread stacks, virtual thread stacks live in the heap, shown as heap used.
+ * Needs a JDK 21+ runtime for the virtual mode.
+ *
+ * java -cp target/classes:target/test-classes edu.utah.hci.auto.CommandLanesBenchmark numberOperations secondsPerOperation*/
+public class CommandLanesBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("-child")) {
+			child(Boolean.parseBoolean(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			return;
+		}
+		int numberOperations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Log.info("Java "+System.getProperty("java.version")+", available processors "+Runtime.getRuntime().availableProcessors()+", "+numberOperations+" concurrent operations of "+seconds+" sec");
+		String java = new File(System.getProperty("java.home"), "bin/java").getCanonicalPath();
+		String cp = System.getProperty("java.class.path");
+		for (String virtual: new String[] {"false", "true"}) {
+			if (virtual.equals("true") && CommandLanes.virtualThreadsAvailable() == false) {
+				Log.info("\tSkipping virtual threads, need JDK 21+");
+				continue;
+			}
+			ProcessBuilder pb = new ProcessBuilder(java, "-XX:NativeMemoryTracking=summary", "-cp", cp, CommandLanesBenchmark.class.getName(),
+					"-child", virtual, Integer.toString(numberOperations), Integer.toString(seconds));
+			pb.redirectErrorStream(true);
+			Process p = pb.start();
+			BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			String line;
+			while ((line = in.readLine()) != null) Log.info(line);
+			in.close();
+			if (p.waitFor() != 0) throw new Exception("Benchmark child failed");
+		}
+	}
+
+	private static void child(boolean virtual, int numberOperations, int seconds) throws Exception {
+		CommandLanes lanes = new CommandLanes(numberOperations, 1, 1, 0, 0, false, virtual);
+		ArrayList<CommandLanes.Job> jobs = new ArrayList<CommandLanes.Job>();
+		long start = System.nanoTime();
+		for (int i=0; i< numberOperations; i++) {
+			CommandLanes.Job j = new CommandLanes.Job(CommandLanes.Lane.CONTROL, new String[] {"sleep", Integer.toString(seconds)}, CommandLanes.UNKNOWN_SIZE, null);
+			jobs.add(j);
+			lanes.submit(j);
+		}
+		//sample while the operations are in flight
+		Thread.sleep(Math.max(1000, seconds * 600L));
+		int liveProcesses = countChildProcesses();
+		String threadMemory = nativeThreadMemory();
+		int platformThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+		int failed = 0;
+		for (CommandLanes.Job j: jobs) {
+			CommandRunner cr = j.await();
+			if (cr == null || cr.isFailed()) failed++;
+		}
+		double sec = (System.nanoTime() - start) / 1000000000.0;
+		lanes.shutdown();
+
+		Log.info((virtual ? "\tVirtual": "\tPlatform")+ " threads"+
+				"\n\t\tProcesses in flight at sample\t"+ liveProcesses+
+				"\n\t\tPeak platform threads\t"+ platformThreads+
+				"\n\t\tNative thread memory\t"+ threadMemory+
+				"\n\t\tHeap used\t"+ (heap.getUsed() / 1024)+ "KB"+
+				"\n\t\tWall clock\t"+ String.format("%.2f", sec)+ " sec, "+ failed+ " failed");
+	}
+
+	/*The Thread line of the native memory tracking summary, reserved and committed.*/
+	private static String nativeThreadMemory() throws Exception {
+		String summary = (String)ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"),
+				"vmNativeMemory", new Object[] {new String[] {"summary", "scale=KB"}}, new String[] {String[].class.getName()});
+		for (String l: summary.split("\n")) {
+			l = l.trim();
+			if (l.startsWith("-") && l.contains("Thread (")) return l.substring(l.indexOf('(')+1, l.indexOf(')'));
+		}
+		return "NA";
+	}
+
+	private static int countChildProcesses() throws Exception {
+		Process p = new ProcessBuilder("pgrep", "-c", "-P", Long.toString(ProcessHandle.current().pid())).start();
+		BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		String count = in.readLine();
+		in.close();
+		p.waitFor();
+		return count == null ? 0 : Integer.parseInt(count.trim()) - 1;
+	}
+}
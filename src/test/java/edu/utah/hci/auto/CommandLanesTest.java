@@ -0,0 +1,108 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**Uses bash and echo as stand ins for rsync and ssh. Ordering is checked with gates, a command that waits for a file,
+ * rather than wall clock times.*/
+public class CommandLanesTest {
+
+	private static final long MB = 1024 * 1024;
+
+	/*Waits up to 30 sec for the file to exist, exits 1 if it never does.*/
+	private static String[] gate(File release) {
+		return new String[] {"bash", "-c", "for i in $(seq 600); do [ -e '"+release+"' ] && exit 0; sleep 0.05; done; exit 1"};
+	}
+
+	@Test
+	public void controlDoesNotWaitBehindTransfers() throws Exception {
+		CommandLanes lanes = new CommandLanes(1, 1, 1, 0, 0, false);
+		File root = Files.createTempDirectory("commandLanes").toFile();
+		File release = new File(root, "release");
+		try {
+			final CommandBatch transfers = new CommandBatch(lanes);
+			transfers.add(CommandLanes.Lane.TRANSFER, gate(release), CommandLanes.UNKNOWN_SIZE, null);
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					try {
+						transfers.execute();
+					} catch (InterruptedException e) {}
+				}
+			});
+			t.start();
+
+			CommandBatch listing = new CommandBatch(lanes);
+			listing.add(CommandLanes.Lane.CONTROL, new String[] {"echo", "listed"}, CommandLanes.UNKNOWN_SIZE, null);
+			listing.add(CommandLanes.Lane.SUBMIT, new String[] {"echo", "submitted"}, CommandLanes.UNKNOWN_SIZE, null);
+			assertTrue(listing.execute());
+			//the transfer is held until released, so the listing can't have waited behind it
+			assertTrue(t.isAlive());
+			assertEquals("listed", listing.getRunners()[0].getProcessOutput().get(0));
+			assertEquals("submitted", listing.getRunners()[1].getProcessOutput().get(0));
+			assertTrue(release.createNewFile());
+			t.join();
+			assertTrue(transfers.getRunners()[0].isFailed() == false);
+		} finally {
+			lanes.shutdown();
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void idleControlStealsSmallTransfers() throws Exception {
+		CommandLanes lanes = new CommandLanes(1, 1, 1, 10 * MB, 0, false);
+		File root = Files.createTempDirectory("commandLanes").toFile();
+		File release = new File(root, "release");
+		try {
+			CommandLanes.Job big = new CommandLanes.Job(CommandLanes.Lane.TRANSFER, gate(release), 500 * MB, null);
+			CommandLanes.Job small = new CommandLanes.Job(CommandLanes.Lane.TRANSFER, new String[] {"echo", "small"}, 1 * MB, null);
+			CommandLanes.Job unknown = new CommandLanes.Job(CommandLanes.Lane.TRANSFER, new String[] {"echo", "unknown"}, CommandLanes.UNKNOWN_SIZE, null);
+			lanes.submit(big);
+			lanes.submit(small);
+			lanes.submit(unknown);
+
+			//big holds the one transfer worker until released, small can only finish first if control stole it
+			assertTrue(small.await().isFailed() == false);
+			assertTrue(small.isStolen());
+
+			//unknown sizes are never stolen, they wait for the transfer lane
+			assertTrue(release.createNewFile());
+			assertEquals("unknown", unknown.await().getProcessOutput().get(0));
+			assertFalse(unknown.isStolen());
+			assertTrue(big.await().isFailed() == false);
+			assertFalse(big.isStolen());
+			assertEquals(1, lanes.getNumberStolen());
+		} finally {
+			lanes.shutdown();
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void virtualThreadWorkers() throws Exception {
+		assumeTrue(CommandLanes.virtualThreadsAvailable());
+		CommandLanes lanes = new CommandLanes(200, 1, 1, 0, 0, false, true);
+		File started = Files.createTempDirectory("commandLanes").toFile();
+		try {
+			assertTrue(lanes.isVirtualThreads());
+			//each probe checks in then waits for all 200, that only completes if they all run at once
+			CommandBatch probes = new CommandBatch(lanes);
+			for (int i=0; i< 200; i++) {
+				String wait = "touch '"+started+"/"+i+"'; for n in $(seq 600); do [ $(ls '"+started+"' | wc -l) -ge 200 ] && echo probe"+i+" && exit 0; sleep 0.1; done; exit 1";
+				probes.add(CommandLanes.Lane.CONTROL, new String[] {"bash", "-c", wait}, CommandLanes.UNKNOWN_SIZE, null);
+			}
+			assertTrue(probes.execute());
+			for (int i=0; i< 200; i++) assertEquals("probe"+i, probes.getRunners()[i].getProcessOutput().get(0));
+		} finally {
+			lanes.shutdown();
+			Util.deleteDirectory(started);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**Parallel deletes that remove symbolic links without following them, and the errors they return.*/
+public class DirectoryDeleterTest {
+
+	@Test
+	public void removesLinksNotTargets() throws Exception {
+		File root = Files.createTempDirectory("directoryDeleter").toFile();
+		try {
+			//outside the tree, reached only through links
+			File keep = new File(root, "Keep");
+			new File(keep, "Sub").mkdirs();
+			File keptFile = new File(keep, "Sub/data.txt");
+			Util.writeString("keep me\n", keptFile);
+
+			File job = new File(root, "22597X1");
+			for (int i=0; i< 5; i++) {
+				File d = new File(job, "Alignment/Dir"+i);
+				d.mkdirs();
+				Util.writeString("bam "+i+"\n", new File(d, "x"+i+".bam"));
+			}
+			Files.createSymbolicLink(new File(job, "KeepLink").toPath(), keep.toPath());
+			Files.createSymbolicLink(new File(job, "Alignment/data.txt").toPath(), keptFile.toPath());
+			Files.createSymbolicLink(new File(job, "Alignment/Dangling").toPath(), new File(root, "Missing").toPath());
+
+			DirectoryDeleter dd = new DirectoryDeleter(4);
+			ArrayList<String> errors = dd.delete(job);
+			dd.shutdown();
+			assertEquals(0, errors.size());
+			assertFalse(job.exists());
+			assertTrue(keptFile.exists());
+
+			//a link given as the dir is unlinked, its target is left alone
+			File link = new File(root, "Link");
+			Files.createSymbolicLink(link.toPath(), keep.toPath());
+			assertEquals(0, Util.deleteDirectory(link).size());
+			assertFalse(Files.exists(link.toPath(), LinkOption.NOFOLLOW_LINKS));
+			assertTrue(keptFile.exists());
+			assertSame(DirectoryDeleter.fetchShared(), DirectoryDeleter.fetchShared());
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void returnsErrors() throws Exception {
+		File root = Files.createTempDirectory("directoryDeleter").toFile();
+		File locked = new File(root, "Locked");
+		try {
+			new File(locked, "Sub").mkdirs();
+			Util.writeString("stuck\n", new File(locked, "Sub/x.txt"));
+			Assume.assumeTrue(lock(locked, true));
+
+			ArrayList<String> errors = new DirectoryDeleter(2).delete(root);
+			assertTrue(errors.size() != 0);
+			assertTrue(errors.get(0).startsWith("ERROR: failed to delete"));
+			assertTrue(new File(locked, "Sub").exists());
+
+			//background deletions hand back theirs when collected
+			DirectoryDeleter dd = new DirectoryDeleter(2);
+			dd.deleteInBackground(root);
+			errors = dd.collectBackgroundErrors(true);
+			dd.shutdown();
+			assertTrue(errors.size() != 0);
+			assertEquals(0, dd.getNumberBackgroundDeletions());
+		} finally {
+			lock(locked, false);
+			Util.deleteDirectory(root);
+		}
+	}
+
+	/*Stops its entries from being deleted, root ignores the permissions so it needs the immutable attribute. Returns false if neither works.*/
+	static boolean lock(File dir, boolean lock) throws Exception {
+		if (lock == false) new CommandRunner(0, false, null, new String[] {"chattr", "-i", dir.getCanonicalPath()});
+		dir.setWritable(lock == false);
+		File probe = new File(dir, "probe");
+		if (lock == false || probe.createNewFile() == false) return true;
+		probe.delete();
+		dir.setWritable(true);
+		return new CommandRunner(0, false, null, new String[] {"chattr", "+i", dir.getCanonicalPath()}).isFailed() == false;
+	}
+}
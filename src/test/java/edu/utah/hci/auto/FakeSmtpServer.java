@@ -0,0 +1,98 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**Stand in SMTP server on a free local port. Accepts everything until closed, recording each message's recipients and data with the dot stuffing undone.*/
+class FakeSmtpServer implements Runnable {
+
+	private ServerSocket server;
+	private List<String> recipients = new ArrayList<String>();
+	private List<String> messages = new ArrayList<String>();
+
+	FakeSmtpServer() throws IOException {
+		server = new ServerSocket(0);
+		Thread t = new Thread(this, "fake-smtp");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public void run() {
+		while (true) {
+			try {
+				Socket s = server.accept();
+				try {
+					converse(s);
+				} finally {
+					s.close();
+				}
+			} catch (Exception e) {
+				if (server.isClosed()) return;
+			}
+		}
+	}
+
+	private void converse(Socket s) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+		Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+		reply(out, "220 fake ESMTP");
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.startsWith("EHLO")) reply(out, "250-fake\r\n250 8BITMIME");
+			else if (line.startsWith("RCPT TO:")) {
+				synchronized (this) {
+					recipients.add(line.substring(9, line.length()-1));
+				}
+				reply(out, "250 OK");
+			}
+			else if (line.equals("DATA")) {
+				reply(out, "354 go ahead");
+				StringBuilder sb = new StringBuilder();
+				while (true) {
+					String l = in.readLine();
+					if (l == null || l.equals(".")) break;
+					if (l.startsWith(".")) l = l.substring(1);
+					sb.append(l).append("\n");
+				}
+				synchronized (this) {
+					messages.add(sb.toString());
+				}
+				reply(out, "250 queued");
+			}
+			else if (line.equals("QUIT")) {
+				reply(out, "221 bye");
+				return;
+			}
+			else reply(out, "250 OK");
+		}
+	}
+
+	private static void reply(Writer out, String line) throws IOException {
+		out.write(line+"\r\n");
+		out.flush();
+	}
+
+	int getPort() {
+		return server.getLocalPort();
+	}
+
+	synchronized List<String> getRecipients() {
+		return new ArrayList<String>(recipients);
+	}
+
+	synchronized List<String> getMessages() {
+		return new ArrayList<String>(messages);
+	}
+
+	void close() throws IOException {
+		server.close();
+	}
+}
@@ -0,0 +1,82 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**Read and base counts of small known fastq, and the errors for those that can't be parsed.*/
+public class FastqStatsTest {
+
+	@Test
+	public void countsKnownFastq() throws Exception {
+		File root = Files.createTempDirectory("fastqStats").toFile();
+		try {
+			//3 reads, 12 bases, one empty read, a windows line ending, and a trailing blank line
+			File gz = gzip(root, "22597X1_R1_001.fastq.gz", "@r1\nACGTAC\n+\nIIIIII\n@r2\nGGGGGG\r\n+\r\nIIIIII\r\n@r3\n\n+\n\n\n");
+			FastqStats.Counts c = FastqStats.count(gz, 0);
+			assertEquals(3, c.getReads());
+			assertEquals(12, c.getBases());
+			assertFalse(c.isEstimated());
+
+			//plain text, no final newline
+			File txt = new File(root, "22597X2_R1_001.fastq");
+			Util.writeString("@r1\nACGT\n+\nIIII\n@r2\nAC\n+\nII", txt);
+			c = FastqStats.count(txt, 0);
+			assertEquals(2, c.getReads());
+			assertEquals(6, c.getBases());
+
+			//stopping early extrapolates from the compressed bytes used
+			File big = gzip(root, "22597X3_R1_001.fastq.gz", new String(ParallelGzipInputStreamTest.makeFastq(100000), "US-ASCII"));
+			FastqStats.Counts all = FastqStats.count(big, 0);
+			assertEquals(100000, all.getReads());
+			FastqStats.Counts estimate = FastqStats.count(big, 50000);
+			assertTrue(estimate.isEstimated());
+			assertEquals(100000, estimate.getReads(), 10000);
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void reportsUnparseableFiles() throws Exception {
+		File root = Files.createTempDirectory("fastqStats").toFile();
+		try {
+			File good = gzip(root, "good.fastq.gz", "@r1\nACGT\n+\nIIII\n");
+			File truncated = gzip(root, "truncated.fastq.gz", "@r1\nACGT\n+\nIIII\n@r2\nACGT\n");
+			File notFastq = gzip(root, "notFastq.fastq.gz", "chr1\t100\t200\n");
+			File notGzip = new File(root, "notGzip.fastq.gz");
+			Util.writeString("@r1\nACGT\n+\nIIII\n", notGzip);
+			File missing = new File(root, "missing.fastq.gz");
+
+			ArrayList<String> errors = new ArrayList<String>();
+			HashMap<File, FastqStats.Counts> counts = new FastqStats(2, 0).calculate(new File[] {good, truncated, notFastq, notGzip, missing}, errors);
+			assertEquals(1, counts.size());
+			assertEquals(1, counts.get(good).getReads());
+			assertEquals(errors.toString(), 4, errors.size());
+			assertTrue(errors.get(0).contains("truncated fastq"));
+			assertTrue(errors.get(1).contains("not a fastq"));
+			//the job sizing sums what it could count
+			assertEquals(4, FastqStats.sum(Arrays.asList(good, truncated), counts).getBases());
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	private static File gzip(File root, String name, String content) throws Exception {
+		File f = new File(root, name);
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(f));
+		out.write(content.getBytes("US-ASCII"));
+		out.close();
+		return f;
+	}
+}
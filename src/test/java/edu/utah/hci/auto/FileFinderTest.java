@@ -0,0 +1,88 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**The parallel walk against the sequential listFiles() recursion Util.fetchFilesRecursively used before it.*/
+public class FileFinderTest {
+
+	@Test
+	public void matchesSequentialWalk() throws Exception {
+		File root = Files.createTempDirectory("fileFinder").toFile();
+		try {
+			String[] paths = {
+					"22597X1_R1_001.fastq.gz", "22597X1_R2_001.fastq.gz", "md5.txt", "22597X1.fq.gz", "notes.gz",
+					".hidden.fastq.gz",
+					".Hidden/22597X2_R1_001.fastq.gz", ".Hidden/.Deeper/22597X2_R2_001.fastq.gz",
+					"Lane1/22597X3_R1_001.fastq.gz", "Lane1/Sub/Sub/22597X3_R2_001.fastq.gz", "Lane1/Sub/readme.txt",
+					"Lane2/22597X3_R1_001.FASTQ.GZ", "Empty/.keep"};
+			for (String p: paths) {
+				File f = new File(root, p);
+				f.getParentFile().mkdirs();
+				Util.writeString("x\n", f);
+			}
+			for (int i=0; i< 50; i++) Util.writeString("x\n", new File(root, "Lane1/Sub/x"+i+".fastq.gz"));
+			//a linked dir and a broken link, listFiles() and isDirectory() follow links
+			Files.createSymbolicLink(new File(root, "LinkedLane").toPath(), new File(root, "Lane1/Sub").toPath());
+			Files.createSymbolicLink(new File(root, "broken.fastq.gz").toPath(), new File(root, "Missing").toPath());
+
+			for (String ext: new String[] {".fastq.gz", "q.gz", ".gz", ".txt", "", ".bam"}) {
+				File[] expected = sequential(root, ext);
+				assertArrayEquals(ext, expected, new FileFinder(FileFinder.suffixMatcher(ext), true).find(root));
+				assertArrayEquals(ext, expected, Util.fetchFilesRecursively(root, ext));
+			}
+			assertEquals(1+1+2+2+1+50+1+2+50, Util.fetchFilesRecursively(root, "q.gz").length);
+
+			//case insensitive and glob matchers
+			assertEquals(1, new FileFinder(FileFinder.globMatcher("*.FASTQ.GZ"), true).find(root).length);
+			assertEquals(sequential(root, ".fastq.gz").length + 1, new FileFinder(FileFinder.suffixMatcherIgnoreCase(".fastq.gz"), true).find(root).length);
+
+			//not following links skips the linked dir
+			assertEquals(sequential(root, ".fastq.gz").length - 51, new FileFinder(FileFinder.suffixMatcher(".fastq.gz"), false).find(root).length);
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void stopsAtLinkCycles() throws Exception {
+		File root = Files.createTempDirectory("fileFinder").toFile();
+		try {
+			File a = new File(root, "A/B");
+			a.mkdirs();
+			Util.writeString("x\n", new File(a, "x.fastq.gz"));
+			Files.createSymbolicLink(new File(a, "BackToA").toPath(), new File(root, "A").toPath());
+			File[] found = new FileFinder(FileFinder.suffixMatcher(".fastq.gz"), true).find(root);
+			assertEquals(1, found.length);
+			assertTrue(found[0].getPath().endsWith("A/B/x.fastq.gz"));
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	/*The listFiles() recursion fetchAllFilesRecursively used before the FileFinder, sorted.*/
+	private static File[] sequential(File directory, String extension) {
+		ArrayList<File> files = new ArrayList<File>();
+		sequential(directory, extension, files);
+		File[] sorted = new File[files.size()];
+		files.toArray(sorted);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private static void sequential(File directory, String extension, ArrayList<File> files) {
+		File[] list = directory.listFiles();
+		for (int i=0; i< list.length; i++){
+			if (list[i].isDirectory()) sequential(list[i], extension, files);
+			else if (list[i].getName().endsWith(extension)) files.add(list[i]);
+		}
+	}
+}
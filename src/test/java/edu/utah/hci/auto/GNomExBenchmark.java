@@ -0,0 +1,476 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**Times a GNomExAutoAnalysis cycle against a synthetic repository, e.g. to see how it scales to 10x today's request volume.
+ * Generates an experimentDir of year/request/Fastq directories, each with paired fastq.gz per sample and an md5 manifest, and loads matching rows
+ * into the GNomEx tables of an in memory H2 database in MSSQLServer mode, so GNomExDbQuery runs its real query over JDBC.
+ * Some requests are given fastq under an hour old, an unsupported library prep or no genome build, or an existing finished or still running AutoAnalysis.
+ * Each cycle then times the db query, parseRequests, buildAutoAnalysisJobs, checkExistingAutoAnalysis, and the request index save separately,
+ * with the read and write syscalls and bytes of each from /proc/self/io. With -t each is also run under 'strace -c' for the counts of every file
+ * syscall, e.g. the stat, getdents64, and openat calls of the directory scans. Between cycles the linked jobs are returned with a COMPLETE and
+ * requests sent to MultiQC get a MultiQC dir, as CHPC and runMultiQCEmailClients would.
+ * The db is in memory so the query times leave out the network to the GNomEx SQL Server.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) edu.utah.hci.auto.GNomExBenchmark [options]
+ *   -r requests in the 5 month db query window, each with a repo dir, defaults to 200
+ *   -s samples per request, defaults to 12
+ *   -o older requests only in the db, outside the query window, defaults to 1000
+ *   -n percent of requests with fastq under an hour old, defaults to 5
+ *   -u percent of requests with no genome build or an unsupported library prep, defaults to 10
+ *   -f percent of requests with a finished AutoAnalysis, defaults to 60
+ *   -a percent of requests with an AutoAnalysis still waiting on jobs, defaults to 10
+ *   -q reads per fastq, defaults to 1000
+ *   -c cycles to run, defaults to 3
+ *   -x disable the request index
+ *   -t count each phase's file syscalls with strace, needs strace and ptrace permission, e.g. kernel.yama.ptrace_scope 0
+ *   -k extra daemon config key=value, repeat as needed, e.g. -k verifyFastqMd5=false -k jobBuilderThreads=16
+ *   -b scratch dir for the repo, defaults to java.io.tmpdir
+ *   -d keep the repo*/
+public class GNomExBenchmark {
+
+	public static final String[] PHASES = {"GNomExDbQuery", "parseRequests", "buildAutoAnalysisJobs", "checkExistingAutoAnalysis", "saveRequestIndex"};
+	public static final String SUPPORTED_APPLICATION = "Illumina TruSeq Stranded mRNA";
+	public static final String UNSUPPORTED_APPLICATION = "Illumina Small RNA";
+	public static final String PASSWORD = "benchmark";
+	public static final String[] STRACE = {"strace", "-f", "-c", "-q", "-e", "trace=%file,%desc"};
+
+	//options
+	private int numberRequests = 200;
+	private int samplesPerRequest = 12;
+	private int numberOldRequests = 1000;
+	private int newFastqPercent = 5;
+	private int unsupportedPercent = 10;
+	private int finishedPercent = 60;
+	private int activePercent = 10;
+	private int readsPerFastq = 1000;
+	private int numberCycles = 3;
+	private boolean useIndex = true;
+	private boolean strace = false;
+	private LinkedHashMap<String, String> extraConfig = new LinkedHashMap<String, String>();
+	private File scratch = new File(System.getProperty("java.io.tmpdir"));
+	private boolean keep = false;
+
+	//repo
+	private File root;
+	private File experimentDir;
+	private File hciLinkDir;
+	private String connectionUrl;
+	private Random random = new Random(1);
+	private int numberFastq = 0;
+	private int numberJobsWaiting = 0;
+
+	//results, a row of cycle, phase, seconds, then the /proc/self/io deltas and strace counts
+	private ArrayList<String> rows = new ArrayList<String>();
+
+	public static void main(String[] args) throws Exception {
+		GNomExBenchmark b = new GNomExBenchmark();
+		b.processArgs(args);
+		b.run();
+		System.exit(0);
+	}
+
+	private void run() throws Exception {
+		root = Files.createTempDirectory(scratch.toPath(), "gnomexBenchmark").toFile();
+		Connection keepAlive = null;
+		try {
+			long start = System.nanoTime();
+			experimentDir = new File(root, "Repository");
+			hciLinkDir = new File(root, "Jobs4CHPC");
+			if (hciLinkDir.mkdirs() == false) throw new IOException("Failed to make "+hciLinkDir);
+			connectionUrl = "jdbc:h2:mem:gnomexBenchmark;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;USER=sa;PASSWORD=XXXXXXXXXX";
+			//the in memory db lives until this connection is closed
+			keepAlive = DriverManager.getConnection(connectionUrl.replace("XXXXXXXXXX", PASSWORD));
+			generate(keepAlive);
+			Log.info("Generated "+numberRequests+" requests, "+numberFastq+" fastq, "+numberJobsWaiting+" jobs waiting on CHPC, and "+numberOldRequests+" older db only requests in "+
+					String.format("%.1f", (System.nanoTime() - start) / 1000000000.0)+" sec, "+root);
+
+			GNomExAutoAnalysis aa = new GNomExAutoAnalysis();
+			aa.processArgs(new String[] {"-c", writeConfig().getPath(), "-p", writeCredentials().getPath()});
+			StringBuilder counts = new StringBuilder("\nCycle\tToBuild\tWithAutoAnalysis\tSkipped\tOtherHelp\tToMultiQC\tActive\tJobsLinked\n");
+			for (int cycle = 1; cycle <= numberCycles; cycle++) {
+				Log.info("\n########### Benchmark cycle "+cycle+" ###########");
+				aa.clearPriorArrays();
+				GNomExDbQuery[] dbQuery = new GNomExDbQuery[1];
+				runPhase(cycle, PHASES[0], aa, dbQuery);
+				if (dbQuery[0].isFailed()) throw new Exception("ERROR with querying the benchmark db "+connectionUrl);
+				for (int i=1; i< PHASES.length; i++) runPhase(cycle, PHASES[i], aa, dbQuery);
+				int[] c = aa.getRequestCounts();
+				counts.append(cycle);
+				for (int x: c) counts.append("\t").append(x);
+				counts.append("\t").append(returnJobs()).append("\n");
+				//stand in for MultiQC
+				for (GNomExRequest gr: aa.getRequestsToMultiQC()) new File(gr.getAutoAnalysisMainDirectory(), "MultiQC").mkdir();
+			}
+			Log.flush();
+			report(counts.toString());
+		} finally {
+			if (keepAlive != null) keepAlive.close();
+			if (keep) Log.info("\nKept "+root);
+			else Util.deleteDirectory(root);
+			Log.flush();
+		}
+	}
+
+	/*Runs one step of the cycle, recording its time and syscalls.*/
+	private void runPhase(int cycle, String phase, GNomExAutoAnalysis aa, GNomExDbQuery[] dbQuery) throws Exception {
+		Process tracer = null;
+		File traceFile = new File(root, "strace."+cycle+"."+phase+".txt");
+		if (strace) tracer = startStrace(traceFile);
+		long[] io = fetchIo();
+		long start = System.nanoTime();
+		if (phase.equals("GNomExDbQuery")) dbQuery[0] = new GNomExDbQuery(connectionUrl.replace("XXXXXXXXXX", PASSWORD));
+		else if (phase.equals("parseRequests")) aa.parseRequests(dbQuery[0].getRequests());
+		else if (phase.equals("buildAutoAnalysisJobs")) aa.buildAutoAnalysisJobs();
+		else if (phase.equals("checkExistingAutoAnalysis")) aa.checkExistingAutoAnalysis();
+		else aa.saveRequestIndex();
+		double sec = (System.nanoTime() - start) / 1000000000.0;
+		long[] ioEnd = fetchIo();
+		StringBuilder sb = new StringBuilder(cycle+"\t"+phase+"\t"+String.format("%.3f", sec));
+		if (io == null || ioEnd == null) sb.append("\tNA\tNA\tNA\tNA");
+		else {
+			sb.append("\t"+(ioEnd[2] - io[2])+"\t"+(ioEnd[3] - io[3]));
+			sb.append("\t"+String.format("%.1f", (ioEnd[0] - io[0]) / 1048576.0)+"\t"+String.format("%.1f", (ioEnd[1] - io[1]) / 1048576.0));
+		}
+		if (tracer != null) sb.append(stopStrace(tracer, traceFile));
+		rows.add(sb.toString());
+	}
+
+	private void report(String counts) {
+		StringBuilder sb = new StringBuilder("\n"+numberRequests+" requests of "+samplesPerRequest+" samples, "+numberOldRequests+" older, "+
+				newFastqPercent+"% new fastq, "+unsupportedPercent+"% unsupported, "+finishedPercent+"% finished, "+activePercent+"% active, request index "+useIndex+"\n");
+		sb.append("\nCycle\tPhase\tSec\tReadCalls\tWriteCalls\tReadMB\tWriteMB");
+		if (strace) sb.append("\tFileSyscalls\tTop");
+		sb.append("\n");
+		for (String row: rows) sb.append(row).append("\n");
+		sb.append(counts);
+		Log.info(sb.toString());
+	}
+
+	/*rchar, wchar, syscr, syscw of this JVM, all threads, or null if not on linux.*/
+	private static long[] fetchIo() {
+		File f = new File("/proc/self/io");
+		if (f.exists() == false) return null;
+		HashMap<String, String> io = new HashMap<String, String>();
+		try {
+			//rchar: 323934931
+			for (String line: Files.readAllLines(f.toPath())) {
+				String[] kv = Util.WHITE_SPACE.split(line.trim());
+				if (kv.length == 2) io.put(kv[0], kv[1]);
+			}
+			String[] keys = {"rchar:", "wchar:", "syscr:", "syscw:"};
+			long[] v = new long[keys.length];
+			for (int i=0; i< keys.length; i++) v[i] = Long.parseLong(io.get(keys[i]));
+			return v;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/*Attaches strace to every thread of this JVM, waits until it is tracing. Returns null and turns off tracing if it can't attach.*/
+	private Process startStrace(File out) throws Exception {
+		ArrayList<String> cmd = new ArrayList<String>();
+		Collections.addAll(cmd, STRACE);
+		Collections.addAll(cmd, "-o", out.getPath(), "-p", Long.toString(ProcessHandle.current().pid()));
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(new File(root, "strace.log"));
+		Process p = null;
+		try {
+			p = pb.start();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (p.isAlive() && System.currentTimeMillis() < deadline) {
+				for (String line: Util.loadFile(new File("/proc/self/status"))) {
+					if (line.startsWith("TracerPid:") && line.substring(10).trim().equals("0") == false) {
+						//let it finish attaching the other threads
+						Thread.sleep(500);
+						return p;
+					}
+				}
+				Thread.sleep(50);
+			}
+		} catch (IOException e) {
+			Log.warn("WARNING: failed to run strace, continuing without it, "+e.getMessage());
+			strace = false;
+			return null;
+		}
+		if (p != null) p.destroyForcibly();
+		Log.warn("WARNING: strace failed to attach, see "+new File(root, "strace.log")+", it needs ptrace permission, e.g. kernel.yama.ptrace_scope 0, continuing without it");
+		strace = false;
+		return null;
+	}
+
+	/*Detaches strace, on SIGTERM it writes its summary, and returns the total and top five file syscalls.*/
+	private String stopStrace(Process tracer, File out) throws Exception {
+		tracer.destroy();
+		tracer.waitFor();
+		if (out.exists() == false) return "\tNA\tNA";
+		// % time     seconds  usecs/call     calls    errors syscall
+		final HashMap<String, Long> calls = new HashMap<String, Long>();
+		long total = 0;
+		for (String line: Util.loadFile(out)) {
+			String[] f = Util.WHITE_SPACE.split(line.trim());
+			if (f.length < 5 || f[f.length-1].equals("total")) continue;
+			try {
+				Double.parseDouble(f[0]);
+				long n = Long.parseLong(f[3]);
+				calls.put(f[f.length-1], n);
+				total += n;
+			} catch (NumberFormatException e) {}
+		}
+		ArrayList<String> names = new ArrayList<String>(calls.keySet());
+		Collections.sort(names, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return calls.get(b).compareTo(calls.get(a));
+			}
+		});
+		StringBuilder top = new StringBuilder();
+		for (int i=0; i< names.size() && i < 5; i++) {
+			if (i != 0) top.append(", ");
+			top.append(names.get(i)).append("=").append(calls.get(names.get(i)));
+		}
+		return "\t"+total+"\t"+top;
+	}
+
+	/*As CHPC would, adds a COMPLETE to each linked job. Returns the number linked.*/
+	private int returnJobs() throws IOException {
+		int number = 0;
+		for (File link: hciLinkDir.listFiles()) {
+			if (link.isDirectory() == false) continue;
+			Util.writeString("", new File(link, "COMPLETE"));
+			number++;
+		}
+		return number;
+	}
+
+	/*Writes the repo and loads the db, the fastq are all the same small gz file.*/
+	private void generate(Connection con) throws Exception {
+		byte[] fastq = makeFastq();
+		String md5 = Md5Verifier.toHex(MessageDigest.getInstance("MD5").digest(fastq));
+		createTables(con);
+		PreparedStatement request = con.prepareStatement("insert into request values (?, ?, ?, 1, ?, ?, ?, ?, ?)");
+		PreparedStatement sample = con.prepareStatement("insert into sample values (?, ?, ?)");
+		PreparedStatement lane = con.prepareStatement("insert into sequencelane values (?, ?, ?)");
+		long now = System.currentTimeMillis();
+		long day = 24L * 60 * 60 * 1000;
+		long hour = 60L * 60 * 1000;
+		Calendar calendar = Calendar.getInstance();
+		int currentYear = calendar.get(Calendar.YEAR);
+		for (int year = 2023; year <= currentYear; year++) new File(experimentDir, Integer.toString(year)).mkdirs();
+		int idSample = 0;
+		int numberAll = numberRequests + numberOldRequests;
+		for (int i=0; i< numberAll; i++) {
+			boolean old = i >= numberRequests;
+			//a few with a trailing number, e.g. 20001R1
+			String number = (20000 + i)+"R"+(i % 4 == 0 ? "1" : "");
+			String requestId = (20000 + i)+"R";
+			long created = old ? now - (200 + random.nextInt(800)) * day : now - (1 + random.nextInt(140)) * day;
+			//the daemon parses the date with millis, sql server always returns them
+			if (created % 1000 == 0) created++;
+			int roll = random.nextInt(100);
+			boolean unsupported = roll < unsupportedPercent;
+			boolean noBuild = unsupported && roll % 2 == 0;
+			request.setInt(1, i);
+			request.setString(2, number);
+			request.setTimestamp(3, new Timestamp(created));
+			request.setInt(4, i % 50);
+			request.setInt(5, i % 200);
+			request.setString(6, unsupported && noBuild == false ? "SRNA" : "MRNA");
+			request.setString(7, "Align to the latest build please");
+			request.setString(8, "Y");
+			request.addBatch();
+			for (int s=1; s<= samplesPerRequest; s++) {
+				sample.setInt(1, idSample);
+				sample.setInt(2, i);
+				sample.setInt(3, i % 3 == 0 ? 2 : 1);
+				sample.addBatch();
+				lane.setInt(1, idSample);
+				lane.setInt(2, idSample);
+				if (noBuild) lane.setNull(3, java.sql.Types.INTEGER);
+				else lane.setInt(3, i % 3 == 0 ? 2 : 1);
+				lane.addBatch();
+				idSample++;
+			}
+			if (i % 100 == 99) {
+				request.executeBatch();
+				sample.executeBatch();
+				lane.executeBatch();
+			}
+			if (old) continue;
+
+			//the repo dir
+			calendar.setTimeInMillis(created);
+			File requestDir = new File(experimentDir, calendar.get(Calendar.YEAR)+"/"+requestId);
+			File fastqDir = new File(requestDir, "Fastq");
+			if (fastqDir.mkdirs() == false) throw new IOException("Failed to make "+fastqDir);
+			boolean tooNew = unsupported == false && random.nextInt(100) < newFastqPercent;
+			long modified = tooNew ? now - random.nextInt(30) * 60000L : created + hour * 12;
+			StringBuilder manifest = new StringBuilder();
+			ArrayList<String> sampleIds = new ArrayList<String>();
+			for (int s=1; s<= samplesPerRequest; s++) {
+				String sampleId = (20000 + i)+"X"+s;
+				sampleIds.add(sampleId);
+				for (int r=1; r<= 2; r++) {
+					String name = sampleId+"_S"+s+"_R"+r+"_001.fastq.gz";
+					File f = new File(fastqDir, name);
+					Files.write(f.toPath(), fastq);
+					f.setLastModified(modified);
+					manifest.append(md5).append("  ").append(name).append("\n");
+					numberFastq++;
+				}
+			}
+			Util.writeString(manifest.toString(), new File(fastqDir, "md5.txt"));
+			if (unsupported || tooNew) continue;
+
+			//an existing AutoAnalysis? finished ones have a MultiQC dir, active ones are waiting on some jobs that are still linked for CHPC
+			roll = random.nextInt(100);
+			if (roll < finishedPercent) makeAutoAnalysis(requestDir, sampleIds, true);
+			else if (roll < finishedPercent + activePercent) makeAutoAnalysis(requestDir, sampleIds, false);
+		}
+		request.executeBatch();
+		sample.executeBatch();
+		lane.executeBatch();
+		request.close();
+		sample.close();
+		lane.close();
+	}
+
+	private void makeAutoAnalysis(File requestDir, ArrayList<String> sampleIds, boolean finished) throws IOException {
+		File main = new File(requestDir, "AutoAnalysis_01Jan2024");
+		File jobs = new File(main, "Jobs");
+		for (String sampleId: sampleIds) {
+			File job = new File(jobs, sampleId);
+			if (job.mkdirs() == false) throw new IOException("Failed to make "+job);
+			Util.writeString("requestId\t"+requestDir.getName()+"\n", new File(job, "RUNME"));
+			if (finished || random.nextBoolean()) Util.writeString("", new File(job, "COMPLETE"));
+			else {
+				Files.createSymbolicLink(new File(hciLinkDir, sampleId).toPath(), job.toPath());
+				numberJobsWaiting++;
+			}
+		}
+		if (finished) new File(main, "MultiQC").mkdir();
+	}
+
+	/*The GNomEx tables and columns the query joins on.*/
+	private void createTables(Connection con) throws Exception {
+		String[] ddl = {
+				"create table request (idrequest int primary key, number varchar(20), createDate datetime, idproject int, idlab int, idappuser int, codeapplication varchar(10), analysisInstructions varchar(500), bioInformaticsAssist char(1))",
+				"create table project (idproject int primary key)",
+				"create table lab (idlab int primary key, lastname varchar(50), firstname varchar(50))",
+				"create table appuser (idappuser int primary key, email varchar(100))",
+				"create table application (codeapplication varchar(10) primary key, application varchar(100))",
+				"create table organism (idorganism int primary key, organism varchar(50))",
+				"create table genomebuild (idgenomebuild int primary key, genomebuildname varchar(50))",
+				"create table sample (idsample int primary key, idrequest int, idorganism int)",
+				"create table sequencelane (idsequencelane int primary key, idsample int, idgenomebuildalignto int)",
+				"create index sample_request on sample (idrequest)",
+				"create index lane_sample on sequencelane (idsample)",
+				"insert into project values (1)",
+				"insert into application values ('MRNA', '"+SUPPORTED_APPLICATION+"'), ('SRNA', '"+UNSUPPORTED_APPLICATION+"')",
+				"insert into organism values (1, 'Human'), (2, 'Mouse')",
+				"insert into genomebuild values (1, 'Human GRCh38'), (2, 'Mouse GRCm39')"
+		};
+		Statement stmt = con.createStatement();
+		for (String s: ddl) stmt.execute(s);
+		for (int i=0; i< 50; i++) stmt.execute("insert into lab values ("+i+", 'Lab"+i+"', 'PI"+i+"')");
+		for (int i=0; i< 200; i++) stmt.execute("insert into appuser values ("+i+", 'user"+i+"@hci.utah.edu')");
+		stmt.close();
+	}
+
+	private byte[] makeFastq() throws IOException {
+		File f = new File(root, "template.fastq.gz");
+		StringBuilder seq = new StringBuilder();
+		StringBuilder qual = new StringBuilder();
+		for (int i=0; i< 100; i++) {
+			seq.append("ACGT".charAt(random.nextInt(4)));
+			qual.append('I');
+		}
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(f));
+		for (int i=0; i< readsPerFastq; i++) out.write(("@read"+i+"\n"+seq+"\n+\n"+qual+"\n").getBytes());
+		out.close();
+		byte[] b = Files.readAllBytes(f.toPath());
+		f.delete();
+		return b;
+	}
+
+	private File writeConfig() throws IOException {
+		File wf = new File(root, "Workflows/RNASeq");
+		wf.mkdirs();
+		File orgLib = new File(root, "autoAnalysis.wf.config.txt");
+		Util.writeString("#Organism\tLibraryKit\tWFDirFiles\tMultiQCOptions\nHuman\t"+SUPPORTED_APPLICATION+"\t"+wf+"\t-c multiqc.yaml\nMouse\t"+SUPPORTED_APPLICATION+"\t"+wf+"\t-c multiqc.yaml\n", orgLib);
+		LinkedHashMap<String, String> c = new LinkedHashMap<String, String>();
+		c.put("connectionUrl", connectionUrl);
+		c.put("experimentDir", experimentDir.getCanonicalPath());
+		c.put("experimentLinkUrl", "https://gnomex.local/?requestNumber=");
+		c.put("jiraUrl", "https://jira.local");
+		c.put("dataPolicyUrl", "https://policy.local");
+		c.put("testRequest", "all");
+		c.put("adminEmail", "admin@benchmark.local");
+		c.put("hoursToWait", "0");
+		c.put("multiQCWorkers", "0");
+		c.put("supportedOrgLibWfConfigFile", orgLib.getCanonicalPath());
+		c.put("hciLinkDirectory", hciLinkDir.getCanonicalPath()+"/");
+		c.put("requestIndexFile", useIndex ? new File(root, "autoAnalysisRequestIndex.txt").getCanonicalPath() : "none");
+		c.put("gnomexLifecycleLogFile", new File(root, "autoAnalysisLifecycle_gnomex.jsonl").getCanonicalPath());
+		c.putAll(extraConfig);
+		StringBuilder sb = new StringBuilder("# GNomExBenchmark\n");
+		for (Map.Entry<String, String> e: c.entrySet()) sb.append(e.getKey()).append("\t").append(e.getValue()).append("\n");
+		File config = new File(root, "autoAnalysis.config.txt");
+		Util.writeString(sb.toString(), config);
+		return config;
+	}
+
+	private File writeCredentials() throws IOException {
+		File cred = new File(root, "cred.txt");
+		Util.writeString(PASSWORD+"\n", cred);
+		return cred;
+	}
+
+	private void processArgs(String[] args) {
+		for (int i=0; i< args.length; i++) {
+			String a = args[i];
+			try {
+				if (a.equals("-r")) numberRequests = Integer.parseInt(args[++i]);
+				else if (a.equals("-s")) samplesPerRequest = Integer.parseInt(args[++i]);
+				else if (a.equals("-o")) numberOldRequests = Integer.parseInt(args[++i]);
+				else if (a.equals("-n")) newFastqPercent = Integer.parseInt(args[++i]);
+				else if (a.equals("-u")) unsupportedPercent = Integer.parseInt(args[++i]);
+				else if (a.equals("-f")) finishedPercent = Integer.parseInt(args[++i]);
+				else if (a.equals("-a")) activePercent = Integer.parseInt(args[++i]);
+				else if (a.equals("-q")) readsPerFastq = Integer.parseInt(args[++i]);
+				else if (a.equals("-c")) numberCycles = Integer.parseInt(args[++i]);
+				else if (a.equals("-x")) useIndex = false;
+				else if (a.equals("-t")) strace = true;
+				else if (a.equals("-k")) {
+					String[] kv = args[++i].split("=", 2);
+					extraConfig.put(kv[0], kv[1]);
+				}
+				else if (a.equals("-b")) scratch = new File(args[++i]);
+				else if (a.equals("-d")) keep = true;
+				else Util.printErrAndExit("\nUnknown option "+a+", see the GNomExBenchmark javadoc\n");
+			} catch (Exception e) {
+				Util.printErrAndExit("\nSorry, something doesn't look right with "+a+"\n");
+			}
+		}
+		if (numberRequests < 1 || samplesPerRequest < 1 || numberCycles < 1 || finishedPercent + activePercent > 100) Util.printErrAndExit("\nCheck the -r, -s, -c, -f, and -a options\n");
+	}
+}
@@ -0,0 +1,159 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**Building the AutoAnalysis jobs of a request in a temp experiment dir, the hidden temp dirs and links, and per sample release.*/
+public class GNomExRequestTest {
+
+	private static final long TWO_HOURS_AGO = System.currentTimeMillis() - 2 * 3600000L;
+
+	@Test
+	public void jobsAppearWhole() throws Exception {
+		File root = Files.createTempDirectory("gnomexRequest").toFile();
+		try {
+			File linkDir = new File(root, "Jobs4CHPC");
+			linkDir.mkdir();
+			GNomExRequest gr = request(root);
+			for (int i=1; i<= 40; i++) for (String read: new String[] {"R1", "R2"}) fastq(root, "", "22597X"+i+"_"+read+"_001.fastq.gz", TWO_HOURS_AGO);
+			Util.writeString("", new File(root, "22597R/Fastq/md5.txt"));
+			assertTrue(gr.checkFastq());
+
+			//watch the Jobs and link dirs while they're built, anything under its final name must be whole
+			final AtomicBoolean building = new AtomicBoolean(true);
+			final ArrayList<String> halfBuilt = new ArrayList<String>();
+			Thread watcher = watch(root, linkDir, building, halfBuilt);
+			assertTrue(gr.createAutoAnalysisJobs(linkDir, 4));
+			building.set(false);
+			watcher.join();
+			assertEquals(halfBuilt.toString(), 0, halfBuilt.size());
+
+			File[] jobs = gr.getAutoAnalysisJobsDirectory().listFiles();
+			assertEquals(40, jobs.length);
+			for (File job: jobs) {
+				assertFalse(job.getName().startsWith(".building_"));
+				assertTrue(new File(job, "RUNME").exists());
+				assertTrue(new File(job, job.getName()+"_R2_001.fastq.gz").exists());
+				File link = new File(linkDir, job.getName());
+				assertTrue(Files.isSymbolicLink(link.toPath()));
+				assertEquals(job.getCanonicalFile(), link.getCanonicalFile());
+			}
+			assertEquals(40, linkDir.list().length);
+			assertFalse(gr.isReleasing());
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void failedBuildLeavesNothing() throws Exception {
+		File root = Files.createTempDirectory("gnomexRequest").toFile();
+		try {
+			File linkDir = new File(root, "Jobs4CHPC");
+			linkDir.mkdir();
+			GNomExRequest gr = request(root);
+			for (int i=1; i<= 6; i++) fastq(root, "Lane1/", "22597X"+i+"_R1_001.fastq.gz", TWO_HOURS_AGO);
+			//the same name from two lanes, its links collide and the job fails
+			fastq(root, "Lane2/", "22597X3_R1_001.fastq.gz", TWO_HOURS_AGO);
+			Util.writeString("", new File(root, "22597R/Fastq/md5.txt"));
+			assertTrue(gr.checkFastq());
+
+			assertFalse(gr.createAutoAnalysisJobs(linkDir, 3));
+			assertEquals(0, linkDir.list().length);
+			assertEquals(0, Util.extractFilesPrefix(new File(root, "22597R"), "AutoAnalysis_").length);
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void releasesReadySamples() throws Exception {
+		File root = Files.createTempDirectory("gnomexRequest").toFile();
+		try {
+			File linkDir = new File(root, "Jobs4CHPC");
+			linkDir.mkdir();
+			GNomExRequest gr = request(root);
+			//X1 is ready, X2 is still being written, X3 is listed in the manifest but not there yet
+			String[] names = {"22597X1_R1_001.fastq.gz", "22597X1_R2_001.fastq.gz", "22597X2_R1_001.fastq.gz", "22597X2_R2_001.fastq.gz", "22597X3_R1_001.fastq.gz"};
+			StringBuilder md5s = new StringBuilder();
+			for (String name: names) md5s.append("d41d8cd98f00b204e9800998ecf8427e  ").append(name).append("\n");
+			fastq(root, "", names[0], TWO_HOURS_AGO);
+			fastq(root, "", names[1], TWO_HOURS_AGO);
+			fastq(root, "", names[2], TWO_HOURS_AGO);
+			File x2r2 = fastq(root, "", names[3], System.currentTimeMillis());
+			Util.writeString(md5s.toString(), new File(root, "22597R/Fastq/md5.txt"));
+
+			assertTrue(gr.checkFastq(true));
+			assertEquals(2, gr.getFastqFiles().length);
+			assertTrue(gr.getFastqFiles()[0].getName().startsWith("22597X1_"));
+			assertEquals(2, gr.getNumberSamplesWaiting());
+			assertTrue(gr.createAutoAnalysisJobs(linkDir, 2));
+			assertTrue(gr.isReleasing());
+			assertTrue(new File(gr.getAutoAnalysisJobsDirectory(), "22597X1/RUNME").exists());
+			assertEquals(1, linkDir.list().length);
+
+			//nothing new is ready
+			assertFalse(gr.checkFastq(true));
+
+			//the rest arrive
+			x2r2.setLastModified(TWO_HOURS_AGO);
+			fastq(root, "", names[4], TWO_HOURS_AGO);
+			//a stale temp dir from a crashed build
+			new File(gr.getAutoAnalysisJobsDirectory(), ".building_22597X2/Junk").mkdirs();
+			assertTrue(gr.checkFastq(true));
+			assertEquals(3, gr.getFastqFiles().length);
+			for (File f: gr.getFastqFiles()) assertFalse(f.getName().startsWith("22597X1_"));
+			assertEquals(0, gr.getNumberSamplesWaiting());
+			assertTrue(gr.createAutoAnalysisJobs(linkDir, 2));
+			assertFalse(gr.isReleasing());
+			assertEquals(3, linkDir.list().length);
+			for (String name: gr.getAutoAnalysisJobsDirectory().list()) assertFalse(name.startsWith(".building_"));
+			assertFalse(new File(gr.getAutoAnalysisJobsDirectory(), "22597X2/Junk").exists());
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	private static GNomExRequest request(File root) {
+		GNomExRequest gr = new GNomExRequest(new String[] {"22597R1", "2024-01-02", "client@hci.local", "Lab", "Pi", "Human", "hg38", "TruSeq", ""});
+		gr.setRequestDirectory(new File(root, "22597R"));
+		gr.setWorkflowPaths("/uufs/workflows/rnaseq");
+		return gr;
+	}
+
+	private static File fastq(File root, String subDir, String name, long modified) throws Exception {
+		File f = new File(root, "22597R/Fastq/"+subDir+name);
+		f.getParentFile().mkdirs();
+		Util.writeString("@r\nACGT\n+\nIIII\n", f);
+		f.setLastModified(modified);
+		return f;
+	}
+
+	/*Polls the Jobs and link dirs, records any final name job without a RUNME.*/
+	private static Thread watch(final File root, final File linkDir, final AtomicBoolean building, final ArrayList<String> halfBuilt) {
+		Thread t = new Thread() {
+			public void run() {
+				while (building.get()) {
+					File[] aa = Util.extractFilesPrefix(new File(root, "22597R"), "AutoAnalysis_");
+					ArrayList<File> seen = new ArrayList<File>();
+					if (aa.length != 0 && new File(aa[0], "Jobs").exists()) for (File f: new File(aa[0], "Jobs").listFiles()) seen.add(f);
+					for (File f: linkDir.listFiles()) seen.add(f);
+					for (File f: seen) {
+						if (f.getName().startsWith(".")) continue;
+						if (new File(f, "RUNME").exists() == false && f.exists()) halfBuilt.add(f.toString());
+					}
+				}
+			}
+		};
+		t.start();
+		return t;
+	}
+}
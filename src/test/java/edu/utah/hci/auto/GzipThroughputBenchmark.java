@@ -0,0 +1,73 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**Compares the inflate throughput of a default GZIPInputStream against ParallelGzipInputStream.
+ * 
+ * java -cp target/classes:target/test-classes edu.utah.hci.auto.GzipThroughputBenchmark x.fastq.gz y.fastq.gz
+ * java -cp target/classes:target/test-classes edu.utah.hci.auto.GzipThroughputBenchmark -make 2000 /scratch/dir
+ *   writes a ~2000MB uncompressed fastq as both standard gzip and BGZF into the dir.*/
+public class GzipThroughputBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			Log.info("Provide fastq.gz files to benchmark or -make MBs dir");
+			System.exit(0);
+		}
+		if (args[0].equals("-make")) {
+			make(Integer.parseInt(args[1]), new File(args[2]));
+			return;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		Log.info("Available processors "+threads);
+		for (String a: args) {
+			File f = new File(a);
+			Log.info("\n"+f.getName()+"\t"+(f.length()/1024/1024)+" MB compressed, BGZF "+ParallelGzipInputStream.isBlockGzipped(f));
+			time("GZIPInputStream default buffers", new GZIPInputStream(new FileInputStream(f)));
+			time("ParallelGzipInputStream 1 thread", new ParallelGzipInputStream(f, 1));
+			time("ParallelGzipInputStream "+threads+" threads", new ParallelGzipInputStream(f, threads));
+		}
+	}
+
+	private static void time(String name, InputStream in) throws IOException {
+		long start = System.nanoTime();
+		byte[] buffer = new byte[64 * 1024];
+		long total = 0;
+		long newLines = 0;
+		int n;
+		//count new lines so there is some per byte work like a fastq parser
+		while ((n = in.read(buffer)) != -1) {
+			total += n;
+			for (int i=0; i< n; i++) if (buffer[i] == '\n') newLines++;
+		}
+		in.close();
+		double sec = (System.nanoTime() - start) / 1000000000.0;
+		double mb = total / 1024.0 / 1024.0;
+		Log.info("\t"+name+"\t"+Math.round(mb)+" MB inflated\t"+newLines+" lines\t"+String.format("%.2f", sec)+" sec\t"+Math.round(mb/sec)+" MB/s");
+	}
+
+	private static void make(int megaBytes, File dir) throws IOException {
+		File gz = new File(dir, "benchmark.fastq.gz");
+		File bgzf = new File(dir, "benchmark.bgzf.fastq.gz");
+		OutputStream gzOut = new GZIPOutputStream(new FileOutputStream(gz), 64 * 1024);
+		OutputStream bgzfOut = new FileOutputStream(bgzf);
+		long written = 0;
+		int chunk = 0;
+		while (written < (long)megaBytes * 1024 * 1024) {
+			byte[] fastq = ParallelGzipInputStreamTest.makeFastq(10000 + (chunk++ % 7));
+			gzOut.write(fastq);
+			BgzfWriter.write(fastq, bgzfOut);
+			written += fastq.length;
+		}
+		gzOut.close();
+		bgzfOut.close();
+		Log.info("Wrote "+gz+" and "+bgzf);
+	}
+}
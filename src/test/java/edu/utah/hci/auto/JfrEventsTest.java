@@ -0,0 +1,76 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**Records with the ConfigNotes profile and reads the custom events back.*/
+public class JfrEventsTest {
+
+	@Test
+	public void recordsWithTheProfile() throws Exception {
+		File dir = Files.createTempDirectory("jfrEvents").toFile();
+		try {
+			File source = new File(dir, "source.txt");
+			Util.writeString("0123456789", source);
+			File jfr = new File(dir, "test.jfr");
+
+			Configuration c = Configuration.create(Paths.get("ConfigNotes", "autoAnalysis.jfc"));
+			Recording r = new Recording(c);
+			//the profile skips copies under 1 ms
+			r.enable("edu.utah.hci.auto.FileCopy").withoutThreshold();
+			r.start();
+			new CommandRunner(0, false, null, new String[] {"echo", "hello"});
+			Util.copyViaFileChannel(source, new File(dir, "copy.txt"));
+			JfrEvents.commitPhase(JfrEvents.beginPhase("chpc", "Returns"), true);
+			r.stop();
+			r.dump(jfr.toPath());
+			r.close();
+
+			HashMap<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+			List<RecordedEvent> all = RecordingFile.readAllEvents(jfr.toPath());
+			for (RecordedEvent e: all) if (e.getEventType().getName().startsWith("edu.utah.hci.auto.")) events.put(e.getEventType().getName(), e);
+
+			RecordedEvent command = events.get("edu.utah.hci.auto.Command");
+			assertEquals("echo", command.getString("kind"));
+			assertEquals("local", command.getString("host"));
+			assertEquals(0, command.getInt("exitCode"));
+			assertEquals(1, command.getInt("attempt"));
+			assertEquals(6, command.getLong("outputBytes"));
+			RecordedEvent copy = events.get("edu.utah.hci.auto.FileCopy");
+			assertEquals(10, copy.getLong("bytes"));
+			assertTrue(copy.getBoolean("succeeded"));
+			RecordedEvent phase = events.get("edu.utah.hci.auto.CyclePhase");
+			assertEquals("Returns", phase.getString("phase"));
+			assertTrue(phase.getBoolean("busy"));
+		} finally {
+			Util.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void describesCommands() {
+		JfrEvents.Command e = new JfrEvents.Command();
+		JfrEvents.describe(e, "rsync -rt --size-only /scratch/jobs/22597X4/ u0028003@hci-deb01.hci.utah.edu:/links/22597X4/");
+		assertEquals("rsync", e.kind);
+		assertEquals("hci-deb01.hci.utah.edu", e.host);
+		JfrEvents.describe(e, "cat /tmp/toDelete.txt | ssh -q u0028003@hci-deb01 /bin/bash");
+		assertEquals("ssh", e.kind);
+		assertEquals("hci-deb01", e.host);
+		JfrEvents.describe(e, "set -e\ncd /scratch/jobs/22597X4\nsbatch --nice=10000 -J 22597X4_AutoAnalysis x.sh\ntouch QUEUED\n");
+		assertEquals("sbatch", e.kind);
+		assertEquals("local", e.host);
+	}
+}
@@ -0,0 +1,76 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+/**Compares cleaning synthetic requests in process against forking the USeq JobCleaner per request, as the daemon used to,
+ * then checks both left the same trees. Without the USeq jar only the in process time is reported.
+ * 
+ * java -cp target/classes:target/test-classes edu.utah.hci.auto.JobCleanerBenchmark numberRequests jobsPerRequest /scratch/dir [/path/to/USeq/Apps/JobCleaner]*/
+public class JobCleanerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int numberRequests = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int jobsPerRequest = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+		File scratch = args.length > 2 ? new File(args[2]) : new File(System.getProperty("java.io.tmpdir"));
+		File useq = args.length > 3 ? new File(args[3]) : null;
+		File root = Files.createTempDirectory(scratch.toPath(), "jobCleanerBenchmark").toFile();
+		Log.info("Available processors "+Runtime.getRuntime().availableProcessors()+", "+numberRequests+" requests of "+jobsPerRequest+" jobs");
+		try {
+			//forked, one USeq jvm per request
+			File forked = new File(root, "Forked");
+			if (useq != null) {
+				make(forked, numberRequests, jobsPerRequest);
+				long start = System.nanoTime();
+				for (File request: Util.extractOnlyDirectories(forked)) JobCleanerTest.runUseq(useq, request);
+				report("Forked USeq JobCleaner per request", start);
+			}
+			else Log.info("\tNo USeq JobCleaner given, skipping the forked baseline");
+
+			//in process, as the daemon runs it
+			File inProcess = new File(root, "InProcess");
+			make(inProcess, numberRequests, jobsPerRequest);
+			JobCleaner jc = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, JobCleaner.DEFAULT_THREADS);
+			jc.setDeleteMacOSXFiles(true);
+			long start = System.nanoTime();
+			for (File request: Util.extractOnlyDirectories(inProcess)) {
+				ArrayList<String> errors = jc.clean(request);
+				if (errors.size() != 0) throw new Exception(Util.arrayListToString(errors, "\n"));
+			}
+			report("In process", start);
+			jc.shutdown();
+
+			if (useq != null) {
+				if (JobCleanerTest.snapshot(forked).equals(JobCleanerTest.snapshot(inProcess)) == false) throw new Exception("The USeq and in process JobCleaners left different trees, see "+root);
+				Log.info("\tBoth left the same files and zip entries");
+			}
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	private static void report(String name, long start) {
+		double sec = (System.nanoTime() - start) / 1000000000.0;
+		Log.info("\t"+name+"\t"+String.format("%.2f", sec)+" sec");
+	}
+
+	/*Each job gets a COMPLETE, a .DS_Store, a few indexes, and Logs and RunScripts dirs of small files.*/
+	private static void make(File dir, int numberRequests, int jobsPerRequest) throws Exception {
+		StringBuilder log = new StringBuilder();
+		for (int i=0; i< 200; i++) log.append("rule align: sample completed step "+i+"\n");
+		String logTxt = log.toString();
+		for (int r=0; r< numberRequests; r++) {
+			File request = new File(dir, "Request"+r);
+			for (int j=0; j< jobsPerRequest; j++) {
+				File job = new File(request, "Job"+j);
+				JobCleanerTest.write(new File(job, "COMPLETE"), "");
+				JobCleanerTest.write(new File(job, ".DS_Store"), "finder");
+				JobCleanerTest.write(new File(job, "Alignment/Job"+j+".crai"), "index");
+				JobCleanerTest.write(new File(job, "Vcfs/Job"+j+".vcf.gz.tbi"), "index");
+				for (int k=0; k< 20; k++) JobCleanerTest.write(new File(job, "Logs/step"+k+".log"), logTxt);
+				for (int k=0; k< 5; k++) JobCleanerTest.write(new File(job, "RunScripts/step"+k+".sh"), logTxt);
+			}
+		}
+	}
+}
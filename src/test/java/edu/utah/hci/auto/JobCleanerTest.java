@@ -0,0 +1,161 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**Builds a small job tree and checks the cleaner deletes, zips, and leaves everything else alone.
+ * Set -DuseqJobCleaner=/path/to/USeq/Apps/JobCleaner to also compare it with the USeq tool it replaced.*/
+public class JobCleanerTest {
+
+	@Test
+	public void cleansJobTree() throws Exception {
+		File jobs = Files.createTempDirectory("jobCleaner").toFile();
+		try {
+			File job = new File(jobs, "Sample1");
+			write(new File(job, "COMPLETE"), "");
+			write(new File(job, "Alignment/Sample1.cram"), "cram");
+			write(new File(job, "Alignment/Sample1.crai"), "index");
+			write(new File(job, "Vcfs/Sample1.vcf.gz.tbi"), "index");
+			write(new File(job, "Logs/slurm.out"), "log line\n");
+			write(new File(job, "Logs/Nested/snakemake.log"), "nested\n");
+			write(new File(job, "RunScripts/run.sh"), "#!/bin/bash\n");
+
+			JobCleaner jc = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 2);
+			ArrayList<String> errors = jc.clean(jobs);
+			jc.shutdown();
+			assertEquals(0, errors.size());
+			assertEquals(3, jc.getNumberFilesDeleted());
+			assertEquals(2, jc.getNumberDirectoriesZipped());
+
+			assertFalse(new File(job, "COMPLETE").exists());
+			assertFalse(new File(job, "Alignment/Sample1.crai").exists());
+			assertFalse(new File(job, "Vcfs/Sample1.vcf.gz.tbi").exists());
+			assertTrue(new File(job, "Alignment/Sample1.cram").exists());
+			assertFalse(new File(job, "Logs").exists());
+			assertFalse(new File(job, "RunScripts").exists());
+			assertFalse(new File(job, ".Logs.zip.tmp").exists());
+
+			TreeSet<String> entries = zipEntries(new File(job, "Logs.zip"));
+			assertTrue(entries.contains("Logs/slurm.out"));
+			assertTrue(entries.contains("Logs/Nested/snakemake.log"));
+			assertTrue(zipEntries(new File(job, "RunScripts.zip")).contains("RunScripts/run.sh"));
+		} finally {
+			Util.deleteDirectory(jobs);
+		}
+	}
+
+	@Test
+	public void macOSXFilesOnlyWithFlag() throws Exception {
+		File jobs = Files.createTempDirectory("jobCleaner").toFile();
+		try {
+			write(new File(jobs, "Sample1/.DS_Store"), "finder");
+			write(new File(jobs, "Sample1/Alignment/._Sample1.cram"), "resource fork");
+			write(new File(jobs, "Sample1/Alignment/Sample1.cram"), "cram");
+			JobCleaner jc = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 1);
+			assertEquals(0, jc.clean(jobs).size());
+			assertTrue(new File(jobs, "Sample1/.DS_Store").exists());
+			jc.setDeleteMacOSXFiles(true);
+			assertEquals(0, jc.clean(jobs).size());
+			jc.shutdown();
+			assertFalse(new File(jobs, "Sample1/.DS_Store").exists());
+			assertFalse(new File(jobs, "Sample1/Alignment/._Sample1.cram").exists());
+			assertTrue(new File(jobs, "Sample1/Alignment/Sample1.cram").exists());
+		} finally {
+			Util.deleteDirectory(jobs);
+		}
+	}
+
+	@Test
+	public void matchesUseqJobCleaner() throws Exception {
+		String useq = System.getProperty("useqJobCleaner");
+		Assume.assumeTrue(useq != null);
+		File root = Files.createTempDirectory("jobCleaner").toFile();
+		try {
+			File forked = new File(root, "Useq");
+			File inProcess = new File(root, "InProcess");
+			for (File d: new File[] {forked, inProcess}) {
+				File job = new File(d, "Sample1");
+				write(new File(job, "COMPLETE"), "");
+				write(new File(job, ".DS_Store"), "finder");
+				write(new File(job, "Alignment/Sample1.cram"), "cram");
+				write(new File(job, "Alignment/Sample1.crai"), "index");
+				write(new File(job, "Alignment/Sample1.bam.bai"), "index");
+				write(new File(job, "Vcfs/Sample1.vcf.gz.tbi"), "index");
+				write(new File(job, "Vcfs/Sample1.vcf.gz"), "vcf");
+				write(new File(job, "Logs/slurm.out"), "log line\n");
+				write(new File(job, "Logs/Nested/snakemake.log"), "nested\n");
+				write(new File(job, "RunScripts/run.sh"), "#!/bin/bash\n");
+			}
+			runUseq(new File(useq), forked);
+			JobCleaner jc = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 2);
+			jc.setDeleteMacOSXFiles(true);
+			assertEquals(0, jc.clean(inProcess).size());
+			jc.shutdown();
+			assertEquals(snapshot(forked), snapshot(inProcess));
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void reportsMissingDirectory() {
+		JobCleaner jc = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 1);
+		assertEquals(1, jc.clean(new File("/no/such/jobs/dir")).size());
+		jc.shutdown();
+	}
+
+	static void write(File f, String txt) throws IOException {
+		f.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(f);
+		out.write(txt.getBytes("UTF-8"));
+		out.close();
+	}
+
+	/**Runs the USeq JobCleaner jar with the options the daemon used to fork it with.*/
+	static void runUseq(File useqJobCleaner, File jobsDir) throws Exception {
+		String java = new File(System.getProperty("java.home"), "bin/java").getCanonicalPath();
+		ProcessBuilder pb = new ProcessBuilder(java, "-jar", "-Xmx5G", useqJobCleaner.getCanonicalPath(), "-n", "Logs,RunScripts", "-m",
+				"-r", jobsDir.getCanonicalPath(), "-e", "COMPLETE,.tbi,.crai,.bai");
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(new File("/dev/null"));
+		if (pb.start().waitFor() != 0) throw new Exception("The USeq JobCleaner failed on "+jobsDir);
+	}
+
+	/**The relative paths of everything left in the tree, zips are listed by their entries so the timestamps inside don't matter.*/
+	static TreeSet<String> snapshot(File root) throws IOException {
+		TreeSet<String> paths = new TreeSet<String>();
+		String prefix = root.getCanonicalPath()+"/";
+		for (File f: Util.fetchFilesRecursively(root, "")) {
+			String rel = f.getCanonicalPath().substring(prefix.length());
+			if (rel.endsWith(".zip")) for (String entry: zipEntries(f)) paths.add(rel+"!"+entry);
+			else paths.add(rel);
+		}
+		return paths;
+	}
+
+	private static TreeSet<String> zipEntries(File zip) throws IOException {
+		TreeSet<String> names = new TreeSet<String>();
+		ZipFile zf = new ZipFile(zip);
+		try {
+			Enumeration<? extends ZipEntry> e = zf.entries();
+			while (e.hasMoreElements()) names.add(e.nextElement().getName());
+		} finally {
+			zf.close();
+		}
+		return names;
+	}
+}
@@ -0,0 +1,49 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**Per job attempt counts, quarantine files, and telling a bad job from a batch where nothing worked.*/
+public class JobFailuresTest {
+
+	@Test
+	public void quarantinesAfterMaxAttempts() throws Exception {
+		JobFailures jf = new JobFailures(3);
+		assertEquals(1, jf.fail("22597X1"));
+		assertEquals(2, jf.fail("22597X1"));
+		assertEquals(1, jf.fail("22597X2"));
+		jf.succeeded("22597X2");
+		assertEquals(1, jf.size());
+		assertEquals(3, jf.fail("22597X1"));
+		assertEquals(0, jf.size());
+
+		File root = Files.createTempDirectory("jobFailures").toFile();
+		try {
+			File job = new File(root, "22597X1");
+			assertFalse(JobFailures.isQuarantined(job));
+			JobFailures.quarantine(job, "copying from HCI to CHPC");
+			assertTrue(JobFailures.isQuarantined(job));
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void allFailed() {
+		CommandRunner ok = new CommandRunner(0, false, null, new String[] {"true"});
+		CommandRunner bad = new CommandRunner(0, false, null, new String[] {"false"});
+		assertTrue(JobFailures.completed(ok));
+		assertFalse(JobFailures.completed(bad));
+		assertFalse(JobFailures.completed(null));
+		assertFalse(JobFailures.allFailed(new CommandRunner[] {ok, bad}));
+		assertTrue(JobFailures.allFailed(new CommandRunner[] {bad, null}));
+		assertTrue(JobFailures.allFailed(new CommandRunner[] {bad}));
+		assertFalse(JobFailures.allFailed(new CommandRunner[0]));
+	}
+}
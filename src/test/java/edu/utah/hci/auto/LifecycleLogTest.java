@@ -0,0 +1,84 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+/**Writes both sites' logs, rotates them, and joins them back into stage hours.*/
+public class LifecycleLogTest {
+
+	private static final long HOUR = 60L * 60 * 1000;
+
+	@Test
+	public void logsRotatesAndReports() throws Exception {
+		File dir = Files.createTempDirectory("lifecycleLog").toFile();
+		try {
+			long t = 1706634131394L;
+			File gnomex = new File(dir, "gnomex.jsonl");
+			LifecycleLog.open(gnomex, "gnomex", 1024 * 1024, 3);
+			LifecycleLog.event(LifecycleLog.CREATED, "100R", "100X1", t);
+			LifecycleLog.event(LifecycleLog.CREATED, "100R", "100X2", t);
+			LifecycleLog.event(LifecycleLog.ALL_RETURNED, "100R", null, t + 20 * HOUR);
+			LifecycleLog.event(LifecycleLog.MULTIQC, "100R", null, t + 21 * HOUR);
+			LifecycleLog.close();
+
+			//tiny max so every line rotates
+			File chpc = new File(dir, "chpc.jsonl");
+			LifecycleLog.open(chpc, "chpc", 10, 20);
+			for (String job: new String[] {"100X1", "100X2"}) {
+				long offset = job.equals("100X1") ? 0 : 2 * HOUR;
+				LifecycleLog.event(LifecycleLog.DISCOVERED, null, job, t + HOUR);
+				LifecycleLog.event(LifecycleLog.TRANSFERRED, "100R", job, t + 2 * HOUR);
+				LifecycleLog.event(LifecycleLog.SUBMITTED, "100R", job, t + 2 * HOUR);
+				LifecycleLog.event(LifecycleLog.STARTED, "100R", job, t + 4 * HOUR + offset);
+				LifecycleLog.event(LifecycleLog.COMPLETED, "100R", job, t + 14 * HOUR + offset);
+				LifecycleLog.event(LifecycleLog.RETURNED, "100R", job, t + 16 * HOUR + offset);
+			}
+			//a retried return, the earliest counts
+			LifecycleLog.event(LifecycleLog.RETURNED, "100R", "100X1", t + 19 * HOUR);
+			LifecycleLog.close();
+			assertEquals(0, chpc.length());
+			assertTrue(new File(dir, "chpc.jsonl.13").exists());
+			assertTrue(new File(dir, "chpc.jsonl.14").exists() == false);
+
+			LifecycleReport lr = new LifecycleReport();
+			lr.load(gnomex);
+			for (File f: dir.listFiles()) if (f.getName().startsWith("chpc.jsonl.")) lr.load(f);
+			assertEquals(2, lr.getNumberJobs());
+			assertEquals(hours(1, 1), lr.stageHours(LifecycleReport.STAGES[0], null));
+			assertEquals(hours(2, 4), lr.stageHours(LifecycleReport.STAGES[3], null));
+			assertEquals(hours(10, 10), lr.stageHours(LifecycleReport.STAGES[4], null));
+			assertEquals(hours(4, 2), lr.stageHours(LifecycleReport.STAGES[6], null));
+			assertEquals(hours(21, 21), lr.stageHours(LifecycleReport.STAGES[8], "100R"));
+			assertTrue(lr.summary().contains("Slurm queue\t2\t2.00\t4.00\t4.00\t4.00"));
+		} finally {
+			LifecycleLog.close();
+			Util.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void parsesEscapes() {
+		LinkedHashMap<String, String> kv = LifecycleLog.parse("{\"ms\":12,\"job\":\"a\\\"b\\\\c\\u0001\"}");
+		assertEquals("12", kv.get("ms"));
+		assertEquals("a\"b\\c\u0001", kv.get("job"));
+		ArrayList<Double> sorted = hours(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+		Collections.sort(sorted);
+		assertEquals(5.0, LifecycleReport.percentile(sorted, 50), 0);
+		assertEquals(9.0, LifecycleReport.percentile(sorted, 90), 0);
+		assertEquals(10.0, LifecycleReport.percentile(sorted, 99), 0);
+	}
+
+	private static ArrayList<Double> hours(double... h) {
+		ArrayList<Double> al = new ArrayList<Double>();
+		for (double d: h) al.add(d);
+		return al;
+	}
+}
@@ -0,0 +1,109 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**Levels, lazy messages, stack traces, rotation, and the drop policy with a stalled stdout.*/
+public class LogTest {
+
+	@Test
+	public void levelsAndRotation() throws Exception {
+		File dir = Files.createTempDirectory("log").toFile();
+		Log.Level priorLevel = Log.getLevel();
+		try {
+			File log = new File(dir, "test.log");
+			Log.toFile(log, 1000, 2);
+			Log.setLevel(Log.Level.INFO);
+			Object expensive = new Object() {
+				public String toString() {
+					throw new RuntimeException("built a debug message that isn't logged");
+				}
+			};
+			Log.debug("skipped ", expensive);
+			Log.info("first");
+			Log.warn("WARNING: ", 2, "nd");
+			//21 bytes each, rotates every 48 lines
+			for (int i=0; i< 100; i++) Log.info(String.format("line %015d", i));
+			Log.flush();
+
+			List<String> lines = Files.readAllLines(new File(dir, "test.log.2").toPath());
+			assertEquals("first", lines.get(0));
+			assertEquals("WARNING: 2nd", lines.get(1));
+			assertEquals("line 000000000000000", lines.get(2));
+			assertTrue(new File(dir, "test.log.1").exists());
+			assertTrue(new File(dir, "test.log.3").exists() == false);
+			lines = Files.readAllLines(log.toPath());
+			assertEquals("line 000000000000099", lines.get(lines.size()-1));
+
+			Log.setLevel(Log.Level.DEBUG);
+			Log.debug("joined ", Log.join(lines.subList(0, 2), ","));
+			Log.flush();
+			lines = Files.readAllLines(log.toPath());
+			assertTrue(lines.get(lines.size()-1).startsWith("joined line 0000000000000"));
+		} finally {
+			Log.toConsole();
+			Log.setLevel(priorLevel);
+			Util.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void stackTracesGoToTheFile() throws Exception {
+		File dir = Files.createTempDirectory("log").toFile();
+		try {
+			File log = new File(dir, "test.log");
+			Log.toFile(log, Log.DEFAULT_MAX_BYTES, 1);
+			Log.error("FATAL: stopped", new IllegalStateException("disk gone"));
+			Log.flush();
+			List<String> lines = Files.readAllLines(log.toPath());
+			assertEquals("FATAL: stopped", lines.get(0));
+			assertEquals("java.lang.IllegalStateException: disk gone", lines.get(1));
+			assertTrue(lines.get(2).startsWith("\tat edu.utah.hci.auto.LogTest.stackTracesGoToTheFile"));
+		} finally {
+			Log.toConsole();
+			Util.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void dropsWhenStalled() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+		long priorDropped = Log.getNumberDropped();
+		Log.flush();
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		}, true));
+		System.setErr(new PrintStream(errBytes, true));
+		try {
+			//the writer blocks on the first, the queue fills, the rest are dropped without waiting
+			long start = System.currentTimeMillis();
+			for (int i=0; i< Log.QUEUE_SIZE + 501; i++) Log.info("x");
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			assertTrue(Log.getNumberDropped() - priorDropped >= 500);
+			release.countDown();
+			Log.flush();
+			assertTrue(errBytes.toString().contains("log messages, the log queue was full"));
+		} finally {
+			release.countDown();
+			System.setOut(out);
+			System.setErr(err);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**Matching fastq to their manifest entries by relative path, and the bounded digest cache.*/
+public class Md5VerifierTest {
+
+	@Test
+	public void matchesByRelativePath() throws Exception {
+		File root = Files.createTempDirectory("md5Verifier").toFile();
+		try {
+			//the same name from two lanes with different contents
+			File one = write(root, "Lane1/22597X1_R1_001.fastq.gz", "lane one\n");
+			File two = write(root, "Lane2/22597X1_R1_001.fastq.gz", "lane two\n");
+			File other = write(root, "Lane2/22597X2_R1_001.fastq.gz", "other\n");
+			String md5One = Md5Verifier.calculateMd5(one);
+			String md5Two = Md5Verifier.calculateMd5(two);
+			String md5Other = Md5Verifier.calculateMd5(other);
+			File[] files = {one, two, other};
+			Md5Verifier mv = new Md5Verifier(2);
+
+			File manifest = new File(root, "md5.txt");
+			Util.writeString(md5One+"  Lane1/22597X1_R1_001.fastq.gz\n"+md5Two+"  ./Lane2/22597X1_R1_001.fastq.gz\n"+md5Other+"  22597X2_R1_001.fastq.gz\n", manifest);
+			ArrayList<String> errors = mv.verify(files, new File[] {manifest});
+			assertEquals(errors.toString(), 0, errors.size());
+
+			//swapped, matching on the name alone would pass one of them
+			Util.writeString(md5Two+"  Lane1/22597X1_R1_001.fastq.gz\n"+md5One+"  Lane2/22597X1_R1_001.fastq.gz\n"+md5Other+"  22597X2_R1_001.fastq.gz\n", manifest);
+			errors = mv.verify(files, new File[] {manifest});
+			assertEquals(2, errors.size());
+			for (String e: errors) assertTrue(e, e.startsWith("md5 mismatch"));
+
+			//a bare name listed twice with different md5s can't be told apart
+			Util.writeString(md5One+"  22597X1_R1_001.fastq.gz\n"+md5Two+"  22597X1_R1_001.fastq.gz\n", manifest);
+			errors = mv.verify(new File[] {one, two}, new File[] {manifest});
+			assertEquals(2, errors.size());
+			assertTrue(errors.get(0).startsWith("Missing md5 entry"));
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void boundsAndPrunesCache() throws Exception {
+		File root = Files.createTempDirectory("md5Verifier").toFile();
+		try {
+			ArrayList<File> files = new ArrayList<File>();
+			for (int i=0; i< 5; i++) files.add(write(root, "f"+i+".txt", "file "+i+"\n"));
+			Md5Verifier mv = new Md5Verifier(2, 3);
+			mv.md5(files);
+			assertEquals(3, mv.getNumberCachedDigests());
+
+			Md5Verifier unbounded = new Md5Verifier(2);
+			unbounded.md5(files);
+			assertEquals(5, unbounded.getNumberCachedDigests());
+			files.get(0).delete();
+			files.get(1).delete();
+			assertEquals(2, unbounded.pruneCache());
+			assertEquals(3, unbounded.getNumberCachedDigests());
+		} finally {
+			Util.deleteDirectory(root);
+		}
+	}
+
+	private static File write(File root, String path, String content) {
+		File f = new File(root, path);
+		f.getParentFile().mkdirs();
+		Util.writeString(content, f);
+		return f;
+	}
+}
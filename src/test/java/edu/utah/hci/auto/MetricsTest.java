@@ -0,0 +1,63 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**Serves the registry on a free port and reads it back with a plain HTTP client.*/
+public class MetricsTest {
+
+	@Test
+	public void servesPrometheusText() throws Exception {
+		Metrics.reset();
+		Metrics.start(0);
+		try {
+			Metrics.add(Metrics.COMMAND_RETRIES, 2, "lane", "TRANSFER");
+			Metrics.set(Metrics.CHPC_JOBS, 3, "state", "queued");
+			Metrics.observe(Metrics.DB_QUERY_DURATION, 0.3);
+			Metrics.observe(Metrics.DB_QUERY_DURATION, 20);
+
+			HttpURLConnection con = (HttpURLConnection) new URL("http://localhost:"+Metrics.getPort()+"/metrics").openConnection();
+			assertEquals(200, con.getResponseCode());
+			assertTrue(con.getContentType().startsWith("text/plain; version=0.0.4"));
+			ArrayList<String> lines = new ArrayList<String>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) lines.add(line);
+			in.close();
+
+			assertTrue(lines.contains("# TYPE autoanalysis_command_retries_total counter"));
+			assertTrue(lines.contains("autoanalysis_command_retries_total{lane=\"TRANSFER\"} 2"));
+			assertTrue(lines.contains("autoanalysis_chpc_jobs{state=\"queued\"} 3"));
+			assertTrue(lines.contains("# TYPE autoanalysis_db_query_duration_seconds histogram"));
+			assertTrue(lines.contains("autoanalysis_db_query_duration_seconds_bucket{le=\"0.1\"} 0"));
+			assertTrue(lines.contains("autoanalysis_db_query_duration_seconds_bucket{le=\"0.5\"} 1"));
+			assertTrue(lines.contains("autoanalysis_db_query_duration_seconds_bucket{le=\"60\"} 2"));
+			assertTrue(lines.contains("autoanalysis_db_query_duration_seconds_bucket{le=\"+Inf\"} 2"));
+			assertTrue(lines.contains("autoanalysis_db_query_duration_seconds_sum 20.3"));
+			assertTrue(lines.contains("autoanalysis_db_query_duration_seconds_count 2"));
+			//nothing recorded, nothing served
+			for (String l: lines) assertTrue(l.contains(Metrics.TRANSFER_BYTES) == false);
+		} finally {
+			Metrics.stop();
+		}
+	}
+
+	@Test
+	public void clearDropsOldStates() {
+		Metrics.reset();
+		Metrics.set(Metrics.SLURM_JOBS, 4, "state", "PD");
+		Metrics.clear(Metrics.SLURM_JOBS);
+		Metrics.set(Metrics.SLURM_JOBS, 1, "state", "R");
+		String text = Metrics.render();
+		assertTrue(text.contains("autoanalysis_slurm_jobs{state=\"R\"} 1\n"));
+		assertTrue(text.contains("PD") == false);
+	}
+}
@@ -0,0 +1,73 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**Runs the pool against a bash stand in for the MultiQC container, any args containing 'fail' return exit code 1.*/
+public class MultiQCWorkerPoolTest {
+
+	private static final String[] STAND_IN = new String[] {"bash", "-c",
+			"while IFS= read -r l; do echo \"pid $$ $l\"; if [[ $l == *fail* ]]; then printf '"+MultiQCWorker.DONE+"\\t1\\n'; "+
+			"else printf '"+MultiQCWorker.DONE+"\\t0\\n'; fi; done"};
+
+	@Test
+	public void reusesWarmWorkers() throws Exception {
+		MultiQCWorkerPool pool = new MultiQCWorkerPool(STAND_IN, 1, 10);
+		try {
+			String firstPid = null;
+			for (int i=0; i< 5; i++) {
+				ArrayList<String> output = new ArrayList<String>();
+				assertEquals(0, pool.run(new String[] {"--title", "R"+i, "/jobs"}, output));
+				assertEquals(1, output.size());
+				assertTrue(output.get(0).endsWith("--title\tR"+i+"\t/jobs"));
+				String pid = output.get(0).split(" ")[1];
+				if (firstPid == null) firstPid = pid;
+				assertEquals(firstPid, pid);
+			}
+			assertEquals(1, pool.getNumberWorkersStarted());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void recyclesAfterMaxRuns() throws Exception {
+		MultiQCWorkerPool pool = new MultiQCWorkerPool(STAND_IN, 1, 2);
+		try {
+			for (int i=0; i< 5; i++) assertEquals(0, pool.run(new String[] {"ok"}, new ArrayList<String>()));
+			assertEquals(3, pool.getNumberWorkersStarted());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void recyclesAfterFailure() throws Exception {
+		MultiQCWorkerPool pool = new MultiQCWorkerPool(STAND_IN, 1, 10);
+		try {
+			assertEquals(0, pool.run(new String[] {"ok"}, new ArrayList<String>()));
+			assertEquals(1, pool.run(new String[] {"fail"}, new ArrayList<String>()));
+			assertEquals(0, pool.run(new String[] {"ok"}, new ArrayList<String>()));
+			assertEquals(2, pool.getNumberWorkersStarted());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void reportsDeadWorkers() throws Exception {
+		MultiQCWorkerPool pool = new MultiQCWorkerPool(new String[] {"bash", "-c", "read -r l; exit 3"}, 2, 10);
+		try {
+			ArrayList<String> output = new ArrayList<String>();
+			assertEquals(-1, pool.run(new String[] {"ok"}, output));
+			assertEquals(-1, pool.run(new String[] {"ok"}, output));
+			assertEquals(2, pool.getNumberWorkersStarted());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.List;
+
+import org.junit.Test;
+
+/**Delivers to a stand in SMTP server, checks repeat suppression and digests.*/
+public class NotifierTest {
+
+	@Test
+	public void smtpClientDelivers() throws Exception {
+		FakeSmtpServer fake = new FakeSmtpServer();
+		try {
+			SmtpClient c = new SmtpClient("localhost", fake.getPort());
+			c.send("auto@hci.utah.edu", "a@hci.utah.edu, b@hci.utah.edu", "Test", "line one\n.dotted\n.");
+			assertEquals("a@hci.utah.edu", fake.getRecipients().get(0));
+			assertEquals("b@hci.utah.edu", fake.getRecipients().get(1));
+			String m = fake.getMessages().get(0);
+			assertTrue(m.contains("Subject: Test\n"));
+			assertTrue(m.endsWith("\nline one\n.dotted\n.\n"));
+		} finally {
+			fake.close();
+		}
+	}
+
+	@Test
+	public void suppressesRepeatsAndDigests() throws Exception {
+		FakeSmtpServer fake = new FakeSmtpServer();
+		try {
+			Notifier n = new Notifier(new SmtpClient("localhost", fake.getPort()), "auto@hci.utah.edu", Notifier.DEFAULT_REPEAT_WINDOW, Notifier.DEFAULT_DIGEST_INTERVAL);
+			assertTrue(n.alert("admin@hci.utah.edu", "ERROR", "Job 1X1 FAILED"));
+			assertTrue(n.alert("admin@hci.utah.edu", "ERROR", "Job 2X1 FAILED"));
+			assertFalse(n.alert("admin@hci.utah.edu", "ERROR", "Job 1X1 FAILED"));
+			n.send("admin@hci.utah.edu", "Alive", "still running");
+			//the digest isn't due for 10 min, shutdown sends it
+			n.shutdown(10000);
+
+			assertEquals(2, n.getNumberSent());
+			assertEquals(1, n.getNumberSuppressed());
+			assertEquals(0, n.getNumberFailed());
+			List<String> messages = fake.getMessages();
+			assertTrue(messages.get(0).endsWith("\nstill running\n"));
+			assertTrue(messages.get(1).endsWith("\nJob 1X1 FAILED\nJob 2X1 FAILED\n\n(1 repeated alerts suppressed)\n"));
+		} finally {
+			fake.close();
+		}
+	}
+
+	@Test
+	public void countsFailures() throws Exception {
+		ServerSocket closed = new ServerSocket(0);
+		int port = closed.getLocalPort();
+		closed.close();
+		Notifier n = new Notifier(new SmtpClient("localhost", port), "auto@hci.utah.edu", 1000, 0);
+		n.setRetryWait(1);
+		n.send("admin@hci.utah.edu", "Alive", "still running");
+		n.shutdown(10000);
+		assertEquals(0, n.getNumberSent());
+		assertEquals(1, n.getNumberFailed());
+	}
+}
@@ -0,0 +1,146 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**Checks both the BGZF parallel path and the single stream path inflate to the original bytes.*/
+public class ParallelGzipInputStreamTest {
+
+	@Test
+	public void inflatesBlockGzippedFiles() throws Exception {
+		byte[] original = makeFastq(20000);
+		File gz = File.createTempFile("bgzf", ".fastq.gz");
+		gz.deleteOnExit();
+		OutputStream out = new FileOutputStream(gz);
+		BgzfWriter.write(original, out);
+		out.close();
+
+		assertTrue(ParallelGzipInputStream.isBlockGzipped(gz));
+		ParallelGzipInputStream in = new ParallelGzipInputStream(gz, 3);
+		assertTrue(in.isBlockGzipped());
+		assertArrayEquals(original, readAll(in));
+	}
+
+	@Test
+	public void inflatesMultiMemberFiles() throws Exception {
+		byte[] first = makeFastq(5000);
+		byte[] second = makeFastq(7000);
+		File gz = File.createTempFile("multi", ".fastq.gz");
+		gz.deleteOnExit();
+		OutputStream out = new FileOutputStream(gz);
+		for (byte[] member: new byte[][] {first, second}) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			GZIPOutputStream gzOut = new GZIPOutputStream(bytes);
+			gzOut.write(member);
+			gzOut.close();
+			out.write(bytes.toByteArray());
+		}
+		out.close();
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(first);
+		expected.write(second);
+		ParallelGzipInputStream in = new ParallelGzipInputStream(gz, 3);
+		assertFalse(in.isBlockGzipped());
+		assertArrayEquals(expected.toByteArray(), readAll(in));
+	}
+
+	@Test
+	public void readsLinesThroughUtil() throws Exception {
+		File gz = File.createTempFile("lines", ".txt.gz");
+		gz.deleteOnExit();
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+		out.write("a\tb\n#comment\nc\td\n".getBytes("US-ASCII"));
+		out.close();
+		BufferedReader br = Util.fetchBufferedReader(gz);
+		assertTrue(br.readLine().equals("a\tb"));
+		br.close();
+		assertTrue(Util.loadFileIntoHash(gz, 0, 1).get("c").equals("d"));
+	}
+
+	@Test
+	public void closeMidFileStopsReadAhead() throws Exception {
+		File gz = File.createTempFile("closed", ".fastq.gz");
+		gz.deleteOnExit();
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+		byte[] fastq = makeFastq(20000);
+		//well past the read ahead so the worker blocks on a full queue
+		for (int i=0; i< 4; i++) out.write(fastq);
+		out.close();
+		int before = ParallelGzipInputStream.getNumberActiveReadAheads();
+
+		ParallelGzipInputStream in = new ParallelGzipInputStream(gz, 1);
+		byte[] head = new byte[1000];
+		assertEquals(1000, in.read(head));
+		in.close();
+		assertEquals(before, ParallelGzipInputStream.getNumberActiveReadAheads());
+
+		//closed before reading
+		in = new ParallelGzipInputStream(gz, 1);
+		in.close();
+		assertEquals(before, ParallelGzipInputStream.getNumberActiveReadAheads());
+
+		//dropped without a close, the worker exits once the stream is collected
+		in = new ParallelGzipInputStream(gz, 1);
+		assertEquals(1000, in.read(head));
+		in = null;
+		for (int i=0; i< 30 && ParallelGzipInputStream.getNumberActiveReadAheads() != before; i++) {
+			System.gc();
+			Thread.sleep(500);
+		}
+		assertEquals(before, ParallelGzipInputStream.getNumberActiveReadAheads());
+	}
+
+	@Test
+	public void closeMidFileBlockGzipped() throws Exception {
+		File gz = File.createTempFile("closedBgzf", ".fastq.gz");
+		gz.deleteOnExit();
+		OutputStream out = new FileOutputStream(gz);
+		BgzfWriter.write(makeFastq(20000), out);
+		out.close();
+		ParallelGzipInputStream in = new ParallelGzipInputStream(gz, 2);
+		assertEquals(1000, in.read(new byte[1000]));
+		in.close();
+		//a new stream on the shared pool still works
+		in = new ParallelGzipInputStream(gz, 2);
+		assertArrayEquals(makeFastq(20000), readAll(in));
+	}
+
+	static byte[] makeFastq(int numReads) throws IOException {
+		Random r = new Random(numReads);
+		String bases = "ACGT";
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i< numReads; i++) {
+			int len = 50 + r.nextInt(100);
+			sb.append("@read").append(i).append('\n');
+			for (int j=0; j< len; j++) sb.append(bases.charAt(r.nextInt(4)));
+			sb.append("\n+\n");
+			for (int j=0; j< len; j++) sb.append('I');
+			sb.append('\n');
+		}
+		return sb.toString().getBytes("US-ASCII");
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7919];
+		int n;
+		while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+		in.close();
+		return out.toByteArray();
+	}
+}
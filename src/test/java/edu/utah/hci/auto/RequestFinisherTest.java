@@ -0,0 +1,134 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**Finishing a request on a bash stand in for the warm MultiQC worker, see MultiQCWorkerPoolTest, with the client emails recorded not sent.*/
+public class RequestFinisherTest {
+
+	private static final String[] STAND_IN = new String[] {"bash", "-c",
+			"while IFS= read -r l; do echo \"$l\"; printf '"+MultiQCWorker.DONE+"\\t0\\n'; done"};
+
+	@Test
+	public void emailsClientWhenCleanerFails() throws Exception {
+		File root = Files.createTempDirectory("requestFinisher").toFile();
+		MultiQCWorkerPool pool = new MultiQCWorkerPool(STAND_IN, 1, 10);
+		try {
+			final ArrayList<String> emailed = new ArrayList<String>();
+			GNomExAutoAnalysis gaa = recordingDaemon(emailed);
+			JobCleaner failing = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 1) {
+				public ArrayList<String> clean(File rootDirectory) {
+					ArrayList<String> errors = new ArrayList<String>();
+					errors.add("ERROR: failed to delete "+rootDirectory+"/22597X1/x.bai");
+					return errors;
+				}
+			};
+			RequestFinisher rf = new RequestFinisher(request(root), "", failing, pool, 0, false, gaa);
+			rf.run();
+			failing.shutdown();
+			assertTrue(rf.isFailed());
+			assertTrue(rf.getErrorMessage().contains("the client was emailed"));
+			assertEquals(1, emailed.size());
+			assertEquals("22597R", emailed.get(0));
+
+			//a working cleaner, emailed once
+			emailed.clear();
+			JobCleaner cleaner = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 1);
+			rf = new RequestFinisher(request(root), "", cleaner, pool, 0, false, gaa);
+			rf.run();
+			cleaner.shutdown();
+			assertFalse(rf.getErrorMessage(), rf.isFailed());
+			assertEquals(1, emailed.size());
+			assertFalse(new File(root, "22597R/AutoAnalysis_02Jan2024/Jobs/22597X1/COMPLETE").exists());
+		} finally {
+			pool.shutdown();
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void noEmailWhenMultiQCFails() throws Exception {
+		File root = Files.createTempDirectory("requestFinisher").toFile();
+		MultiQCWorkerPool pool = new MultiQCWorkerPool(new String[] {"bash", "-c", "read -r l; exit 3"}, 1, 10);
+		try {
+			ArrayList<String> emailed = new ArrayList<String>();
+			JobCleaner cleaner = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 1);
+			RequestFinisher rf = new RequestFinisher(request(root), "", cleaner, pool, 0, false, recordingDaemon(emailed));
+			rf.run();
+			cleaner.shutdown();
+			assertTrue(rf.isFailed());
+			assertEquals(0, emailed.size());
+			assertTrue(new File(root, "22597R/AutoAnalysis_02Jan2024/Jobs/22597X1/COMPLETE").exists());
+		} finally {
+			pool.shutdown();
+			Util.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void warmOptionsMatchTheShell() throws Exception {
+		String options = "--cl-config \"title: 'Lab \\\"A\\\" report'\" -e fastqc --comment 'two  words' --ignore=\\*_trimmed -f";
+		//what the cold docker run's bash hands to multiqc
+		String[] cold = Util.executeCommandLine(new String[] {"bash", "-c", "printf '%s\\n' "+options});
+
+		File root = Files.createTempDirectory("requestFinisher").toFile();
+		//what the warm worker is sent, saved to a file
+		File args = new File(root, "args.txt");
+		MultiQCWorkerPool pool = new MultiQCWorkerPool(new String[] {"bash", "-c",
+				"while IFS= read -r l; do printf '%s\\n' \"$l\" >> "+args.getCanonicalPath()+"; printf '"+MultiQCWorker.DONE+"\\t0\\n'; done"}, 1, 10);
+		try {
+			ArrayList<String> emailed = new ArrayList<String>();
+			JobCleaner cleaner = new JobCleaner(JobCleaner.DEFAULT_FILE_ENDINGS, JobCleaner.DEFAULT_DIRS_TO_ZIP, 1);
+			RequestFinisher rf = new RequestFinisher(request(root), options, cleaner, pool, 0, false, recordingDaemon(emailed));
+			rf.run();
+			assertFalse(rf.getErrorMessage(), rf.isFailed());
+			assertEquals(8, cold.length);
+			assertEquals("title: 'Lab \"A\" report'", cold[1]);
+			assertEquals("two  words", cold[5]);
+			assertEquals("--ignore=*_trimmed", cold[6]);
+			String[] warm = Util.TAB.split(Util.loadFile(args)[0]);
+			assertEquals(Arrays.asList(cold), Arrays.asList(warm).subList(0, cold.length));
+			assertEquals("--outdir", warm[cold.length]);
+
+			//expansions only the shell would do are refused rather than passed on literally
+			rf = new RequestFinisher(request(root), "--comment $(whoami)", cleaner, pool, 0, false, recordingDaemon(emailed));
+			rf.run();
+			cleaner.shutdown();
+			assertTrue(rf.isFailed());
+			assertEquals(1, emailed.size());
+		} finally {
+			pool.shutdown();
+			Util.deleteDirectory(root);
+		}
+	}
+
+	/*Records the request ids instead of emailing.*/
+	static GNomExAutoAnalysis recordingDaemon(final ArrayList<String> emailed) {
+		return new GNomExAutoAnalysis() {
+			public void emailClient(GNomExRequest gr) {
+				synchronized (emailed) { emailed.add(gr.getRequestIdCleaned()); }
+			}
+		};
+	}
+
+	/*A request with one completed job.*/
+	static GNomExRequest request(File root) throws Exception {
+		GNomExRequest gr = new GNomExRequest(new String[] {"22597R1", "2024-01-02", "client@hci.local", "Lab", "Pi", "Human", "hg38", "TruSeq", ""});
+		gr.setRequestDirectory(new File(root, "22597R"));
+		File main = new File(root, "22597R/AutoAnalysis_02Jan2024");
+		File job = new File(main, "Jobs/22597X1");
+		job.mkdirs();
+		Util.writeString("", new File(job, "COMPLETE"));
+		gr.setAutoAnalysisMainDirectory(main);
+		gr.setAutoAnalysisJobsDirectory(new File(main, "Jobs"));
+		return gr;
+	}
+}
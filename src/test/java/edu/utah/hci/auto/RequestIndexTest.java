@@ -0,0 +1,72 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**Round trips the index through its file, checks pruning, and that a damaged file is rebuilt instead of trusted.*/
+public class RequestIndexTest {
+
+	@Test
+	public void savesLoadsAndPrunes() throws Exception {
+		File dir = Files.createTempDirectory("requestIndex").toFile();
+		try {
+			File indexFile = new File(dir, "index.txt");
+			File done = new File(dir, "AutoAnalysis_1Jan2024");
+			done.mkdir();
+			File active = new File(dir, "AutoAnalysis_2Jan2024");
+
+			RequestIndex ri = new RequestIndex(indexFile);
+			ri.addFinished("100R", done);
+			ri.addActive("200R", active, new ArrayList<String>(Arrays.asList("200X1", "200X2")), new ArrayList<String>(Arrays.asList("200X2")));
+			ri.addFinished("300R", done);
+			ri.save(false);
+
+			ri = new RequestIndex(indexFile);
+			assertEquals(3, ri.size());
+			assertEquals(done, ri.fetchFinishedDirectory("100R"));
+			RequestIndex.Entry e = ri.get("200R");
+			assertEquals(2, e.getJobs().size());
+			assertEquals(Arrays.asList("200X2"), e.getOutstandingJobs());
+			e.setJobComplete("200X2");
+			//300R wasn't seen this cycle so it is dropped
+			ri.save(true);
+
+			ri = new RequestIndex(indexFile);
+			assertEquals(2, ri.size());
+			assertNull(ri.get("300R"));
+			assertTrue(ri.get("200R").getOutstandingJobs().isEmpty());
+
+			//finished dirs that were removed, e.g. to rerun, are dropped
+			done.delete();
+			assertNull(ri.fetchFinishedDirectory("100R"));
+			assertNull(ri.get("100R"));
+		} finally {
+			Util.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void rebuildsDamagedIndex() throws Exception {
+		File dir = Files.createTempDirectory("requestIndex").toFile();
+		try {
+			File indexFile = new File(dir, "index.txt");
+			Util.writeString("100R\tFINISHED\n", indexFile);
+			RequestIndex ri = new RequestIndex(indexFile);
+			assertEquals(0, ri.size());
+			ri.addFinished("100R", dir);
+			ri.save(true);
+			assertNotNull(new RequestIndex(indexFile).fetchFinishedDirectory("100R"));
+		} finally {
+			Util.deleteDirectory(dir);
+		}
+	}
+}
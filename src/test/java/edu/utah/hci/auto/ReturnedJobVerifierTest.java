@@ -0,0 +1,68 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**Manifests written on the CHPC side and compared with the HCI copies, here a local dir reached through a stand in ssh.*/
+public class ReturnedJobVerifierTest {
+
+	@Test
+	public void leavesOutCorruptedJobs() throws Exception {
+		File root = Files.createTempDirectory("returnedJobVerifier").toFile();
+		CommandLanes lanes = new CommandLanes(1, 1, 1, 0, 0, false);
+		try {
+			File chpc = new File(root, "CHPC");
+			File hci = new File(root, "HCI");
+			File temp = new File(root, "Temp");
+			temp.mkdirs();
+			ArrayList<File> jobs = new ArrayList<File>();
+			for (String name: new String[] {"22597X1", "22597X2"}) {
+				File job = new File(chpc, name);
+				new File(job, "Logs").mkdirs();
+				Util.writeString("ACGTACGTACGT\n", new File(job, name+".bam"));
+				Util.writeString("done\n", new File(job, "Logs/"+name+".log"));
+				//same name in a sub dir, only the relative path tells them apart
+				Util.writeString("other\n", new File(job, "Logs/"+name+".bam"));
+				jobs.add(job);
+			}
+
+			//ignores the host then runs the command locally
+			File ssh = new File(root, "ssh");
+			Util.writeString("#!/bin/bash\nshift\nbash -c \"$*\"\n", ssh);
+			ssh.setExecutable(true);
+
+			ReturnedJobVerifier verifier = new ReturnedJobVerifier(lanes, "hcipepip@hci.local", hci.getCanonicalPath()+"/", temp, 2);
+			verifier.setSsh(ssh.getCanonicalPath());
+			ArrayList<String> hashErrors = new ArrayList<String>();
+			assertEquals(0, verifier.writeManifests(jobs, hashErrors).size());
+			assertEquals(0, hashErrors.size());
+			for (File job: jobs) assertTrue(new File(job, ReturnedJobVerifier.MANIFEST_NAME).exists());
+
+			//the rsync, then corrupt one byte of X2 keeping its size so --size-only wouldn't catch it
+			hci.mkdirs();
+			for (File job: jobs) assertTrue(new CommandRunner(0, false, null, new String[] {"cp", "-r", job.getCanonicalPath(), hci.getCanonicalPath()}).isFailed() == false);
+			RandomAccessFile raf = new RandomAccessFile(new File(hci, "22597X2/Logs/22597X2.bam"), "rw");
+			long size = raf.length();
+			raf.write('X');
+			raf.close();
+			assertEquals(size, new File(hci, "22597X2/Logs/22597X2.bam").length());
+
+			ArrayList<String> errors = new ArrayList<String>();
+			ArrayList<File> verified = verifier.verify(jobs, errors);
+			assertEquals(1, verified.size());
+			assertEquals("22597X1", verified.get(0).getName());
+			assertEquals(1, errors.size());
+			assertTrue(errors.get(0).contains("md5 mismatch Logs/22597X2.bam"));
+		} finally {
+			lanes.shutdown();
+			Util.deleteDirectory(root);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+# Sourced by the ChpcSimulation stand ins. Each call is counted in $SIM_DIR/calls.txt,
+# then sleeps SIM_<NAME>_MS and fails with the given exit code SIM_<NAME>_FAIL_PCT percent of the time.
+simulate() {
+	local name=$1 exitCode=$2
+	local msVar="SIM_${name}_MS" failVar="SIM_${name}_FAIL_PCT"
+	local ms=${!msVar:-0} fail=${!failVar:-0}
+	echo "$name" >> "$SIM_DIR/calls.txt"
+	if [ "$ms" -gt 0 ]; then sleep "$(printf '%d.%03d' $((ms / 1000)) $((ms % 1000)))"; fi
+	if [ "$fail" -gt 0 ] && [ $((RANDOM % 100)) -lt "$fail" ]; then
+		echo "sim: injected $name failure" >&2
+		exit "$exitCode"
+	fi
+}